@@ -1,30 +1,68 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class Algo {
+public class Algo implements ClusteringEngine {
 
   private static final Logger ALGO_LOGGER = Logger.getLogger(Algo.class.getName());
 
+  // progress listener is called after every PROGRESS_INTERVAL merges
+  private static final long PROGRESS_INTERVAL = 1000;
+  // token is checked while distances are computed after every CANCELLATION_CHECK_INTERVAL
+  // clusters and pairs of siblings
+  private static final long CANCELLATION_CHECK_INTERVAL = 4096;
+
   // distance between clusters lies in [0, 1]
   // distance is less for closer (more similar) clusters
   // so, we want to know when two clusters are close enough to merge
   // threshold is maximal acceptable distance for merging clusters
   private double threshold = 0.01;
 
+  // implementation of distance matrices which will be used for clustering
+  private DistanceMatrixType distanceMatrixType = DistanceMatrixType.TREE;
+  // distance between clusters which is used for distance matrices
+  private DistanceKernel distanceKernel = DistanceKernel.COMMON_LINKS;
+
   // bipartite weighted graph
   // groups describe query clusters and document clusters respectively
   private Set<Cluster<Query, Document>> queryClusters;
   private Set<Cluster<Document, Query>> documentClusters;
 
+  // siblings are clusters from the same part of the graph which have common neighbours
+  private SiblingIndex<Cluster<Query, Document>> querySiblings;
+  private SiblingIndex<Cluster<Document, Query>> documentSiblings;
+
   // distances
   private DistanceMatrix<Cluster<Query, Document>> distancesBetweenQueries;
   private DistanceMatrix<Cluster<Document, Query>> distancesBetweenDocuments;
 
+  // if positive, every call of clusterQueries stops after this time and returns clusters which
+  // were made so far
+  private long timeBudgetMillis = 0;
+  private ProgressListener progressListener = null;
+  private boolean lastRunComplete = true;
+  private long mergesCount;
+  private double lastMergeDistance;
+
+  // if positive, clusterQueries estimates heap before building the graph: distanceMatrixType is
+  // replaced by the cheapest type if it doesn't fit, clustering fails if no type fits
+  private long memoryBudget = 0;
+  // type of distance matrices of the current call of clusterQueries
+  private DistanceMatrixType runDistanceMatrixType = distanceMatrixType;
+  // bytes allocated by phases of the last call of clusterQueries, empty if JVM doesn't count them
+  private final Map<String, Long> allocatedBytesByPhase = new LinkedHashMap<>();
+  private long phaseStartAllocatedBytes;
+
   public Algo() {
     this(0.01);
   }
@@ -49,16 +87,136 @@ public class Algo {
     this.threshold = threshold;
   }
 
+  public DistanceMatrixType getDistanceMatrixType() {
+    return distanceMatrixType;
+  }
+
+  public void setDistanceMatrixType(DistanceMatrixType distanceMatrixType) {
+    if (distanceMatrixType == null) {
+      throw new IllegalArgumentException("Type of distance matrix should not be null");
+    }
+    this.distanceMatrixType = distanceMatrixType;
+  }
+
+  public DistanceKernel getDistanceKernel() {
+    return distanceKernel;
+  }
+
+  public void setDistanceKernel(DistanceKernel distanceKernel) {
+    if (distanceKernel == null) {
+      throw new IllegalArgumentException("Distance kernel should not be null");
+    }
+    this.distanceKernel = distanceKernel;
+  }
+
+  public long getMemoryBudget() {
+    return memoryBudget;
+  }
+
   /**
-   * @param queries is set of queries
-   * @return set of sets (inner sets should be treated as clusters) or null if queries set is null
+   * @param memoryBudget bytes of heap which clustering may use, 0 means no limit
+   */
+  public void setMemoryBudget(long memoryBudget) {
+    if (memoryBudget < 0) {
+      throw new IllegalArgumentException("Memory budget should not be negative");
+    }
+    this.memoryBudget = memoryBudget;
+  }
+
+  /**
+   * @return count of merges of query clusters and of document clusters made by the last call of
+   * clusterQueries, it is count of iterations of clustering
+   */
+  public long getLastMergesCount() {
+    return mergesCount;
+  }
+
+  /**
+   * @return bytes allocated by every phase of the last call of clusterQueries in order of phases
+   */
+  public Map<String, Long> getAllocatedBytesByPhase() {
+    return Collections.unmodifiableMap(allocatedBytesByPhase);
+  }
+
+  public long getTimeBudgetMillis() {
+    return timeBudgetMillis;
+  }
+
+  /**
+   * @param timeBudgetMillis time after which clusterQueries stops merging clusters, 0 means no
+   * limit
    */
+  public void setTimeBudgetMillis(long timeBudgetMillis) {
+    if (timeBudgetMillis < 0) {
+      throw new IllegalArgumentException("Time budget should not be negative");
+    }
+    this.timeBudgetMillis = timeBudgetMillis;
+  }
+
+  /**
+   * @param progressListener is called during clustering and once after it, null means no listener
+   */
+  public void setProgressListener(ProgressListener progressListener) {
+    this.progressListener = progressListener;
+  }
+
+  /**
+   * @return false if the last call of clusterQueries was cancelled before all clusters which are
+   * closer than threshold were merged
+   */
+  public boolean isLastRunComplete() {
+    return lastRunComplete;
+  }
+
+  /**
+   * Accepts progress of clustering
+   */
+  public interface ProgressListener {
+
+    /**
+     * @param mergesCount count of merges of query clusters and of document clusters so far
+     * @param lastMergeDistance distance between clusters of the last merge, the minimal distance
+     * in its part of the graph at that moment
+     * @param candidatePairsCount count of pairs of clusters which have common neighbours, only
+     * they can still be merged
+     */
+    void onProgress(long mergesCount, double lastMergeDistance, long candidatePairsCount);
+  }
+
+  @Override
   public Set<Set<Query>> clusterQueries(Set<Query> queries) {
+    CancellationToken token = timeBudgetMillis > 0
+        ? CancellationToken.withTimeout(timeBudgetMillis, TimeUnit.MILLISECONDS)
+        : new CancellationToken();
+    return clusterQueries(queries, token);
+  }
+
+  /**
+   * Clusters queries until no pair of clusters is closer than threshold or until token is
+   * cancelled. Cancelled clustering returns clusters made by merges which were done: every query
+   * belongs to exactly one of them, but some of them could be merged further
+   *
+   * @return set of sets (inner sets should be treated as clusters) or null if queries set is null
+   */
+  public Set<Set<Query>> clusterQueries(Set<Query> queries, CancellationToken token) {
+    if (token == null) {
+      throw new IllegalArgumentException("Token should not be null");
+    }
     if (queries == null) {
       return null;
     }
 
-    initState(queries);
+    mergesCount = 0;
+    lastMergeDistance = 0;
+    allocatedBytesByPhase.clear();
+    runDistanceMatrixType = chooseDistanceMatrixType(queries);
+    initState(queries, token);
+    if (distancesBetweenQueries == null) {
+      // cancelled before distances were computed, every query is its own cluster
+      lastRunComplete = false;
+      releaseState();
+      return collectClusters();
+    }
 
     ALGO_LOGGER.log(Level.FINE, "Count of query clusters: {0}", queryClusters.size());
     ALGO_LOGGER.log(Level.FINE, "Count of document clusters: {0}", documentClusters.size());
@@ -67,30 +225,85 @@ public class Algo {
     ALGO_LOGGER.log(Level.FINE, "Count of distances between document clusters: {0}",
         distancesBetweenDocuments.size());
 
-    runClustering();
+    startPhase();
+    lastRunComplete = runClustering(token);
+    finishPhase("clustering");
+    if (!lastRunComplete) {
+      ALGO_LOGGER.log(Level.WARNING, "Clustering was cancelled after {0} merges", mergesCount);
+    }
 
+    Set<Set<Query>> clusters = collectClusters();
+    releaseState();
+    return clusters;
+  }
+
+  private Set<Set<Query>> collectClusters() {
     Set<Set<Query>> clusters = new HashSet<>();
     for (Cluster<Query, Document> cluster : queryClusters) {
       clusters.add(cluster.getClusteredElements());
     }
-
     return clusters;
   }
 
-  private void runClustering() {
+  /**
+   * distances and siblings are not needed after clustering, some matrices hold resources which must
+   * be released explicitly
+   */
+  private void releaseState() {
+    release(distancesBetweenQueries);
+    release(distancesBetweenDocuments);
+    distancesBetweenQueries = null;
+    distancesBetweenDocuments = null;
+    querySiblings = null;
+    documentSiblings = null;
+  }
+
+  private static void release(DistanceMatrix<?> distances) {
+    if (distances instanceof Closeable) {
+      try {
+        ((Closeable) distances).close();
+      } catch (IOException e) {
+        ALGO_LOGGER.log(Level.WARNING, "Can't release distances", e);
+      }
+    }
+  }
+
+  /**
+   * @return false if token was cancelled before clustering finished
+   */
+  private boolean runClustering(CancellationToken token) {
     boolean canMergeClusters = true;
+    boolean cancelled = false;
     long iterCount = 0;
+    long nextProgress = PROGRESS_INTERVAL;
     long startTime = System.nanoTime();
     while (canMergeClusters) {
+      if (token.isCancelled()) {
+        cancelled = true;
+        break;
+      }
       ++iterCount;
       canMergeClusters = tryMerge(queryClusters, distancesBetweenQueries,
-          distancesBetweenDocuments);
+          distancesBetweenDocuments, querySiblings, documentSiblings);
       canMergeClusters |= tryMerge(documentClusters, distancesBetweenDocuments,
-          distancesBetweenQueries);
+          distancesBetweenQueries, documentSiblings, querySiblings);
+      if (mergesCount >= nextProgress) {
+        reportProgress();
+        nextProgress = mergesCount + PROGRESS_INTERVAL;
+      }
     }
+    reportProgress();
     long elapsedTime = System.nanoTime() - startTime;
     ALGO_LOGGER.log(Level.FINE, "Time: {0}s", elapsedTime / 1e9);
     ALGO_LOGGER.log(Level.FINE, "Count of iterations: {0}", iterCount);
+    return !cancelled;
+  }
+
+  private void reportProgress() {
+    if (progressListener != null) {
+      progressListener.onProgress(mergesCount, lastMergeDistance,
+          (long) distancesBetweenQueries.size() + distancesBetweenDocuments.size());
+    }
   }
 
   /**
@@ -101,13 +314,17 @@ public class Algo {
    * @param currentDistances are distances between currentClusters
    * @param neighbourDistances distances between neighbour clusters (actually it only needed for
    * recalculating distance between neighbour after two currentClusters were merged)
+   * @param currentSiblings sibling index of currentClusters
+   * @param neighbourSiblings sibling index of neighbour clusters
    * @param <CType> type of current clusters
    * @param <NType> type of neighbour clusters
    * @return true if there was pair of clusters with distance less than threshold, false otherwise
    */
   private <CType, NType> boolean tryMerge(Set<Cluster<CType, NType>> currentClusters,
       DistanceMatrix<Cluster<CType, NType>> currentDistances,
-      DistanceMatrix<Cluster<NType, CType>> neighbourDistances) {
+      DistanceMatrix<Cluster<NType, CType>> neighbourDistances,
+      SiblingIndex<Cluster<CType, NType>> currentSiblings,
+      SiblingIndex<Cluster<NType, CType>> neighbourSiblings) {
 
     UnorderedPair<Cluster<CType, NType>> minDistancePair =
         currentDistances.getPairWithMinDistance();
@@ -117,25 +334,87 @@ public class Algo {
 
       Double distance = currentDistances.getDistance(firstCluster, secondCluster);
       if (distance != null && distance < threshold) {
+        ++mergesCount;
+        lastMergeDistance = distance;
         Cluster<CType, NType> newMergedCluster =
             Cluster.mergeClusters(firstCluster, secondCluster);
         updateGraphOnMerge(firstCluster, secondCluster, newMergedCluster, currentClusters);
         updateDistanceOnMerge(firstCluster, secondCluster, newMergedCluster,
-            currentDistances, neighbourDistances);
+            currentDistances, neighbourDistances, currentSiblings, neighbourSiblings);
         return true;
       }
     }
     return false;
   }
 
-  private void initState(Set<Query> queries) {
+  /**
+   * siblings and distances are not computed if token is cancelled, distances are null if token is
+   * cancelled while they are computed
+   */
+  private void initState(Set<Query> queries, CancellationToken token) {
     queryClusters = new HashSet<>();
     documentClusters = new HashSet<>();
-    buildGraph(queries);
-    initDistances();
+    querySiblings = null;
+    documentSiblings = null;
+    distancesBetweenQueries = null;
+    distancesBetweenDocuments = null;
+    startPhase();
+    buildGraph(queries, queryClusters, documentClusters);
+    finishPhase("graph");
+    if (token.isCancelled()) {
+      return;
+    }
+    startPhase();
+    initSiblings();
+    finishPhase("siblings");
+    if (token.isCancelled()) {
+      return;
+    }
+    startPhase();
+    initDistances(token);
+    finishPhase("distances");
   }
 
-  private void buildGraph(Set<Query> queries) {
+  /**
+   * @throws RuntimeException if memory budget is set and no type of distance matrices fits
+   */
+  private DistanceMatrixType chooseDistanceMatrixType(Set<Query> queries) {
+    if (memoryBudget == 0) {
+      return distanceMatrixType;
+    }
+    MemoryEstimator.Estimate estimate = MemoryEstimator.estimate(queries);
+    ALGO_LOGGER.log(Level.FINE, "Estimate: {0}", estimate);
+    DistanceMatrixType type =
+        MemoryEstimator.chooseDistanceMatrixType(estimate, distanceMatrixType, memoryBudget);
+    if (type != distanceMatrixType) {
+      ALGO_LOGGER.log(Level.INFO, "{0} distance matrices don''t fit into {1}MB, {2} are used",
+          new Object[]{distanceMatrixType, memoryBudget >> 20, type});
+    }
+    return type;
+  }
+
+  private void startPhase() {
+    phaseStartAllocatedBytes = MemoryEstimator.allocatedBytes();
+  }
+
+  private void finishPhase(String phase) {
+    long allocatedBytes = MemoryEstimator.allocatedBytes();
+    if (phaseStartAllocatedBytes >= 0 && allocatedBytes >= 0) {
+      allocatedBytesByPhase.put(phase, allocatedBytes - phaseStartAllocatedBytes);
+      ALGO_LOGGER.log(Level.FINE, "Allocated by {0}: {1}MB",
+          new Object[]{phase, (allocatedBytes - phaseStartAllocatedBytes) >> 20});
+    }
+  }
+
+  /**
+   * builds bipartite graph where every query and every document is a separate cluster
+   *
+   * @param queryClusters set where query clusters will be added
+   * @param documentClusters set where document clusters will be added
+   */
+  static void buildGraph(Set<Query> queries,
+      Set<Cluster<Query, Document>> queryClusters,
+      Set<Cluster<Document, Query>> documentClusters) {
     Map<Query, Cluster<Query, Document>> tmpQueryClusters = new HashMap<>();
     Map<Document, Cluster<Document, Query>> tmpDocumentClusters = new HashMap<>();
     for (Query q : queries) {
@@ -155,29 +434,72 @@ public class Algo {
     documentClusters.addAll(tmpDocumentClusters.values());
   }
 
-  private void initDistances() {
-    distancesBetweenDocuments = createDistanceMatrixForSetOfClusters(documentClusters);
-    distancesBetweenQueries = createDistanceMatrixForSetOfClusters(queryClusters);
+  private void initSiblings() {
+    querySiblings = createSiblingIndexForSetOfClusters(documentClusters);
+    documentSiblings = createSiblingIndexForSetOfClusters(queryClusters);
+  }
+
+  /**
+   * every neighbour cluster is common neighbour for each pair of its own neighbours
+   *
+   * @param neighbourClusters clusters from the other part of the graph
+   * @return sibling index for clusters which are neighbours of neighbourClusters
+   */
+  private <CType, NType> SiblingIndex<Cluster<CType, NType>>
+  createSiblingIndexForSetOfClusters(Set<Cluster<NType, CType>> neighbourClusters) {
+    SiblingIndex<Cluster<CType, NType>> siblings = new SiblingIndex<>();
+    for (Cluster<NType, CType> n : neighbourClusters) {
+      List<Cluster<CType, NType>> neighbours = new ArrayList<>(n.getNeighbours());
+      for (int i = 0; i < neighbours.size(); ++i) {
+        for (int j = i + 1; j < neighbours.size(); ++j) {
+          siblings.addSharedNeighbours(neighbours.get(i), neighbours.get(j), 1);
+        }
+      }
+    }
+    return siblings;
+  }
+
+  private void initDistances(CancellationToken token) {
+    distancesBetweenDocuments =
+        createDistanceMatrixForSetOfClusters(documentClusters, documentSiblings, token);
+    if (distancesBetweenDocuments == null) {
+      return;
+    }
+    distancesBetweenQueries =
+        createDistanceMatrixForSetOfClusters(queryClusters, querySiblings, token);
   }
 
+  /**
+   * @return null if token is cancelled before all distances are computed
+   */
   private <CType, NType> DistanceMatrix<Cluster<CType, NType>>
-  createDistanceMatrixForSetOfClusters(Set<Cluster<CType, NType>> clusters) {
+  createDistanceMatrixForSetOfClusters(Set<Cluster<CType, NType>> clusters,
+      SiblingIndex<Cluster<CType, NType>> siblingIndex, CancellationToken token) {
     Set<Cluster<CType, NType>> alreadyDone = new HashSet<>();
-    DistanceMatrix<Cluster<CType, NType>> distances = new DistanceMatrixTree<>();
+    DistanceMatrix<Cluster<CType, NType>> distances = runDistanceMatrixType.create();
 
+    long work = 0;
     for (Cluster<CType, NType> c : clusters) {
       alreadyDone.add(c);
-      Set<Cluster<CType, NType>> siblings = getSiblings(c);
+      Set<Cluster<CType, NType>> siblings = siblingIndex.getSiblings(c);
       for (Cluster<CType, NType> s : siblings) {
+        if (++work % CANCELLATION_CHECK_INTERVAL == 0 && token.isCancelled()) {
+          release(distances);
+          return null;
+        }
         if (!alreadyDone.contains(s)) {
-          distances.addDistance(c, s, computeDistanceBetweenClusters(c, s));
+          distances.addDistance(c, s, distanceKernel.distance(c, s));
         }
       }
+      if (++work % CANCELLATION_CHECK_INTERVAL == 0 && token.isCancelled()) {
+        release(distances);
+        return null;
+      }
     }
     return distances;
   }
 
-  private <CType, NType> double
+  static <CType, NType> double
   computeDistanceBetweenClusters(Cluster<CType, NType> firstCluster,
       Cluster<CType, NType> secondCluster) {
     Set<Cluster<NType, CType>> neighC1 = firstCluster.getNeighbours();
@@ -212,16 +534,6 @@ public class Algo {
     return 1. - commonLinksCount / totalCountOfLinks;
   }
 
-  private <CType, NType> Set<Cluster<CType, NType>>
-  getSiblings(Cluster<CType, NType> cluster) {
-    Set<Cluster<CType, NType>> siblings = new HashSet<>();
-    for (Cluster<NType, CType> c : cluster.getNeighbours()) {
-      siblings.addAll(c.getNeighbours());
-    }
-    siblings.remove(cluster);
-    return siblings;
-  }
-
   /**
    * After two cluster were merged new cluster, which is merge result, must be added to the graph.
    * To do this new links to the mergeResult should be added to its neighbours and old links which
@@ -236,7 +548,7 @@ public class Algo {
    * @param <CType> type of elements which are stored in clusters
    * @param <NType> type of elements which are stored in neighbour clusters
    */
-  private <CType, NType> void
+  static <CType, NType> void
   updateGraphOnMerge(Cluster<CType, NType> firstCluster,
       Cluster<CType, NType> secondCluster,
       Cluster<CType, NType> mergeResult,
@@ -269,6 +581,8 @@ public class Algo {
    * @param mergeResult cluster which is the result of merging firstCluster and secondCluster
    * @param siblingsDistance distance between nodes of current part of the graph
    * @param neighbourDistance distance between neighbour nodes
+   * @param siblingIndex sibling index of current part of the graph
+   * @param neighbourSiblingIndex sibling index of neighbour nodes
    * @param <CType> type of elements which are stored in clusters
    * @param <NType> type of elements which are stored in neighbour clusters
    */
@@ -277,25 +591,38 @@ public class Algo {
       Cluster<CType, NType> secondCluster,
       Cluster<CType, NType> mergeResult,
       DistanceMatrix<Cluster<CType, NType>> siblingsDistance,
-      DistanceMatrix<Cluster<NType, CType>> neighbourDistance) {
-    // deleteRow is convenient, but waaaay too inefficient, so we delete distances one by one
-    getSiblings(firstCluster).forEach(sib -> siblingsDistance.deleteDistance(sib, firstCluster));
-    getSiblings(secondCluster).forEach(sib -> siblingsDistance.deleteDistance(sib, secondCluster));
+      DistanceMatrix<Cluster<NType, CType>> neighbourDistance,
+      SiblingIndex<Cluster<CType, NType>> siblingIndex,
+      SiblingIndex<Cluster<NType, CType>> neighbourSiblingIndex) {
+    Set<Cluster<NType, CType>> commonNeighbours = new HashSet<>(firstCluster.getNeighbours());
+    commonNeighbours.retainAll(secondCluster.getNeighbours());
+
+    Map<Cluster<CType, NType>, Integer> firstClusterSiblings =
+        siblingIndex.deleteNode(firstCluster);
+    Map<Cluster<CType, NType>, Integer> secondClusterSiblings =
+        siblingIndex.deleteNode(secondCluster);
+
+    // deleteRow(point) is convenient, but waaaay too inefficient, siblings are already known
+    // so matrix doesn't have to look for them
+    siblingsDistance.deleteRow(firstCluster, firstClusterSiblings.keySet());
+    siblingsDistance.deleteRow(secondCluster, secondClusterSiblings.keySet());
 
     // we deleted all links which lead to firstCluster and secondCluster thus they are not siblings anymore
     // so we need to delete distance between them manually
     siblingsDistance.deleteDistance(firstCluster, secondCluster);
 
+    addMergedClusterToSiblingIndex(firstCluster, secondCluster, mergeResult,
+        firstClusterSiblings, secondClusterSiblings, commonNeighbours, siblingIndex);
+
     // we need to add distances between mergeResult and its siblings to appropriate distance matrix
     addDistanceBetweenClusterAndSiblings(mergeResult,
-        getSiblings(mergeResult),
+        siblingIndex.getSiblings(mergeResult),
         siblingsDistance);
 
     // distance between clusters who were neighbours to firstCluster and secondCluster simultaneously
-    // didn't change. For other pairs of neighbours we need to recalculate distance
-    Set<Cluster<NType, CType>> commonNeighbours = new HashSet<>(firstCluster.getNeighbours());
-    commonNeighbours.retainAll(secondCluster.getNeighbours());
-
+    // didn't change for COMMON_LINKS, other kernels are handled by
+    // updateDistancesForSubsetOfClusters. For other pairs of neighbours we need to recalculate
+    // distance
     Set<Cluster<NType, CType>> onlyFirstClusterNeighbours = new HashSet<>(
         firstCluster.getNeighbours());
     onlyFirstClusterNeighbours.removeAll(commonNeighbours);
@@ -304,10 +631,77 @@ public class Algo {
         secondCluster.getNeighbours());
     onlySecondClusterNeighbours.removeAll(commonNeighbours);
 
+    updateSiblingIndexOfNeighbours(onlyFirstClusterNeighbours,
+        onlySecondClusterNeighbours,
+        commonNeighbours,
+        neighbourSiblingIndex);
+
     updateDistancesForSubsetOfClusters(onlyFirstClusterNeighbours,
         onlySecondClusterNeighbours,
         commonNeighbours,
-        neighbourDistance);
+        neighbourDistance,
+        neighbourSiblingIndex);
+  }
+
+  /**
+   * Count of common neighbours of mergeResult and some sibling is the sum of such counts for
+   * firstCluster and secondCluster, except neighbours which were common for firstCluster and
+   * secondCluster: they were counted twice
+   *
+   * @param firstClusterSiblings siblings of firstCluster with counts of common neighbours
+   * @param secondClusterSiblings siblings of secondCluster with counts of common neighbours
+   * @param commonNeighbours neighbours which were common for firstCluster and secondCluster (graph
+   * should already contain links from them to mergeResult)
+   */
+  private <CType, NType> void
+  addMergedClusterToSiblingIndex(Cluster<CType, NType> firstCluster,
+      Cluster<CType, NType> secondCluster,
+      Cluster<CType, NType> mergeResult,
+      Map<Cluster<CType, NType>, Integer> firstClusterSiblings,
+      Map<Cluster<CType, NType>, Integer> secondClusterSiblings,
+      Set<Cluster<NType, CType>> commonNeighbours,
+      SiblingIndex<Cluster<CType, NType>> siblingIndex) {
+    Map<Cluster<CType, NType>, Integer> sharedNeighbours = new HashMap<>(firstClusterSiblings);
+    for (Map.Entry<Cluster<CType, NType>, Integer> e : secondClusterSiblings.entrySet()) {
+      sharedNeighbours.merge(e.getKey(), e.getValue(), Integer::sum);
+    }
+    for (Cluster<NType, CType> n : commonNeighbours) {
+      for (Cluster<CType, NType> sibling : n.getNeighbours()) {
+        sharedNeighbours.merge(sibling, -1, Integer::sum);
+      }
+    }
+    for (Map.Entry<Cluster<CType, NType>, Integer> e : sharedNeighbours.entrySet()) {
+      Cluster<CType, NType> sibling = e.getKey();
+      if (sibling != mergeResult && sibling != firstCluster && sibling != secondCluster
+          && e.getValue() > 0) {
+        siblingIndex.addSharedNeighbours(mergeResult, sibling, e.getValue());
+      }
+    }
+  }
+
+  /**
+   * Two neighbours which were linked only to firstCluster and only to secondCluster respectively
+   * got one more common neighbour -- mergeResult. Two neighbours which were linked to both clusters
+   * had two common neighbours (firstCluster and secondCluster) and now they have only one. Count
+   * for other pairs of neighbours didn't change
+   */
+  private <CType, NType> void
+  updateSiblingIndexOfNeighbours(Set<Cluster<CType, NType>> firstSet,
+      Set<Cluster<CType, NType>> secondSet,
+      Set<Cluster<CType, NType>> commonSet,
+      SiblingIndex<Cluster<CType, NType>> siblingIndex) {
+    for (Cluster<CType, NType> cluster : firstSet) {
+      for (Cluster<CType, NType> sibling : secondSet) {
+        siblingIndex.addSharedNeighbours(cluster, sibling, 1);
+      }
+    }
+
+    List<Cluster<CType, NType>> common = new ArrayList<>(commonSet);
+    for (int i = 0; i < common.size(); ++i) {
+      for (int j = i + 1; j < common.size(); ++j) {
+        siblingIndex.addSharedNeighbours(common.get(i), common.get(j), -1);
+      }
+    }
   }
 
   private <CType, NType> void
@@ -315,7 +709,7 @@ public class Algo {
       Set<Cluster<CType, NType>> siblings,
       DistanceMatrix<Cluster<CType, NType>> distances) {
     for (Cluster<CType, NType> sibling : siblings) {
-      distances.addDistance(cluster, sibling, computeDistanceBetweenClusters(cluster, sibling));
+      distances.addDistance(cluster, sibling, distanceKernel.distance(cluster, sibling));
     }
   }
 
@@ -324,12 +718,19 @@ public class Algo {
    * 1) All pairs where one element is from firstSet and another is from secondSet
    * 2) All pairs where one element is from firstSet and another is from commonSet
    * 3) All pairs where one element is from secondSet and another is from commonSet
+   * <p>
+   * That is enough for COMMON_LINKS only: links of common neighbour to firstCluster and
+   * secondCluster are summed up into one link to mergeResult, and the sum over common neighbours
+   * stays the same. WEIGHTED_JACCARD takes minimum of such links, so distances between pairs from
+   * commonSet change too. COSINE divides by norm of vector of links, which grows for every cluster
+   * of commonSet, so its distances to all siblings change
    *
    * @param firstSet clusters which are neighbours for only firstCluster
    * @param secondSet clusters which are neighbours for only secondCluster
    * @param commonSet clusters which are common for both clusters
    * @param distances is distance matrix which stores all distances between clusters of
    * corresponding set of clusters
+   * @param siblingIndex sibling index of corresponding set of clusters, already updated
    * @param <CType> type of elements which are stored in clusters
    * @param <NType> type of elements which are stored in neighbour clusters
    */
@@ -337,148 +738,43 @@ public class Algo {
   updateDistancesForSubsetOfClusters(Set<Cluster<CType, NType>> firstSet,
       Set<Cluster<CType, NType>> secondSet,
       Set<Cluster<CType, NType>> commonSet,
-      DistanceMatrix<Cluster<CType, NType>> distances) {
+      DistanceMatrix<Cluster<CType, NType>> distances,
+      SiblingIndex<Cluster<CType, NType>> siblingIndex) {
     for (Cluster<CType, NType> cluster : firstSet) {
       for (Cluster<CType, NType> sibling : commonSet) {
-        distances.addDistance(cluster, sibling, computeDistanceBetweenClusters(cluster, sibling));
+        distances.addDistance(cluster, sibling, distanceKernel.distance(cluster, sibling));
       }
       for (Cluster<CType, NType> sibling : secondSet) {
-        distances.addDistance(cluster, sibling, computeDistanceBetweenClusters(cluster, sibling));
+        distances.addDistance(cluster, sibling, distanceKernel.distance(cluster, sibling));
       }
     }
 
     for (Cluster<CType, NType> cluster : secondSet) {
       for (Cluster<CType, NType> sibling : commonSet) {
-        distances.addDistance(cluster, sibling, computeDistanceBetweenClusters(cluster, sibling));
+        distances.addDistance(cluster, sibling, distanceKernel.distance(cluster, sibling));
       }
     }
-  }
 
-  /**
-   * describes the cluster which is also node in bipartite graph
-   *
-   * @param <CType> is the type of elements which are stored in current cluster
-   * @param <NType> is the type of elements which are stored in neighbour cluster
-   */
-  private static class Cluster<CType, NType> {
-
-    private static final Logger CLUSTER_LOGGER = Logger.getLogger(Cluster.class.getName());
-    private Set<CType> clusteredElements;
-    private HashMap<Cluster<NType, CType>, Long> neighbours;
-    private long totalCountOfLinks;
-
-    private Cluster() {
-      totalCountOfLinks = 0;
-      clusteredElements = new HashSet<>();
-      neighbours = new HashMap<>();
+    if (distanceKernel == DistanceKernel.COMMON_LINKS) {
+      return;
     }
-
-    Cluster(CType element) {
-      this();
-
-      if (element == null) {
-        throw new IllegalArgumentException("Clustered elements cannot be null");
-      }
-
-      clusteredElements.add(element);
-
-    }
-
-    Cluster(Set<CType> elements) {
-      this();
-
-      if (elements == null) {
-        throw new IllegalArgumentException("Set of elements should not be null");
-      }
-
-      if (elements.isEmpty()) {
-        throw new IllegalArgumentException("Set of elements should not be empty");
-      }
-
-      if (elements.contains(null)) {
-        throw new IllegalArgumentException("Clustered elements cannot be null");
-      }
-
-      clusteredElements.addAll(elements);
-    }
-
-    static <CType, NType> Cluster<CType, NType>
-    mergeClusters(Cluster<CType, NType> firstCluster, Cluster<CType, NType> secondCluster) {
-      Set<CType> newSetOfClusteredElements = new HashSet<>();
-      newSetOfClusteredElements.addAll(firstCluster.clusteredElements);
-      newSetOfClusteredElements.addAll(secondCluster.clusteredElements);
-      HashMap<Cluster<NType, CType>, Long> newNeighbours = new HashMap<>(firstCluster.neighbours);
-
-      for (Map.Entry<Cluster<NType, CType>, Long> c2Neighbour : secondCluster.neighbours
-          .entrySet()) {
-        long newLinksCount = c2Neighbour.getValue();
-        newLinksCount += newNeighbours.getOrDefault(c2Neighbour.getKey(), 0L);
-        newNeighbours.put(c2Neighbour.getKey(), newLinksCount);
-      }
-
-      Cluster<CType, NType> newMergedCluster = new Cluster<>();
-      newMergedCluster.clusteredElements = newSetOfClusteredElements;
-      newMergedCluster.neighbours = newNeighbours;
-      newMergedCluster.totalCountOfLinks =
-          firstCluster.totalCountOfLinks + secondCluster.totalCountOfLinks;
-
-      if (newMergedCluster.totalCountOfLinks < 0) {
-        CLUSTER_LOGGER.log(Level.SEVERE, "Total links count is below zero (possible overflow):",
-            new Object[]{newMergedCluster.totalCountOfLinks});
-        throw new RuntimeException("Total links count is below zero (possible overflow)");
+    List<Cluster<CType, NType>> common = new ArrayList<>(commonSet);
+    for (int i = 0; i < common.size(); ++i) {
+      for (int j = i + 1; j < common.size(); ++j) {
+        distances.addDistance(common.get(i), common.get(j),
+            distanceKernel.distance(common.get(i), common.get(j)));
       }
-
-      return newMergedCluster;
     }
-
-    void addNeighbour(Cluster<NType, CType> newNeighbour, long linksCount) {
-      if (linksCount < 0) {
-        throw new IllegalArgumentException("weight must be greater or equal to zero");
-      }
-
-      if (newNeighbour == null) {
-        throw new IllegalArgumentException("Neighbour cannot be null");
-      }
-
-      Long oldLinksCount = neighbours.put(newNeighbour, linksCount);
-      totalCountOfLinks -= oldLinksCount == null ? 0 : oldLinksCount;
-      totalCountOfLinks += linksCount;
-
-      if (totalCountOfLinks < 0) {
-        CLUSTER_LOGGER.log(Level.SEVERE,
-            "In cluster. Total links count is below zero (possible overflow): {0}",
-            totalCountOfLinks);
-        throw new RuntimeException(
-            "In cluster. ITotal links count is below zero (possible overflow)");
+    if (distanceKernel == DistanceKernel.COSINE) {
+      for (Cluster<CType, NType> cluster : commonSet) {
+        for (Cluster<CType, NType> sibling : siblingIndex.getSiblings(cluster)) {
+          // pairs with firstSet, secondSet and commonSet are already updated
+          if (!firstSet.contains(sibling) && !secondSet.contains(sibling)
+              && !commonSet.contains(sibling)) {
+            distances.addDistance(cluster, sibling, distanceKernel.distance(cluster, sibling));
+          }
+        }
       }
     }
-
-    long deleteNeighbour(Cluster<NType, CType> neighbour) {
-      Long linksCount = neighbours.remove(neighbour);
-      totalCountOfLinks -= linksCount == null ? 0 : linksCount;
-      return linksCount == null ? 0 : linksCount;
-    }
-
-    long getLinksCountToNeighbour(Cluster<NType, CType> neighbour) {
-      return neighbours.getOrDefault(neighbour, 0L);
-    }
-
-    long getTotalCountOfLinks() {
-      return totalCountOfLinks;
-    }
-
-    Set<Cluster<NType, CType>> getNeighbours() {
-      return Collections.unmodifiableSet(neighbours.keySet());
-    }
-
-    Set<CType> getClusteredElements() {
-      return Collections.unmodifiableSet(clusteredElements);
-    }
-
-    @Override
-    public boolean equals(Object other) {
-      return this == other;
-    }
-
   }
-}
\ No newline at end of file
+}
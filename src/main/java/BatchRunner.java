@@ -0,0 +1,382 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Clusters several logs concurrently, every log is clustered by its own engine and written by its
+ * own ClusterWriter, so results are the same as when logs are clustered one by one.
+ * <p>
+ * Before log is clustered, memory which it needs is estimated by the beginning of the log (see
+ * estimateMemory). Logs are started only while the sum of estimates of running logs fits into
+ * memory budget, log whose estimate exceeds the whole budget is clustered alone. Whenever a thread
+ * and some budget are free, the largest waiting log which fits is started, so a large log which
+ * doesn't fit yet doesn't hold back smaller ones
+ */
+public class BatchRunner {
+
+  private static final Logger BATCH_LOGGER = Logger.getLogger(BatchRunner.class.getName());
+
+  private static final int SAMPLE_SIZE = 1 << 16;
+  // size of log compressed by gzip is unknown before it is read, typical ratio is assumed
+  private static final long GZIP_COMPRESSION_RATIO = 4;
+
+  private final Supplier<ClusteringEngine> engines;
+  private final LogReader logReader;
+  private final int threadsCount;
+  private final long memoryBudget;
+
+  /**
+   * @param engines creates engine for every log
+   * @param threadsCount maximal count of logs which are clustered at the same time
+   * @param memoryBudget bytes of heap which logs clustered at the same time may use together
+   */
+  public BatchRunner(Supplier<ClusteringEngine> engines, int threadsCount, long memoryBudget) {
+    this(engines, (logFile, nLines) -> new QueryLogReader().readQueryLog(logFile.toString(),
+        nLines), threadsCount, memoryBudget);
+  }
+
+  /**
+   * @param logReader reads queries of log, it is called from several threads at the same time
+   */
+  public BatchRunner(Supplier<ClusteringEngine> engines, LogReader logReader, int threadsCount,
+      long memoryBudget) {
+    if (engines == null || logReader == null) {
+      throw new IllegalArgumentException("Engines and reader of logs should not be null");
+    }
+    if (threadsCount <= 0 || memoryBudget <= 0) {
+      throw new IllegalArgumentException("Count of threads and memory budget should be positive");
+    }
+    this.engines = engines;
+    this.logReader = logReader;
+    this.threadsCount = threadsCount;
+    this.memoryBudget = memoryBudget;
+  }
+
+  /**
+   * Reads queries of the first nLines lines of log
+   */
+  public interface LogReader {
+
+    Set<Query> read(Path logFile, int nLines) throws IOException;
+  }
+
+  /**
+   * Opens writer for result of log
+   */
+  public interface ResultOpener {
+
+    ClusterWriter open(Path logFile) throws IOException;
+  }
+
+  /**
+   * @param nLines count of lines of every log which will be clustered
+   * @return reports in the order of logFiles
+   */
+  public List<LogReport> run(List<Path> logFiles, int nLines, ResultOpener resultOpener)
+      throws IOException {
+    if (logFiles == null || resultOpener == null) {
+      throw new IllegalArgumentException("Logs and opener of results should not be null");
+    }
+
+    List<LogReport> reports = new ArrayList<>();
+    for (Path logFile : logFiles) {
+      reports.add(new LogReport(logFile, estimateMemory(logFile, nLines)));
+    }
+    List<LogReport> pending = new ArrayList<>(reports);
+    pending.sort(Comparator.comparingLong((LogReport report) -> report.estimatedBytes).reversed());
+
+    resetPeakHeapUsage();
+    MemoryBudget budget = new MemoryBudget(memoryBudget, threadsCount);
+    ExecutorService pool = Executors.newFixedThreadPool(threadsCount);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      while (!pending.isEmpty()) {
+        // budget is taken before the log is submitted, so threads of pool never wait for it
+        LogReport report = budget.acquireLargestFitting(pending);
+        long bytes = budget.bytesOf(report);
+        futures.add(pool.submit(() -> {
+          try {
+            clusterLog(report, nLines, resultOpener);
+          } finally {
+            budget.release(bytes);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for logs", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException("Clustering of log failed", e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+    return reports;
+  }
+
+  private void clusterLog(LogReport report, int nLines, ResultOpener resultOpener)
+      throws IOException {
+    long allocatedBefore = MemoryEstimator.allocatedBytes();
+    long startTime = System.nanoTime();
+
+    Set<Query> queries = logReader.read(report.logFile, nLines);
+    Set<Set<Query>> clusters = engines.get().clusterQueries(queries);
+    try (ClusterWriter result = resultOpener.open(report.logFile)) {
+      clusters.forEach(result::writeCluster);
+      report.writtenClustersCount = result.getWrittenClustersCount();
+    }
+
+    report.elapsedNanos = System.nanoTime() - startTime;
+    long allocatedAfter = MemoryEstimator.allocatedBytes();
+    report.allocatedBytes = allocatedBefore < 0 || allocatedAfter < 0
+        ? -1 : allocatedAfter - allocatedBefore;
+    report.heapUsedAfter = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    report.queriesCount = queries.size();
+    report.clustersCount = clusters.size();
+    BATCH_LOGGER.log(Level.FINE, "{0}: {1}s", new Object[]{report.logFile.getFileName(),
+        report.elapsedNanos / 1e9});
+  }
+
+  /**
+   * Estimates heap which is needed to cluster first nLines of log: graph of complete lines of the
+   * beginning of the log is estimated by MemoryEstimator (with the heaviest distance matrix, since
+   * engine is unknown), and heap per byte of these lines is multiplied by size of first nLines
+   * (estimated by the same sample). Pairs of siblings grow faster than the log, so estimate of
+   * large log is low rather than high. Size of log compressed by gzip is estimated by
+   * GZIP_COMPRESSION_RATIO
+   */
+  static long estimateMemory(Path logFile, long nLines) throws IOException {
+    long size = Files.size(logFile);
+    boolean compressed = ParallelGzipInputStream.isGzip(logFile.toFile());
+    if (compressed) {
+      size *= GZIP_COMPRESSION_RATIO;
+    }
+    byte[] sample = new byte[(int) Math.min(size, SAMPLE_SIZE)];
+    int sampleSize = 0;
+    try (InputStream input = compressed
+        ? new GZIPInputStream(new FileInputStream(logFile.toFile()))
+        : new BufferedInputStream(new FileInputStream(logFile.toFile()))) {
+      int count;
+      while (sampleSize < sample.length
+          && (count = input.read(sample, sampleSize, sample.length - sampleSize)) > 0) {
+        sampleSize += count;
+      }
+    }
+    long sampleLines = 0;
+    int completeLinesSize = 0;
+    for (int i = 0; i < sampleSize; ++i) {
+      if (sample[i] == '\n') {
+        ++sampleLines;
+        completeLinesSize = i + 1;
+      }
+    }
+    long logBytes = size;
+    if (sampleLines > 0) {
+      // average length of line is estimated by the sample
+      logBytes = Math.min(size, (long) ((double) nLines * sampleSize / sampleLines));
+    }
+    if (completeLinesSize == 0 || sampleSize == size) {
+      completeLinesSize = sampleSize;
+    }
+    if (completeLinesSize == 0) {
+      return 0;
+    }
+    long sampleHeap = estimateSampleHeap(sample, completeLinesSize);
+    return (long) ((double) sampleHeap / completeLinesSize * logBytes);
+  }
+
+  private static long estimateSampleHeap(byte[] sample, int sampleSize) {
+    Map<String, Query> queries = new HashMap<>();
+    Map<String, Document> documents = new HashMap<>();
+    BufferedReader input = new BufferedReader(new InputStreamReader(
+        new ByteArrayInputStream(sample, 0, sampleSize), StandardCharsets.UTF_8));
+    new QueryLogReader().readLinks(input, Long.MAX_VALUE, (query, documentName) ->
+        queries.computeIfAbsent(query, Query::new)
+            .addRelatedDocument(documents.computeIfAbsent(documentName, Document::new)));
+    MemoryEstimator.Estimate estimate =
+        MemoryEstimator.estimate(new HashSet<>(queries.values()));
+    long heapBytes = 0;
+    for (DistanceMatrixType type : DistanceMatrixType.values()) {
+      heapBytes = Math.max(heapBytes, estimate.getHeapBytes(type));
+    }
+    return heapBytes;
+  }
+
+  /**
+   * @return peak usage of heap (sum of peaks of heap memory pools) since the start of the last run
+   */
+  public static long getPeakHeapUsage() {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+
+  /**
+   * getPeakHeapUsage counts from this moment
+   */
+  static void resetPeakHeapUsage() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  /**
+   * @return table with row for every log and peak usage of heap
+   */
+  public static String formatReport(List<LogReport> reports) {
+    StringBuilder table = new StringBuilder();
+    table.append(String.format("%-36s %10s %10s %8s %10s %12s %12s %12s%n", "log", "queries",
+        "clusters", "written", "time, s", "estimate, MB", "allocated, MB", "heap after, MB"));
+    long totalNanos = 0;
+    for (LogReport report : reports) {
+      table.append(String.format("%-36s %10d %10d %8d %10.2f %12d %12d %12d%n",
+          report.logFile.getFileName(), report.queriesCount, report.clustersCount,
+          report.writtenClustersCount, report.elapsedNanos / 1e9, toMegabytes(report.estimatedBytes),
+          toMegabytes(report.allocatedBytes), toMegabytes(report.heapUsedAfter)));
+      totalNanos += report.elapsedNanos;
+    }
+    table.append(String.format("Sum of times of logs: %.2fs%n", totalNanos / 1e9));
+    table.append(String.format("Peak heap usage: %d MB%n", toMegabytes(getPeakHeapUsage())));
+    return table.toString();
+  }
+
+  private static long toMegabytes(long bytes) {
+    return bytes < 0 ? -1 : bytes >> 20;
+  }
+
+  /**
+   * Statistics of clustering of one log
+   */
+  public static class LogReport {
+
+    private final Path logFile;
+    private final long estimatedBytes;
+    private volatile long elapsedNanos;
+    // bytes allocated by thread which clustered the log, -1 if unknown
+    private volatile long allocatedBytes;
+    // heap used by all running logs right after this log was clustered
+    private volatile long heapUsedAfter;
+    private volatile int queriesCount;
+    private volatile int clustersCount;
+    private volatile int writtenClustersCount;
+
+    LogReport(Path logFile, long estimatedBytes) {
+      this.logFile = logFile;
+      this.estimatedBytes = estimatedBytes;
+    }
+
+    public Path getLogFile() {
+      return logFile;
+    }
+
+    public long getEstimatedBytes() {
+      return estimatedBytes;
+    }
+
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    public long getAllocatedBytes() {
+      return allocatedBytes;
+    }
+
+    public int getQueriesCount() {
+      return queriesCount;
+    }
+
+    public int getClustersCount() {
+      return clustersCount;
+    }
+  }
+
+  /**
+   * counting semaphore for bytes of heap and threads of pool
+   */
+  private static class MemoryBudget {
+
+    private final long budgetBytes;
+    private long availableBytes;
+    private int availableThreads;
+
+    MemoryBudget(long budgetBytes, int threadsCount) {
+      this.budgetBytes = budgetBytes;
+      this.availableBytes = budgetBytes;
+      this.availableThreads = threadsCount;
+    }
+
+    /**
+     * every log holds at least one byte, so budget of one byte makes logs run one by one
+     */
+    long bytesOf(LogReport report) {
+      return Math.max(1, Math.min(report.estimatedBytes, budgetBytes));
+    }
+
+    /**
+     * waits for a free thread and removes the first log of pending which fits into available
+     * bytes, pending are sorted by estimates in decreasing order
+     */
+    synchronized LogReport acquireLargestFitting(List<LogReport> pending)
+        throws InterruptedException {
+      while (true) {
+        if (availableThreads > 0) {
+          for (int i = 0; i < pending.size(); ++i) {
+            long bytes = bytesOf(pending.get(i));
+            if (bytes <= availableBytes) {
+              availableBytes -= bytes;
+              --availableThreads;
+              return pending.remove(i);
+            }
+          }
+        }
+        wait();
+      }
+    }
+
+    synchronized void release(long bytes) {
+      availableBytes += bytes;
+      ++availableThreads;
+      notifyAll();
+    }
+  }
+}
@@ -0,0 +1,46 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells long computation to stop, either when cancel is called or when deadline passes. Token can
+ * be cancelled from any thread
+ */
+public class CancellationToken {
+
+  private volatile boolean cancelled = false;
+  private final boolean hasDeadline;
+  private final long deadlineNanos;
+
+  /**
+   * token without deadline, it's cancelled only by cancel
+   */
+  public CancellationToken() {
+    hasDeadline = false;
+    deadlineNanos = 0;
+  }
+
+  private CancellationToken(long deadlineNanos) {
+    hasDeadline = true;
+    this.deadlineNanos = deadlineNanos;
+  }
+
+  /**
+   * @return token which is cancelled after timeout passes from now or by cancel
+   */
+  public static CancellationToken withTimeout(long timeout, TimeUnit unit) {
+    if (timeout < 0 || unit == null) {
+      throw new IllegalArgumentException("Timeout should not be negative");
+    }
+    return new CancellationToken(System.nanoTime() + unit.toNanos(timeout));
+  }
+
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    if (!cancelled && hasDeadline && System.nanoTime() - deadlineNanos >= 0) {
+      cancelled = true;
+    }
+    return cancelled;
+  }
+}
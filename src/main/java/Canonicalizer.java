@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Brings different spellings of the same URL or query to one canonical form, so that they become
+ * one node of the graph: "http://www.x.com/", "https://x.com" and "x.com" become "x.com", "new
+ * york!" and "new-york" become "new york".
+ * <p>
+ * Input is expected to be already lowercased and trimmed (see QueryLogReader). Canonical forms
+ * are cached, so repeated URL or query costs one lookup
+ */
+public class Canonicalizer {
+
+  /**
+   * Parts of canonicalization which can be turned on and off
+   */
+  public enum Rule {
+    // "http://", "https://" and other schemes of URLs
+    SCHEME,
+    // "www." at the start of host
+    WWW,
+    // query string and fragment of URL: everything after '?' or '#'
+    URL_QUERY,
+    // slashes at the end of URL
+    TRAILING_SLASH,
+    // punctuation in queries is replaced by spaces
+    PUNCTUATION,
+    // runs of whitespace in queries become one space
+    WHITESPACE
+  }
+
+  private final Set<Rule> rules;
+  private final LruCache<String, String> urls;
+  private final LruCache<String, String> queries;
+
+  /**
+   * @param cacheCapacity count of canonical forms which are cached for URLs and for queries
+   */
+  public Canonicalizer(Set<Rule> rules, int cacheCapacity) {
+    if (rules == null) {
+      throw new IllegalArgumentException("Rules should not be null");
+    }
+    this.rules = rules.isEmpty() ? EnumSet.noneOf(Rule.class) : EnumSet.copyOf(rules);
+    urls = new LruCache<>(cacheCapacity);
+    queries = new LruCache<>(cacheCapacity);
+  }
+
+  /**
+   * Prints count of nodes and links of graph of log without and with canonicalization
+   * <p>
+   * Usage: Canonicalizer logFile [nLines]
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: Canonicalizer logFile [nLines]");
+      System.exit(1);
+    }
+    int nLines = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+    QueryLogReader reader = new QueryLogReader();
+    long[] before = countNodesAndLinks(reader.readQueryLog(args[0], nLines));
+    reader.setCanonicalizer(new Canonicalizer(EnumSet.allOf(Rule.class), 1 << 20));
+    long[] after = countNodesAndLinks(reader.readQueryLog(args[0], nLines));
+    String[] names = {"queries", "documents", "links"};
+    for (int i = 0; i < names.length; ++i) {
+      System.out.printf("%-10s %10d -> %10d (%.1f%% less)%n", names[i], before[i], after[i],
+          before[i] == 0 ? 0 : 100.0 * (before[i] - after[i]) / before[i]);
+    }
+  }
+
+  /**
+   * @return count of queries, count of documents and count of distinct query-document pairs
+   */
+  static long[] countNodesAndLinks(Set<Query> queries) {
+    Set<Document> documents = new HashSet<>();
+    long linksCount = 0;
+    for (Query query : queries) {
+      documents.addAll(query.getRelatedDocuments());
+      linksCount += query.getRelatedDocuments().size();
+    }
+    return new long[]{queries.size(), documents.size(), linksCount};
+  }
+
+  public String canonicalizeUrl(String url) {
+    String canonical = urls.get(url);
+    if (canonical == null) {
+      canonical = computeCanonicalUrl(url);
+      urls.put(url, canonical);
+    }
+    return canonical;
+  }
+
+  /**
+   * @return canonical query, the query itself if nothing but punctuation is left
+   */
+  public String canonicalizeQuery(String query) {
+    String canonical = queries.get(query);
+    if (canonical == null) {
+      canonical = computeCanonicalQuery(query);
+      queries.put(query, canonical);
+    }
+    return canonical;
+  }
+
+  private String computeCanonicalUrl(String url) {
+    int start = 0;
+    int end = url.length();
+    if (rules.contains(Rule.SCHEME)) {
+      int schemeEnd = url.indexOf("://");
+      if (schemeEnd > 0 && isScheme(url, schemeEnd)) {
+        start = schemeEnd + 3;
+      }
+    }
+    if (rules.contains(Rule.WWW) && url.startsWith("www.", start)) {
+      start += 4;
+    }
+    if (rules.contains(Rule.URL_QUERY)) {
+      for (int i = start; i < end; ++i) {
+        char c = url.charAt(i);
+        if (c == '?' || c == '#') {
+          end = i;
+          break;
+        }
+      }
+    }
+    if (rules.contains(Rule.TRAILING_SLASH)) {
+      while (end > start && url.charAt(end - 1) == '/') {
+        --end;
+      }
+    }
+    if (start == end) {
+      return url;
+    }
+    return url.substring(start, end);
+  }
+
+  private static boolean isScheme(String url, int schemeEnd) {
+    for (int i = 0; i < schemeEnd; ++i) {
+      char c = url.charAt(i);
+      if (!(c >= 'a' && c <= 'z' || i > 0 && (c >= '0' && c <= '9' || c == '+' || c == '-'
+          || c == '.'))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String computeCanonicalQuery(String query) {
+    boolean punctuation = rules.contains(Rule.PUNCTUATION);
+    boolean whitespace = rules.contains(Rule.WHITESPACE);
+    if (!punctuation && !whitespace) {
+      return query;
+    }
+    StringBuilder canonical = new StringBuilder(query.length());
+    boolean pendingSpace = false;
+    for (int i = 0; i < query.length(); i += Character.charCount(query.codePointAt(i))) {
+      int c = query.codePointAt(i);
+      boolean separator = Character.isWhitespace(c)
+          || punctuation && !Character.isLetterOrDigit(c);
+      if (!separator || !whitespace) {
+        if (pendingSpace) {
+          canonical.append(' ');
+          pendingSpace = false;
+        }
+        if (separator) {
+          canonical.append(' ');
+        } else {
+          canonical.appendCodePoint(c);
+        }
+      } else if (canonical.length() > 0) {
+        pendingSpace = true;
+      }
+    }
+    if (canonical.length() == 0) {
+      return query;
+    }
+    String result = canonical.toString();
+    return result.equals(query) ? query : result;
+  }
+}
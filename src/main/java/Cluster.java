@@ -0,0 +1,254 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * describes the cluster which is also node in bipartite graph
+ *
+ * @param <CType> is the type of elements which are stored in current cluster
+ * @param <NType> is the type of elements which are stored in neighbour cluster
+ */
+class Cluster<CType, NType> {
+
+  private static final Logger CLUSTER_LOGGER = Logger.getLogger(Cluster.class.getName());
+  private static final AtomicLong NEXT_ID = new AtomicLong();
+
+  // unique among all clusters, order of neighbours in sorted arrays
+  private final long id = NEXT_ID.getAndIncrement();
+  private Set<CType> clusteredElements;
+  private HashMap<Cluster<NType, CType>, Long> neighbours;
+  private long totalCountOfLinks;
+  // ids of neighbours in increasing order and counts of links to them for distance kernels,
+  // built on demand and then kept up to date. Deleted neighbours stay in arrays with zero links
+  // until they are more than half of sortedNeighboursCount, so that deletion of neighbour of hub
+  // costs a binary search. Merge result has the greatest id, so it is appended to the end
+  private long[] sortedNeighbourIds;
+  private long[] sortedNeighbourLinks;
+  private int sortedNeighboursCount;
+  private int deletedNeighboursCount;
+
+  private Cluster() {
+    totalCountOfLinks = 0;
+    clusteredElements = new HashSet<>();
+    neighbours = new HashMap<>();
+  }
+
+  Cluster(CType element) {
+    this();
+
+    if (element == null) {
+      throw new IllegalArgumentException("Clustered elements cannot be null");
+    }
+
+    clusteredElements.add(element);
+
+  }
+
+  Cluster(Set<CType> elements) {
+    this();
+
+    if (elements == null) {
+      throw new IllegalArgumentException("Set of elements should not be null");
+    }
+
+    if (elements.isEmpty()) {
+      throw new IllegalArgumentException("Set of elements should not be empty");
+    }
+
+    if (elements.contains(null)) {
+      throw new IllegalArgumentException("Clustered elements cannot be null");
+    }
+
+    clusteredElements.addAll(elements);
+  }
+
+  static <CType, NType> Cluster<CType, NType>
+  mergeClusters(Cluster<CType, NType> firstCluster, Cluster<CType, NType> secondCluster) {
+    Set<CType> newSetOfClusteredElements = new HashSet<>();
+    newSetOfClusteredElements.addAll(firstCluster.clusteredElements);
+    newSetOfClusteredElements.addAll(secondCluster.clusteredElements);
+    HashMap<Cluster<NType, CType>, Long> newNeighbours = new HashMap<>(firstCluster.neighbours);
+
+    for (Map.Entry<Cluster<NType, CType>, Long> c2Neighbour : secondCluster.neighbours
+        .entrySet()) {
+      long newLinksCount = c2Neighbour.getValue();
+      newLinksCount += newNeighbours.getOrDefault(c2Neighbour.getKey(), 0L);
+      newNeighbours.put(c2Neighbour.getKey(), newLinksCount);
+    }
+
+    Cluster<CType, NType> newMergedCluster = new Cluster<>();
+    newMergedCluster.clusteredElements = newSetOfClusteredElements;
+    newMergedCluster.neighbours = newNeighbours;
+    newMergedCluster.totalCountOfLinks =
+        firstCluster.totalCountOfLinks + secondCluster.totalCountOfLinks;
+
+    if (newMergedCluster.totalCountOfLinks < 0) {
+      CLUSTER_LOGGER.log(Level.SEVERE, "Total links count is below zero (possible overflow):",
+          new Object[]{newMergedCluster.totalCountOfLinks});
+      throw new RuntimeException("Total links count is below zero (possible overflow)");
+    }
+
+    return newMergedCluster;
+  }
+
+  void addNeighbour(Cluster<NType, CType> newNeighbour, long linksCount) {
+    if (linksCount < 0) {
+      throw new IllegalArgumentException("weight must be greater or equal to zero");
+    }
+
+    if (newNeighbour == null) {
+      throw new IllegalArgumentException("Neighbour cannot be null");
+    }
+
+    Long oldLinksCount = neighbours.put(newNeighbour, linksCount);
+    if (sortedNeighbourIds != null) {
+      putSortedNeighbour(newNeighbour.id, linksCount, oldLinksCount == null);
+    }
+    totalCountOfLinks -= oldLinksCount == null ? 0 : oldLinksCount;
+    totalCountOfLinks += linksCount;
+
+    if (totalCountOfLinks < 0) {
+      CLUSTER_LOGGER.log(Level.SEVERE,
+          "In cluster. Total links count is below zero (possible overflow): {0}",
+          totalCountOfLinks);
+      throw new RuntimeException(
+          "In cluster. ITotal links count is below zero (possible overflow)");
+    }
+  }
+
+  long deleteNeighbour(Cluster<NType, CType> neighbour) {
+    Long linksCount = neighbours.remove(neighbour);
+    if (linksCount != null && sortedNeighbourIds != null) {
+      deleteSortedNeighbour(neighbour.id);
+    }
+    totalCountOfLinks -= linksCount == null ? 0 : linksCount;
+    return linksCount == null ? 0 : linksCount;
+  }
+
+  long getLinksCountToNeighbour(Cluster<NType, CType> neighbour) {
+    return neighbours.getOrDefault(neighbour, 0L);
+  }
+
+  long getTotalCountOfLinks() {
+    return totalCountOfLinks;
+  }
+
+  /**
+   * @return ids of neighbours in increasing order, only first getSortedNeighboursCount() of them
+   * are valid, array should not be changed
+   */
+  long[] getSortedNeighbourIds() {
+    if (sortedNeighbourIds == null) {
+      sortNeighbours();
+    }
+    return sortedNeighbourIds;
+  }
+
+  /**
+   * @return counts of links to neighbours in order of getSortedNeighbourIds, deleted neighbours
+   * have zero links, array should not be changed
+   */
+  long[] getSortedNeighbourLinks() {
+    if (sortedNeighbourIds == null) {
+      sortNeighbours();
+    }
+    return sortedNeighbourLinks;
+  }
+
+  int getSortedNeighboursCount() {
+    if (sortedNeighbourIds == null) {
+      sortNeighbours();
+    }
+    return sortedNeighboursCount;
+  }
+
+  private void sortNeighbours() {
+    long[] ids = new long[neighbours.size()];
+    int i = 0;
+    for (Cluster<NType, CType> neighbour : neighbours.keySet()) {
+      ids[i++] = neighbour.id;
+    }
+    Arrays.sort(ids);
+    long[] links = new long[ids.length];
+    for (Map.Entry<Cluster<NType, CType>, Long> e : neighbours.entrySet()) {
+      links[Arrays.binarySearch(ids, e.getKey().id)] = e.getValue();
+    }
+    sortedNeighbourIds = ids;
+    sortedNeighbourLinks = links;
+    sortedNeighboursCount = ids.length;
+    deletedNeighboursCount = 0;
+  }
+
+  private void putSortedNeighbour(long neighbourId, long linksCount, boolean isNew) {
+    int i = Arrays.binarySearch(sortedNeighbourIds, 0, sortedNeighboursCount, neighbourId);
+    if (i >= 0) {
+      // either new count of links or neighbour which was deleted before
+      sortedNeighbourLinks[i] = linksCount;
+      if (isNew) {
+        --deletedNeighboursCount;
+      }
+      return;
+    }
+    i = -i - 1;
+    if (sortedNeighboursCount == sortedNeighbourIds.length) {
+      int capacity = Math.max(4, sortedNeighboursCount + (sortedNeighboursCount >> 1));
+      sortedNeighbourIds = Arrays.copyOf(sortedNeighbourIds, capacity);
+      sortedNeighbourLinks = Arrays.copyOf(sortedNeighbourLinks, capacity);
+    }
+    // i is sortedNeighboursCount for merge results, nothing is shifted
+    System.arraycopy(sortedNeighbourIds, i, sortedNeighbourIds, i + 1, sortedNeighboursCount - i);
+    System.arraycopy(sortedNeighbourLinks, i, sortedNeighbourLinks, i + 1,
+        sortedNeighboursCount - i);
+    sortedNeighbourIds[i] = neighbourId;
+    sortedNeighbourLinks[i] = linksCount;
+    ++sortedNeighboursCount;
+  }
+
+  private void deleteSortedNeighbour(long neighbourId) {
+    int i = Arrays.binarySearch(sortedNeighbourIds, 0, sortedNeighboursCount, neighbourId);
+    sortedNeighbourLinks[i] = 0;
+    if (++deletedNeighboursCount * 2 > sortedNeighboursCount) {
+      // rebuild, cost is amortized over deletions since the last rebuild
+      sortNeighbours();
+    }
+  }
+
+  Set<Cluster<NType, CType>> getNeighbours() {
+    return Collections.unmodifiableSet(neighbours.keySet());
+  }
+
+  /**
+   * @return clusters which have at least one common neighbour with this cluster
+   */
+  Set<Cluster<CType, NType>> getSiblings() {
+    Set<Cluster<CType, NType>> siblings = new HashSet<>();
+    for (Cluster<NType, CType> c : neighbours.keySet()) {
+      siblings.addAll(c.getNeighbours());
+    }
+    siblings.remove(this);
+    return siblings;
+  }
+
+  Set<CType> getClusteredElements() {
+    return Collections.unmodifiableSet(clusteredElements);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return this == other;
+  }
+
+  /**
+   * hash of id, identity hash would be stored in header of every cluster
+   */
+  @Override
+  public int hashCode() {
+    return Long.hashCode(id * 0x9e3779b97f4a7c15L);
+  }
+}
@@ -0,0 +1,42 @@
+import java.util.List;
+
+/**
+ * Read-only index of clustering result which answers in which cluster query is
+ */
+public interface ClusterIndex {
+
+  int NOT_FOUND = -1;
+
+  /**
+   * @param query normalized query, see normalizeQuery
+   * @return id of cluster which contains query or NOT_FOUND
+   */
+  int findCluster(String query);
+
+  /**
+   * @return queries of cluster in the order they were added to index
+   */
+  List<String> getClusterMembers(int clusterId);
+
+  int getClustersCount();
+
+  /**
+   * normalizes query the same way as QueryLogReader without canonicalizer does
+   */
+  static String normalizeQuery(String query) {
+    return normalizeQuery(query, null);
+  }
+
+  /**
+   * normalizes query the same way as QueryLogReader with canonicalizer does, so that clusters of
+   * log read with canonicalizer are found by any spelling of query
+   *
+   * @param canonicalizer null turns canonicalization off
+   */
+  static String normalizeQuery(String query, Canonicalizer canonicalizer) {
+    String normalizedQuery = query.toLowerCase().trim();
+    return canonicalizer == null
+        ? normalizedQuery
+        : canonicalizer.canonicalizeQuery(normalizedQuery);
+  }
+}
@@ -0,0 +1,154 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes clustering result in binary format which is read by MappedClusterIndex without parsing.
+ * <p>
+ * File consists of header and five sections, every section starts at offset aligned to 8 bytes.
+ * Queries are numbered so that queries of every cluster have consecutive numbers (members).
+ * <ul>
+ * <li>hash table of queries, slot is [int hash of query][int member + 1, 0 for empty slot]</li>
+ * <li>cluster starts: int first member of every cluster, plus count of queries at the end</li>
+ * <li>member clusters: int cluster of every member</li>
+ * <li>member offsets: long offset of string of every member in strings section</li>
+ * <li>strings: [int length][UTF-8 bytes] padded to 4 bytes</li>
+ * </ul>
+ * All numbers are big-endian
+ */
+public class ClusterIndexWriter {
+
+  static final int MAGIC = 0x51434958;
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 64;
+  static final int SLOT_SIZE = 8;
+  // table has at least twice more slots than queries and slots count must fit into int
+  static final int MAX_QUERIES_COUNT = 1 << 29;
+
+  private final List<String> queries = new ArrayList<>();
+  private final List<Integer> clusterStarts = new ArrayList<>();
+  private final Set<String> addedQueries = new HashSet<>();
+
+  /**
+   * @throws IllegalArgumentException if cluster is null or some of its queries were already added
+   */
+  public void addCluster(Set<Query> cluster) {
+    if (cluster == null) {
+      throw new IllegalArgumentException("Cluster should not be null");
+    }
+    if (queries.size() + cluster.size() > MAX_QUERIES_COUNT) {
+      throw new RuntimeException("Too many queries for one index");
+    }
+    for (Query q : cluster) {
+      if (!addedQueries.add(q.toString())) {
+        throw new IllegalArgumentException("Query " + q + " is already in another cluster");
+      }
+    }
+    clusterStarts.add(queries.size());
+    for (Query q : cluster) {
+      queries.add(q.toString());
+    }
+  }
+
+  public int getClustersCount() {
+    return clusterStarts.size();
+  }
+
+  public void write(File file) throws IOException {
+    if (file == null) {
+      throw new IllegalArgumentException("File should not be null");
+    }
+    int queriesCount = queries.size();
+    int slotsCount = Integer.highestOneBit(Math.max(queriesCount, 1) * 2 - 1) << 1;
+    int[] slotHashes = new int[slotsCount];
+    int[] slotMembers = new int[slotsCount];
+    for (int member = 0; member < queriesCount; ++member) {
+      int hash = queries.get(member).hashCode();
+      int slot = slotOf(hash, slotsCount - 1);
+      while (slotMembers[slot] != 0) {
+        slot = (slot + 1) & (slotsCount - 1);
+      }
+      slotHashes[slot] = hash;
+      slotMembers[slot] = member + 1;
+    }
+
+    long slotsOffset = HEADER_SIZE;
+    long clusterStartsOffset = slotsOffset + (long) slotsCount * SLOT_SIZE;
+    long memberClustersOffset = align(clusterStartsOffset + 4L * (clusterStarts.size() + 1));
+    long memberOffsetsOffset = align(memberClustersOffset + 4L * queriesCount);
+    long stringsOffset = memberOffsetsOffset + 8L * queriesCount;
+
+    try (DataOutputStream output = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeInt(clusterStarts.size());
+      output.writeInt(queriesCount);
+      output.writeInt(slotsCount);
+      output.writeInt(0);
+      output.writeLong(slotsOffset);
+      output.writeLong(clusterStartsOffset);
+      output.writeLong(memberClustersOffset);
+      output.writeLong(memberOffsetsOffset);
+      output.writeLong(stringsOffset);
+
+      for (int slot = 0; slot < slotsCount; ++slot) {
+        output.writeInt(slotHashes[slot]);
+        output.writeInt(slotMembers[slot]);
+      }
+
+      for (int start : clusterStarts) {
+        output.writeInt(start);
+      }
+      output.writeInt(queriesCount);
+      pad(output, clusterStartsOffset + 4L * (clusterStarts.size() + 1), memberClustersOffset);
+
+      for (int cluster = 0; cluster < clusterStarts.size(); ++cluster) {
+        int end = cluster + 1 < clusterStarts.size() ? clusterStarts.get(cluster + 1) : queriesCount;
+        for (int member = clusterStarts.get(cluster); member < end; ++member) {
+          output.writeInt(cluster);
+        }
+      }
+      pad(output, memberClustersOffset + 4L * queriesCount, memberOffsetsOffset);
+
+      long stringOffset = 0;
+      for (String query : queries) {
+        output.writeLong(stringOffset);
+        stringOffset += stringSize(query.getBytes(StandardCharsets.UTF_8).length);
+      }
+
+      for (String query : queries) {
+        byte[] bytes = query.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+        pad(output, 4 + bytes.length, stringSize(bytes.length));
+      }
+    }
+  }
+
+  static int slotOf(int hash, int mask) {
+    int h = hash * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  static long stringSize(int bytesCount) {
+    return (4L + bytesCount + 3) & ~3L;
+  }
+
+  private static long align(long offset) {
+    return (offset + 7) & ~7L;
+  }
+
+  private static void pad(DataOutputStream output, long from, long to) throws IOException {
+    for (long i = from; i < to; ++i) {
+      output.writeByte(0);
+    }
+  }
+}
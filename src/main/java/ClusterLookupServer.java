@@ -0,0 +1,231 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * HTTP server which answers in which cluster query is. Every answer is one line with queries of the
+ * cluster separated by tabs, queries are normalized the same way as in query logs.
+ * <ul>
+ * <li>GET /lookup?q=query -- cluster of query, 404 if query wasn't clustered</li>
+ * <li>POST /batch -- body contains one query per line, answer contains one line per query (empty
+ * line if query wasn't clustered)</li>
+ * <li>GET /metrics -- count of requests, p50 and p99 latencies and cache statistics</li>
+ * </ul>
+ * Usage: ClusterLookupServer clusteringResultFile port [canonicalize], result is read as binary
+ * index if name of file ends with ".idx" (see ClusterIndexWriter) and as text written by Main
+ * otherwise. If canonicalize is "true", queries are canonicalized before lookup, as Main does
+ * with canonicalizeLinks.
+ * <p>
+ * JDK server sends headers and body of small answers in separate packets, with Nagle's algorithm
+ * client waits ~40ms for delayed ack before it gets the body. main sets
+ * sun.net.httpserver.nodelay unless it is given, server embedded into other program needs
+ * -Dsun.net.httpserver.nodelay=true
+ */
+public class ClusterLookupServer {
+
+  private static final Logger SERVER_LOGGER =
+      Logger.getLogger(ClusterLookupServer.class.getName());
+
+  private static final int DEFAULT_CACHE_CAPACITY = 1 << 16;
+  private static final String NOT_FOUND_LINE = "";
+
+  private final ClusterIndex index;
+  private final LruCache<String, String> cache;
+  private Canonicalizer canonicalizer = null;
+  private final LatencyHistogram lookupLatencies = new LatencyHistogram();
+  private final LatencyHistogram batchLatencies = new LatencyHistogram();
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  /**
+   * @param port port to listen, 0 means any free port
+   */
+  public ClusterLookupServer(ClusterIndex index, int port, int cacheCapacity, int threadsCount)
+      throws IOException {
+    if (index == null) {
+      throw new IllegalArgumentException("Index should not be null");
+    }
+    if (threadsCount <= 0) {
+      throw new IllegalArgumentException("Count of threads should be positive");
+    }
+    this.index = index;
+    this.cache = new LruCache<>(cacheCapacity);
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    this.executor = Executors.newFixedThreadPool(threadsCount);
+    server.setExecutor(executor);
+    server.createContext("/lookup", this::handleLookup);
+    server.createContext("/batch", this::handleBatch);
+    server.createContext("/metrics", this::handleMetrics);
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: ClusterLookupServer clusteringResultFile port [canonicalize]");
+      System.exit(1);
+    }
+    // must be set before the first server is created, see the description of class
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+    ClusterIndex index = args[0].endsWith(".idx")
+        ? MappedClusterIndex.open(new File(args[0]))
+        : TextClusterIndex.load(args[0]);
+    ClusterLookupServer server = new ClusterLookupServer(index, Integer.parseInt(args[1]),
+        DEFAULT_CACHE_CAPACITY, Runtime.getRuntime().availableProcessors());
+    if (args.length > 2 && Boolean.parseBoolean(args[2])) {
+      server.setCanonicalizer(new Canonicalizer(EnumSet.allOf(Canonicalizer.Rule.class),
+          DEFAULT_CACHE_CAPACITY));
+    }
+    server.start();
+    SERVER_LOGGER.log(Level.INFO, "{0} clusters are served on port {1}",
+        new Object[]{index.getClustersCount(), server.getPort()});
+  }
+
+  /**
+   * @param canonicalizer applied to queries before lookup, it should have the same rules as
+   * canonicalizer of QueryLogReader which read the log, null turns canonicalization off
+   */
+  public void setCanonicalizer(Canonicalizer canonicalizer) {
+    this.canonicalizer = canonicalizer;
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdown();
+    try {
+      executor.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  public LatencyHistogram getLookupLatencies() {
+    return lookupLatencies;
+  }
+
+  public LatencyHistogram getBatchLatencies() {
+    return batchLatencies;
+  }
+
+  /**
+   * @return queries of cluster of query separated by tabs or empty string if query wasn't clustered
+   */
+  public String lookup(String query) {
+    String normalizedQuery = ClusterIndex.normalizeQuery(query, canonicalizer);
+    String line = cache.get(normalizedQuery);
+    if (line != null) {
+      return line;
+    }
+    int clusterId = index.findCluster(normalizedQuery);
+    line = clusterId == ClusterIndex.NOT_FOUND
+        ? NOT_FOUND_LINE
+        : String.join("\t", index.getClusterMembers(clusterId));
+    cache.put(normalizedQuery, line);
+    return line;
+  }
+
+  private void handleLookup(HttpExchange exchange) throws IOException {
+    long startTime = System.nanoTime();
+    String query = getParameter(exchange, "q");
+    if (query == null) {
+      respond(exchange, 400, "Parameter q is missing\n", lookupLatencies, startTime);
+      return;
+    }
+    String line = lookup(query);
+    if (line.equals(NOT_FOUND_LINE)) {
+      respond(exchange, 404, "\n", lookupLatencies, startTime);
+    } else {
+      respond(exchange, 200, line + "\n", lookupLatencies, startTime);
+    }
+  }
+
+  private void handleBatch(HttpExchange exchange) throws IOException {
+    long startTime = System.nanoTime();
+    if (!exchange.getRequestMethod().equals("POST")) {
+      respond(exchange, 405, "Queries should be posted\n", batchLatencies, startTime);
+      return;
+    }
+    StringBuilder answer = new StringBuilder();
+    try (BufferedReader input = new BufferedReader(
+        new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+      String query;
+      while ((query = input.readLine()) != null) {
+        answer.append(lookup(query)).append('\n');
+      }
+    }
+    respond(exchange, 200, answer.toString(), batchLatencies, startTime);
+  }
+
+  private void handleMetrics(HttpExchange exchange) throws IOException {
+    StringBuilder metrics = new StringBuilder();
+    appendLatencies(metrics, "lookup", lookupLatencies);
+    appendLatencies(metrics, "batch", batchLatencies);
+    metrics.append("cache.size ").append(cache.size()).append('\n');
+    metrics.append("cache.hits ").append(cache.getHitsCount()).append('\n');
+    metrics.append("cache.misses ").append(cache.getMissesCount()).append('\n');
+    respond(exchange, 200, metrics.toString(), null, 0);
+  }
+
+  private static void appendLatencies(StringBuilder metrics, String name,
+      LatencyHistogram latencies) {
+    metrics.append(name).append(".count ").append(latencies.getCount()).append('\n');
+    metrics.append(name).append(".p50.us ").append(latencies.getPercentileMicros(50))
+        .append('\n');
+    metrics.append(name).append(".p99.us ").append(latencies.getPercentileMicros(99))
+        .append('\n');
+  }
+
+  private static String getParameter(HttpExchange exchange, String name)
+      throws UnsupportedEncodingException {
+    String parameters = exchange.getRequestURI().getRawQuery();
+    if (parameters == null) {
+      return null;
+    }
+    for (String parameter : parameters.split("&")) {
+      int separator = parameter.indexOf('=');
+      if (separator >= 0 && parameter.substring(0, separator).equals(name)) {
+        return URLDecoder.decode(parameter.substring(separator + 1), "UTF-8");
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param latencies if not null, time since startTime is recorded there before answer is sent, so
+   * the client which got the answer sees it in metrics
+   */
+  private static void respond(HttpExchange exchange, int status, String body,
+      LatencyHistogram latencies, long startTime) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    if (latencies != null) {
+      latencies.record(System.nanoTime() - startTime);
+    }
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream output = exchange.getResponseBody()) {
+      output.write(bytes);
+    }
+  }
+}
@@ -0,0 +1,82 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Set;
+
+/**
+ * Writes clusters of one log in format of clustering results: every cluster which is large enough
+ * is written as Set.toString() followed by line of dashes, maximal size of written cluster is
+ * written when writer is closed. Written clusters can be also saved to binary index, see
+ * ClusterIndexWriter
+ */
+public class ClusterWriter implements Closeable {
+
+  private final BufferedWriter output;
+  private final int minSizeOfCluster;
+  private final File indexFile;
+  private final ClusterIndexWriter indexWriter;
+  private int maxSizeOfWrittenCluster = -1;
+  private int writtenClustersCount = 0;
+
+  /**
+   * @param minSizeOfCluster smaller clusters are not written
+   * @param indexFile file for binary index, null if index is not needed
+   */
+  public ClusterWriter(File outputFile, int minSizeOfCluster, File indexFile) throws IOException {
+    this.output = new BufferedWriter(new FileWriter(outputFile));
+    this.minSizeOfCluster = minSizeOfCluster;
+    this.indexFile = indexFile;
+    this.indexWriter = indexFile == null ? null : new ClusterIndexWriter();
+  }
+
+  public void writeLine(String line) throws IOException {
+    output.write(line);
+    output.newLine();
+  }
+
+  /**
+   * writes cluster if it is large enough
+   */
+  public void writeCluster(Set<Query> cluster) {
+    if (cluster.size() < minSizeOfCluster) {
+      return;
+    }
+    if (cluster.size() > maxSizeOfWrittenCluster) {
+      maxSizeOfWrittenCluster = cluster.size();
+    }
+    try {
+      output.write(cluster.toString());
+      output.newLine();
+      output.write("----------------------------\n");
+      if (indexWriter != null) {
+        indexWriter.addCluster(cluster);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    ++writtenClustersCount;
+  }
+
+  public int getMaxSizeOfWrittenCluster() {
+    return maxSizeOfWrittenCluster;
+  }
+
+  public int getWrittenClustersCount() {
+    return writtenClustersCount;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      output.write("Maximal size of cluster: " + maxSizeOfWrittenCluster);
+    } finally {
+      output.close();
+    }
+    if (indexWriter != null) {
+      indexWriter.write(indexFile);
+    }
+  }
+}
@@ -0,0 +1,421 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Clusters the graph with several worker processes. The graph is split into partitions made of
+ * whole connected components (see GraphPartitioner), partitions are sent to workers over sockets
+ * and every worker clusters them with engine of EngineConfig which is sent with every partition.
+ * Union of clusters of all partitions is the same as clusters of the whole graph.
+ * <p>
+ * If worker dies or doesn't answer in time it is stopped, its partition is given to another worker
+ * and new worker is launched instead of dead one. Worker which doesn't connect in connectTimeout
+ * after its launch is stopped and launched again. Clustering fails if some partition failed
+ * maxAttempts times or workers failed to connect maxAttempts times
+ */
+public class ClusteringCoordinator implements ClusteringEngine {
+
+  private static final Logger COORDINATOR_LOGGER =
+      Logger.getLogger(ClusteringCoordinator.class.getName());
+
+  // more partitions than workers make load of workers more even
+  private static final int PARTITIONS_PER_WORKER = 4;
+  private static final long POLL_INTERVAL_MILLIS = 100;
+
+  private final int workersCount;
+  private final WorkerLauncher launcher;
+  private final EngineConfig config;
+  private int maxAttempts = 3;
+  private int workerTimeoutMillis = (int) TimeUnit.MINUTES.toMillis(10);
+  private int connectTimeoutMillis = (int) TimeUnit.MINUTES.toMillis(1);
+
+  public ClusteringCoordinator(int workersCount, double threshold) {
+    this(workersCount, EngineConfig.algo(threshold));
+  }
+
+  public ClusteringCoordinator(int workersCount, double threshold, WorkerLauncher launcher) {
+    this(workersCount, EngineConfig.algo(threshold), launcher);
+  }
+
+  public ClusteringCoordinator(int workersCount, EngineConfig config) {
+    this(workersCount, config, WorkerLauncher.localProcesses());
+  }
+
+  public ClusteringCoordinator(int workersCount, EngineConfig config, WorkerLauncher launcher) {
+    if (workersCount <= 0) {
+      throw new IllegalArgumentException("Count of workers should be positive");
+    }
+    if (config == null || launcher == null) {
+      throw new IllegalArgumentException("Config and launcher should not be null");
+    }
+    this.workersCount = workersCount;
+    this.config = config;
+    this.launcher = launcher;
+  }
+
+  public EngineConfig getConfig() {
+    return config;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public void setMaxAttempts(int maxAttempts) {
+    if (maxAttempts <= 0) {
+      throw new IllegalArgumentException("Count of attempts should be positive");
+    }
+    this.maxAttempts = maxAttempts;
+  }
+
+  public int getWorkerTimeoutMillis() {
+    return workerTimeoutMillis;
+  }
+
+  /**
+   * @param workerTimeoutMillis worker which doesn't answer for this time is treated as dead, 0
+   * means infinite timeout
+   */
+  public void setWorkerTimeoutMillis(int workerTimeoutMillis) {
+    if (workerTimeoutMillis < 0) {
+      throw new IllegalArgumentException("Timeout should not be negative");
+    }
+    this.workerTimeoutMillis = workerTimeoutMillis;
+  }
+
+  public int getConnectTimeoutMillis() {
+    return connectTimeoutMillis;
+  }
+
+  /**
+   * @param connectTimeoutMillis launched worker which doesn't connect for this time is treated as
+   * dead, 0 means infinite timeout
+   */
+  public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+    if (connectTimeoutMillis < 0) {
+      throw new IllegalArgumentException("Timeout should not be negative");
+    }
+    this.connectTimeoutMillis = connectTimeoutMillis;
+  }
+
+  @Override
+  public Set<Set<Query>> clusterQueries(Set<Query> queries) {
+    if (queries == null) {
+      return null;
+    }
+
+    List<Set<Query>> partitions =
+        GraphPartitioner.partition(queries, workersCount * PARTITIONS_PER_WORKER);
+    COORDINATOR_LOGGER.log(Level.FINE, "Count of partitions: {0}", partitions.size());
+    if (partitions.isEmpty()) {
+      return new HashSet<>();
+    }
+    try {
+      return new Run(partitions).execute();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Distributed clustering failed", e);
+    }
+  }
+
+  /**
+   * state of one call of clusterQueries
+   */
+  private class Run {
+
+    private final BlockingQueue<Partition> pending = new LinkedBlockingQueue<>();
+    private final CountDownLatch remaining;
+    private final Set<Set<Query>> clusters = new HashSet<>();
+    // launched workers which are not stopped yet by id
+    private final Map<Integer, Worker> workers = new HashMap<>();
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    private volatile IOException failure;
+    private volatile long lastProgressTime;
+    private ServerSocket server;
+    private int nextWorkerId;
+    private int connectFailuresCount;
+
+    Run(List<Set<Query>> partitions) {
+      for (int i = 0; i < partitions.size(); ++i) {
+        pending.add(new Partition(i, partitions.get(i)));
+      }
+      remaining = new CountDownLatch(partitions.size());
+    }
+
+    Set<Set<Query>> execute() throws IOException {
+      try (ServerSocket serverSocket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+        server = serverSocket;
+        lastProgressTime = System.currentTimeMillis();
+        connections.submit(this::acceptWorkers);
+        for (int i = 0; i < Math.min(workersCount, pending.size()); ++i) {
+          launchWorker();
+        }
+        awaitPartitions();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for workers", e);
+      } finally {
+        shutdown();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return clusters;
+    }
+
+    private void awaitPartitions() throws InterruptedException {
+      while (!remaining.await(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS) && failure == null) {
+        long idleTime = System.currentTimeMillis() - lastProgressTime;
+        if (workerTimeoutMillis > 0 && idleTime > workerTimeoutMillis) {
+          failure = new IOException("Workers made no progress for " + idleTime + "ms");
+        }
+        if (connectTimeoutMillis > 0) {
+          relaunchUnconnectedWorkers();
+        }
+      }
+    }
+
+    private void relaunchUnconnectedWorkers() {
+      long now = System.currentTimeMillis();
+      List<Integer> lost = new ArrayList<>();
+      synchronized (workers) {
+        for (Map.Entry<Integer, Worker> entry : workers.entrySet()) {
+          Worker worker = entry.getValue();
+          if (!worker.connected && now - worker.launchTime > connectTimeoutMillis) {
+            lost.add(entry.getKey());
+          }
+        }
+      }
+      for (int workerId : lost) {
+        ++connectFailuresCount;
+        COORDINATOR_LOGGER.log(Level.WARNING, "Worker " + workerId + " didn't connect in "
+            + connectTimeoutMillis + "ms (failure " + connectFailuresCount + ")");
+        stopWorker(workerId);
+        if (connectFailuresCount >= maxAttempts) {
+          failure = new IOException("Workers didn't connect " + connectFailuresCount + " times");
+          return;
+        }
+        try {
+          launchWorker();
+        } catch (IOException e) {
+          failure = e;
+          return;
+        }
+      }
+    }
+
+    private void acceptWorkers() {
+      while (!server.isClosed()) {
+        try {
+          Socket socket = server.accept();
+          lastProgressTime = System.currentTimeMillis();
+          connections.submit(() -> serveWorker(socket));
+        } catch (SocketException e) {
+          // server socket was closed
+          return;
+        } catch (IOException e) {
+          COORDINATOR_LOGGER.log(Level.WARNING, "Can't accept worker", e);
+        }
+      }
+    }
+
+    private void serveWorker(Socket socket) {
+      try (Socket s = socket;
+          DataInputStream input = new DataInputStream(
+              new BufferedInputStream(s.getInputStream()));
+          DataOutputStream output = new DataOutputStream(
+              new BufferedOutputStream(s.getOutputStream()))) {
+        s.setSoTimeout(workerTimeoutMillis);
+        int workerId = ClusteringProtocol.readHello(input);
+        synchronized (workers) {
+          Worker worker = workers.get(workerId);
+          if (worker == null) {
+            // worker was stopped as lost before it connected
+            return;
+          }
+          worker.connected = true;
+        }
+        while (true) {
+          Partition partition = pending.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+          if (partition == null) {
+            if (remaining.getCount() == 0 || failure != null) {
+              ClusteringProtocol.writeStop(output);
+              return;
+            }
+            continue;
+          }
+
+          Set<Set<Query>> partitionClusters;
+          try {
+            ClusteringProtocol.writeRequest(output, partition.id, config, partition.queries);
+            partitionClusters = ClusteringProtocol.readResponse(input, partition.id,
+                partition.queriesByName);
+          } catch (IOException e) {
+            stopWorker(workerId);
+            onWorkerFailure(partition, e);
+            return;
+          }
+          synchronized (clusters) {
+            clusters.addAll(partitionClusters);
+          }
+          lastProgressTime = System.currentTimeMillis();
+          remaining.countDown();
+        }
+      } catch (IOException e) {
+        COORDINATOR_LOGGER.log(Level.FINE, "Connection with worker was closed", e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void onWorkerFailure(Partition partition, IOException cause) {
+      ++partition.attempts;
+      COORDINATOR_LOGGER.log(Level.WARNING, "Worker failed on partition " + partition.id
+          + " (attempt " + partition.attempts + ")", cause);
+      if (partition.attempts >= maxAttempts) {
+        failure = new IOException("Partition " + partition.id + " failed " + partition.attempts
+            + " times", cause);
+        return;
+      }
+      pending.add(partition);
+      try {
+        launchWorker();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+
+    private void launchWorker() throws IOException {
+      int workerId;
+      Worker worker = new Worker();
+      // worker is registered before launch because it may connect before launcher returns
+      synchronized (workers) {
+        workerId = nextWorkerId++;
+        workers.put(workerId, worker);
+      }
+      Closeable handle;
+      try {
+        handle = launcher.launch(server.getInetAddress().getHostAddress(),
+            server.getLocalPort(), workerId);
+      } catch (IOException e) {
+        synchronized (workers) {
+          workers.remove(workerId);
+        }
+        throw e;
+      }
+      boolean stopped;
+      synchronized (workers) {
+        worker.handle = handle;
+        stopped = !workers.containsKey(workerId);
+      }
+      if (stopped) {
+        close(handle);
+      }
+    }
+
+    /**
+     * closes handle of worker, which kills hung or lost process
+     */
+    private void stopWorker(int workerId) {
+      Worker worker;
+      synchronized (workers) {
+        worker = workers.remove(workerId);
+      }
+      Closeable handle;
+      synchronized (workers) {
+        handle = worker == null ? null : worker.handle;
+      }
+      // null handle is closed by launchWorker when launcher returns it
+      if (handle != null) {
+        close(handle);
+      }
+    }
+
+    private void shutdown() {
+      if (server != null) {
+        try {
+          server.close();
+        } catch (IOException e) {
+          COORDINATOR_LOGGER.log(Level.FINE, "Can't close server socket", e);
+        }
+      }
+      // connected workers are asked to stop when there are no partitions anymore
+      connections.shutdown();
+      try {
+        connections.awaitTermination(POLL_INTERVAL_MILLIS * 10, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      connections.shutdownNow();
+      List<Closeable> handles = new ArrayList<>();
+      synchronized (workers) {
+        for (Worker worker : workers.values()) {
+          if (worker.handle != null) {
+            handles.add(worker.handle);
+          }
+        }
+        workers.clear();
+      }
+      handles.forEach(this::close);
+    }
+
+    private void close(Closeable handle) {
+      try {
+        handle.close();
+      } catch (IOException e) {
+        COORDINATOR_LOGGER.log(Level.FINE, "Can't stop worker", e);
+      }
+    }
+  }
+
+  private static class Worker {
+
+    private final long launchTime;
+    // guarded by map of workers, null until launcher returns
+    private Closeable handle;
+    private boolean connected;
+
+    Worker() {
+      this.launchTime = System.currentTimeMillis();
+    }
+  }
+
+  private static class Partition {
+
+    private final int id;
+    private final Set<Query> queries;
+    private final Map<String, Query> queriesByName;
+    private int attempts;
+
+    Partition(int id, Set<Query> queries) {
+      this.id = id;
+      this.queries = queries;
+      this.queriesByName = new HashMap<>();
+      for (Query q : queries) {
+        queriesByName.put(q.toString(), q);
+      }
+      this.attempts = 0;
+    }
+  }
+}
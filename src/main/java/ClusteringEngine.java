@@ -0,0 +1,13 @@
+import java.util.Set;
+
+/**
+ * Clusters queries of bipartite query-document graph
+ */
+public interface ClusteringEngine {
+
+  /**
+   * @param queries is set of queries
+   * @return set of sets (inner sets should be treated as clusters) or null if queries set is null
+   */
+  Set<Set<Query>> clusterQueries(Set<Query> queries);
+}
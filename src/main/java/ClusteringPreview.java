@@ -0,0 +1,484 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Clusters a random sample of connected components of the graph and extrapolates the result to the
+ * whole graph, so that threshold and minimal size of cluster can be tuned without full runs.
+ * <p>
+ * Clusters never cross components (see GraphPartitioner), so clusters of sampled components are
+ * exactly the clusters which a full run makes for them. Unlike the first lines of log, sample is
+ * not biased to early users: component is sampled if hash of the smallest hash of its queries is
+ * below sampleRate. The same component is always sampled with the same seed, and sample of larger
+ * rate contains sample of smaller one.
+ * <p>
+ * Totals are Horvitz-Thompson estimates: sums over sampled components divided by sampleRate, their
+ * standard errors are sqrt(sum of (1 - rate) * y^2 / rate^2) over sampled components.
+ * <p>
+ * Query logs usually have a giant component, sampling whole components would either miss it or
+ * take it whole, so estimates would be useless in both cases. Components of more than
+ * giantComponentSize queries form a separate stratum which is reported separately: documents of
+ * them are sampled with sampleRate and the subgraph of sampled documents is clustered. Distance of
+ * clusters is a ratio of counts of links, which sampling of documents keeps on average, but
+ * queries without sampled documents are lost and clusters are cut, so clusters of giant
+ * components are scaled by ratio of counts of queries and are rough figures without error
+ */
+public class ClusteringPreview {
+
+  public static final int DEFAULT_GIANT_COMPONENT_SIZE = 10000;
+  // documents are sampled independently from components
+  private static final long DOCUMENT_SEED_SALT = 0x5bd1e995L;
+
+  private final double sampleRate;
+  private final long seed;
+  private int giantComponentSize = DEFAULT_GIANT_COMPONENT_SIZE;
+
+  /**
+   * @param sampleRate probability of every component to be sampled
+   */
+  public ClusteringPreview(double sampleRate, long seed) {
+    if (!(sampleRate > 0 && sampleRate <= 1)) {
+      throw new IllegalArgumentException("Sample rate should belong to (0, 1]");
+    }
+    this.sampleRate = sampleRate;
+    this.seed = seed;
+  }
+
+  public int getGiantComponentSize() {
+    return giantComponentSize;
+  }
+
+  /**
+   * @param giantComponentSize components of more queries are giant, see class description
+   */
+  public void setGiantComponentSize(int giantComponentSize) {
+    if (giantComponentSize <= 0) {
+      throw new IllegalArgumentException("Size of giant component should be positive");
+    }
+    this.giantComponentSize = giantComponentSize;
+  }
+
+  /**
+   * Estimated total and its standard error
+   */
+  public static class Estimate {
+
+    private final double value;
+    private final double standardError;
+
+    Estimate(double value, double standardError) {
+      this.value = value;
+      this.standardError = standardError;
+    }
+
+    public double getValue() {
+      return value;
+    }
+
+    public double getStandardError() {
+      return standardError;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%.0f +- %.0f", value, 2 * standardError);
+    }
+  }
+
+  /**
+   * Results of preview. Estimates are for all components which are not giant, giant components
+   * are reported separately
+   */
+  public static class Report {
+
+    private final int componentsCount;
+    private final int sampledComponentsCount;
+    private final int queriesCount;
+    private final int sampledQueriesCount;
+    private final int minSizeOfCluster;
+    private final Estimate clustersCount;
+    private final Estimate largeClustersCount;
+    private final Estimate queryMergesCount;
+    private final double mergesCount;
+    private final double[] clusterSizes;
+    private final GiantStratum giant;
+    private final long elapsedMillis;
+
+    Report(int componentsCount, int sampledComponentsCount, int queriesCount,
+        int sampledQueriesCount, int minSizeOfCluster, Estimate clustersCount,
+        Estimate largeClustersCount, Estimate queryMergesCount, double mergesCount,
+        double[] clusterSizes, GiantStratum giant, long elapsedMillis) {
+      this.componentsCount = componentsCount;
+      this.sampledComponentsCount = sampledComponentsCount;
+      this.queriesCount = queriesCount;
+      this.sampledQueriesCount = sampledQueriesCount;
+      this.minSizeOfCluster = minSizeOfCluster;
+      this.clustersCount = clustersCount;
+      this.largeClustersCount = largeClustersCount;
+      this.queryMergesCount = queryMergesCount;
+      this.mergesCount = mergesCount;
+      this.clusterSizes = clusterSizes;
+      this.giant = giant;
+      this.elapsedMillis = elapsedMillis;
+    }
+
+    public int getSampledComponentsCount() {
+      return sampledComponentsCount;
+    }
+
+    public int getSampledQueriesCount() {
+      return sampledQueriesCount;
+    }
+
+    public Estimate getClustersCount() {
+      return clustersCount;
+    }
+
+    /**
+     * @return estimate of count of clusters of at least minSizeOfCluster queries
+     */
+    public Estimate getLargeClustersCount() {
+      return largeClustersCount;
+    }
+
+    public Estimate getQueryMergesCount() {
+      return queryMergesCount;
+    }
+
+    /**
+     * @return estimate of count of merges of query and document clusters, which is count of
+     * iterations of clustering
+     */
+    public double getMergesCount() {
+      return mergesCount;
+    }
+
+    /**
+     * @return estimated count of clusters of size [2^i, 2^(i+1)) for every i
+     */
+    public double[] getClusterSizes() {
+      return clusterSizes.clone();
+    }
+
+    public GiantStratum getGiant() {
+      return giant;
+    }
+
+    /**
+     * @return time of preview, including reading of log if preview read it
+     */
+    public long getElapsedMillis() {
+      return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder report = new StringBuilder();
+      report.append(String.format("Sampled %d of %d components, %d of %d queries in %d ms%n",
+          sampledComponentsCount, componentsCount, sampledQueriesCount, queriesCount,
+          elapsedMillis));
+      report.append(String.format("Clusters: %s%n", clustersCount));
+      report.append(String.format("Clusters of at least %d queries: %s%n", minSizeOfCluster,
+          largeClustersCount));
+      report.append(String.format("Merges of queries: %s, all merges: %.0f%n", queryMergesCount,
+          mergesCount));
+      report.append(String.format("Size of cluster%n"));
+      for (int i = 0; i < clusterSizes.length; ++i) {
+        if (clusterSizes[i] > 0) {
+          report.append(String.format("%10d-%-10d %.0f%n", 1L << i, (2L << i) - 1,
+              clusterSizes[i]));
+        }
+      }
+      report.append(giant);
+      return report.toString();
+    }
+  }
+
+  /**
+   * Results of clustering of sampled documents of giant components
+   */
+  public static class GiantStratum {
+
+    private final int giantComponentSize;
+    private final int componentsCount;
+    private final int queriesCount;
+    private final int sampledQueriesCount;
+    private final int minSizeOfCluster;
+    private final long sampledClustersCount;
+    private final long sampledLargeClustersCount;
+
+    GiantStratum(int giantComponentSize, int componentsCount, int queriesCount,
+        int sampledQueriesCount, int minSizeOfCluster, long sampledClustersCount,
+        long sampledLargeClustersCount) {
+      this.giantComponentSize = giantComponentSize;
+      this.componentsCount = componentsCount;
+      this.queriesCount = queriesCount;
+      this.sampledQueriesCount = sampledQueriesCount;
+      this.minSizeOfCluster = minSizeOfCluster;
+      this.sampledClustersCount = sampledClustersCount;
+      this.sampledLargeClustersCount = sampledLargeClustersCount;
+    }
+
+    public int getComponentsCount() {
+      return componentsCount;
+    }
+
+    public int getQueriesCount() {
+      return queriesCount;
+    }
+
+    /**
+     * @return count of queries which have sampled documents
+     */
+    public int getSampledQueriesCount() {
+      return sampledQueriesCount;
+    }
+
+    public long getSampledClustersCount() {
+      return sampledClustersCount;
+    }
+
+    public long getSampledLargeClustersCount() {
+      return sampledLargeClustersCount;
+    }
+
+    /**
+     * @return count of clusters of sample scaled by ratio of counts of queries, rough figure
+     */
+    public double getClustersCount() {
+      return sampledClustersCount * scale();
+    }
+
+    /**
+     * @return count of clusters of at least minSizeOfCluster queries of sample scaled by ratio of
+     * counts of queries, rough figure
+     */
+    public double getLargeClustersCount() {
+      return sampledLargeClustersCount * scale();
+    }
+
+    private double scale() {
+      return sampledQueriesCount == 0 ? 0 : (double) queriesCount / sampledQueriesCount;
+    }
+
+    @Override
+    public String toString() {
+      if (componentsCount == 0) {
+        return String.format("No components of more than %d queries%n", giantComponentSize);
+      }
+      return String.format("Components of more than %d queries: %d with %d queries, sampled"
+              + " documents reach %d queries%n"
+              + "Clusters of sample: %d, scaled: ~%.0f%n"
+              + "Clusters of at least %d queries of sample: %d, scaled: ~%.0f%n",
+          giantComponentSize, componentsCount, queriesCount, sampledQueriesCount,
+          sampledClustersCount, getClustersCount(), minSizeOfCluster, sampledLargeClustersCount,
+          getLargeClustersCount());
+    }
+  }
+
+  /**
+   * @return queries of sampled components which are not giant
+   */
+  public List<Set<Query>> sampleComponents(Set<Query> queries) {
+    List<Set<Query>> sample = new ArrayList<>();
+    for (Set<Query> component : GraphPartitioner.findConnectedComponents(queries)) {
+      if (component.size() <= giantComponentSize && isSampled(component)) {
+        sample.add(component);
+      }
+    }
+    return sample;
+  }
+
+  /**
+   * Clusters sampled components and sampled documents of giant components by algo and estimates
+   * results of clustering of all queries
+   */
+  public Report run(Set<Query> queries, Algo algo, int minSizeOfCluster) {
+    if (queries == null || algo == null) {
+      throw new IllegalArgumentException("Queries and algo should not be null");
+    }
+    long startTime = System.nanoTime();
+    Sample sample = new Sample();
+    for (Set<Query> component : GraphPartitioner.findConnectedComponents(queries)) {
+      if (component.size() > giantComponentSize) {
+        ++sample.giantComponentsCount;
+        sample.giantQueriesCount += component.size();
+        for (Query query : component) {
+          for (Document document : query.getRelatedDocuments()) {
+            if (isSampledDocument(document.hashCode())) {
+              sample.addGiantLink(query.toString(), document, query.getLinksCount(document));
+            }
+          }
+        }
+      } else {
+        ++sample.componentsCount;
+        sample.queriesCount += component.size();
+        if (isSampled(component)) {
+          sample.components.add(component);
+        }
+      }
+    }
+    return report(sample, algo, minSizeOfCluster, startTime);
+  }
+
+  /**
+   * The same as run for the graph of first nLines of log, but the graph is not built: log is read
+   * twice, the first pass finds connected components (see GraphPartitioner.LinkComponents), the
+   * second one builds only the sampled part of the graph
+   */
+  public Report run(QueryLogReader reader, String fileName, long nLines, Algo algo,
+      int minSizeOfCluster) throws IOException {
+    if (reader == null || algo == null) {
+      throw new IllegalArgumentException("Reader and algo should not be null");
+    }
+    long startTime = System.nanoTime();
+    GraphPartitioner.LinkComponents graph = new GraphPartitioner.LinkComponents();
+    reader.readLinks(fileName, nLines, (query, documentName) ->
+        graph.addLink(graph.addQuery(query), graph.addDocument(documentName)));
+
+    StringArena queryNames = graph.getQueryNames();
+    int[] queriesOfRoot = new int[graph.getNodesCount()];
+    int[] minHashOfRoot = new int[graph.getNodesCount()];
+    Arrays.fill(minHashOfRoot, Integer.MAX_VALUE);
+    for (int query = 0; query < queryNames.size(); ++query) {
+      int root = graph.componentOfQuery(query);
+      ++queriesOfRoot[root];
+      minHashOfRoot[root] = Math.min(minHashOfRoot[root], queryNames.hashOf(query));
+    }
+    Sample sample = new Sample();
+    for (int queriesCount : queriesOfRoot) {
+      if (queriesCount > giantComponentSize) {
+        ++sample.giantComponentsCount;
+        sample.giantQueriesCount += queriesCount;
+      } else if (queriesCount > 0) {
+        ++sample.componentsCount;
+        sample.queriesCount += queriesCount;
+      }
+    }
+
+    Map<Integer, Set<Query>> sampledComponents = new HashMap<>();
+    Map<String, Query> sampledQueries = new HashMap<>();
+    Map<String, Document> sampledDocuments = new HashMap<>();
+    reader.readLinks(fileName, nLines, (query, documentName) -> {
+      int root = graph.componentOfQuery(graph.addQuery(query));
+      if (queriesOfRoot[root] > giantComponentSize) {
+        if (isSampledDocument(documentName.hashCode())) {
+          sample.addGiantLink(query,
+              sampledDocuments.computeIfAbsent(documentName, Document::new), 1);
+        }
+      } else if (isSampled(minHashOfRoot[root])) {
+        Query sampledQuery = sampledQueries.computeIfAbsent(query, name -> {
+          Query q = new Query(name);
+          sampledComponents.computeIfAbsent(root, r -> new HashSet<>()).add(q);
+          return q;
+        });
+        sampledQuery.addRelatedDocument(
+            sampledDocuments.computeIfAbsent(documentName, Document::new));
+      }
+    });
+    sample.components.addAll(sampledComponents.values());
+    return report(sample, algo, minSizeOfCluster, startTime);
+  }
+
+  private Report report(Sample sample, Algo algo, int minSizeOfCluster, long startTime) {
+    Map<Query, Integer> componentOfQuery = new HashMap<>();
+    Set<Query> sampledQueries = new HashSet<>();
+    for (int i = 0; i < sample.components.size(); ++i) {
+      for (Query query : sample.components.get(i)) {
+        componentOfQuery.put(query, i);
+      }
+      sampledQueries.addAll(sample.components.get(i));
+    }
+
+    Set<Set<Query>> clusters = algo.clusterQueries(sampledQueries);
+    double mergesCount = algo.getLastMergesCount() / sampleRate;
+    long[] clustersOfComponent = new long[sample.components.size()];
+    long[] largeClustersOfComponent = new long[sample.components.size()];
+    double[] clusterSizes = new double[32];
+    for (Set<Query> cluster : clusters) {
+      int component = componentOfQuery.get(cluster.iterator().next());
+      ++clustersOfComponent[component];
+      if (cluster.size() >= minSizeOfCluster) {
+        ++largeClustersOfComponent[component];
+      }
+      clusterSizes[31 - Integer.numberOfLeadingZeros(cluster.size())] += 1 / sampleRate;
+    }
+    long[] queryMergesOfComponent = new long[sample.components.size()];
+    for (int i = 0; i < sample.components.size(); ++i) {
+      queryMergesOfComponent[i] = sample.components.get(i).size() - clustersOfComponent[i];
+    }
+
+    long giantClustersCount = 0;
+    long giantLargeClustersCount = 0;
+    if (!sample.giantQueries.isEmpty()) {
+      for (Set<Query> cluster : algo.clusterQueries(new HashSet<>(sample.giantQueries.values()))) {
+        ++giantClustersCount;
+        if (cluster.size() >= minSizeOfCluster) {
+          ++giantLargeClustersCount;
+        }
+      }
+    }
+    GiantStratum giant = new GiantStratum(giantComponentSize, sample.giantComponentsCount,
+        sample.giantQueriesCount, sample.giantQueries.size(), minSizeOfCluster,
+        giantClustersCount, giantLargeClustersCount);
+
+    return new Report(sample.componentsCount, sample.components.size(), sample.queriesCount,
+        sampledQueries.size(), minSizeOfCluster, estimate(clustersOfComponent),
+        estimate(largeClustersOfComponent), estimate(queryMergesOfComponent), mergesCount,
+        clusterSizes, giant, (System.nanoTime() - startTime) / 1000000);
+  }
+
+  private boolean isSampled(Set<Query> component) {
+    // the smallest hash doesn't depend on order of queries in component
+    int minHash = Integer.MAX_VALUE;
+    for (Query query : component) {
+      minHash = Math.min(minHash, query.hashCode());
+    }
+    return isSampled(minHash);
+  }
+
+  /**
+   * @param minHash the smallest hash of queries of component
+   */
+  private boolean isSampled(int minHash) {
+    return sampleRate == 1 || (CountMinSketch.mix(minHash ^ seed) >>> 11) * 0x1.0p-53 < sampleRate;
+  }
+
+  private boolean isSampledDocument(int hash) {
+    return sampleRate == 1
+        || (CountMinSketch.mix(hash ^ seed ^ DOCUMENT_SEED_SALT) >>> 11) * 0x1.0p-53 < sampleRate;
+  }
+
+  private Estimate estimate(long[] valuesOfSampledComponents) {
+    double total = 0;
+    double variance = 0;
+    for (long value : valuesOfSampledComponents) {
+      total += value / sampleRate;
+      variance += (1 - sampleRate) * value * value / (sampleRate * sampleRate);
+    }
+    return new Estimate(total, Math.sqrt(variance));
+  }
+
+  /**
+   * sampled part of the graph and sizes of strata
+   */
+  private static class Sample {
+
+    private final List<Set<Query>> components = new ArrayList<>();
+    private int componentsCount;
+    private int queriesCount;
+    private int giantComponentsCount;
+    private int giantQueriesCount;
+    // queries of giant components with links to sampled documents only, by name
+    private final Map<String, Query> giantQueries = new HashMap<>();
+
+    void addGiantLink(String query, Document document, long linksCount) {
+      giantQueries.computeIfAbsent(query, Query::new).addRelatedDocument(document, linksCount);
+    }
+  }
+}
@@ -0,0 +1,158 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Messages which ClusteringCoordinator and ClusteringWorker exchange:
+ * <p>
+ * hello: id of worker which it got from launcher, worker sends it once after it connects
+ * <p>
+ * request: partition id, config of engine (see EngineConfig), queries with related documents and
+ * counts of links. Request with partition id STOP asks worker to finish
+ * <p>
+ * response: partition id and clusters of queries
+ */
+final class ClusteringProtocol {
+
+  static final int STOP = -1;
+
+  private ClusteringProtocol() {
+  }
+
+  static void writeHello(DataOutputStream output, int workerId) throws IOException {
+    output.writeInt(workerId);
+    output.flush();
+  }
+
+  static int readHello(DataInputStream input) throws IOException {
+    return input.readInt();
+  }
+
+  static void writeRequest(DataOutputStream output, int partitionId, EngineConfig config,
+      Set<Query> queries) throws IOException {
+    output.writeInt(partitionId);
+    writeString(output, config.getKind().name());
+    output.writeDouble(config.getThreshold());
+    writeString(output, config.getDistanceMatrixType().name());
+    writeString(output, config.getDistanceKernel().name());
+    output.writeLong(config.getTimeBudgetMillis());
+    output.writeLong(config.getMemoryBudget());
+    output.writeInt(queries.size());
+    for (Query q : queries) {
+      writeString(output, q.toString());
+      output.writeInt(q.getRelatedDocuments().size());
+      for (Document d : q.getRelatedDocuments()) {
+        writeString(output, d.toString());
+        output.writeLong(q.getLinksCount(d));
+      }
+    }
+    output.flush();
+  }
+
+  static void writeStop(DataOutputStream output) throws IOException {
+    output.writeInt(STOP);
+    output.flush();
+  }
+
+  static Request readRequest(DataInputStream input) throws IOException {
+    int partitionId = input.readInt();
+    if (partitionId == STOP) {
+      return new Request(STOP, null, new HashSet<>());
+    }
+    EngineConfig config;
+    try {
+      config = new EngineConfig(EngineConfig.Kind.valueOf(readString(input)), input.readDouble(),
+          DistanceMatrixType.valueOf(readString(input)), DistanceKernel.valueOf(readString(input)),
+          input.readLong(), input.readLong());
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Wrong config of engine", e);
+    }
+    int queriesCount = input.readInt();
+    Set<Query> queries = new HashSet<>();
+    Map<String, Document> documents = new HashMap<>();
+    for (int i = 0; i < queriesCount; ++i) {
+      Query q = new Query(readString(input));
+      int documentsCount = input.readInt();
+      for (int j = 0; j < documentsCount; ++j) {
+        Document d = documents.computeIfAbsent(readString(input), Document::new);
+        q.addRelatedDocument(d, input.readLong());
+      }
+      queries.add(q);
+    }
+    return new Request(partitionId, config, queries);
+  }
+
+  static void writeResponse(DataOutputStream output, int partitionId, Set<Set<Query>> clusters)
+      throws IOException {
+    output.writeInt(partitionId);
+    output.writeInt(clusters.size());
+    for (Set<Query> cluster : clusters) {
+      output.writeInt(cluster.size());
+      for (Query q : cluster) {
+        writeString(output, q.toString());
+      }
+    }
+    output.flush();
+  }
+
+  /**
+   * @param queries queries of requested partition by their names, clusters are made of them
+   * @throws IOException if response doesn't belong to expected partition
+   */
+  static Set<Set<Query>> readResponse(DataInputStream input, int expectedPartitionId,
+      Map<String, Query> queries) throws IOException {
+    int partitionId = input.readInt();
+    if (partitionId != expectedPartitionId) {
+      throw new IOException("Expected response for partition " + expectedPartitionId
+          + ", but got for " + partitionId);
+    }
+    int clustersCount = input.readInt();
+    Set<Set<Query>> clusters = new HashSet<>();
+    for (int i = 0; i < clustersCount; ++i) {
+      int clusterSize = input.readInt();
+      Set<Query> cluster = new HashSet<>();
+      for (int j = 0; j < clusterSize; ++j) {
+        String name = readString(input);
+        Query q = queries.get(name);
+        if (q == null) {
+          throw new IOException("Unknown query in response: " + name);
+        }
+        cluster.add(q);
+      }
+      clusters.add(cluster);
+    }
+    return clusters;
+  }
+
+  // DataOutputStream.writeUTF can't write strings longer than 64KB
+  private static void writeString(DataOutputStream output, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static String readString(DataInputStream input) throws IOException {
+    byte[] bytes = new byte[input.readInt()];
+    input.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static class Request {
+
+    final int partitionId;
+    // null for STOP
+    final EngineConfig config;
+    final Set<Query> queries;
+
+    Request(int partitionId, EngineConfig config, Set<Query> queries) {
+      this.partitionId = partitionId;
+      this.config = config;
+      this.queries = queries;
+    }
+  }
+}
@@ -0,0 +1,56 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Connects to ClusteringCoordinator and clusters partitions of the graph which coordinator sends,
+ * with engine which coordinator configures, until it asks to stop
+ * <p>
+ * Usage: ClusteringWorker host port workerId
+ */
+public class ClusteringWorker {
+
+  private static final Logger WORKER_LOGGER = Logger.getLogger(ClusteringWorker.class.getName());
+
+  private ClusteringWorker() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3) {
+      System.err.println("Usage: ClusteringWorker host port workerId");
+      System.exit(1);
+    }
+    run(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+  }
+
+  /**
+   * serves coordinator which listens on host:port until it asks to stop
+   *
+   * @param workerId id which coordinator passed to launcher
+   */
+  public static void run(String host, int port, int workerId) throws IOException {
+    try (Socket socket = new Socket(host, port);
+        DataInputStream input = new DataInputStream(
+            new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream output = new DataOutputStream(
+            new BufferedOutputStream(socket.getOutputStream()))) {
+      ClusteringProtocol.writeHello(output, workerId);
+      while (true) {
+        ClusteringProtocol.Request request = ClusteringProtocol.readRequest(input);
+        if (request.partitionId == ClusteringProtocol.STOP) {
+          return;
+        }
+        WORKER_LOGGER.log(Level.FINE, "Partition {0}: {1} queries",
+            new Object[]{request.partitionId, request.queries.size()});
+        Set<Set<Query>> clusters = request.config.create().clusterQueries(request.queries);
+        ClusteringProtocol.writeResponse(output, request.partitionId, clusters);
+      }
+    }
+  }
+}
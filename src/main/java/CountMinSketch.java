@@ -0,0 +1,125 @@
+/**
+ * Count-Min sketch: approximate counts of keys in fixed memory. Estimate of count is never less
+ * than the real count and exceeds it by at most 2 * (total count) / width with probability at
+ * least 1 - 2^-depth.
+ * <p>
+ * Conservative update is used: adding key increments only counters which are equal to the current
+ * estimate of the key, so keys from the long tail inflate estimates of other keys less
+ */
+public class CountMinSketch {
+
+  private final int depth;
+  private final int mask;
+  // row i is counters[i * width, (i + 1) * width)
+  private final int[] counters;
+  private long totalCount = 0;
+
+  /**
+   * @param depth count of rows, every key has one counter in every row
+   * @param width count of counters in row, rounded up to power of two
+   */
+  public CountMinSketch(int depth, int width) {
+    if (depth <= 0 || width <= 0) {
+      throw new IllegalArgumentException("Depth and width should be positive");
+    }
+    int roundedWidth = Integer.highestOneBit(width);
+    if (roundedWidth < width) {
+      roundedWidth <<= 1;
+    }
+    if ((long) depth * roundedWidth > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("Sketch is too large");
+    }
+    this.depth = depth;
+    this.mask = roundedWidth - 1;
+    this.counters = new int[depth * roundedWidth];
+  }
+
+  /**
+   * @return sketch with depth rows which takes at most memoryBytes of heap
+   */
+  public static CountMinSketch withMemory(long memoryBytes, int depth) {
+    if (depth <= 0) {
+      throw new IllegalArgumentException("Depth should be positive");
+    }
+    long width = Integer.highestOneBit((int) Math.min(memoryBytes / 4 / depth, 1 << 30));
+    if (width <= 0) {
+      throw new IllegalArgumentException("Memory is not enough for sketch");
+    }
+    return new CountMinSketch(depth, (int) width);
+  }
+
+  /**
+   * @return 64-bit key of pair of strings
+   */
+  public static long pairKey(String first, String second) {
+    return (long) first.hashCode() << 32 | second.hashCode() & 0xffffffffL;
+  }
+
+  public void add(long key) {
+    ++totalCount;
+    long hash = mix(key);
+    int firstHash = (int) hash;
+    int secondHash = (int) (hash >>> 32) | 1;
+    int estimate = Integer.MAX_VALUE;
+    for (int row = 0; row < depth; ++row) {
+      estimate = Math.min(estimate, counters[index(row, firstHash, secondHash)]);
+    }
+    if (estimate == Integer.MAX_VALUE) {
+      return;
+    }
+    for (int row = 0; row < depth; ++row) {
+      int index = index(row, firstHash, secondHash);
+      if (counters[index] == estimate) {
+        counters[index] = estimate + 1;
+      }
+    }
+  }
+
+  /**
+   * @return count of key or more
+   */
+  public int estimate(long key) {
+    long hash = mix(key);
+    int firstHash = (int) hash;
+    int secondHash = (int) (hash >>> 32) | 1;
+    int estimate = Integer.MAX_VALUE;
+    for (int row = 0; row < depth; ++row) {
+      estimate = Math.min(estimate, counters[index(row, firstHash, secondHash)]);
+    }
+    return estimate;
+  }
+
+  /**
+   * @return count of calls of add
+   */
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  public int getWidth() {
+    return mask + 1;
+  }
+
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * counter of key in row, hashes of rows are made of two hashes (Kirsch-Mitzenmacher)
+   */
+  private int index(int row, int firstHash, int secondHash) {
+    return row * (mask + 1) + (firstHash + row * secondHash & mask);
+  }
+
+  /**
+   * finalizer of MurmurHash3, also used by ClusteringPreview
+   */
+  static long mix(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return key;
+  }
+}
@@ -0,0 +1,236 @@
+import java.util.logging.Logger;
+
+/**
+ * The same clustering as FlatAlgo does, but distances are never recomputed from neighbours after
+ * merges. For every pair of siblings the sum of links to their common neighbours is stored, and
+ * totals of links are stored for every cluster, so distance of a pair is 1 - common / (total1 +
+ * total2) at any time.
+ * <p>
+ * When cluster b is merged into cluster a, totals of their neighbours don't change and common
+ * links of two neighbours x and y change by a value which depends only on links of x and y to a
+ * and b:
+ * <ul>
+ * <li>x linked only to a, y linked only to b: a becomes their common neighbour,
+ * common += links(x, a) + links(y, b)</li>
+ * <li>x linked only to a, y linked to both: common += links(y, b)</li>
+ * <li>x linked only to b, y linked to both: common += links(y, a)</li>
+ * <li>both linked to a and b: common doesn't change</li>
+ * </ul>
+ * Common links of merged cluster and its sibling s are common(a, s) + common(b, s) without links
+ * of s to common neighbours of a and b, which are counted twice. So every merge costs one map
+ * update per changed pair and one pass over neighbours of common neighbours of a and b, instead of
+ * one intersection of neighbours per changed pair.
+ * <p>
+ * Common links are stored for all pairs of siblings, not only for those closer than threshold,
+ * because distances of far pairs may fall below threshold after merges. It takes as much memory as
+ * distance matrix of Algo
+ */
+public class DeltaAlgo extends IndexedGraphAlgo {
+
+  private static final Logger DELTA_ALGO_LOGGER = Logger.getLogger(DeltaAlgo.class.getName());
+
+  // sums of links to common neighbours of all pairs of siblings, in both directions
+  private IntLongMap[] commonLinks;
+
+  public DeltaAlgo() {
+    this(0.01);
+  }
+
+  public DeltaAlgo(double threshold) {
+    super(DELTA_ALGO_LOGGER, threshold);
+  }
+
+  /**
+   * sums up common links of every node and its siblings with greater index in one pass over
+   * neighbours of neighbours of the node
+   */
+  @Override
+  void initPairs() {
+    commonLinks = new IntLongMap[nodesCount];
+    for (int i = 0; i < nodesCount; ++i) {
+      commonLinks[i] = new IntLongMap();
+    }
+    long[] common = new long[nodesCount];
+    int[] touchedNodes = new int[nodesCount];
+    for (int node = 0; node < nodesCount; ++node) {
+      IntLongMap nodeNeighbours = neighbours[node];
+      int touchedCount = 0;
+      for (int slot = 0; slot < nodeNeighbours.capacity(); ++slot) {
+        if (!nodeNeighbours.isUsed(slot)) {
+          continue;
+        }
+        long nodeLinks = nodeNeighbours.valueAt(slot);
+        IntLongMap siblings = neighbours[nodeNeighbours.keyAt(slot)];
+        for (int siblingSlot = 0; siblingSlot < siblings.capacity(); ++siblingSlot) {
+          if (!siblings.isUsed(siblingSlot) || siblings.keyAt(siblingSlot) <= node) {
+            continue;
+          }
+          int sibling = siblings.keyAt(siblingSlot);
+          if (!commonLinks[node].containsKey(sibling)) {
+            commonLinks[node].put(sibling, 0);
+            touchedNodes[touchedCount++] = sibling;
+          }
+          common[sibling] += nodeLinks + siblings.valueAt(siblingSlot);
+        }
+      }
+      for (int i = 0; i < touchedCount; ++i) {
+        int sibling = touchedNodes[i];
+        putCommonLinks(node, sibling, common[sibling]);
+        common[sibling] = 0;
+      }
+      storedPairsCount[sideOf(node)] += touchedCount;
+    }
+  }
+
+  @Override
+  void releasePairs() {
+    commonLinks = null;
+  }
+
+  // entry is stale if the pair was changed after it had been pushed
+  @Override
+  boolean isCurrent(int first, int second, double distance) {
+    return commonLinks[first].containsKey(second)
+        && distance(commonLinks[first].get(second, 0), first, second) == distance;
+  }
+
+  @Override
+  void pushPairs(PairHeap pairs, int node) {
+    IntLongMap row = commonLinks[node];
+    for (int slot = 0; slot < row.capacity(); ++slot) {
+      if (row.isUsed(slot) && row.keyAt(slot) > node) {
+        double distance = distance(row.valueAt(slot), node, row.keyAt(slot));
+        if (distance < threshold) {
+          pairs.push(distance, node, row.keyAt(slot));
+        }
+      }
+    }
+  }
+
+  /**
+   * Common links of changed pairs are updated by deltas, see the description of class
+   */
+  @Override
+  void merge(int first, int second) {
+    IntLongMap firstNeighbours = neighbours[first];
+    IntLongMap secondNeighbours = neighbours[second];
+    int[] onlyFirst = new int[firstNeighbours.size()];
+    long[] onlyFirstLinks = new long[firstNeighbours.size()];
+    int[] common = new int[Math.min(firstNeighbours.size(), secondNeighbours.size())];
+    long[] commonFirstLinks = new long[common.length];
+    long[] commonSecondLinks = new long[common.length];
+    int[] onlySecond = new int[secondNeighbours.size()];
+    long[] onlySecondLinks = new long[secondNeighbours.size()];
+    int onlyFirstCount = 0;
+    int commonCount = 0;
+    int onlySecondCount = 0;
+    for (int slot = 0; slot < firstNeighbours.capacity(); ++slot) {
+      if (firstNeighbours.isUsed(slot)) {
+        int n = firstNeighbours.keyAt(slot);
+        long secondLinks = secondNeighbours.get(n, -1);
+        if (secondLinks >= 0) {
+          commonFirstLinks[commonCount] = firstNeighbours.valueAt(slot);
+          commonSecondLinks[commonCount] = secondLinks;
+          common[commonCount++] = n;
+        } else {
+          onlyFirstLinks[onlyFirstCount] = firstNeighbours.valueAt(slot);
+          onlyFirst[onlyFirstCount++] = n;
+        }
+      }
+    }
+    for (int slot = 0; slot < secondNeighbours.capacity(); ++slot) {
+      if (secondNeighbours.isUsed(slot) && !firstNeighbours.containsKey(
+          secondNeighbours.keyAt(slot))) {
+        onlySecondLinks[onlySecondCount] = secondNeighbours.valueAt(slot);
+        onlySecond[onlySecondCount++] = secondNeighbours.keyAt(slot);
+      }
+    }
+
+    mergeCommonLinks(first, second, common, commonCount);
+    mergeNeighbours(first, second);
+
+    // totals of the merged cluster have changed, so all its distances are pushed again
+    IntLongMap row = commonLinks[first];
+    for (int slot = 0; slot < row.capacity(); ++slot) {
+      if (row.isUsed(slot)) {
+        pushIfClose(first, row.keyAt(slot), row.valueAt(slot));
+      }
+    }
+
+    for (int i = 0; i < onlyFirstCount; ++i) {
+      for (int j = 0; j < onlySecondCount; ++j) {
+        addCommonLinks(onlyFirst[i], onlySecond[j], onlyFirstLinks[i] + onlySecondLinks[j]);
+      }
+      for (int j = 0; j < commonCount; ++j) {
+        addCommonLinks(onlyFirst[i], common[j], commonSecondLinks[j]);
+      }
+    }
+    for (int i = 0; i < onlySecondCount; ++i) {
+      for (int j = 0; j < commonCount; ++j) {
+        addCommonLinks(onlySecond[i], common[j], commonFirstLinks[j]);
+      }
+    }
+  }
+
+  /**
+   * replaces rows of common links of first and second by the row of merged cluster, must be
+   * called before neighbours of second are moved to first
+   */
+  private void mergeCommonLinks(int first, int second, int[] common, int commonCount) {
+    IntLongMap firstRow = commonLinks[first];
+    IntLongMap secondRow = commonLinks[second];
+    int side = sideOf(first);
+    storedPairsCount[side] -= firstRow.size() + secondRow.size();
+    if (firstRow.remove(second)) {
+      ++storedPairsCount[side];
+    }
+    for (int slot = 0; slot < secondRow.capacity(); ++slot) {
+      if (secondRow.isUsed(slot) && secondRow.keyAt(slot) != first) {
+        firstRow.add(secondRow.keyAt(slot), secondRow.valueAt(slot));
+      }
+    }
+    // links of sibling to common neighbours of first and second were summed up twice
+    for (int i = 0; i < commonCount; ++i) {
+      IntLongMap siblings = neighbours[common[i]];
+      for (int slot = 0; slot < siblings.capacity(); ++slot) {
+        if (siblings.isUsed(slot)) {
+          int sibling = siblings.keyAt(slot);
+          if (sibling != first && sibling != second) {
+            firstRow.add(sibling, -siblings.valueAt(slot));
+          }
+        }
+      }
+    }
+    for (int slot = 0; slot < firstRow.capacity(); ++slot) {
+      if (firstRow.isUsed(slot)) {
+        IntLongMap siblingRow = commonLinks[firstRow.keyAt(slot)];
+        siblingRow.remove(second);
+        siblingRow.put(first, firstRow.valueAt(slot));
+      }
+    }
+    storedPairsCount[side] += firstRow.size();
+    commonLinks[second] = null;
+  }
+
+  private void addCommonLinks(int first, int second, long delta) {
+    long common = commonLinks[first].get(second, -1);
+    if (common < 0) {
+      common = 0;
+      ++storedPairsCount[sideOf(first)];
+    }
+    putCommonLinks(first, second, common + delta);
+  }
+
+  private void putCommonLinks(int first, int second, long common) {
+    commonLinks[first].put(second, common);
+    commonLinks[second].put(first, common);
+    pushIfClose(first, second, common);
+  }
+
+  private void pushIfClose(int first, int second, long common) {
+    double distance = distance(common, first, second);
+    if (distance < threshold) {
+      push(first, second, distance);
+    }
+  }
+}
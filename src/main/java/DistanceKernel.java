@@ -0,0 +1,161 @@
+import java.util.Arrays;
+
+/**
+ * Distances between clusters which Algo is able to use. Distance lies in [0, 1], it is 1 for
+ * clusters without common neighbours.
+ * <p>
+ * Neighbours of cluster are given as ids sorted in increasing order and counts of links to them
+ * (see Cluster.getSortedNeighbourIds). Links between two clusters are counted the same way from
+ * both of them, so count of links of common neighbour c is a_c for the first cluster and b_c for
+ * the second one. All kernels use the same loop over common neighbours: operation is passed as
+ * constant, so after inlining C2 compiles separate loop for every kernel without virtual calls
+ */
+public enum DistanceKernel {
+  /**
+   * 1 - sum(a_c + b_c over common c) / (all links of both clusters), metric of the paper
+   */
+  COMMON_LINKS {
+    @Override
+    double distance(long[] firstIds, long[] firstLinks, int firstCount, long firstTotal,
+        long[] secondIds, long[] secondLinks, int secondCount, long secondTotal) {
+      double total = checkTotal((double) firstTotal + secondTotal);
+      if (total == 0) {
+        return 1;
+      }
+      double common = sumOverCommon(firstIds, firstLinks, firstCount, secondIds, secondLinks,
+          secondCount, SUM);
+      return 1. - common / total;
+    }
+  },
+  /**
+   * 1 - sum(min(a_c, b_c)) / sum(max(a_c, b_c)), sums are over all neighbours of both clusters
+   */
+  WEIGHTED_JACCARD {
+    @Override
+    double distance(long[] firstIds, long[] firstLinks, int firstCount, long firstTotal,
+        long[] secondIds, long[] secondLinks, int secondCount, long secondTotal) {
+      double total = checkTotal((double) firstTotal + secondTotal);
+      double intersection = sumOverCommon(firstIds, firstLinks, firstCount, secondIds, secondLinks,
+          secondCount, MIN);
+      double union = total - intersection;
+      if (union == 0) {
+        return 1;
+      }
+      return 1. - intersection / union;
+    }
+  },
+  /**
+   * 1 - cosine of angle between vectors of counts of links
+   */
+  COSINE {
+    @Override
+    double distance(long[] firstIds, long[] firstLinks, int firstCount, long firstTotal,
+        long[] secondIds, long[] secondLinks, int secondCount, long secondTotal) {
+      checkTotal((double) firstTotal + secondTotal);
+      double firstNorm = squaredNorm(firstLinks, firstCount);
+      double secondNorm = squaredNorm(secondLinks, secondCount);
+      if (firstNorm == 0 || secondNorm == 0) {
+        return 1;
+      }
+      double product = sumOverCommon(firstIds, firstLinks, firstCount, secondIds, secondLinks,
+          secondCount, PRODUCT);
+      return Math.max(0, 1. - product / Math.sqrt(firstNorm * secondNorm));
+    }
+  };
+
+  // operations which are applied to counts of links of common neighbour
+  private static final int SUM = 0;
+  private static final int MIN = 1;
+  private static final int PRODUCT = 2;
+
+  // if one cluster has this many times more neighbours than the other one, neighbours of the
+  // smaller one are looked for by binary search instead of merging of both arrays
+  private static final int BINARY_SEARCH_RATIO = 16;
+
+  /**
+   * @param firstIds ids of neighbours of the first cluster in increasing order
+   * @param firstLinks counts of links to neighbours from firstIds, zero for deleted neighbours
+   * @param firstCount count of valid elements of firstIds and firstLinks
+   * @param firstTotal sum of firstLinks
+   */
+  abstract double distance(long[] firstIds, long[] firstLinks, int firstCount, long firstTotal,
+      long[] secondIds, long[] secondLinks, int secondCount, long secondTotal);
+
+  <CType, NType> double distance(Cluster<CType, NType> firstCluster,
+      Cluster<CType, NType> secondCluster) {
+    return distance(firstCluster.getSortedNeighbourIds(), firstCluster.getSortedNeighbourLinks(),
+        firstCluster.getSortedNeighboursCount(), firstCluster.getTotalCountOfLinks(),
+        secondCluster.getSortedNeighbourIds(), secondCluster.getSortedNeighbourLinks(),
+        secondCluster.getSortedNeighboursCount(), secondCluster.getTotalCountOfLinks());
+  }
+
+  private static double checkTotal(double total) {
+    // possible overflow
+    if (total < 0) {
+      throw new RuntimeException("Total count of links is below zero while computing distance " +
+          "between cluster (possible overflow)");
+    }
+    return total;
+  }
+
+  /**
+   * @return sum of operation applied to counts of links of every common neighbour
+   */
+  private static double sumOverCommon(long[] firstIds, long[] firstLinks, int firstCount,
+      long[] secondIds, long[] secondLinks, int secondCount, int operation) {
+    if (firstCount > secondCount) {
+      return sumOverCommon(secondIds, secondLinks, secondCount, firstIds, firstLinks, firstCount,
+          operation);
+    }
+    double sum = 0;
+    if ((long) firstCount * BINARY_SEARCH_RATIO < secondCount) {
+      int from = 0;
+      for (int i = 0; i < firstCount && from < secondCount; ++i) {
+        int j = Arrays.binarySearch(secondIds, from, secondCount, firstIds[i]);
+        if (j >= 0) {
+          sum += apply(firstLinks[i], secondLinks[j], operation);
+          from = j + 1;
+        } else {
+          from = -j - 1;
+        }
+      }
+      return sum;
+    }
+
+    int i = 0;
+    int j = 0;
+    while (i < firstCount && j < secondCount) {
+      long firstId = firstIds[i];
+      long secondId = secondIds[j];
+      if (firstId == secondId) {
+        sum += apply(firstLinks[i], secondLinks[j], operation);
+        ++i;
+        ++j;
+      } else if (firstId < secondId) {
+        ++i;
+      } else {
+        ++j;
+      }
+    }
+    return sum;
+  }
+
+  private static double apply(long first, long second, int operation) {
+    switch (operation) {
+      case SUM:
+        return (double) first + second;
+      case MIN:
+        return Math.min(first, second);
+      default:
+        return (double) first * second;
+    }
+  }
+
+  private static double squaredNorm(long[] links, int count) {
+    double norm = 0;
+    for (int i = 0; i < count; ++i) {
+      norm += (double) links[i] * links[i];
+    }
+    return norm;
+  }
+}
@@ -2,6 +2,7 @@
  * Created by sandulmv on 29.07.17.
  */
 
+import java.util.Collection;
 import java.util.Map;
 
 /**
@@ -51,6 +52,20 @@ public interface DistanceMatrix<T> {
    */
   Map<T, Double> deleteRow(T point);
 
+  /**
+   * removes distances between point and every point of otherCoordinates. Unlike deleteRow(point),
+   * it neither looks for the other coordinates nor returns deleted distances, so matrices which
+   * can't enumerate a row cheaply may discard it lazily, but deleted distances should not be
+   * visible after this call. Default implementation deletes distances one by one
+   *
+   * @param otherCoordinates all points which have distance with point
+   */
+  default void deleteRow(T point, Collection<T> otherCoordinates) {
+    for (T other : otherCoordinates) {
+      deleteDistance(point, other);
+    }
+  }
+
   /**
    * @return pair with which smallest distance is associated null if no distances stored
    */
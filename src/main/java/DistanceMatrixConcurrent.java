@@ -0,0 +1,146 @@
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe DistanceMatrix: all methods can be called by several threads at once.
+ * <p>
+ * Distances are stored in ConcurrentHashMap by pairs and in ConcurrentSkipListSet ordered by
+ * distance. Every change of one pair is made inside ConcurrentHashMap.compute, so changes of the
+ * same pair are serialized by the lock of its bin and changes of different pairs don't block each
+ * other. While distance of a pair is being replaced, the ordered set contains both old and new
+ * entries of the pair, so getPairWithMinDistance never misses a stored pair. When no thread
+ * changes the matrix, both structures hold the same entries.
+ * <p>
+ * This implementation does not allow to have null in coordinates
+ *
+ * @param <T> type of coordinates
+ */
+public class DistanceMatrixConcurrent<T> implements DistanceMatrix<T> {
+
+  private final ConcurrentHashMap<UnorderedPair<T>, Entry<T>> distancesByPair =
+      new ConcurrentHashMap<>();
+  // entries with equal distances are ordered by the time they were added
+  private final ConcurrentSkipListSet<Entry<T>> distancesByValue = new ConcurrentSkipListSet<>(
+      Comparator.<Entry<T>>comparingDouble(e -> e.distance).thenComparingLong(e -> e.order));
+  private final AtomicLong nextOrder = new AtomicLong();
+
+  private static final class Entry<T> {
+
+    final UnorderedPair<T> pair;
+    final double distance;
+    final long order;
+
+    Entry(UnorderedPair<T> pair, double distance, long order) {
+      this.pair = pair;
+      this.distance = distance;
+      this.order = order;
+    }
+  }
+
+  /**
+   * @throws IllegalArgumentException when point1 or point2 is null or distance less then 0
+   */
+  @Override
+  public Double addDistance(T point1, T point2, double distance) {
+    if (distance < 0) {
+      throw new IllegalArgumentException("Distance shouldn't be less than 0");
+    }
+    if (point1 == null || point2 == null) {
+      throw new IllegalArgumentException("Points should be not null");
+    }
+
+    UnorderedPair<T> key = new UnorderedPairHash<>(point1, point2);
+    Double[] oldDistance = new Double[1];
+    distancesByPair.compute(key, (pair, oldEntry) -> {
+      Entry<T> newEntry = new Entry<>(pair, distance, nextOrder.getAndIncrement());
+      distancesByValue.add(newEntry);
+      if (oldEntry != null) {
+        distancesByValue.remove(oldEntry);
+        oldDistance[0] = oldEntry.distance;
+      }
+      return newEntry;
+    });
+    return oldDistance[0];
+  }
+
+  @Override
+  public Double deleteDistance(T point1, T point2) {
+    if (point1 == null || point2 == null) {
+      return null;
+    }
+
+    Double[] oldDistance = new Double[1];
+    distancesByPair.computeIfPresent(new UnorderedPairHash<>(point1, point2), (pair, oldEntry) -> {
+      distancesByValue.remove(oldEntry);
+      oldDistance[0] = oldEntry.distance;
+      return null;
+    });
+    return oldDistance[0];
+  }
+
+  @Override
+  public boolean containsDistance(T point1, T point2) {
+    if (point1 == null || point2 == null) {
+      return false;
+    }
+    return distancesByPair.containsKey(new UnorderedPairHash<>(point1, point2));
+  }
+
+  @Override
+  public Double getDistance(T point1, T point2) {
+    if (point1 == null || point2 == null) {
+      return null;
+    }
+    Entry<T> entry = distancesByPair.get(new UnorderedPairHash<>(point1, point2));
+    return entry == null ? null : entry.distance;
+  }
+
+  /**
+   * Distances of point which are added during this call may be left in matrix
+   */
+  @Override
+  public Map<T, Double> deleteRow(T point) {
+    Map<T, Double> row = new HashMap<>();
+    if (point == null) {
+      return row;
+    }
+    for (UnorderedPair<T> pair : distancesByPair.keySet()) {
+      if (pair.inPair(point)) {
+        T other = pair.getNotEqualTo(point);
+        Double distance = deleteDistance(point, other == null ? point : other);
+        if (distance != null) {
+          row.put(other, distance);
+        }
+      }
+    }
+    return row;
+  }
+
+  @Override
+  public UnorderedPair<T> getPairWithMinDistance() {
+    try {
+      return distancesByValue.first().pair;
+    } catch (NoSuchElementException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public UnorderedPair<T> getPairWithMaxDistance() {
+    try {
+      return distancesByValue.last().pair;
+    } catch (NoSuchElementException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public int size() {
+    return distancesByPair.size();
+  }
+}
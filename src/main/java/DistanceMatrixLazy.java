@@ -0,0 +1,261 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * This implementation does not delete distances eagerly when whole row is deleted. Every point has
+ * version stamp and every distance remembers versions of its points at the moment it was added.
+ * deleteRow(point, otherCoordinates) only increments version of point, so all its distances become
+ * stale at once. Stale distances are invisible for all methods and are discarded when
+ * getPairWithMinDistance meets them on the top of the heap. When ratio of stale distances grows
+ * too large whole matrix is compacted
+ * <p>
+ * This implementation does not allow to have null in coordinates
+ *
+ * @param <T> type of coordinates
+ */
+public class DistanceMatrixLazy<T> implements DistanceMatrix<T> {
+
+  // matrix is compacted when stale distances make more than this part of the heap
+  private static final double MAX_STALE_RATIO = 0.5;
+  // small matrices are not worth compaction
+  private static final int MIN_SIZE_TO_COMPACT = 1 << 10;
+
+  private HashMap<UnorderedPair<T>, Entry<T>> distMatrixPairKey;
+  private PriorityQueue<Entry<T>> distHeap;
+  // only points which rows were deleted lazily have versions, others have version 0
+  private HashMap<T, Integer> versions;
+  // count of stale distances which are still stored in the heap, it is an estimation when rows
+  // were deleted lazily
+  private long staleCount;
+  private boolean hasStaleRows;
+
+  public DistanceMatrixLazy() {
+    distMatrixPairKey = new HashMap<>();
+    distHeap = new PriorityQueue<>(Comparator.comparingDouble(e -> e.distance));
+    versions = new HashMap<>();
+    staleCount = 0;
+    hasStaleRows = false;
+  }
+
+  /**
+   * @param point1 is one of two coordinates with which distance will be associated
+   * @param point2 is one of two coordinates with which distance will be associated
+   * @param distance between point1 and point2
+   * @return old distance between point1 and point2 or null if there wasn't such distance
+   * @throws IllegalArgumentException when point1 or point2 is null or distance less then 0
+   */
+  @Override
+  public Double addDistance(T point1, T point2, double distance) throws IllegalArgumentException {
+    if (distance < 0) {
+      throw new IllegalArgumentException("Distance shouldn't be less than 0");
+    }
+
+    if (point1 == null || point2 == null) {
+      throw new IllegalArgumentException("Points should be not null");
+    }
+
+    UnorderedPair<T> key = new UnorderedPairHash<>(point1, point2);
+    Entry<T> newEntry = new Entry<>(key, point1, point2, distance,
+        getVersion(point1), getVersion(point2));
+    Entry<T> oldEntry = distMatrixPairKey.put(key, newEntry);
+    distHeap.add(newEntry);
+
+    Double oldDistance = discard(oldEntry);
+    compactIfNeeded();
+    return oldDistance;
+  }
+
+  @Override
+  public Double deleteDistance(T point1, T point2) {
+    if (point1 == null || point2 == null) {
+      return null;
+    }
+
+    return discard(distMatrixPairKey.remove(new UnorderedPairHash<>(point1, point2)));
+  }
+
+  @Override
+  public Map<T, Double> deleteRow(T point) {
+    if (point == null) {
+      return new HashMap<>();
+    }
+
+    Map<T, Double> row = new HashMap<>();
+    Iterator<Entry<T>> it = distMatrixPairKey.values().iterator();
+    while (it.hasNext()) {
+      Entry<T> e = it.next();
+      if (e.pair.inPair(point)) {
+        it.remove();
+        Double distance = discard(e);
+        if (distance != null) {
+          row.put(e.pair.getNotEqualTo(point), distance);
+        }
+      }
+    }
+    return row;
+  }
+
+  /**
+   * Distances are not deleted here, they just become stale
+   */
+  @Override
+  public void deleteRow(T point, Collection<T> otherCoordinates) {
+    if (point == null) {
+      return;
+    }
+
+    versions.merge(point, 1, Integer::sum);
+    staleCount += otherCoordinates.size();
+    hasStaleRows = true;
+    compactIfNeeded();
+  }
+
+  @Override
+  public Double getDistance(T point1, T point2) {
+    if (point1 == null || point2 == null) {
+      return null;
+    }
+
+    Entry<T> e = distMatrixPairKey.get(new UnorderedPairHash<>(point1, point2));
+    return isActual(e) ? e.distance : null;
+  }
+
+  @Override
+  public boolean containsDistance(T point1, T point2) {
+    return getDistance(point1, point2) != null;
+  }
+
+  @Override
+  public UnorderedPair<T> getPairWithMinDistance() {
+    while (!distHeap.isEmpty()) {
+      Entry<T> top = distHeap.peek();
+      if (isActual(top)) {
+        return top.pair;
+      }
+      distHeap.poll();
+      if (!top.removed) {
+        // entry is stale because of lazily deleted row, so it is still in the first map
+        distMatrixPairKey.remove(top.pair, top);
+        top.removed = true;
+      }
+      staleCount = Math.max(0, staleCount - 1);
+    }
+    return null;
+  }
+
+  @Override
+  public UnorderedPair<T> getPairWithMaxDistance() {
+    Entry<T> max = null;
+    for (Entry<T> e : distMatrixPairKey.values()) {
+      if (isActual(e) && (max == null || e.distance > max.distance)) {
+        max = e;
+      }
+    }
+    return max == null ? null : max.pair;
+  }
+
+  /**
+   * Counting requires to get rid of all stale distances, so this call compacts matrix if some rows
+   * were deleted lazily
+   */
+  @Override
+  public int size() {
+    if (hasStaleRows) {
+      compact();
+    }
+    return distMatrixPairKey.size();
+  }
+
+  /**
+   * discards all stale distances and rebuilds the heap
+   */
+  public void compact() {
+    List<Entry<T>> actualEntries = new ArrayList<>(distMatrixPairKey.size());
+    Iterator<Entry<T>> it = distMatrixPairKey.values().iterator();
+    while (it.hasNext()) {
+      Entry<T> e = it.next();
+      if (isActual(e)) {
+        actualEntries.add(e);
+      } else {
+        e.removed = true;
+        it.remove();
+      }
+    }
+    // stale distances are gone, so points can start over with version 0
+    for (Entry<T> e : actualEntries) {
+      e.version1 = 0;
+      e.version2 = 0;
+    }
+    versions.clear();
+    distHeap = new PriorityQueue<>(Math.max(1, actualEntries.size()), distHeap.comparator());
+    distHeap.addAll(actualEntries);
+    staleCount = 0;
+    hasStaleRows = false;
+  }
+
+  private void compactIfNeeded() {
+    if (distHeap.size() >= MIN_SIZE_TO_COMPACT && staleCount > distHeap.size() * MAX_STALE_RATIO) {
+      compact();
+    }
+  }
+
+  /**
+   * marks entry which was removed from the first map as deleted
+   *
+   * @return distance of entry if it was actual, null otherwise
+   */
+  private Double discard(Entry<T> entry) {
+    if (entry == null || entry.removed) {
+      return null;
+    }
+    boolean wasActual = isActual(entry);
+    entry.removed = true;
+    if (wasActual) {
+      ++staleCount;
+      return entry.distance;
+    }
+    return null;
+  }
+
+  private boolean isActual(Entry<T> entry) {
+    return entry != null
+        && !entry.removed
+        && entry.version1 == getVersion(entry.point1)
+        && entry.version2 == getVersion(entry.point2);
+  }
+
+  private int getVersion(T point) {
+    if (!hasStaleRows) {
+      return 0;
+    }
+    return versions.getOrDefault(point, 0);
+  }
+
+  private static class Entry<T> {
+
+    private final UnorderedPair<T> pair;
+    private final T point1;
+    private final T point2;
+    private final double distance;
+    private int version1;
+    private int version2;
+    private boolean removed;
+
+    Entry(UnorderedPair<T> pair, T point1, T point2, double distance, int version1,
+        int version2) {
+      this.pair = pair;
+      this.point1 = point1;
+      this.point2 = point2;
+      this.distance = distance;
+      this.version1 = version1;
+      this.version2 = version2;
+      this.removed = false;
+    }
+  }
+}
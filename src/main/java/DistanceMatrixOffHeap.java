@@ -0,0 +1,698 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This implementation keeps distances outside of java heap, so garbage collector doesn't have to
+ * scan them. Only mapping between points and their integer ids stays on the heap.
+ * <p>
+ * Off-heap memory consists of two regions: open addressing hash table which maps pair of ids to
+ * position in the heap and binary min-heap of distances which stores slot of corresponding pair in
+ * the hash table. Regions are indexed by long and consist of chunks, which are either direct
+ * ByteBuffers or memory-mapped parts of temporary files, so matrix can hold up to
+ * MAX_DISTANCES_COUNT distances. Memory should be released explicitly with close()
+ * <p>
+ * This implementation does not allow to have null in coordinates
+ *
+ * @param <T> type of coordinates
+ */
+public class DistanceMatrixOffHeap<T> implements DistanceMatrix<T>, Closeable {
+
+  // size() of DistanceMatrix is int
+  public static final long MAX_DISTANCES_COUNT = Integer.MAX_VALUE;
+
+  // table slot: [long pair key + 1, 0 for empty slot][int position in heap][int unused]
+  private static final int SLOT_SIZE = 16;
+  private static final int SLOT_HEAP_POSITION_OFFSET = 8;
+  // heap entry: [double distance][long slot in table]
+  private static final int HEAP_ENTRY_SIZE = 16;
+  private static final int HEAP_ENTRY_SLOT_OFFSET = 8;
+
+  private static final int INITIAL_CAPACITY = 1 << 10;
+  // table with this many slots holds MAX_DISTANCES_COUNT distances
+  private static final long MAX_TABLE_CAPACITY = 1L << 32;
+  private static final double MAX_LOAD_FACTOR = 0.5;
+  // largest power of two which can be indexed by int
+  private static final int MAX_CHUNK_SIZE = 1 << 30;
+
+  private static final Method INVOKE_CLEANER;
+  private static final Object UNSAFE;
+
+  static {
+    Method invokeCleaner = null;
+    Object unsafe = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      unsafe = theUnsafe.get(null);
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // java 8 or restricted runtime, buffers will be released by garbage collector
+    }
+    INVOKE_CLEANER = invokeCleaner;
+    UNSAFE = unsafe;
+  }
+
+  // size of chunks of off-heap regions, power of two and multiple of sizes of entries
+  private final int chunkSize;
+  // files of the heap and of two tables (the current one and the one it is rehashed to), null if
+  // direct buffers are used. Files are created once and deleted at once, channels keep them
+  private final RandomAccessFile[] files;
+  private int tableFile;
+
+  private Map<T, Integer> ids;
+  private List<T> points;
+  // count of distances associated with every id, id is reused when its row becomes empty
+  private int[] rowSizes;
+  private int[] freeIds;
+  private int freeIdsCount;
+
+  private Memory table;
+  private long tableMask;
+  private Memory heap;
+  private long heapCapacity;
+  private int size;
+  private boolean closed;
+
+  public DistanceMatrixOffHeap() {
+    this(null);
+  }
+
+  /**
+   * @param mappingDirectory directory where memory-mapped files will be created, if it is null
+   * direct buffers are used
+   */
+  public DistanceMatrixOffHeap(File mappingDirectory) {
+    this(mappingDirectory, MAX_CHUNK_SIZE);
+  }
+
+  /**
+   * @param chunkSize size of chunks of off-heap regions, power of two not less than 16
+   */
+  DistanceMatrixOffHeap(File mappingDirectory, int chunkSize) {
+    if (chunkSize < SLOT_SIZE || Integer.bitCount(chunkSize) != 1) {
+      throw new IllegalArgumentException("Size of chunk should be power of two not less than 16");
+    }
+    this.chunkSize = chunkSize;
+    files = mappingDirectory == null ? null : createFiles(mappingDirectory, 3);
+    tableFile = 1;
+    ids = new HashMap<>();
+    points = new ArrayList<>();
+    rowSizes = new int[INITIAL_CAPACITY];
+    freeIds = new int[INITIAL_CAPACITY];
+    freeIdsCount = 0;
+    table = allocate(tableFile, (long) INITIAL_CAPACITY * SLOT_SIZE);
+    tableMask = INITIAL_CAPACITY - 1;
+    heapCapacity = INITIAL_CAPACITY;
+    heap = allocate(0, heapCapacity * HEAP_ENTRY_SIZE);
+    size = 0;
+    closed = false;
+  }
+
+  /**
+   * @param point1 is one of two coordinates with which distance will be associated
+   * @param point2 is one of two coordinates with which distance will be associated
+   * @param distance between point1 and point2
+   * @return old distance between point1 and point2 or null if there wasn't such distance
+   * @throws IllegalArgumentException when point1 or point2 is null or distance less then 0
+   */
+  @Override
+  public Double addDistance(T point1, T point2, double distance) throws IllegalArgumentException {
+    checkNotClosed();
+    if (distance < 0) {
+      throw new IllegalArgumentException("Distance shouldn't be less than 0");
+    }
+
+    if (point1 == null || point2 == null) {
+      throw new IllegalArgumentException("Points should be not null");
+    }
+
+    int id1 = getOrCreateId(point1);
+    int id2 = getOrCreateId(point2);
+    long key = pairKey(id1, id2);
+    long slot = findSlot(key);
+    if (slot >= 0) {
+      int position = getHeapPosition(slot);
+      double oldDistance = getHeapDistance(position);
+      heap.putDouble((long) position * HEAP_ENTRY_SIZE, distance);
+      if (distance < oldDistance) {
+        siftUp(position);
+      } else {
+        siftDown(position);
+      }
+      return oldDistance;
+    }
+
+    if (size == MAX_DISTANCES_COUNT) {
+      throw new IllegalStateException("Too many distances for off-heap matrix");
+    }
+    if (size + 1 > (tableMask + 1) * MAX_LOAD_FACTOR) {
+      resizeTable();
+    }
+    if (size == heapCapacity) {
+      resizeHeap();
+    }
+    slot = insertSlot(key);
+    setHeapEntry(size, distance, slot);
+    siftUp(size++);
+    ++rowSizes[id1];
+    ++rowSizes[id2];
+    return null;
+  }
+
+  @Override
+  public Double deleteDistance(T point1, T point2) {
+    checkNotClosed();
+    if (point1 == null || point2 == null) {
+      return null;
+    }
+
+    Integer id1 = ids.get(point1);
+    Integer id2 = ids.get(point2);
+    if (id1 == null || id2 == null) {
+      return null;
+    }
+    long slot = findSlot(pairKey(id1, id2));
+    if (slot < 0) {
+      return null;
+    }
+    return deleteSlot(slot);
+  }
+
+  @Override
+  public Map<T, Double> deleteRow(T point) {
+    checkNotClosed();
+    Map<T, Double> row = new HashMap<>();
+    Integer id = point == null ? null : ids.get(point);
+    if (id == null) {
+      return row;
+    }
+
+    List<Long> rowKeys = new ArrayList<>(rowSizes[id]);
+    for (long slot = 0; slot <= tableMask; ++slot) {
+      long key = getSlotKey(slot);
+      if (key != 0 && (firstId(key) == id || secondId(key) == id)) {
+        rowKeys.add(key);
+      }
+    }
+    for (long key : rowKeys) {
+      int otherId = firstId(key) == id ? secondId(key) : firstId(key);
+      T other = otherId == id ? null : points.get(otherId);
+      row.put(other, deleteSlot(findSlot(key)));
+    }
+    return row;
+  }
+
+  @Override
+  public Double getDistance(T point1, T point2) {
+    checkNotClosed();
+    if (point1 == null || point2 == null) {
+      return null;
+    }
+
+    Integer id1 = ids.get(point1);
+    Integer id2 = ids.get(point2);
+    if (id1 == null || id2 == null) {
+      return null;
+    }
+    long slot = findSlot(pairKey(id1, id2));
+    return slot < 0 ? null : getHeapDistance(getHeapPosition(slot));
+  }
+
+  @Override
+  public boolean containsDistance(T point1, T point2) {
+    return getDistance(point1, point2) != null;
+  }
+
+  @Override
+  public UnorderedPair<T> getPairWithMinDistance() {
+    checkNotClosed();
+    if (size == 0) {
+      return null;
+    }
+    return getPair(getHeapSlot(0));
+  }
+
+  @Override
+  public UnorderedPair<T> getPairWithMaxDistance() {
+    checkNotClosed();
+    if (size == 0) {
+      return null;
+    }
+    // maximum of min-heap is one of its leaves
+    int maxPosition = size - 1;
+    for (int position = size / 2; position < size; ++position) {
+      if (getHeapDistance(position) > getHeapDistance(maxPosition)) {
+        maxPosition = position;
+      }
+    }
+    return getPair(getHeapSlot(maxPosition));
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * releases off-heap memory, matrix can't be used after that
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    table.free();
+    heap.free();
+    if (files != null) {
+      for (RandomAccessFile file : files) {
+        try {
+          file.close();
+        } catch (IOException e) {
+          // file is deleted already, only descriptor is left
+        }
+      }
+    }
+    table = null;
+    heap = null;
+    ids = null;
+    points = null;
+    size = 0;
+  }
+
+  private void checkNotClosed() {
+    if (closed) {
+      throw new IllegalStateException("Distance matrix is closed");
+    }
+  }
+
+  private int getOrCreateId(T point) {
+    Integer id = ids.get(point);
+    if (id != null) {
+      return id;
+    }
+    if (freeIdsCount > 0) {
+      id = freeIds[--freeIdsCount];
+      points.set(id, point);
+    } else {
+      id = points.size();
+      points.add(point);
+      if (id == rowSizes.length) {
+        int[] newRowSizes = new int[rowSizes.length * 2];
+        System.arraycopy(rowSizes, 0, newRowSizes, 0, rowSizes.length);
+        rowSizes = newRowSizes;
+      }
+    }
+    ids.put(point, id);
+    return id;
+  }
+
+  private void releaseIdIfUnused(int id) {
+    if (rowSizes[id] > 0) {
+      return;
+    }
+    ids.remove(points.get(id));
+    points.set(id, null);
+    if (freeIdsCount == freeIds.length) {
+      int[] newFreeIds = new int[freeIds.length * 2];
+      System.arraycopy(freeIds, 0, newFreeIds, 0, freeIds.length);
+      freeIds = newFreeIds;
+    }
+    freeIds[freeIdsCount++] = id;
+  }
+
+  private UnorderedPair<T> getPair(long slot) {
+    long key = getSlotKey(slot);
+    return new UnorderedPairHash<>(points.get(firstId(key)), points.get(secondId(key)));
+  }
+
+  private Double deleteSlot(long slot) {
+    long key = getSlotKey(slot);
+    int position = getHeapPosition(slot);
+    double distance = getHeapDistance(position);
+
+    --size;
+    if (position != size) {
+      setHeapEntry(position, getHeapDistance(size), getHeapSlot(size));
+      siftDown(position);
+      siftUp(position);
+    }
+    clearSlot(slot);
+
+    int id1 = firstId(key);
+    int id2 = secondId(key);
+    --rowSizes[id1];
+    --rowSizes[id2];
+    releaseIdIfUnused(id1);
+    if (id2 != id1) {
+      releaseIdIfUnused(id2);
+    }
+    return distance;
+  }
+
+  // hash table
+
+  private static long pairKey(int id1, int id2) {
+    int min = Math.min(id1, id2);
+    int max = Math.max(id1, id2);
+    return ((long) min << 32 | max) + 1;
+  }
+
+  private static int firstId(long key) {
+    return (int) ((key - 1) >>> 32);
+  }
+
+  private static int secondId(long key) {
+    return (int) (key - 1);
+  }
+
+  private long idealSlot(long key) {
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return (hash ^ hash >>> 32) & tableMask;
+  }
+
+  private long getSlotKey(long slot) {
+    return table.getLong(slot * SLOT_SIZE);
+  }
+
+  private int getHeapPosition(long slot) {
+    return table.getInt(slot * SLOT_SIZE + SLOT_HEAP_POSITION_OFFSET);
+  }
+
+  private void setHeapPosition(long slot, int position) {
+    table.putInt(slot * SLOT_SIZE + SLOT_HEAP_POSITION_OFFSET, position);
+  }
+
+  /**
+   * @return slot which contains key, -1 if there is no such
+   */
+  private long findSlot(long key) {
+    for (long slot = idealSlot(key); ; slot = slot + 1 & tableMask) {
+      long slotKey = getSlotKey(slot);
+      if (slotKey == key) {
+        return slot;
+      }
+      if (slotKey == 0) {
+        return -1;
+      }
+    }
+  }
+
+  private long insertSlot(long key) {
+    long slot = idealSlot(key);
+    while (getSlotKey(slot) != 0) {
+      slot = slot + 1 & tableMask;
+    }
+    table.putLong(slot * SLOT_SIZE, key);
+    return slot;
+  }
+
+  /**
+   * backward shift deletion: entries which were displaced by deleted one are moved back, so
+   * linear probing never needs tombstones
+   */
+  private void clearSlot(long slot) {
+    long hole = slot;
+    for (long next = hole + 1 & tableMask; ; next = next + 1 & tableMask) {
+      long key = getSlotKey(next);
+      if (key == 0) {
+        break;
+      }
+      long ideal = idealSlot(key);
+      // entry can be moved to the hole if its ideal slot is not within (hole, next]
+      boolean canMove = hole <= next ? (ideal <= hole || ideal > next)
+          : (ideal <= hole && ideal > next);
+      if (canMove) {
+        int position = getHeapPosition(next);
+        table.putLong(hole * SLOT_SIZE, key);
+        setHeapPosition(hole, position);
+        heap.putLong((long) position * HEAP_ENTRY_SIZE + HEAP_ENTRY_SLOT_OFFSET, hole);
+        hole = next;
+      }
+    }
+    table.putLong(hole * SLOT_SIZE, 0);
+  }
+
+  private void resizeTable() {
+    long newCapacity = (tableMask + 1) * 2;
+    if (newCapacity > MAX_TABLE_CAPACITY) {
+      throw new IllegalStateException("Too many distances for off-heap matrix");
+    }
+    Memory oldTable = table;
+    long oldCapacity = tableMask + 1;
+    int oldTableFile = tableFile;
+    tableFile = 3 - tableFile;
+    table = allocate(tableFile, newCapacity * SLOT_SIZE);
+    tableMask = newCapacity - 1;
+    for (long oldSlot = 0; oldSlot < oldCapacity; ++oldSlot) {
+      long key = oldTable.getLong(oldSlot * SLOT_SIZE);
+      if (key != 0) {
+        int position = oldTable.getInt(oldSlot * SLOT_SIZE + SLOT_HEAP_POSITION_OFFSET);
+        long slot = insertSlot(key);
+        setHeapPosition(slot, position);
+        heap.putLong((long) position * HEAP_ENTRY_SIZE + HEAP_ENTRY_SLOT_OFFSET, slot);
+      }
+    }
+    oldTable.free();
+    truncate(oldTableFile);
+  }
+
+  // heap
+
+  private double getHeapDistance(int position) {
+    return heap.getDouble((long) position * HEAP_ENTRY_SIZE);
+  }
+
+  private long getHeapSlot(int position) {
+    return heap.getLong((long) position * HEAP_ENTRY_SIZE + HEAP_ENTRY_SLOT_OFFSET);
+  }
+
+  private void setHeapEntry(int position, double distance, long slot) {
+    heap.putDouble((long) position * HEAP_ENTRY_SIZE, distance);
+    heap.putLong((long) position * HEAP_ENTRY_SIZE + HEAP_ENTRY_SLOT_OFFSET, slot);
+    setHeapPosition(slot, position);
+  }
+
+  private void siftUp(int position) {
+    double distance = getHeapDistance(position);
+    long slot = getHeapSlot(position);
+    while (position > 0) {
+      int parent = (position - 1) >>> 1;
+      double parentDistance = getHeapDistance(parent);
+      if (parentDistance <= distance) {
+        break;
+      }
+      setHeapEntry(position, parentDistance, getHeapSlot(parent));
+      position = parent;
+    }
+    setHeapEntry(position, distance, slot);
+  }
+
+  private void siftDown(int position) {
+    double distance = getHeapDistance(position);
+    long slot = getHeapSlot(position);
+    int half = size >>> 1;
+    while (position < half) {
+      int child = 2 * position + 1;
+      int right = child + 1;
+      if (right < size && getHeapDistance(right) < getHeapDistance(child)) {
+        child = right;
+      }
+      double childDistance = getHeapDistance(child);
+      if (distance <= childDistance) {
+        break;
+      }
+      setHeapEntry(position, childDistance, getHeapSlot(child));
+      position = child;
+    }
+    setHeapEntry(position, distance, slot);
+  }
+
+  private void resizeHeap() {
+    long newCapacity = Math.min(heapCapacity * 2, MAX_DISTANCES_COUNT);
+    Memory oldHeap = heap;
+    // mapping of the same file already contains old entries
+    heap = allocate(0, newCapacity * HEAP_ENTRY_SIZE);
+    if (files == null) {
+      heap.copyFrom(oldHeap);
+    }
+    oldHeap.free();
+    heapCapacity = newCapacity;
+  }
+
+  // memory
+
+  private static RandomAccessFile[] createFiles(File directory, int count) {
+    RandomAccessFile[] files = new RandomAccessFile[count];
+    try {
+      for (int i = 0; i < count; ++i) {
+        File file = File.createTempFile("distances", ".bin", directory);
+        files[i] = new RandomAccessFile(file, "rw");
+        // channel stays valid after file is deleted, file can't be deleted while it is open on
+        // some systems
+        if (!file.delete()) {
+          file.deleteOnExit();
+        }
+      }
+    } catch (IOException e) {
+      for (RandomAccessFile file : files) {
+        try {
+          if (file != null) {
+            file.close();
+          }
+        } catch (IOException suppressed) {
+          e.addSuppressed(suppressed);
+        }
+      }
+      throw new UncheckedIOException("Can't create files for distances", e);
+    }
+    return files;
+  }
+
+  /**
+   * @param file index of file which is mapped if matrix uses files
+   */
+  private Memory allocate(int file, long bytes) {
+    int chunksCount = (int) ((bytes + chunkSize - 1) / chunkSize);
+    ByteBuffer[] chunks = new ByteBuffer[chunksCount];
+    try {
+      for (int i = 0; i < chunksCount; ++i) {
+        long offset = (long) i * chunkSize;
+        int length = (int) Math.min(chunkSize, bytes - offset);
+        ByteBuffer chunk = files == null ? ByteBuffer.allocateDirect(length)
+            : files[file].getChannel().map(FileChannel.MapMode.READ_WRITE, offset, length);
+        chunks[i] = chunk.order(ByteOrder.nativeOrder());
+      }
+    } catch (IOException e) {
+      new Memory(chunks, Integer.numberOfTrailingZeros(chunkSize)).free();
+      throw new UncheckedIOException("Can't map file for distances", e);
+    }
+    return new Memory(chunks, Integer.numberOfTrailingZeros(chunkSize));
+  }
+
+  /**
+   * releases disk space of file which is not mapped anymore
+   */
+  private void truncate(int file) {
+    if (files == null) {
+      return;
+    }
+    try {
+      files[file].getChannel().truncate(0);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Can't truncate file for distances", e);
+    }
+  }
+
+  private static void free(ByteBuffer buffer) {
+    if (buffer == null || !buffer.isDirect() || INVOKE_CLEANER == null) {
+      return;
+    }
+    try {
+      INVOKE_CLEANER.invoke(UNSAFE, buffer);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // buffer will be released by garbage collector
+    }
+  }
+
+  /**
+   * Off-heap region indexed by long. Entries never cross chunks, because size of chunk is a
+   * multiple of sizes of entries
+   */
+  private static final class Memory {
+
+    private final ByteBuffer[] chunks;
+    // regions of one chunk (all regions up to 1GB) skip lookup of chunk
+    private final ByteBuffer single;
+    private final int chunkShift;
+    private final long chunkMask;
+
+    Memory(ByteBuffer[] chunks, int chunkShift) {
+      this.chunks = chunks;
+      this.single = chunks.length == 1 ? chunks[0] : null;
+      this.chunkShift = chunkShift;
+      this.chunkMask = (1L << chunkShift) - 1;
+    }
+
+    private ByteBuffer chunk(long offset) {
+      return chunks[(int) (offset >>> chunkShift)];
+    }
+
+    long getLong(long offset) {
+      if (single != null) {
+        return single.getLong((int) offset);
+      }
+      return chunk(offset).getLong((int) (offset & chunkMask));
+    }
+
+    void putLong(long offset, long value) {
+      if (single != null) {
+        single.putLong((int) offset, value);
+      } else {
+        chunk(offset).putLong((int) (offset & chunkMask), value);
+      }
+    }
+
+    int getInt(long offset) {
+      if (single != null) {
+        return single.getInt((int) offset);
+      }
+      return chunk(offset).getInt((int) (offset & chunkMask));
+    }
+
+    void putInt(long offset, int value) {
+      if (single != null) {
+        single.putInt((int) offset, value);
+      } else {
+        chunk(offset).putInt((int) (offset & chunkMask), value);
+      }
+    }
+
+    double getDouble(long offset) {
+      if (single != null) {
+        return single.getDouble((int) offset);
+      }
+      return chunk(offset).getDouble((int) (offset & chunkMask));
+    }
+
+    void putDouble(long offset, double value) {
+      if (single != null) {
+        single.putDouble((int) offset, value);
+      } else {
+        chunk(offset).putDouble((int) (offset & chunkMask), value);
+      }
+    }
+
+    /**
+     * copies all bytes of smaller region with the same size of chunks to the beginning of this one
+     */
+    void copyFrom(Memory other) {
+      for (int i = 0; i < other.chunks.length; ++i) {
+        ByteBuffer source = other.chunks[i].duplicate();
+        source.clear();
+        ByteBuffer target = chunks[i].duplicate();
+        target.clear();
+        target.put(source);
+      }
+    }
+
+    void free() {
+      for (ByteBuffer chunk : chunks) {
+        DistanceMatrixOffHeap.free(chunk);
+      }
+    }
+  }
+}
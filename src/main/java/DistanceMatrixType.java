@@ -0,0 +1,85 @@
+import java.io.File;
+
+/**
+ * Implementations of DistanceMatrix which Algo is able to use. Bytes of heap per distance were
+ * measured with 300k distances between 3k points, see MemoryEstimator. Matrices on the heap hold at
+ * most Integer.MAX_VALUE distances, because size of DistanceMatrix is int
+ */
+public enum DistanceMatrixType {
+  TREE {
+    @Override
+    <T> DistanceMatrix<T> create() {
+      return new DistanceMatrixTree<>();
+    }
+
+    @Override
+    long heapBytesPerDistance() {
+      return 560;
+    }
+  },
+  HASH {
+    @Override
+    <T> DistanceMatrix<T> create() {
+      return new DistanceMatrixHash<>();
+    }
+
+    @Override
+    long heapBytesPerDistance() {
+      return 310;
+    }
+  },
+  LAZY {
+    @Override
+    <T> DistanceMatrix<T> create() {
+      return new DistanceMatrixLazy<>();
+    }
+
+    @Override
+    long heapBytesPerDistance() {
+      return 340;
+    }
+  },
+  // distances are stored in mapped files of temporary directory, heap keeps only ids of points.
+  // Direct buffers would be limited by -XX:MaxDirectMemorySize, which is size of heap by default
+  OFF_HEAP {
+    @Override
+    <T> DistanceMatrix<T> create() {
+      return new DistanceMatrixOffHeap<>(new File(System.getProperty("java.io.tmpdir")));
+    }
+
+    @Override
+    long heapBytesPerDistance() {
+      return 8;
+    }
+
+    @Override
+    long maxDistancesCount() {
+      return DistanceMatrixOffHeap.MAX_DISTANCES_COUNT;
+    }
+  },
+  CONCURRENT {
+    @Override
+    <T> DistanceMatrix<T> create() {
+      return new DistanceMatrixConcurrent<>();
+    }
+
+    @Override
+    long heapBytesPerDistance() {
+      return 360;
+    }
+  };
+
+  abstract <T> DistanceMatrix<T> create();
+
+  /**
+   * @return approximate bytes of heap which one stored distance takes
+   */
+  abstract long heapBytesPerDistance();
+
+  /**
+   * @return count of distances which one matrix is able to hold
+   */
+  long maxDistancesCount() {
+    return Integer.MAX_VALUE;
+  }
+}
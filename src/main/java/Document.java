@@ -4,8 +4,10 @@
 
 public class Document {
 
-  // URL address
+  // URL address, null if it is kept in arena
   private String documentName;
+  private StringArena arena;
+  private int id;
 
   public Document(String documentName) {
     if (documentName == null) {
@@ -14,9 +16,23 @@ public class Document {
     this.documentName = documentName;
   }
 
+  /**
+   * Document whose URL is kept in arena, String is made only by toString
+   *
+   * @param id id of URL in arena
+   */
+  public Document(StringArena arena, int id) {
+    if (arena == null) {
+      throw new IllegalArgumentException("Arena should not be null");
+    }
+    arena.hashOf(id);
+    this.arena = arena;
+    this.id = id;
+  }
+
   @Override
   public String toString() {
-    return documentName;
+    return documentName != null ? documentName : arena.get(id);
   }
 
   @Override
@@ -30,11 +46,14 @@ public class Document {
     }
 
     Document otherDocument = (Document) other;
-    return documentName.equals(otherDocument.documentName);
+    if (arena != null && arena == otherDocument.arena) {
+      return id == otherDocument.id;
+    }
+    return toString().equals(otherDocument.toString());
   }
 
   @Override
   public int hashCode() {
-    return documentName.hashCode();
+    return documentName != null ? documentName.hashCode() : arena.hashOf(id);
   }
 }
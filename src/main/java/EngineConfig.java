@@ -0,0 +1,98 @@
+/**
+ * Which engine clusters the graph and with which settings. ClusteringCoordinator sends it to
+ * workers with every partition, so that workers cluster partitions the same way as the engine
+ * which Main creates for local clustering
+ */
+public class EngineConfig {
+
+  /**
+   * Engines which config is able to create
+   */
+  public enum Kind {
+    ALGO,
+    NEAREST_NEIGHBOUR,
+    FLAT,
+    DELTA
+  }
+
+  private final Kind kind;
+  private final double threshold;
+  // settings of Algo, other engines ignore them
+  private final DistanceMatrixType distanceMatrixType;
+  private final DistanceKernel distanceKernel;
+  private final long timeBudgetMillis;
+  private final long memoryBudget;
+
+  /**
+   * @param timeBudgetMillis see Algo.setTimeBudgetMillis
+   * @param memoryBudget see Algo.setMemoryBudget
+   */
+  public EngineConfig(Kind kind, double threshold, DistanceMatrixType distanceMatrixType,
+      DistanceKernel distanceKernel, long timeBudgetMillis, long memoryBudget) {
+    if (kind == null || distanceMatrixType == null || distanceKernel == null) {
+      throw new IllegalArgumentException("Kind, type of matrix and kernel should not be null");
+    }
+    if (threshold > 1 || threshold < 0) {
+      throw new IllegalArgumentException("Threshold value should belong to [0, 1]");
+    }
+    if (timeBudgetMillis < 0 || memoryBudget < 0) {
+      throw new IllegalArgumentException("Budgets should not be negative");
+    }
+    this.kind = kind;
+    this.threshold = threshold;
+    this.distanceMatrixType = distanceMatrixType;
+    this.distanceKernel = distanceKernel;
+    this.timeBudgetMillis = timeBudgetMillis;
+    this.memoryBudget = memoryBudget;
+  }
+
+  /**
+   * @return config of Algo with default settings
+   */
+  public static EngineConfig algo(double threshold) {
+    return new EngineConfig(Kind.ALGO, threshold, DistanceMatrixType.TREE,
+        DistanceKernel.COMMON_LINKS, 0, 0);
+  }
+
+  public ClusteringEngine create() {
+    switch (kind) {
+      case NEAREST_NEIGHBOUR:
+        return new NearestNeighbourAlgo(threshold);
+      case FLAT:
+        return new FlatAlgo(threshold);
+      case DELTA:
+        return new DeltaAlgo(threshold);
+      default:
+        Algo algo = new Algo(threshold);
+        algo.setDistanceMatrixType(distanceMatrixType);
+        algo.setDistanceKernel(distanceKernel);
+        algo.setTimeBudgetMillis(timeBudgetMillis);
+        algo.setMemoryBudget(memoryBudget);
+        return algo;
+    }
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  public double getThreshold() {
+    return threshold;
+  }
+
+  public DistanceMatrixType getDistanceMatrixType() {
+    return distanceMatrixType;
+  }
+
+  public DistanceKernel getDistanceKernel() {
+    return distanceKernel;
+  }
+
+  public long getTimeBudgetMillis() {
+    return timeBudgetMillis;
+  }
+
+  public long getMemoryBudget() {
+    return memoryBudget;
+  }
+}
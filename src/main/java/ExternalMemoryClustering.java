@@ -0,0 +1,527 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Clusters query logs which graph doesn't fit into memory.
+ * <p>
+ * Clusters from different connected components of the graph are never merged: distance between
+ * clusters without common neighbours is 1. So the graph is split into partitions which consist of
+ * whole connected components (see GraphPartitioner.packComponents) and every partition is
+ * clustered separately, the result is the same as for the whole graph.
+ * <p>
+ * Log is read once: names of queries and documents are interned in StringArena and links between
+ * them are spilled to a file in work directory, so only bytes of names and a few ints per node
+ * stay in memory. Then links are scattered into segment files, one for every partition. Segments
+ * are memory-mapped and clustered one by one, so only one partition is in memory at the same time.
+ * <p>
+ * By default every connected component is loaded and clustered as whole, so the largest one should
+ * fit into memory. Approximate clustering is opt-in: connected component of more than
+ * maxLinksInMemory links (usually the giant component of log) is clustered in rounds instead.
+ * Every round splits rows of the component (cluster of queries, document, count of links) into
+ * pieces of at most maxLinksInMemory rows, clusters of queries with close smallest documents go to
+ * the same piece. Pieces are clustered one by one, every found
+ * cluster is contracted to one row per document with summed count of links and rows are spilled
+ * for the next round. Rounds go on until rows fit into one piece, which is clustered as whole, or
+ * a round merges nothing. Cluster linked to more than sqrt(maxLinksInMemory) documents is final
+ * and leaves rounds: engines pair up documents of the same query, so such cluster alone would make
+ * more pairs than its piece has rows. Such component is clustered approximately: pieces don't see
+ * links of documents to queries of other pieces, and clusters of documents are not kept between
+ * rounds
+ */
+public class ExternalMemoryClustering {
+
+  private static final Logger EXTERNAL_LOGGER =
+      Logger.getLogger(ExternalMemoryClustering.class.getName());
+
+  // segments are written in groups to limit count of open files
+  private static final int MAX_OPEN_SEGMENTS = 64;
+  // row of segment: ids of query (of cluster in rounds) and document, count of links
+  private static final int ROW_SIZE = 16;
+
+  private final ClusteringEngine engine;
+  private final File workDirectory;
+  private final long maxLinksPerPartition;
+  private final long maxLinksInMemory;
+
+  /**
+   * Every connected component is clustered as whole, so the largest one should fit into memory
+   *
+   * @param engine clusters every partition
+   * @param workDirectory directory for temporary files
+   * @param maxLinksPerPartition partitions are made of connected components until count of links
+   * in them exceeds this value, connected component which has more links forms its own partition
+   */
+  public ExternalMemoryClustering(ClusteringEngine engine, File workDirectory,
+      long maxLinksPerPartition) {
+    this(engine, workDirectory, maxLinksPerPartition, Long.MAX_VALUE);
+  }
+
+  /**
+   * @param engine clusters every partition
+   * @param workDirectory directory for temporary files
+   * @param maxLinksPerPartition partitions are made of connected components until count of links
+   * in them exceeds this value, connected component which has more links forms its own partition
+   * @param maxLinksInMemory connected component of more links is clustered approximately in rounds
+   * by pieces of this many rows, see class description. Long.MAX_VALUE clusters exactly
+   */
+  public ExternalMemoryClustering(ClusteringEngine engine, File workDirectory,
+      long maxLinksPerPartition, long maxLinksInMemory) {
+    if (engine == null || workDirectory == null) {
+      throw new IllegalArgumentException("Engine and work directory should not be null");
+    }
+    if (maxLinksPerPartition <= 0 || maxLinksInMemory <= 0) {
+      throw new IllegalArgumentException("Counts of links should be positive");
+    }
+    this.engine = engine;
+    this.workDirectory = workDirectory;
+    this.maxLinksPerPartition = maxLinksPerPartition;
+    this.maxLinksInMemory = maxLinksInMemory;
+  }
+
+  /**
+   * @param nLines count of lines of log which will be clustered
+   * @param clusterConsumer accepts clusters, one by one
+   */
+  public void clusterQueryLog(String fileName, long nLines, Consumer<Set<Query>> clusterConsumer)
+      throws IOException {
+    File segmentsDirectory = Files.createTempDirectory(workDirectory.toPath(), "segments")
+        .toFile();
+    try {
+      GraphPartitioner.LinkComponents graph = new GraphPartitioner.LinkComponents();
+      File linksFile = new File(segmentsDirectory, "links");
+      long linksCount = spillLinks(fileName, nLines, graph, linksFile);
+      int[] partitionOfRoot = assignPartitions(graph, linksFile, linksCount);
+      int partitionsCount = 0;
+      for (int partition : partitionOfRoot) {
+        partitionsCount = Math.max(partitionsCount, partition + 1);
+      }
+      EXTERNAL_LOGGER.log(Level.FINE, "Count of nodes: {0}, count of partitions: {1}",
+          new Object[]{graph.getNodesCount(), partitionsCount});
+
+      List<File> segments = writeSegments(graph, linksFile, linksCount, partitionOfRoot,
+          partitionsCount, segmentsDirectory);
+      for (File segment : segments) {
+        if (segment.length() / ROW_SIZE <= maxLinksInMemory) {
+          engine.clusterQueries(loadRows(segment, graph, false).queries)
+              .forEach(clusterConsumer);
+        } else {
+          clusterInRounds(segment, graph, segmentsDirectory, clusterConsumer);
+        }
+        segment.delete();
+      }
+    } finally {
+      File[] files = segmentsDirectory.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+      segmentsDirectory.delete();
+    }
+  }
+
+  /**
+   * reads log and writes ids of queries and documents of links to file, connected components are
+   * computed on the fly
+   *
+   * @return count of links
+   */
+  private long spillLinks(String fileName, long nLines, GraphPartitioner.LinkComponents graph,
+      File linksFile) throws IOException {
+    long[] linksCount = {0};
+    try (DataOutputStream links = openOutput(linksFile)) {
+      QueryLogReader reader = new QueryLogReader();
+      reader.readLinks(fileName, nLines, (query, documentName) -> {
+        try {
+          int queryId = graph.addQuery(query);
+          int documentId = graph.addDocument(documentName);
+          links.writeInt(queryId);
+          links.writeInt(documentId);
+          graph.addLink(queryId, documentId);
+          ++linksCount[0];
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return linksCount[0];
+  }
+
+  /**
+   * packs connected components into partitions
+   *
+   * @return partition of every connected component (by its root)
+   */
+  private int[] assignPartitions(GraphPartitioner.LinkComponents graph, File linksFile,
+      long linksCount) throws IOException {
+    long[] linksOfRoot = new long[graph.getNodesCount()];
+    try (DataInputStream links = openInput(linksFile)) {
+      for (long i = 0; i < linksCount; ++i) {
+        int queryId = links.readInt();
+        links.readInt();
+        ++linksOfRoot[graph.componentOfQuery(queryId)];
+      }
+    }
+
+    int[] componentOfRoot = new int[linksOfRoot.length];
+    int componentsCount = 0;
+    for (int root = 0; root < linksOfRoot.length; ++root) {
+      if (linksOfRoot[root] > 0) {
+        linksOfRoot[componentsCount] = linksOfRoot[root];
+        componentOfRoot[root] = componentsCount++;
+      }
+    }
+    int[] partitionOfComponent = GraphPartitioner.packComponents(
+        Arrays.copyOf(linksOfRoot, componentsCount), maxLinksPerPartition);
+    int[] partitionOfRoot = new int[linksOfRoot.length];
+    for (int root = 0; root < partitionOfRoot.length; ++root) {
+      partitionOfRoot[root] = partitionOfComponent[componentOfRoot[root]];
+    }
+    return partitionOfRoot;
+  }
+
+  private List<File> writeSegments(GraphPartitioner.LinkComponents graph, File linksFile,
+      long linksCount, int[] partitionOfRoot, int partitionsCount, File directory)
+      throws IOException {
+    List<File> segments = new ArrayList<>();
+    for (int partition = 0; partition < partitionsCount; ++partition) {
+      segments.add(new File(directory, "segment" + partition));
+    }
+
+    for (int first = 0; first < partitionsCount; first += MAX_OPEN_SEGMENTS) {
+      int last = Math.min(partitionsCount, first + MAX_OPEN_SEGMENTS);
+      DataOutputStream[] outputs = new DataOutputStream[last - first];
+      try (DataInputStream links = openInput(linksFile)) {
+        for (int partition = first; partition < last; ++partition) {
+          outputs[partition - first] = openOutput(segments.get(partition));
+        }
+        for (long i = 0; i < linksCount; ++i) {
+          int queryId = links.readInt();
+          int documentId = links.readInt();
+          int partition = partitionOfRoot[graph.componentOfQuery(queryId)];
+          if (partition >= first && partition < last) {
+            writeRow(outputs[partition - first], queryId, documentId, 1);
+          }
+        }
+      } finally {
+        for (DataOutputStream output : outputs) {
+          if (output != null) {
+            output.close();
+          }
+        }
+      }
+    }
+    linksFile.delete();
+    return segments;
+  }
+
+  /**
+   * clusters connected component of segment approximately by pieces, see class description
+   */
+  private void clusterInRounds(File segment, GraphPartitioner.LinkComponents graph,
+      File directory, Consumer<Set<Query>> clusterConsumer) throws IOException {
+    // arrays below are indexed by position of id of query in sorted ids of queries of component
+    BitSet queriesOfComponent = new BitSet(graph.getQueryNames().size());
+    forEachRow(segment, (queryId, documentId, linksCount) -> queriesOfComponent.set(queryId));
+    int[] queryIds = queriesOfComponent.stream().toArray();
+    // cluster of every query, cluster is represented by its query with the smallest id
+    int[] representative = new int[queryIds.length];
+    for (int query = 0; query < representative.length; ++query) {
+      representative[query] = query;
+    }
+    int[] minDocumentOfCluster = new int[queryIds.length];
+    long[] rowsOfCluster = new long[queryIds.length];
+
+    long maxDocumentsOfCluster = (long) Math.sqrt(maxLinksInMemory);
+    File rows = segment;
+    for (int round = 1; ; ++round) {
+      Arrays.fill(minDocumentOfCluster, Integer.MAX_VALUE);
+      Arrays.fill(rowsOfCluster, 0);
+      forEachRow(rows, (clusterId, documentId, linksCount) -> {
+        int cluster = Arrays.binarySearch(queryIds, clusterId);
+        minDocumentOfCluster[cluster] = Math.min(minDocumentOfCluster[cluster], documentId);
+        ++rowsOfCluster[cluster];
+      });
+      List<File> pieces = writePieces(rows, queryIds,
+          assignPieces(minDocumentOfCluster, rowsOfCluster), directory, round);
+      boolean lastRound = pieces.size() == 1;
+      File nextRows = new File(directory, "rows" + round);
+      long mergesCount = 0;
+      try (DataOutputStream output = lastRound ? null : openOutput(nextRows)) {
+        for (File piece : pieces) {
+          LoadedRows loaded = loadRows(piece, graph, true);
+          for (Set<Query> cluster : engine.clusterQueries(loaded.queries)) {
+            mergesCount += cluster.size() - 1;
+            contract(cluster, loaded, queryIds, representative,
+                maxDocumentsOfCluster, output);
+          }
+          piece.delete();
+        }
+      }
+      if (rows != segment) {
+        rows.delete();
+      }
+      rows = nextRows;
+      EXTERNAL_LOGGER.log(Level.FINE, "Round {0}: {1} pieces, {2} merges",
+          new Object[]{round, pieces.size(), mergesCount});
+      if (lastRound || mergesCount == 0) {
+        break;
+      }
+    }
+    rows.delete();
+    writeClusters(queryIds, representative, graph, clusterConsumer);
+  }
+
+  /**
+   * clusters ordered by their smallest document are cut into pieces of at most maxLinksInMemory
+   * rows, cluster of more rows forms its own piece
+   *
+   * @return piece of every cluster, -1 for queries which are not clusters anymore
+   */
+  private int[] assignPieces(int[] minDocumentOfCluster, long[] rowsOfCluster) {
+    int clustersCount = 0;
+    for (long rowsCount : rowsOfCluster) {
+      if (rowsCount > 0) {
+        ++clustersCount;
+      }
+    }
+    long[] order = new long[clustersCount];
+    clustersCount = 0;
+    for (int cluster = 0; cluster < rowsOfCluster.length; ++cluster) {
+      if (rowsOfCluster[cluster] > 0) {
+        order[clustersCount++] = (long) minDocumentOfCluster[cluster] << 32 | cluster;
+      }
+    }
+    Arrays.sort(order);
+
+    int[] pieceOfCluster = new int[rowsOfCluster.length];
+    Arrays.fill(pieceOfCluster, -1);
+    int piecesCount = 0;
+    long rowsInPiece = 0;
+    for (long key : order) {
+      int cluster = (int) key;
+      if (piecesCount == 0 || rowsInPiece + rowsOfCluster[cluster] > maxLinksInMemory) {
+        ++piecesCount;
+        rowsInPiece = 0;
+      }
+      pieceOfCluster[cluster] = piecesCount - 1;
+      rowsInPiece += rowsOfCluster[cluster];
+    }
+    return pieceOfCluster;
+  }
+
+  private List<File> writePieces(File rows, int[] queryIds, int[] pieceOfCluster,
+      File directory, int round) throws IOException {
+    int piecesCount = 0;
+    for (int piece : pieceOfCluster) {
+      piecesCount = Math.max(piecesCount, piece + 1);
+    }
+    List<File> pieces = new ArrayList<>();
+    for (int piece = 0; piece < piecesCount; ++piece) {
+      pieces.add(new File(directory, "piece" + round + "_" + piece));
+    }
+
+    for (int first = 0; first < piecesCount; first += MAX_OPEN_SEGMENTS) {
+      int last = Math.min(piecesCount, first + MAX_OPEN_SEGMENTS);
+      DataOutputStream[] outputs = new DataOutputStream[last - first];
+      try {
+        for (int piece = first; piece < last; ++piece) {
+          outputs[piece - first] = openOutput(pieces.get(piece));
+        }
+        int from = first;
+        forEachRow(rows, (clusterId, documentId, linksCount) -> {
+          int piece = pieceOfCluster[Arrays.binarySearch(queryIds, clusterId)];
+          if (piece >= from && piece < last) {
+            writeRow(outputs[piece - from], clusterId, documentId, linksCount);
+          }
+        });
+      } finally {
+        for (DataOutputStream output : outputs) {
+          if (output != null) {
+            output.close();
+          }
+        }
+      }
+    }
+    return pieces;
+  }
+
+  /**
+   * makes member with the smallest id representative of cluster and writes row of cluster for
+   * every its document if output is not null and cluster has at most maxDocumentsOfCluster
+   * documents
+   */
+  private static void contract(Set<Query> cluster, LoadedRows loaded, int[] queryIds,
+      int[] representative, long maxDocumentsOfCluster, DataOutputStream output)
+      throws IOException {
+    int clusterId = Integer.MAX_VALUE;
+    for (Query query : cluster) {
+      clusterId = Math.min(clusterId, loaded.queryIds.get(query));
+    }
+    Map<Document, Long> linksOfDocument = new HashMap<>();
+    int clusterIndex = Arrays.binarySearch(queryIds, clusterId);
+    for (Query query : cluster) {
+      representative[Arrays.binarySearch(queryIds, loaded.queryIds.get(query))] = clusterIndex;
+      if (output != null) {
+        for (Document document : query.getRelatedDocuments()) {
+          linksOfDocument.merge(document, query.getLinksCount(document), Long::sum);
+        }
+      }
+    }
+    if (linksOfDocument.size() > maxDocumentsOfCluster) {
+      return;
+    }
+    for (Map.Entry<Document, Long> link : linksOfDocument.entrySet()) {
+      writeRow(output, clusterId, loaded.documentIds.get(link.getKey()), link.getValue());
+    }
+  }
+
+  /**
+   * passes clusters of queries of component, queries are grouped by their representatives
+   */
+  private static void writeClusters(int[] queryIds, int[] representative,
+      GraphPartitioner.LinkComponents graph, Consumer<Set<Query>> clusterConsumer) {
+    long[] order = new long[queryIds.length];
+    for (int query = 0; query < queryIds.length; ++query) {
+      order[query] = (long) findRepresentative(representative, query) << 32 | query;
+    }
+    Arrays.sort(order);
+
+    Set<Query> cluster = new HashSet<>();
+    for (int i = 0; i < order.length; ++i) {
+      cluster.add(new Query(graph.getQueryNames(), queryIds[(int) order[i]]));
+      if (i + 1 == order.length || order[i + 1] >>> 32 != order[i] >>> 32) {
+        clusterConsumer.accept(cluster);
+        cluster = new HashSet<>();
+      }
+    }
+  }
+
+  private static int findRepresentative(int[] representative, int query) {
+    int root = query;
+    while (representative[root] != root) {
+      root = representative[root];
+    }
+    while (representative[query] != root) {
+      int next = representative[query];
+      representative[query] = root;
+      query = next;
+    }
+    return root;
+  }
+
+  /**
+   * builds queries and documents of rows, rows are memory-mapped
+   *
+   * @param keepIds if ids of built queries and documents are needed
+   */
+  private static LoadedRows loadRows(File rowsFile, GraphPartitioner.LinkComponents graph,
+      boolean keepIds) throws IOException {
+    LoadedRows loaded = new LoadedRows();
+    Map<Integer, Query> queries = new HashMap<>();
+    Map<Integer, Document> documents = new HashMap<>();
+    try (RandomAccessFile file = new RandomAccessFile(rowsFile, "r")) {
+      FileChannel channel = file.getChannel();
+      long size = channel.size();
+      // mapping can't be larger than 2GB
+      long chunkSize = Integer.MAX_VALUE / ROW_SIZE * ROW_SIZE;
+      for (long position = 0; position < size; position += chunkSize) {
+        ByteBuffer rows = channel.map(FileChannel.MapMode.READ_ONLY, position,
+            Math.min(chunkSize, size - position));
+        while (rows.remaining() >= ROW_SIZE) {
+          int queryId = rows.getInt();
+          int documentId = rows.getInt();
+          long linksCount = rows.getLong();
+          Query query = queries.get(queryId);
+          if (query == null) {
+            query = new Query(graph.getQueryNames(), queryId);
+            queries.put(queryId, query);
+            if (keepIds) {
+              loaded.queryIds.put(query, queryId);
+            }
+          }
+          Document document = documents.get(documentId);
+          if (document == null) {
+            document = new Document(graph.getDocumentNames(), documentId);
+            documents.put(documentId, document);
+            if (keepIds) {
+              loaded.documentIds.put(document, documentId);
+            }
+          }
+          query.addRelatedDocument(document, linksCount);
+        }
+      }
+    }
+    loaded.queries.addAll(queries.values());
+    return loaded;
+  }
+
+  private static void forEachRow(File rowsFile, RowConsumer rowConsumer) throws IOException {
+    try (DataInputStream rows = openInput(rowsFile)) {
+      while (true) {
+        int queryId;
+        try {
+          queryId = rows.readInt();
+        } catch (EOFException e) {
+          return;
+        }
+        rowConsumer.accept(queryId, rows.readInt(), rows.readLong());
+      }
+    }
+  }
+
+  private static void writeRow(DataOutputStream output, int queryId, int documentId,
+      long linksCount) throws IOException {
+    output.writeInt(queryId);
+    output.writeInt(documentId);
+    output.writeLong(linksCount);
+  }
+
+  private static DataOutputStream openOutput(File file) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+  }
+
+  private static DataInputStream openInput(File file) throws IOException {
+    return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+  }
+
+  private interface RowConsumer {
+
+    void accept(int queryId, int documentId, long linksCount) throws IOException;
+  }
+
+  /**
+   * queries of rows and ids of their nodes
+   */
+  private static class LoadedRows {
+
+    private final Set<Query> queries = new HashSet<>();
+    private final Map<Query, Integer> queryIds = new HashMap<>();
+    private final Map<Document, Integer> documentIds = new HashMap<>();
+  }
+}
@@ -0,0 +1,208 @@
+import java.util.logging.Logger;
+
+/**
+ * The same clustering as Algo does (with DistanceKernel.COMMON_LINKS), specialized for the
+ * query-document graph. Clusters are rows of one table of arrays indexed by int instead of generic
+ * Cluster objects (see IndexedGraphAlgo), neighbours and distances are primitive maps, so hot
+ * loops use neither equals and hashCode of Object nor boxing.
+ * <p>
+ * Only distances which are less than threshold are stored, clusters with the minimal distance are
+ * found by heap of pairs, entries of heap which don't match stored distances anymore are skipped
+ */
+public class FlatAlgo extends IndexedGraphAlgo {
+
+  private static final Logger FLAT_ALGO_LOGGER = Logger.getLogger(FlatAlgo.class.getName());
+  // stored distance is never equal to NaN with these bits
+  private static final long NO_DISTANCE = -1L;
+
+  // distances less than threshold between siblings as bits of doubles, in both directions
+  private IntLongMap[] distances;
+
+  // scratch of addDistancesToSiblings
+  private double[] commonLinks;
+  private boolean[] touched;
+  private int[] touchedNodes;
+
+  public FlatAlgo() {
+    this(0.01);
+  }
+
+  public FlatAlgo(double threshold) {
+    super(FLAT_ALGO_LOGGER, threshold);
+  }
+
+  @Override
+  void initPairs() {
+    distances = new IntLongMap[nodesCount];
+    for (int i = 0; i < nodesCount; ++i) {
+      distances[i] = new IntLongMap();
+    }
+    commonLinks = new double[nodesCount];
+    touched = new boolean[nodesCount];
+    touchedNodes = new int[nodesCount];
+    for (int i = 0; i < nodesCount; ++i) {
+      addDistancesToSiblings(i, i);
+    }
+  }
+
+  @Override
+  void releasePairs() {
+    distances = null;
+    commonLinks = null;
+    touched = null;
+    touchedNodes = null;
+  }
+
+  @Override
+  boolean isCurrent(int first, int second, double distance) {
+    return distances[first].get(second, NO_DISTANCE) == Double.doubleToRawLongBits(distance);
+  }
+
+  @Override
+  void pushPairs(PairHeap pairs, int node) {
+    IntLongMap row = distances[node];
+    for (int slot = 0; slot < row.capacity(); ++slot) {
+      if (row.isUsed(slot) && row.keyAt(slot) > node) {
+        pairs.push(Double.longBitsToDouble(row.valueAt(slot)), node, row.keyAt(slot));
+      }
+    }
+  }
+
+  /**
+   * Distances change for the merged cluster and for pairs of neighbours where one of them is linked
+   * to only one of merged clusters, see Algo
+   */
+  @Override
+  void merge(int first, int second) {
+    IntLongMap firstNeighbours = neighbours[first];
+    IntLongMap secondNeighbours = neighbours[second];
+    int[] onlyFirst = new int[firstNeighbours.size()];
+    int[] common = new int[Math.min(firstNeighbours.size(), secondNeighbours.size())];
+    int[] onlySecond = new int[secondNeighbours.size()];
+    int onlyFirstCount = 0;
+    int commonCount = 0;
+    int onlySecondCount = 0;
+    for (int slot = 0; slot < firstNeighbours.capacity(); ++slot) {
+      if (firstNeighbours.isUsed(slot)) {
+        int n = firstNeighbours.keyAt(slot);
+        if (secondNeighbours.containsKey(n)) {
+          common[commonCount++] = n;
+        } else {
+          onlyFirst[onlyFirstCount++] = n;
+        }
+      }
+    }
+    for (int slot = 0; slot < secondNeighbours.capacity(); ++slot) {
+      if (secondNeighbours.isUsed(slot) && !firstNeighbours.containsKey(
+          secondNeighbours.keyAt(slot))) {
+        onlySecond[onlySecondCount++] = secondNeighbours.keyAt(slot);
+      }
+    }
+
+    removeDistances(first);
+    removeDistances(second);
+    mergeNeighbours(first, second);
+    distances[second] = null;
+
+    addDistancesToSiblings(first, -1);
+    for (int i = 0; i < onlyFirstCount; ++i) {
+      for (int j = 0; j < onlySecondCount; ++j) {
+        updateDistance(onlyFirst[i], onlySecond[j]);
+      }
+      for (int j = 0; j < commonCount; ++j) {
+        updateDistance(onlyFirst[i], common[j]);
+      }
+    }
+    for (int i = 0; i < onlySecondCount; ++i) {
+      for (int j = 0; j < commonCount; ++j) {
+        updateDistance(onlySecond[i], common[j]);
+      }
+    }
+  }
+
+  /**
+   * computes distances from node to all its siblings which are greater than minSibling: common
+   * links of all siblings are summed up in one pass over neighbours of neighbours
+   */
+  private void addDistancesToSiblings(int node, int minSibling) {
+    IntLongMap nodeNeighbours = neighbours[node];
+    int touchedCount = 0;
+    for (int slot = 0; slot < nodeNeighbours.capacity(); ++slot) {
+      if (!nodeNeighbours.isUsed(slot)) {
+        continue;
+      }
+      long nodeLinks = nodeNeighbours.valueAt(slot);
+      IntLongMap siblings = neighbours[nodeNeighbours.keyAt(slot)];
+      for (int siblingSlot = 0; siblingSlot < siblings.capacity(); ++siblingSlot) {
+        if (!siblings.isUsed(siblingSlot)) {
+          continue;
+        }
+        int sibling = siblings.keyAt(siblingSlot);
+        if (sibling == node || sibling <= minSibling) {
+          continue;
+        }
+        if (!touched[sibling]) {
+          touched[sibling] = true;
+          touchedNodes[touchedCount++] = sibling;
+        }
+        commonLinks[sibling] += (double) nodeLinks + siblings.valueAt(siblingSlot);
+      }
+    }
+    for (int i = 0; i < touchedCount; ++i) {
+      int sibling = touchedNodes[i];
+      double distance = distance(commonLinks[sibling], node, sibling);
+      if (distance < threshold) {
+        setDistance(node, sibling, distance);
+      }
+      commonLinks[sibling] = 0;
+      touched[sibling] = false;
+    }
+  }
+
+  private void updateDistance(int first, int second) {
+    IntLongMap firstNeighbours = neighbours[first];
+    IntLongMap secondNeighbours = neighbours[second];
+    if (firstNeighbours.size() > secondNeighbours.size()) {
+      IntLongMap swap = firstNeighbours;
+      firstNeighbours = secondNeighbours;
+      secondNeighbours = swap;
+    }
+    double common = 0;
+    for (int slot = 0; slot < firstNeighbours.capacity(); ++slot) {
+      if (firstNeighbours.isUsed(slot)) {
+        long linksCount = secondNeighbours.get(firstNeighbours.keyAt(slot), -1);
+        if (linksCount >= 0) {
+          common += (double) firstNeighbours.valueAt(slot) + linksCount;
+        }
+      }
+    }
+    double distance = distance(common, first, second);
+    if (distance < threshold) {
+      setDistance(first, second, distance);
+    } else if (distances[first].remove(second)) {
+      distances[second].remove(first);
+      --storedPairsCount[sideOf(first)];
+    }
+  }
+
+  private void setDistance(int first, int second, double distance) {
+    long bits = Double.doubleToRawLongBits(distance);
+    if (!distances[first].containsKey(second)) {
+      ++storedPairsCount[sideOf(first)];
+    }
+    distances[first].put(second, bits);
+    distances[second].put(first, bits);
+    push(first, second, distance);
+  }
+
+  private void removeDistances(int node) {
+    IntLongMap row = distances[node];
+    for (int slot = 0; slot < row.capacity(); ++slot) {
+      if (row.isUsed(slot)) {
+        distances[row.keyAt(slot)].remove(node);
+      }
+    }
+    storedPairsCount[sideOf(node)] -= row.size();
+    row.clear();
+  }
+}
@@ -0,0 +1,215 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Splits query-document graph into parts which can be clustered independently. Clusters from
+ * different connected components are never merged (distance between clusters without common
+ * neighbours is 1), so every part consists of whole connected components
+ */
+public class GraphPartitioner {
+
+  private GraphPartitioner() {
+  }
+
+  /**
+   * @return connected components of the graph, every component is represented by its queries
+   */
+  public static List<Set<Query>> findConnectedComponents(Set<Query> queries) {
+    if (queries == null) {
+      throw new IllegalArgumentException("Set of queries should not be null");
+    }
+
+    UnionFind components = new UnionFind(queries.size());
+    Map<Query, Integer> queryNodes = new HashMap<>();
+    Map<Document, Integer> documentNodes = new HashMap<>();
+    for (Query q : queries) {
+      int queryNode = components.add();
+      queryNodes.put(q, queryNode);
+      for (Document d : q.getRelatedDocuments()) {
+        Integer documentNode = documentNodes.get(d);
+        if (documentNode == null) {
+          documentNode = components.add();
+          documentNodes.put(d, documentNode);
+        }
+        components.union(queryNode, documentNode);
+      }
+    }
+
+    Map<Integer, Set<Query>> queriesOfRoot = new HashMap<>();
+    for (Map.Entry<Query, Integer> e : queryNodes.entrySet()) {
+      queriesOfRoot.computeIfAbsent(components.find(e.getValue()), root -> new HashSet<>())
+          .add(e.getKey());
+    }
+    return new ArrayList<>(queriesOfRoot.values());
+  }
+
+  /**
+   * Groups connected components into at most partitionsCount parts with approximately equal count
+   * of links: components are taken from the largest one and added to the least loaded part
+   *
+   * @return not empty parts of the graph
+   */
+  public static List<Set<Query>> partition(Set<Query> queries, int partitionsCount) {
+    if (partitionsCount <= 0) {
+      throw new IllegalArgumentException("Count of partitions should be positive");
+    }
+
+    List<Set<Query>> components = findConnectedComponents(queries);
+    long[] linksOfComponent = new long[components.size()];
+    for (int i = 0; i < components.size(); ++i) {
+      linksOfComponent[i] = countLinks(components.get(i));
+    }
+
+    List<Set<Query>> partitions = new ArrayList<>();
+    PriorityQueue<Partition> leastLoaded = new PriorityQueue<>(
+        Comparator.comparingLong(p -> p.linksCount));
+    for (int component : largestFirst(linksOfComponent)) {
+      Partition partition;
+      if (partitions.size() < partitionsCount) {
+        partition = new Partition(partitions.size());
+        partitions.add(new HashSet<>());
+      } else {
+        partition = leastLoaded.poll();
+      }
+      partitions.get(partition.index).addAll(components.get(component));
+      partition.linksCount += linksOfComponent[component];
+      leastLoaded.add(partition);
+    }
+    return partitions;
+  }
+
+  /**
+   * Groups connected components into parts of at most maxLinksPerPart links: components are taken
+   * from the largest one and added to the current part while it fits. Component which has more
+   * links forms its own part
+   *
+   * @param linksOfComponent count of links of every component
+   * @return part of every component, parts are 0, 1, 2, ...
+   */
+  public static int[] packComponents(long[] linksOfComponent, long maxLinksPerPart) {
+    if (maxLinksPerPart <= 0) {
+      throw new IllegalArgumentException("Count of links per part should be positive");
+    }
+    int[] partOfComponent = new int[linksOfComponent.length];
+    int partsCount = 0;
+    long linksInPart = 0;
+    for (int component : largestFirst(linksOfComponent)) {
+      if (partsCount == 0 || linksInPart + linksOfComponent[component] > maxLinksPerPart) {
+        ++partsCount;
+        linksInPart = 0;
+      }
+      partOfComponent[component] = partsCount - 1;
+      linksInPart += linksOfComponent[component];
+    }
+    return partOfComponent;
+  }
+
+  private static List<Integer> largestFirst(long[] linksOfComponent) {
+    List<Integer> order = new ArrayList<>();
+    for (int i = 0; i < linksOfComponent.length; ++i) {
+      order.add(i);
+    }
+    order.sort(Comparator.comparingLong((Integer i) -> linksOfComponent[i]).reversed());
+    return order;
+  }
+
+  /**
+   * @return count of edges between queries and documents, every edge is counted once regardless
+   * of its weight
+   */
+  public static long countLinks(Set<Query> queries) {
+    long linksCount = 0;
+    for (Query q : queries) {
+      linksCount += q.getRelatedDocuments().size();
+    }
+    return linksCount;
+  }
+
+  /**
+   * Connected components of the graph which links are added one by one, e.g. while log is read.
+   * Names of queries and documents are interned in StringArena, so only their bytes and a few ints
+   * per node are kept in memory. Queries and documents get ids 0, 1, 2, ... separately
+   */
+  public static class LinkComponents {
+
+    private final StringArena queryNames = new StringArena();
+    private final StringArena documentNames = new StringArena();
+    private final UnionFind components = new UnionFind();
+    // node of union-find of every id
+    private int[] queryNodes = new int[1024];
+    private int[] documentNodes = new int[1024];
+
+    /**
+     * @return id of query, the same query always gets the same id
+     */
+    public int addQuery(String query) {
+      int queriesCount = queryNames.size();
+      int id = queryNames.intern(query);
+      if (queryNames.size() > queriesCount) {
+        queryNodes = addNode(queryNodes, id);
+      }
+      return id;
+    }
+
+    /**
+     * @return id of document, the same document always gets the same id
+     */
+    public int addDocument(String documentName) {
+      int documentsCount = documentNames.size();
+      int id = documentNames.intern(documentName);
+      if (documentNames.size() > documentsCount) {
+        documentNodes = addNode(documentNodes, id);
+      }
+      return id;
+    }
+
+    public void addLink(int queryId, int documentId) {
+      components.union(queryNodes[queryId], documentNodes[documentId]);
+    }
+
+    /**
+     * @return component of query, components are numbered by [0, getNodesCount())
+     */
+    public int componentOfQuery(int queryId) {
+      return components.find(queryNodes[queryId]);
+    }
+
+    public int getNodesCount() {
+      return components.size();
+    }
+
+    public StringArena getQueryNames() {
+      return queryNames;
+    }
+
+    public StringArena getDocumentNames() {
+      return documentNames;
+    }
+
+    private int[] addNode(int[] nodes, int id) {
+      if (id == nodes.length) {
+        nodes = Arrays.copyOf(nodes, id * 2);
+      }
+      nodes[id] = components.add();
+      return nodes;
+    }
+  }
+
+  private static class Partition {
+
+    private final int index;
+    private long linksCount;
+
+    Partition(int index) {
+      this.index = index;
+      this.linksCount = 0;
+    }
+  }
+}
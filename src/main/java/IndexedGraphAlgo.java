@@ -0,0 +1,262 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Common part of FlatAlgo and DeltaAlgo: the query-document graph as one table of arrays indexed
+ * by int, the loop of merges and heaps of pairs of clusters. Engines differ in what they store for
+ * pairs of siblings and how they update it on merges.
+ * <p>
+ * Queries get indexes [0, queriesCount), documents get [queriesCount, nodesCount). Merged cluster
+ * keeps index of one of merged clusters, the other one is dead: its row of neighbours is null.
+ * Entries of heaps which don't match stored pairs anymore are skipped when they are polled
+ */
+abstract class IndexedGraphAlgo implements ClusteringEngine {
+
+  // heap is rebuilt when it has this many times more entries than there are stored pairs
+  private static final int STALE_ENTRIES_RATIO = 4;
+
+  private final Logger logger;
+
+  // maximal acceptable distance for merging clusters, see Algo
+  double threshold = 0.01;
+
+  int queriesCount;
+  int nodesCount;
+  Query[] queries;
+  IntLongMap[] neighbours;
+  long[] totalLinks;
+  // nodes of cluster form a list which starts at index of cluster
+  int[] nextMember;
+  int[] lastMember;
+
+  // pairs which are stored by engine on the side of queries and on the side of documents
+  final long[] storedPairsCount = new long[2];
+  PairHeap queryPairs;
+  PairHeap documentPairs;
+  private long mergesCount;
+
+  IndexedGraphAlgo(Logger logger, double threshold) {
+    this.logger = logger;
+    setThreshold(threshold);
+  }
+
+  public double getThreshold() {
+    return threshold;
+  }
+
+  public void setThreshold(double threshold) {
+    if (threshold > 1 || threshold < 0) {
+      throw new IllegalArgumentException("Threshold value should belong to [0, 1]");
+    }
+    this.threshold = threshold;
+  }
+
+  @Override
+  public Set<Set<Query>> clusterQueries(Set<Query> queries) {
+    if (queries == null) {
+      return null;
+    }
+
+    buildGraph(queries);
+    Arrays.fill(storedPairsCount, 0);
+    queryPairs = new PairHeap();
+    documentPairs = new PairHeap();
+    initPairs();
+    logger.log(Level.FINE, "Count of query clusters: {0}", queriesCount);
+    logger.log(Level.FINE, "Count of document clusters: {0}", nodesCount - queriesCount);
+    logger.log(Level.FINE, "Count of stored pairs: {0}",
+        storedPairsCount[0] + storedPairsCount[1]);
+
+    mergesCount = 0;
+    boolean canMergeClusters = true;
+    long iterCount = 0;
+    long startTime = System.nanoTime();
+    while (canMergeClusters) {
+      ++iterCount;
+      canMergeClusters = tryMerge(queryPairs, 0, queriesCount);
+      canMergeClusters |= tryMerge(documentPairs, queriesCount, nodesCount);
+    }
+    long elapsedTime = System.nanoTime() - startTime;
+    logger.log(Level.FINE, "Time: {0}s", elapsedTime / 1e9);
+    logger.log(Level.FINE, "Count of iterations: {0}", iterCount);
+    logger.log(Level.FINE, "Count of merges: {0}", mergesCount);
+
+    Set<Set<Query>> clusters = collectClusters();
+    release();
+    return clusters;
+  }
+
+  /**
+   * stores pairs of siblings of the built graph and pushes those closer than threshold to heaps
+   */
+  abstract void initPairs();
+
+  /**
+   * @return true if heap entry of the pair with this distance matches the stored pair
+   */
+  abstract boolean isCurrent(int first, int second, double distance);
+
+  /**
+   * pushes stored pairs of node and its siblings with greater index which are closer than
+   * threshold
+   */
+  abstract void pushPairs(PairHeap pairs, int node);
+
+  /**
+   * Second cluster is merged into the first one, engine updates its pairs and calls
+   * mergeNeighbours
+   */
+  abstract void merge(int first, int second);
+
+  /**
+   * drops everything engine stores for pairs
+   */
+  abstract void releasePairs();
+
+  private void buildGraph(Set<Query> querySet) {
+    queries = querySet.toArray(new Query[0]);
+    queriesCount = queries.length;
+    Map<Document, Integer> documentIndexes = new HashMap<>();
+    for (Query q : queries) {
+      for (Document d : q.getRelatedDocuments()) {
+        documentIndexes.putIfAbsent(d, queriesCount + documentIndexes.size());
+      }
+    }
+    nodesCount = queriesCount + documentIndexes.size();
+
+    neighbours = new IntLongMap[nodesCount];
+    totalLinks = new long[nodesCount];
+    for (int i = queriesCount; i < nodesCount; ++i) {
+      neighbours[i] = new IntLongMap();
+    }
+    for (int i = 0; i < queriesCount; ++i) {
+      Set<Document> documents = queries[i].getRelatedDocuments();
+      neighbours[i] = new IntLongMap(documents.size());
+      for (Document d : documents) {
+        int document = documentIndexes.get(d);
+        long linksCount = queries[i].getLinksCount(d);
+        neighbours[i].put(document, linksCount);
+        neighbours[document].put(i, linksCount);
+        totalLinks[i] = checkTotal(totalLinks[i] + linksCount);
+        totalLinks[document] = checkTotal(totalLinks[document] + linksCount);
+      }
+    }
+
+    nextMember = new int[nodesCount];
+    lastMember = new int[nodesCount];
+    for (int i = 0; i < nodesCount; ++i) {
+      nextMember[i] = -1;
+      lastMember[i] = i;
+    }
+  }
+
+  private Set<Set<Query>> collectClusters() {
+    Set<Set<Query>> clusters = new HashSet<>();
+    for (int i = 0; i < queriesCount; ++i) {
+      if (neighbours[i] != null) {
+        Set<Query> cluster = new HashSet<>();
+        for (int member = i; member != -1; member = nextMember[member]) {
+          cluster.add(queries[member]);
+        }
+        clusters.add(cluster);
+      }
+    }
+    return clusters;
+  }
+
+  private void release() {
+    queries = null;
+    neighbours = null;
+    totalLinks = null;
+    nextMember = null;
+    lastMember = null;
+    queryPairs = null;
+    documentPairs = null;
+    releasePairs();
+  }
+
+  /**
+   * merges pair of clusters of [from, to) with the minimal distance if it is less than threshold
+   *
+   * @return true if clusters were merged
+   */
+  private boolean tryMerge(PairHeap pairs, int from, int to) {
+    if (pairs.size() > STALE_ENTRIES_RATIO * storedPairsCount[sideOf(from)] + 1024) {
+      pairs.clear();
+      for (int i = from; i < to; ++i) {
+        if (neighbours[i] != null) {
+          pushPairs(pairs, i);
+        }
+      }
+    }
+    while (pairs.size() > 0) {
+      int first = pairs.firstOfMin();
+      int second = pairs.secondOfMin();
+      double distance = pairs.minDistance();
+      pairs.poll();
+      if (neighbours[first] != null && neighbours[second] != null
+          && isCurrent(first, second, distance)) {
+        ++mergesCount;
+        merge(first, second);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * moves links of second cluster to the first one, second cluster becomes dead
+   */
+  void mergeNeighbours(int first, int second) {
+    IntLongMap firstNeighbours = neighbours[first];
+    IntLongMap secondNeighbours = neighbours[second];
+    for (int slot = 0; slot < secondNeighbours.capacity(); ++slot) {
+      if (secondNeighbours.isUsed(slot)) {
+        int n = secondNeighbours.keyAt(slot);
+        long linksCount = secondNeighbours.valueAt(slot);
+        firstNeighbours.add(n, linksCount);
+        neighbours[n].remove(second);
+        neighbours[n].add(first, linksCount);
+      }
+    }
+    totalLinks[first] = checkTotal(totalLinks[first] + totalLinks[second]);
+    neighbours[second] = null;
+    totalLinks[second] = 0;
+    nextMember[lastMember[first]] = second;
+    lastMember[first] = lastMember[second];
+  }
+
+  double distance(double common, int first, int second) {
+    long total = totalLinks[first] + totalLinks[second];
+    // possible overflow
+    if (total < 0) {
+      throw new RuntimeException("Total count of links is below zero while computing distance " +
+          "between cluster (possible overflow)");
+    }
+    if (total == 0) {
+      return 1;
+    }
+    return 1. - common / total;
+  }
+
+  void push(int first, int second, double distance) {
+    (first < queriesCount ? queryPairs : documentPairs).push(distance, first, second);
+  }
+
+  int sideOf(int node) {
+    return node < queriesCount ? 0 : 1;
+  }
+
+  private long checkTotal(long totalLinks) {
+    if (totalLinks < 0) {
+      logger.log(Level.SEVERE, "Total links count is below zero (possible overflow)");
+      throw new RuntimeException("Total links count is below zero (possible overflow)");
+    }
+    return totalLinks;
+  }
+}
@@ -0,0 +1,154 @@
+import java.util.Arrays;
+
+/**
+ * Map from int to long without boxing: open addressing with linear probing. Entries are iterated
+ * by slots: for every slot in [0, capacity()) which isUsed, keyAt and valueAt give the entry. Map
+ * must not be changed during iteration
+ */
+final class IntLongMap {
+
+  private static final int EMPTY = -1;
+  private static final int MIN_CAPACITY = 4;
+
+  // keys are not negative, EMPTY marks free slot
+  private int[] keys;
+  private long[] values;
+  private int size = 0;
+
+  IntLongMap() {
+    this(MIN_CAPACITY);
+  }
+
+  /**
+   * @param expectedSize count of entries which fit without growing
+   */
+  IntLongMap(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    keys = new int[capacity];
+    Arrays.fill(keys, EMPTY);
+    values = new long[capacity];
+  }
+
+  int size() {
+    return size;
+  }
+
+  int capacity() {
+    return keys.length;
+  }
+
+  boolean isUsed(int slot) {
+    return keys[slot] != EMPTY;
+  }
+
+  int keyAt(int slot) {
+    return keys[slot];
+  }
+
+  long valueAt(int slot) {
+    return values[slot];
+  }
+
+  boolean containsKey(int key) {
+    return keys[find(key)] == key;
+  }
+
+  long get(int key, long defaultValue) {
+    int slot = find(key);
+    return keys[slot] == key ? values[slot] : defaultValue;
+  }
+
+  void put(int key, long value) {
+    if (key < 0) {
+      throw new IllegalArgumentException("Key should not be negative");
+    }
+    int slot = find(key);
+    if (keys[slot] == key) {
+      values[slot] = value;
+      return;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    if (++size * 2 > keys.length) {
+      resize(keys.length * 2);
+    }
+  }
+
+  /**
+   * adds value to the value of key, missing key has value 0
+   */
+  void add(int key, long value) {
+    int slot = find(key);
+    if (keys[slot] == key) {
+      values[slot] += value;
+    } else {
+      put(key, value);
+    }
+  }
+
+  /**
+   * @return true if key was in map
+   */
+  boolean remove(int key) {
+    int slot = find(key);
+    if (keys[slot] != key) {
+      return false;
+    }
+    // backward shift: entries after removed one are moved to slots where lookups find them
+    int mask = keys.length - 1;
+    int free = slot;
+    int next = (slot + 1) & mask;
+    while (keys[next] != EMPTY) {
+      int home = mix(keys[next]) & mask;
+      if (((next - home) & mask) >= ((next - free) & mask)) {
+        keys[free] = keys[next];
+        values[free] = values[next];
+        free = next;
+      }
+      next = (next + 1) & mask;
+    }
+    keys[free] = EMPTY;
+    --size;
+    return true;
+  }
+
+  void clear() {
+    Arrays.fill(keys, EMPTY);
+    size = 0;
+  }
+
+  /**
+   * @return slot of key or empty slot where it should be put
+   */
+  private int find(int key) {
+    int mask = keys.length - 1;
+    int slot = mix(key) & mask;
+    while (keys[slot] != key && keys[slot] != EMPTY) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void resize(int capacity) {
+    int[] oldKeys = keys;
+    long[] oldValues = values;
+    keys = new int[capacity];
+    Arrays.fill(keys, EMPTY);
+    values = new long[capacity];
+    for (int i = 0; i < oldKeys.length; ++i) {
+      if (oldKeys[i] != EMPTY) {
+        int slot = find(oldKeys[i]);
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private static int mix(int key) {
+    key *= 0x9e3779b9;
+    return key ^ (key >>> 16);
+  }
+}
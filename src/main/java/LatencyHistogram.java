@@ -0,0 +1,76 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies with microsecond resolution. Latencies below 1024us are counted
+ * exactly, larger ones are counted in buckets with relative error not greater than 1/32
+ */
+public class LatencyHistogram {
+
+  private static final int LINEAR_BUCKETS = 1024;
+  private static final int LINEAR_BITS = 10;
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final AtomicLongArray counts =
+      new AtomicLongArray(LINEAR_BUCKETS + (Long.SIZE - LINEAR_BITS) * SUB_BUCKETS);
+
+  public void record(long latencyNanos) {
+    long micros = Math.max(0, latencyNanos / 1000);
+    counts.incrementAndGet(bucketOf(micros));
+  }
+
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < counts.length(); ++i) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * @param percentile belongs to [0, 100]
+   * @return lower bound of bucket where percentile of latencies falls, in microseconds; 0 if
+   * nothing was recorded
+   */
+  public long getPercentileMicros(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile should belong to [0, 100]");
+    }
+    long[] snapshot = new long[counts.length()];
+    long total = 0;
+    for (int i = 0; i < snapshot.length; ++i) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < snapshot.length; ++i) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return lowerBoundOf(i);
+      }
+    }
+    return lowerBoundOf(snapshot.length - 1);
+  }
+
+  private static int bucketOf(long micros) {
+    if (micros < LINEAR_BUCKETS) {
+      return (int) micros;
+    }
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(micros);
+    int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return LINEAR_BUCKETS + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+  }
+
+  private static long lowerBoundOf(int bucket) {
+    if (bucket < LINEAR_BUCKETS) {
+      return bucket;
+    }
+    int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + LINEAR_BITS;
+    long subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+    return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+  }
+}
@@ -0,0 +1,100 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe map which keeps at most capacity entries, the least recently used entry is evicted
+ * first.
+ * <p>
+ * Large cache is split into segments by hash of key, every segment is a LRU map of its share of
+ * capacity with its own lock, so threads which look up different keys rarely wait for each other.
+ * Order of use is kept within segment only: evicted entry is the least recently used one of its
+ * segment, not of the whole cache. Cache of less than MIN_SEGMENT_CAPACITY * 2 entries has one
+ * segment and is exact LRU
+ */
+public class LruCache<K, V> {
+
+  private static final int MAX_SEGMENTS_COUNT = 16;
+  private static final int MIN_SEGMENT_CAPACITY = 64;
+
+  private final Map<K, V>[] segments;
+  private final LongAdder hitsCount = new LongAdder();
+  private final LongAdder missesCount = new LongAdder();
+
+  public LruCache(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity should be positive");
+    }
+    int segmentsCount = 1;
+    while (segmentsCount * 2 <= MAX_SEGMENTS_COUNT
+        && capacity / (segmentsCount * 2) >= MIN_SEGMENT_CAPACITY) {
+      segmentsCount *= 2;
+    }
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Map<K, V>[] segments = new Map[segmentsCount];
+    for (int i = 0; i < segmentsCount; ++i) {
+      // the first capacity % segmentsCount segments get one entry more
+      int segmentCapacity = capacity / segmentsCount + (i < capacity % segmentsCount ? 1 : 0);
+      segments[i] = new LinkedHashMap<K, V>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+          return size() > segmentCapacity;
+        }
+      };
+    }
+    this.segments = segments;
+  }
+
+  /**
+   * @return cached value or null
+   */
+  public V get(K key) {
+    Map<K, V> segment = segmentOf(key);
+    V value;
+    synchronized (segment) {
+      value = segment.get(key);
+    }
+    if (value == null) {
+      missesCount.increment();
+    } else {
+      hitsCount.increment();
+    }
+    return value;
+  }
+
+  public void put(K key, V value) {
+    if (key == null || value == null) {
+      throw new IllegalArgumentException("Key and value should not be null");
+    }
+    Map<K, V> segment = segmentOf(key);
+    synchronized (segment) {
+      segment.put(key, value);
+    }
+  }
+
+  public int size() {
+    int size = 0;
+    for (Map<K, V> segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  public long getHitsCount() {
+    return hitsCount.sum();
+  }
+
+  public long getMissesCount() {
+    return missesCount.sum();
+  }
+
+  private Map<K, V> segmentOf(K key) {
+    int hash = key.hashCode();
+    // high bits, low ones are used by hash tables of segments
+    hash ^= hash >>> 16;
+    hash *= 0x9e3779b9;
+    return segments[(hash >>> 28) & (segments.length - 1)];
+  }
+}
@@ -2,59 +2,292 @@
  * Created by sandulmv on 28.07.17.
  */
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
 
   static String pathToLogs = ".$src$main$queryLogs$".replaceAll("\\$", File.separator);
   static String pathToResults = ".$src$main$clusteringResults$".replaceAll("\\$", File.separator);
   static String pathToProgramLogs = ".$src$main$programLogs".replaceAll("\\$", File.separator);
-  static BufferedWriter output = null;
+  static ClusterWriter output = null;
   static double threshold = 0.01;
   static int lineLimit = (int) 1e4;
   static int minSizeOfCluster = 5;
+  static DistanceMatrixType distanceMatrixType = DistanceMatrixType.LAZY;
+  // distance between clusters used by Algo, threshold depends on it
+  static DistanceKernel distanceKernel = DistanceKernel.COMMON_LINKS;
+  // Algo replaces distanceMatrixType by the cheapest one if estimate of heap exceeds this budget
+  // and fails at once if no type fits, 0 turns estimation off
+  static long clusteringMemoryBudget = Runtime.getRuntime().maxMemory() / 10 * 7;
+  // if positive, Main only previews clustering of whole logs: components of the graph are sampled
+  // with this probability and results are extrapolated, see ClusteringPreview. Components of more
+  // than previewGiantComponentSize queries are previewed by sample of their documents
+  static double previewSampleRate = 0;
+  static int previewGiantComponentSize = ClusteringPreview.DEFAULT_GIANT_COMPONENT_SIZE;
+  // if positive, Algo stops clustering of a log after this time and writes clusters made so far
+  static long clusteringTimeBudgetMillis = 0;
+  // nearest neighbour engine doesn't store matrices of distances, use it for huge logs
+  static boolean useNearestNeighbourEngine = false;
+  // flat engine makes the same clusters as Algo with primitive arrays and maps, it ignores
+  // distanceMatrixType, distanceKernel and clusteringTimeBudgetMillis
+  static boolean useFlatEngine = false;
+  // delta engine makes the same clusters as flat one, it updates stored common links of pairs by
+  // deltas after merges instead of intersecting neighbours, see DeltaAlgo
+  static boolean useDeltaEngine = false;
+  // if positive, graph is clustered by this count of worker processes, see ClusteringCoordinator
+  static int workersCount = 0;
+  // external memory mode spills the graph to disk and clusters it by partitions, see
+  // ExternalMemoryClustering. Set lineLimit to Integer.MAX_VALUE to cluster whole logs
+  static boolean useExternalMemory = false;
+  static String pathToSpill = System.getProperty("java.io.tmpdir");
+  static long maxLinksPerPartition = (long) 1e6;
+  // connected components are clustered as whole, so the result is the same as in memory and the
+  // largest component should fit into memory. Smaller value opts into approximate clustering of
+  // larger components by pieces of this many links, see ExternalMemoryClustering
+  static long maxLinksInMemory = Long.MAX_VALUE;
+  // pipeline reads the next log while the previous one is clustered by clusteringThreads threads,
+  // see PipelinedRunner. Window and external memory modes are not pipelined
+  static boolean usePipeline = false;
+  static int clusteringThreads = Runtime.getRuntime().availableProcessors();
+  // batch mode clusters several whole logs at the same time, at most batchThreads of them and
+  // only while their estimated memory fits into batchMemoryBudget, see BatchRunner. Summary is
+  // written to program logs
+  static boolean useBatchRunner = false;
+  static int batchThreads = Runtime.getRuntime().availableProcessors();
+  static long batchMemoryBudget = Runtime.getRuntime().maxMemory() / 10 * 7;
+  // all logs are read into one graph with shared queries and documents and clustered at once,
+  // result is written to file "combinedLogs"
+  static boolean combineLogs = false;
+  // spellings of URLs and queries are brought to canonical form before the graph is built, see
+  // Canonicalizer. Used by the serial, pipeline, batch, preview and combined modes
+  static boolean canonicalizeLinks = false;
+  static int canonicalFormsCacheCapacity = 1 << 20;
+  // if greater than 1, the serial and batch modes read logs in two passes and keep only
+  // query-document pairs which were made at least minLinksCount times, see
+  // QueryLogReader.readFrequentLinks. Memory doesn't grow with rare pairs, so lineLimit can be set
+  // to Integer.MAX_VALUE. Pipeline mode reads logs in one pass and rejects it
+  static int minLinksCount = 1;
+  static long sketchBytes = 64L << 20;
+  // if positive, clusters are written for every time window of this length, windows move by
+  // slideMillis, see WindowedClustering. Logs are sorted by time in runs of windowRunLinks links
+  // which are spilled to pathToSpill
+  static long windowMillis = 0;
+  static long slideMillis = TimeUnit.HOURS.toMillis(1);
+  static int windowRunLinks = TimeOrderedLinks.DEFAULT_RUN_LINKS;
+  // written clusters are also saved in binary format (file with ".idx" suffix), see
+  // ClusterIndexWriter
+  static boolean writeBinaryIndex = true;
 
   public static void main(String[] args) throws IOException {
     Path queryLogsDirectory = Paths.get(pathToLogs);
+    if (previewSampleRate > 0) {
+      runPreview(queryLogsDirectory);
+      return;
+    }
+    if (usePipeline) {
+      if (minLinksCount > 1) {
+        throw new IllegalArgumentException(
+            "Pipeline reads logs in one pass, it can't keep only frequent links");
+      }
+      runPipeline(queryLogsDirectory);
+      return;
+    }
+    if (useBatchRunner) {
+      runBatch(queryLogsDirectory);
+      return;
+    }
+    if (combineLogs) {
+      runCombined(queryLogsDirectory);
+      return;
+    }
     Set<Query> queries = null;
-    QueryLogReader queryLogReader = new QueryLogReader();
-    Algo algo = new Algo(threshold);
+    QueryLogReader queryLogReader = createQueryLogReader();
+    ClusteringEngine algo = createClusteringEngine();
     for (Path logFile : Files.newDirectoryStream(queryLogsDirectory)) {
-      queries = queryLogReader.readQueryLog(logFile.toString(), lineLimit);
-      File outputFile = new File(pathToResults, logFile.getFileName().toString());
-      output = new BufferedWriter(new FileWriter(outputFile));
-      makeDescription(output);
-      Set<Set<Query>> clusters = algo.clusterQueries(queries);
-      int maxSize = -1;
-      for (Set<Query> cluster : clusters) {
-        if (cluster.size() >= minSizeOfCluster) {
-          if (cluster.size() > maxSize) {
-            maxSize = cluster.size();
-          }
-          output.write(cluster.toString());
-          output.newLine();
-          output.write("----------------------------\n");
-        }
+      startLog(logFile);
+      if (windowMillis > 0) {
+        TimeOrderedLinks log = new TimeOrderedLinks(queryLogReader, new File(pathToSpill),
+            windowRunLinks);
+        new WindowedClustering(algo, windowMillis, log).clusterQueryLog(logFile.toString(),
+            lineLimit, slideMillis, Main::writeWindow);
+      } else if (useExternalMemory) {
+        new ExternalMemoryClustering(algo, new File(pathToSpill), maxLinksPerPartition,
+            maxLinksInMemory).clusterQueryLog(logFile.toString(), lineLimit, Main::writeCluster);
+      } else {
+        queries = readLog(queryLogReader, logFile, lineLimit);
+        Set<Set<Query>> clusters = algo.clusterQueries(queries);
+        clusters.forEach(Main::writeCluster);
       }
-      output.write("Maximal size of cluster: " + maxSize);
-      output.close();
+      finishLog(logFile);
+    }
+  }
+
+  static void runPipeline(Path queryLogsDirectory) throws IOException {
+    List<Path> logFiles = new ArrayList<>();
+    Files.newDirectoryStream(queryLogsDirectory).forEach(logFiles::add);
+    new PipelinedRunner(Main::createClusteringEngine, Main::createQueryLogReader,
+        clusteringThreads, 16)
+        .run(logFiles, lineLimit, new PipelinedRunner.ResultWriter() {
+          @Override
+          public void startLog(Path logFile) throws IOException {
+            Main.startLog(logFile);
+          }
+
+          @Override
+          public void writeClusters(Path logFile, Set<Set<Query>> clusters) {
+            clusters.forEach(Main::writeCluster);
+          }
+
+          @Override
+          public void finishLog(Path logFile) throws IOException {
+            Main.finishLog(logFile);
+          }
+        });
+  }
+
+  static void runBatch(Path queryLogsDirectory) throws IOException {
+    List<Path> logFiles = new ArrayList<>();
+    Files.newDirectoryStream(queryLogsDirectory).forEach(logFiles::add);
+    List<BatchRunner.LogReport> reports =
+        new BatchRunner(Main::createClusteringEngine,
+            (logFile, nLines) -> readLog(createQueryLogReader(), logFile, nLines), batchThreads,
+            batchMemoryBudget).run(logFiles, lineLimit, Main::openResult);
+    Files.write(Paths.get(pathToProgramLogs, "batchReport.txt"),
+        BatchRunner.formatReport(reports).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Writes preview of clustering of every whole log instead of clusters, see ClusteringPreview.
+   * Log is read twice and only its sampled part is kept in memory
+   */
+  static void runPreview(Path queryLogsDirectory) throws IOException {
+    ClusteringPreview preview = new ClusteringPreview(previewSampleRate, 0);
+    preview.setGiantComponentSize(previewGiantComponentSize);
+    Algo algo = new Algo(threshold);
+    algo.setDistanceMatrixType(distanceMatrixType);
+    algo.setDistanceKernel(distanceKernel);
+    algo.setMemoryBudget(clusteringMemoryBudget);
+    QueryLogReader queryLogReader = createQueryLogReader();
+    for (Path logFile : Files.newDirectoryStream(queryLogsDirectory)) {
+      String report = logFile.getFileName() + System.lineSeparator()
+          + preview.run(queryLogReader, logFile.toString(), Integer.MAX_VALUE, algo,
+          minSizeOfCluster);
+      System.out.println(report);
+      Files.write(Paths.get(pathToProgramLogs, "preview-" + logFile.getFileName() + ".txt"),
+          report.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  static void runCombined(Path queryLogsDirectory) throws IOException {
+    List<String> logFiles = new ArrayList<>();
+    for (Path logFile : Files.newDirectoryStream(queryLogsDirectory)) {
+      logFiles.add(logFile.toString());
     }
+    Set<Query> queries = createQueryLogReader().readQueryLogs(logFiles, lineLimit);
+    Path combinedLog = Paths.get("combinedLogs");
+    startLog(combinedLog);
+    createClusteringEngine().clusterQueries(queries).forEach(Main::writeCluster);
+    finishLog(combinedLog);
   }
 
-  static void makeDescription(BufferedWriter output) throws IOException {
-    output.write("First " + lineLimit + " clustered");
-    output.newLine();
-    output.write("Threshold " + threshold);
-    output.newLine();
-    output.write("Minimal size of cluster " + minSizeOfCluster);
-    output.newLine();
-    output.newLine();
+  static QueryLogReader createQueryLogReader() {
+    QueryLogReader reader = new QueryLogReader();
+    if (canonicalizeLinks) {
+      reader.setCanonicalizer(new Canonicalizer(EnumSet.allOf(Canonicalizer.Rule.class),
+          canonicalFormsCacheCapacity));
+    }
+    return reader;
+  }
+
+  /**
+   * reads nLines lines of log, only frequent links if minLinksCount is greater than 1
+   */
+  static Set<Query> readLog(QueryLogReader reader, Path logFile, int nLines) throws IOException {
+    if (minLinksCount > 1) {
+      return reader.readFrequentLinks(logFile.toString(), nLines, minLinksCount, sketchBytes);
+    }
+    return reader.readQueryLog(logFile.toString(), nLines);
+  }
+
+  static void startLog(Path logFile) throws IOException {
+    output = openResult(logFile);
+  }
+
+  static void finishLog(Path logFile) throws IOException {
+    output.close();
+  }
+
+  /**
+   * @return writer of clustering result of log with description of clustering parameters
+   */
+  static ClusterWriter openResult(Path logFile) throws IOException {
+    File outputFile = new File(pathToResults, logFile.getFileName().toString());
+    // the same query is in clusters of several windows, so they can't be written to one index
+    File indexFile = writeBinaryIndex && windowMillis <= 0
+        ? new File(pathToResults, logFile.getFileName() + ".idx") : null;
+    ClusterWriter result = new ClusterWriter(outputFile, minSizeOfCluster, indexFile);
+    makeDescription(result);
+    return result;
+  }
+
+  /**
+   * writes cluster to output if it is large enough
+   */
+  static void writeCluster(Set<Query> cluster) {
+    output.writeCluster(cluster);
+  }
+
+  static void writeWindow(long windowStart, long windowEnd, Set<Set<Query>> clusters) {
+    try {
+      output.writeLine("Window " + Instant.ofEpochMilli(windowStart) + " - "
+          + Instant.ofEpochMilli(windowEnd));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    clusters.forEach(Main::writeCluster);
+  }
+
+  static ClusteringEngine createClusteringEngine() {
+    EngineConfig config = createEngineConfig();
+    if (workersCount > 0) {
+      return new ClusteringCoordinator(workersCount, config);
+    }
+    return config.create();
+  }
+
+  static EngineConfig createEngineConfig() {
+    EngineConfig.Kind kind = EngineConfig.Kind.ALGO;
+    if (useNearestNeighbourEngine) {
+      kind = EngineConfig.Kind.NEAREST_NEIGHBOUR;
+    } else if (useDeltaEngine) {
+      kind = EngineConfig.Kind.DELTA;
+    } else if (useFlatEngine) {
+      kind = EngineConfig.Kind.FLAT;
+    }
+    return new EngineConfig(kind, threshold, distanceMatrixType, distanceKernel,
+        clusteringTimeBudgetMillis, clusteringMemoryBudget);
+  }
+
+  static void makeDescription(ClusterWriter output) throws IOException {
+    output.writeLine("First " + lineLimit + " clustered");
+    output.writeLine("Threshold " + threshold);
+    output.writeLine("Minimal size of cluster " + minSizeOfCluster);
+    if (useExternalMemory && maxLinksInMemory != Long.MAX_VALUE) {
+      output.writeLine("Connected components of more than " + maxLinksInMemory
+          + " links clustered approximately in rounds");
+    }
+    output.writeLine("");
   }
 }
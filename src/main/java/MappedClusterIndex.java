@@ -0,0 +1,173 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * ClusterIndex which reads file written by ClusterIndexWriter through memory mapping. Nothing is
+ * parsed when index is opened, pages of the file are loaded by OS on demand. Lookup of query
+ * costs one probe sequence in the hash table and comparison of UTF-8 bytes.
+ * <p>
+ * Mapping of one buffer can't be larger than 2GB, so file is mapped by chunks. Sections of the
+ * file are aligned, so numbers never cross border of chunks, only strings can
+ */
+public class MappedClusterIndex implements ClusterIndex {
+
+  private static final int CHUNK_BITS = 30;
+  private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+  private final ByteBuffer[] chunks;
+  private final int clustersCount;
+  private final int queriesCount;
+  private final int slotsMask;
+  private final long slotsOffset;
+  private final long clusterStartsOffset;
+  private final long memberClustersOffset;
+  private final long memberOffsetsOffset;
+  private final long stringsOffset;
+
+  private MappedClusterIndex(ByteBuffer[] chunks) throws IOException {
+    this.chunks = chunks;
+    if (chunks.length == 0 || chunks[0].limit() < ClusterIndexWriter.HEADER_SIZE
+        || getInt(0) != ClusterIndexWriter.MAGIC) {
+      throw new IOException("File is not a cluster index");
+    }
+    if (getInt(4) != ClusterIndexWriter.VERSION) {
+      throw new IOException("Unsupported version of cluster index: " + getInt(4));
+    }
+    clustersCount = getInt(8);
+    queriesCount = getInt(12);
+    slotsMask = getInt(16) - 1;
+    slotsOffset = getLong(24);
+    clusterStartsOffset = getLong(32);
+    memberClustersOffset = getLong(40);
+    memberOffsetsOffset = getLong(48);
+    stringsOffset = getLong(56);
+  }
+
+  public static MappedClusterIndex open(File file) throws IOException {
+    if (file == null) {
+      throw new IllegalArgumentException("File should not be null");
+    }
+    // mapping stays valid after the channel is closed
+    try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+      FileChannel channel = input.getChannel();
+      long size = channel.size();
+      ByteBuffer[] chunks = new ByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+      for (int i = 0; i < chunks.length; ++i) {
+        long position = (long) i << CHUNK_BITS;
+        chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+            Math.min(CHUNK_MASK + 1, size - position));
+      }
+      return new MappedClusterIndex(chunks);
+    }
+  }
+
+  @Override
+  public int findCluster(String query) {
+    if (query == null) {
+      return NOT_FOUND;
+    }
+    int hash = query.hashCode();
+    byte[] bytes = null;
+    int slot = ClusterIndexWriter.slotOf(hash, slotsMask);
+    while (true) {
+      long slotPosition = slotsOffset + (long) slot * ClusterIndexWriter.SLOT_SIZE;
+      int member = getInt(slotPosition + 4) - 1;
+      if (member < 0) {
+        return NOT_FOUND;
+      }
+      if (getInt(slotPosition) == hash) {
+        if (bytes == null) {
+          bytes = query.getBytes(StandardCharsets.UTF_8);
+        }
+        if (memberEquals(member, bytes)) {
+          return getInt(memberClustersOffset + 4L * member);
+        }
+      }
+      slot = (slot + 1) & slotsMask;
+    }
+  }
+
+  @Override
+  public List<String> getClusterMembers(int clusterId) {
+    if (clusterId < 0 || clusterId >= clustersCount) {
+      throw new IllegalArgumentException("There is no cluster " + clusterId);
+    }
+    int start = getInt(clusterStartsOffset + 4L * clusterId);
+    int end = getInt(clusterStartsOffset + 4L * (clusterId + 1));
+    return new AbstractList<String>() {
+      @Override
+      public String get(int index) {
+        if (index < 0 || index >= end - start) {
+          throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        return new String(getMemberBytes(start + index), StandardCharsets.UTF_8);
+      }
+
+      @Override
+      public int size() {
+        return end - start;
+      }
+    };
+  }
+
+  @Override
+  public int getClustersCount() {
+    return clustersCount;
+  }
+
+  public int getQueriesCount() {
+    return queriesCount;
+  }
+
+  private boolean memberEquals(int member, byte[] bytes) {
+    long position = memberPosition(member);
+    if (getInt(position) != bytes.length) {
+      return false;
+    }
+    position += 4;
+    for (int i = 0; i < bytes.length; ++i) {
+      if (getByte(position + i) != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private byte[] getMemberBytes(int member) {
+    long position = memberPosition(member);
+    byte[] bytes = new byte[getInt(position)];
+    position += 4;
+    int copied = 0;
+    while (copied < bytes.length) {
+      ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)].duplicate();
+      chunk.position((int) (position & CHUNK_MASK));
+      int length = Math.min(bytes.length - copied, chunk.remaining());
+      chunk.get(bytes, copied, length);
+      copied += length;
+      position += length;
+    }
+    return bytes;
+  }
+
+  private long memberPosition(int member) {
+    return stringsOffset + getLong(memberOffsetsOffset + 8L * member);
+  }
+
+  private byte getByte(long position) {
+    return chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & CHUNK_MASK));
+  }
+
+  private int getInt(long position) {
+    return chunks[(int) (position >>> CHUNK_BITS)].getInt((int) (position & CHUNK_MASK));
+  }
+
+  private long getLong(long position) {
+    return chunks[(int) (position >>> CHUNK_BITS)].getLong((int) (position & CHUNK_MASK));
+  }
+}
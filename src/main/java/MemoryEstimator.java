@@ -0,0 +1,192 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Projects heap which Algo needs for a set of queries before it starts clustering, so that too big
+ * log is rejected at once instead of OutOfMemoryError or overflow of distance matrix in the middle
+ * of computing distances.
+ * <p>
+ * Algo keeps the graph, sibling index and matrix of distances for every pair of siblings. Count of
+ * pairs of siblings of a part of the graph is bounded by sum of deg * (deg - 1) / 2 over nodes of
+ * the other part, pairs which have several common neighbours are counted several times, so this
+ * bound is never less than the real count. Pairs can't be more than n * (n - 1) / 2 for n nodes of
+ * the part either, which is much tighter when several hubs link the same nodes. Bytes per node,
+ * link and pair were measured on synthetic logs
+ */
+public class MemoryEstimator {
+
+  // Cluster with set of elements and map of neighbours
+  static final long BYTES_PER_NODE = 400;
+  // two entries of maps of neighbours
+  static final long BYTES_PER_LINK = 100;
+  // entries of sibling index
+  static final long BYTES_PER_SIBLING_PAIR = 90;
+
+  /**
+   * Counts of nodes, links and pairs of siblings of the graph of queries
+   */
+  public static class Estimate {
+
+    private final long queriesCount;
+    private final long documentsCount;
+    private final long linksCount;
+    private final long querySiblingPairsCount;
+    private final long documentSiblingPairsCount;
+
+    Estimate(long queriesCount, long documentsCount, long linksCount,
+        long querySiblingPairsCount, long documentSiblingPairsCount) {
+      this.queriesCount = queriesCount;
+      this.documentsCount = documentsCount;
+      this.linksCount = linksCount;
+      this.querySiblingPairsCount = querySiblingPairsCount;
+      this.documentSiblingPairsCount = documentSiblingPairsCount;
+    }
+
+    public long getQueriesCount() {
+      return queriesCount;
+    }
+
+    public long getDocumentsCount() {
+      return documentsCount;
+    }
+
+    public long getLinksCount() {
+      return linksCount;
+    }
+
+    /**
+     * @return upper bound of count of pairs of siblings of both parts of the graph
+     */
+    public long getSiblingPairsCount() {
+      return saturatedAdd(querySiblingPairsCount, documentSiblingPairsCount);
+    }
+
+    /**
+     * @return upper bound of count of distances in the larger one of two distance matrices
+     */
+    public long getMaxDistancesPerMatrix() {
+      return Math.max(querySiblingPairsCount, documentSiblingPairsCount);
+    }
+
+    /**
+     * @return true if distance matrices of type hold all distances and Algo fits into budget
+     */
+    public boolean fits(DistanceMatrixType type, long budgetBytes) {
+      return getHeapBytes(type) <= budgetBytes
+          && getMaxDistancesPerMatrix() <= type.maxDistancesCount();
+    }
+
+    /**
+     * @return bytes of heap which Algo needs with distance matrices of type
+     */
+    public long getHeapBytes(DistanceMatrixType type) {
+      long pairs = getSiblingPairsCount();
+      long bytes = saturatedMultiply(queriesCount + documentsCount, BYTES_PER_NODE);
+      bytes = saturatedAdd(bytes, saturatedMultiply(linksCount, BYTES_PER_LINK));
+      bytes = saturatedAdd(bytes, saturatedMultiply(pairs, BYTES_PER_SIBLING_PAIR));
+      return saturatedAdd(bytes, saturatedMultiply(pairs, type.heapBytesPerDistance()));
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d queries, %d documents, %d links, at most %d pairs of siblings; "
+              + "heap: %s", queriesCount, documentsCount, linksCount, getSiblingPairsCount(),
+          EnumSet.allOf(DistanceMatrixType.class).stream()
+              .map(type -> type + " " + (getHeapBytes(type) >> 20) + "MB")
+              .collect(Collectors.joining(", ")));
+    }
+  }
+
+  private MemoryEstimator() {
+  }
+
+  public static Estimate estimate(Set<Query> queries) {
+    if (queries == null) {
+      throw new IllegalArgumentException("Queries should not be null");
+    }
+    Map<Document, Integer> documentDegrees = new HashMap<>();
+    long linksCount = 0;
+    long documentSiblingPairsCount = 0;
+    for (Query query : queries) {
+      long degree = query.getRelatedDocuments().size();
+      linksCount += degree;
+      documentSiblingPairsCount = saturatedAdd(documentSiblingPairsCount,
+          degree * (degree - 1) / 2);
+      for (Document document : query.getRelatedDocuments()) {
+        documentDegrees.merge(document, 1, Integer::sum);
+      }
+    }
+    long querySiblingPairsCount = 0;
+    for (int degree : documentDegrees.values()) {
+      querySiblingPairsCount = saturatedAdd(querySiblingPairsCount,
+          (long) degree * (degree - 1) / 2);
+    }
+    long queriesCount = queries.size();
+    long documentsCount = documentDegrees.size();
+    return new Estimate(queriesCount, documentsCount, linksCount,
+        Math.min(querySiblingPairsCount, queriesCount * (queriesCount - 1) / 2),
+        Math.min(documentSiblingPairsCount, documentsCount * (documentsCount - 1) / 2));
+  }
+
+  /**
+   * @param preferred type which is used if it fits into budget
+   * @return preferred type or, if it doesn't fit, type which needs the least heap among types which
+   * are able to hold all distances
+   * @throws RuntimeException if no type fits into budget
+   */
+  public static DistanceMatrixType chooseDistanceMatrixType(Estimate estimate,
+      DistanceMatrixType preferred, long budgetBytes) {
+    if (estimate == null || preferred == null) {
+      throw new IllegalArgumentException("Estimate and preferred type should not be null");
+    }
+    if (estimate.fits(preferred, budgetBytes)) {
+      return preferred;
+    }
+    DistanceMatrixType cheapest = null;
+    for (DistanceMatrixType type : DistanceMatrixType.values()) {
+      if (estimate.getMaxDistancesPerMatrix() <= type.maxDistancesCount()
+          && (cheapest == null || estimate.getHeapBytes(type) < estimate.getHeapBytes(cheapest))) {
+        cheapest = type;
+      }
+    }
+    if (cheapest == null) {
+      throw new RuntimeException("No distance matrix holds "
+          + estimate.getMaxDistancesPerMatrix() + " distances: " + estimate);
+    }
+    long cheapestBytes = estimate.getHeapBytes(cheapest);
+    if (cheapestBytes <= budgetBytes) {
+      return cheapest;
+    }
+    throw new RuntimeException("Clustering needs at least " + (cheapestBytes >> 20)
+        + "MB of heap, budget is " + (budgetBytes >> 20) + "MB: " + estimate);
+  }
+
+  /**
+   * @return bytes allocated by current thread so far, -1 if JVM doesn't count them
+   */
+  public static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+      if (sunThreads.isThreadAllocatedMemorySupported()
+          && sunThreads.isThreadAllocatedMemoryEnabled()) {
+        return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  private static long saturatedAdd(long a, long b) {
+    long sum = a + b;
+    return sum < 0 ? Long.MAX_VALUE : sum;
+  }
+
+  private static long saturatedMultiply(long a, long b) {
+    return b != 0 && a > Long.MAX_VALUE / b ? Long.MAX_VALUE : a * b;
+  }
+}
@@ -0,0 +1,292 @@
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The same clustering as Algo does, but without global matrix of distances between siblings. Every
+ * cluster remembers only its nearest sibling, so memory consumption is O(count of clusters)
+ * instead of O(count of pairs of siblings).
+ * <p>
+ * Only siblings with distance less than threshold are remembered. After two clusters were merged
+ * distances between other clusters of the same part of the graph don't change, and distances
+ * between their neighbours can only decrease. So the nearest sibling has to be looked for from
+ * scratch only for clusters whose nearest sibling was one of merged clusters
+ */
+public class NearestNeighbourAlgo implements ClusteringEngine {
+
+  private static final Logger NN_ALGO_LOGGER =
+      Logger.getLogger(NearestNeighbourAlgo.class.getName());
+
+  // maximal acceptable distance for merging clusters, see Algo
+  private double threshold = 0.01;
+
+  private Set<Cluster<Query, Document>> queryClusters;
+  private Set<Cluster<Document, Query>> documentClusters;
+
+  private NearestSiblings<Cluster<Query, Document>> nearestQuerySiblings;
+  private NearestSiblings<Cluster<Document, Query>> nearestDocumentSiblings;
+
+  public NearestNeighbourAlgo() {
+    this(0.01);
+  }
+
+  public NearestNeighbourAlgo(double threshold) {
+    setThreshold(threshold);
+    queryClusters = new HashSet<>();
+    documentClusters = new HashSet<>();
+  }
+
+  public double getThreshold() {
+    return threshold;
+  }
+
+  public void setThreshold(double threshold) {
+    if (threshold > 1 || threshold < 0) {
+      throw new IllegalArgumentException("Threshold value should belong to [0, 1]");
+    }
+    this.threshold = threshold;
+  }
+
+  @Override
+  public Set<Set<Query>> clusterQueries(Set<Query> queries) {
+    if (queries == null) {
+      return null;
+    }
+
+    queryClusters = new HashSet<>();
+    documentClusters = new HashSet<>();
+    Algo.buildGraph(queries, queryClusters, documentClusters);
+    nearestQuerySiblings = findNearestSiblings(queryClusters);
+    nearestDocumentSiblings = findNearestSiblings(documentClusters);
+
+    NN_ALGO_LOGGER.log(Level.FINE, "Count of query clusters: {0}", queryClusters.size());
+    NN_ALGO_LOGGER.log(Level.FINE, "Count of document clusters: {0}", documentClusters.size());
+
+    boolean canMergeClusters = true;
+    long iterCount = 0;
+    long startTime = System.nanoTime();
+    while (canMergeClusters) {
+      ++iterCount;
+      canMergeClusters = tryMerge(queryClusters, nearestQuerySiblings, nearestDocumentSiblings);
+      canMergeClusters |= tryMerge(documentClusters, nearestDocumentSiblings,
+          nearestQuerySiblings);
+    }
+    long elapsedTime = System.nanoTime() - startTime;
+    NN_ALGO_LOGGER.log(Level.FINE, "Time: {0}s", elapsedTime / 1e9);
+    NN_ALGO_LOGGER.log(Level.FINE, "Count of iterations: {0}", iterCount);
+
+    Set<Set<Query>> clusters = new HashSet<>();
+    for (Cluster<Query, Document> cluster : queryClusters) {
+      clusters.add(cluster.getClusteredElements());
+    }
+    return clusters;
+  }
+
+  private <CType, NType> NearestSiblings<Cluster<CType, NType>>
+  findNearestSiblings(Set<Cluster<CType, NType>> clusters) {
+    NearestSiblings<Cluster<CType, NType>> nearestSiblings = new NearestSiblings<>();
+    for (Cluster<CType, NType> cluster : clusters) {
+      findNearestSibling(cluster, nearestSiblings);
+    }
+    return nearestSiblings;
+  }
+
+  private <CType, NType> void findNearestSibling(Cluster<CType, NType> cluster,
+      NearestSiblings<Cluster<CType, NType>> nearestSiblings) {
+    Cluster<CType, NType> nearest = null;
+    double minDistance = threshold;
+    for (Cluster<CType, NType> sibling : cluster.getSiblings()) {
+      double distance = Algo.computeDistanceBetweenClusters(cluster, sibling);
+      if (distance < minDistance) {
+        minDistance = distance;
+        nearest = sibling;
+      }
+    }
+    nearestSiblings.put(cluster, nearest, minDistance);
+  }
+
+  /**
+   * This method performs one step of clustering for one of the parts of the graph
+   *
+   * @param currentClusters are clusters where pair with min distance will be looked for
+   * @param currentNearest nearest siblings of currentClusters
+   * @param neighbourNearest nearest siblings of neighbour clusters
+   * @return true if there was pair of clusters with distance less than threshold, false otherwise
+   */
+  private <CType, NType> boolean tryMerge(Set<Cluster<CType, NType>> currentClusters,
+      NearestSiblings<Cluster<CType, NType>> currentNearest,
+      NearestSiblings<Cluster<NType, CType>> neighbourNearest) {
+    NearestSibling<Cluster<CType, NType>> closest = currentNearest.getClosest();
+    if (closest == null || closest.distance >= threshold) {
+      return false;
+    }
+
+    Cluster<CType, NType> firstCluster = closest.cluster;
+    Cluster<CType, NType> secondCluster = closest.sibling;
+    Cluster<CType, NType> mergeResult = Cluster.mergeClusters(firstCluster, secondCluster);
+    Algo.updateGraphOnMerge(firstCluster, secondCluster, mergeResult, currentClusters);
+
+    currentNearest.remove(firstCluster);
+    currentNearest.remove(secondCluster);
+    updateCurrentNearestOnMerge(firstCluster, secondCluster, mergeResult, currentNearest);
+    updateNeighbourNearestOnMerge(firstCluster, secondCluster, neighbourNearest);
+    return true;
+  }
+
+  /**
+   * Computes nearest sibling of mergeResult. Its siblings could become closer to mergeResult than
+   * to their nearest siblings, and siblings which were nearest to firstCluster or secondCluster
+   * have to look for new nearest sibling
+   */
+  private <CType, NType> void
+  updateCurrentNearestOnMerge(Cluster<CType, NType> firstCluster,
+      Cluster<CType, NType> secondCluster,
+      Cluster<CType, NType> mergeResult,
+      NearestSiblings<Cluster<CType, NType>> nearestSiblings) {
+    Cluster<CType, NType> nearest = null;
+    double minDistance = threshold;
+    Set<Cluster<CType, NType>> lostNearest = new HashSet<>();
+    for (Cluster<CType, NType> sibling : mergeResult.getSiblings()) {
+      double distance = Algo.computeDistanceBetweenClusters(mergeResult, sibling);
+      if (distance < minDistance) {
+        minDistance = distance;
+        nearest = sibling;
+      }
+
+      NearestSibling<Cluster<CType, NType>> siblingNearest = nearestSiblings.get(sibling);
+      if (siblingNearest.sibling == firstCluster || siblingNearest.sibling == secondCluster) {
+        lostNearest.add(sibling);
+      } else if (distance < siblingNearest.distance) {
+        nearestSiblings.put(sibling, mergeResult, distance);
+      }
+    }
+    nearestSiblings.put(mergeResult, nearest, minDistance);
+
+    for (Cluster<CType, NType> cluster : lostNearest) {
+      findNearestSibling(cluster, nearestSiblings);
+    }
+  }
+
+  /**
+   * Distances changed only for pairs of neighbours where at least one neighbour is linked to only
+   * one of merged clusters (see Algo.updateDistancesForSubsetOfClusters). These distances can only
+   * decrease, so it's enough to compare them with current nearest siblings
+   */
+  private <CType, NType> void
+  updateNeighbourNearestOnMerge(Cluster<CType, NType> firstCluster,
+      Cluster<CType, NType> secondCluster,
+      NearestSiblings<Cluster<NType, CType>> nearestSiblings) {
+    Set<Cluster<NType, CType>> commonNeighbours = new HashSet<>(firstCluster.getNeighbours());
+    commonNeighbours.retainAll(secondCluster.getNeighbours());
+
+    Set<Cluster<NType, CType>> onlyFirstClusterNeighbours =
+        new HashSet<>(firstCluster.getNeighbours());
+    onlyFirstClusterNeighbours.removeAll(commonNeighbours);
+
+    Set<Cluster<NType, CType>> onlySecondClusterNeighbours =
+        new HashSet<>(secondCluster.getNeighbours());
+    onlySecondClusterNeighbours.removeAll(commonNeighbours);
+
+    for (Cluster<NType, CType> cluster : onlyFirstClusterNeighbours) {
+      for (Cluster<NType, CType> sibling : commonNeighbours) {
+        updateNearestPair(cluster, sibling, nearestSiblings);
+      }
+      for (Cluster<NType, CType> sibling : onlySecondClusterNeighbours) {
+        updateNearestPair(cluster, sibling, nearestSiblings);
+      }
+    }
+    for (Cluster<NType, CType> cluster : onlySecondClusterNeighbours) {
+      for (Cluster<NType, CType> sibling : commonNeighbours) {
+        updateNearestPair(cluster, sibling, nearestSiblings);
+      }
+    }
+  }
+
+  private <CType, NType> void
+  updateNearestPair(Cluster<CType, NType> cluster,
+      Cluster<CType, NType> sibling,
+      NearestSiblings<Cluster<CType, NType>> nearestSiblings) {
+    double distance = Algo.computeDistanceBetweenClusters(cluster, sibling);
+    if (distance >= threshold) {
+      return;
+    }
+    NearestSibling<Cluster<CType, NType>> clusterNearest = nearestSiblings.get(cluster);
+    if (distance < clusterNearest.distance || clusterNearest.sibling == sibling) {
+      nearestSiblings.put(cluster, sibling, distance);
+    }
+    NearestSibling<Cluster<CType, NType>> siblingNearest = nearestSiblings.get(sibling);
+    if (distance < siblingNearest.distance || siblingNearest.sibling == cluster) {
+      nearestSiblings.put(sibling, cluster, distance);
+    }
+  }
+
+  /**
+   * Nearest sibling of every cluster and queue of clusters ordered by distance to their nearest
+   * siblings. Queue contains exactly one entry per cluster which has nearest sibling
+   *
+   * @param <T> type of clusters
+   */
+  private static class NearestSiblings<T> {
+
+    private final Map<T, NearestSibling<T>> nearest = new HashMap<>();
+    private final TreeSet<NearestSibling<T>> queue = new TreeSet<>(
+        Comparator.<NearestSibling<T>>comparingDouble(n -> n.distance)
+            .thenComparingLong(n -> n.order));
+    private long entriesCount = 0;
+
+    /**
+     * @param sibling nearest sibling of cluster, null if cluster has no siblings closer than
+     * threshold
+     * @param distance distance between cluster and sibling (or threshold if sibling is null)
+     */
+    void put(T cluster, T sibling, double distance) {
+      NearestSibling<T> entry = new NearestSibling<>(cluster, sibling, distance, entriesCount++);
+      NearestSibling<T> oldEntry = nearest.put(cluster, entry);
+      if (oldEntry != null) {
+        queue.remove(oldEntry);
+      }
+      if (sibling != null) {
+        queue.add(entry);
+      }
+    }
+
+    void remove(T cluster) {
+      NearestSibling<T> oldEntry = nearest.remove(cluster);
+      if (oldEntry != null) {
+        queue.remove(oldEntry);
+      }
+    }
+
+    NearestSibling<T> get(T cluster) {
+      return nearest.get(cluster);
+    }
+
+    /**
+     * @return entry of cluster which is closest to its nearest sibling, null if there are no such
+     */
+    NearestSibling<T> getClosest() {
+      return queue.isEmpty() ? null : queue.first();
+    }
+  }
+
+  private static class NearestSibling<T> {
+
+    private final T cluster;
+    private final T sibling;
+    private final double distance;
+    // makes entries with equal distances distinguishable in queue
+    private final long order;
+
+    NearestSibling(T cluster, T sibling, double distance, long order) {
+      this.cluster = cluster;
+      this.sibling = sibling;
+      this.distance = distance;
+      this.order = order;
+    }
+  }
+}
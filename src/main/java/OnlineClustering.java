@@ -0,0 +1,263 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * One-pass approximate clustering of queries for stream of clicks. Every query belongs to one
+ * cluster, the first click of query creates new cluster.
+ * <p>
+ * After click on document distance (see Algo) decreases only between cluster of query and
+ * clusters which are linked to the same document, distances to other clusters increase. So
+ * only clusters linked to the clicked document are candidates for merge, cluster of query is
+ * merged with the closest of them if distance between them is less than threshold. Every document
+ * remembers at most maxCandidates clusters which were linked to it most recently.
+ * <p>
+ * Unlike Algo, clusters of documents are not built and merges are never revised. Count of clusters
+ * is bounded: when it exceeds maxClusters, the least recently clicked cluster is evicted and passed
+ * to eviction listener
+ */
+public class OnlineClustering {
+
+  private final double threshold;
+  private final int maxClusters;
+  private final int maxCandidates;
+  private Consumer<Set<Query>> evictionListener = cluster -> {
+  };
+
+  private final Map<String, OnlineCluster> clusterOfQuery = new HashMap<>();
+  // clusters in order of last click, the least recently clicked cluster is the first one
+  private final LinkedHashMap<OnlineCluster, Boolean> clusters =
+      new LinkedHashMap<>(16, 0.75f, true);
+  // clusters which were linked to document most recently, at most maxCandidates per document
+  private final Map<String, LinkedHashSet<OnlineCluster>> clustersOfDocument = new HashMap<>();
+
+  private long clicksCount = 0;
+  private long mergesCount = 0;
+  private long evictedClustersCount = 0;
+
+  public OnlineClustering(double threshold, int maxClusters, int maxCandidates) {
+    if (threshold > 1 || threshold < 0) {
+      throw new IllegalArgumentException("Threshold value should belong to [0, 1]");
+    }
+    if (maxClusters <= 0 || maxCandidates <= 0) {
+      throw new IllegalArgumentException("Count of clusters and candidates should be positive");
+    }
+    this.threshold = threshold;
+    this.maxClusters = maxClusters;
+    this.maxCandidates = maxCandidates;
+  }
+
+  /**
+   * Clusters clicks from log file, or from standard input if file isn't given, and prints clusters
+   * the same way as Main does. File is read like "tail -f", so it can still be written
+   * <p>
+   * Usage: OnlineClustering threshold maxClusters [logFile]
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: OnlineClustering threshold maxClusters [logFile]");
+      System.exit(1);
+    }
+    OnlineClustering clustering = new OnlineClustering(Double.parseDouble(args[0]),
+        Integer.parseInt(args[1]), 16);
+    clustering.setEvictionListener(OnlineClustering::printCluster);
+    InputStream input = args.length > 2 ? new TailingInputStream(new File(args[2]), 100)
+        : System.in;
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(input, StandardCharsets.UTF_8))) {
+      new QueryLogReader().readLinks(reader, Long.MAX_VALUE, clustering::addClick);
+    }
+    clustering.getClusters().forEach(OnlineClustering::printCluster);
+  }
+
+  private static void printCluster(Set<Query> cluster) {
+    if (cluster.size() > 1) {
+      System.out.println(cluster);
+      System.out.println("----------------------------");
+    }
+  }
+
+  /**
+   * @param evictionListener accepts queries of evicted clusters
+   */
+  public void setEvictionListener(Consumer<Set<Query>> evictionListener) {
+    if (evictionListener == null) {
+      throw new IllegalArgumentException("Listener should not be null");
+    }
+    this.evictionListener = evictionListener;
+  }
+
+  /**
+   * @param query normalized query
+   * @param documentName normalized name of clicked document
+   */
+  public void addClick(String query, String documentName) {
+    if (query == null || documentName == null) {
+      throw new IllegalArgumentException("Query and document should not be null");
+    }
+    ++clicksCount;
+    OnlineCluster cluster = clusterOfQuery.get(query);
+    if (cluster == null) {
+      cluster = new OnlineCluster();
+      cluster.queries.add(new Query(query));
+      clusterOfQuery.put(query, cluster);
+    }
+    clusters.put(cluster, Boolean.TRUE);
+    cluster.links.merge(documentName, 1L, Long::sum);
+    ++cluster.totalCountOfLinks;
+
+    LinkedHashSet<OnlineCluster> candidates =
+        clustersOfDocument.computeIfAbsent(documentName, document -> new LinkedHashSet<>());
+    OnlineCluster nearest = null;
+    double minDistance = threshold;
+    for (OnlineCluster candidate : candidates) {
+      if (candidate == cluster) {
+        continue;
+      }
+      double distance = computeDistance(cluster, candidate);
+      if (distance < minDistance) {
+        minDistance = distance;
+        nearest = candidate;
+      }
+    }
+    linkToDocument(cluster, candidates);
+    if (nearest != null) {
+      merge(cluster, nearest);
+    }
+    evictIdleClusters();
+  }
+
+  /**
+   * @return queries of cluster of query, empty set if query wasn't clicked or its cluster was
+   * evicted
+   */
+  public Set<Query> getClusterOf(String query) {
+    OnlineCluster cluster = clusterOfQuery.get(query);
+    return cluster == null ? Collections.emptySet() : Collections.unmodifiableSet(cluster.queries);
+  }
+
+  /**
+   * @return clusters which weren't evicted, from the least recently clicked one
+   */
+  public List<Set<Query>> getClusters() {
+    List<Set<Query>> result = new ArrayList<>();
+    for (OnlineCluster cluster : clusters.keySet()) {
+      result.add(Collections.unmodifiableSet(cluster.queries));
+    }
+    return result;
+  }
+
+  public int getClustersCount() {
+    return clusters.size();
+  }
+
+  public long getClicksCount() {
+    return clicksCount;
+  }
+
+  public long getMergesCount() {
+    return mergesCount;
+  }
+
+  public long getEvictedClustersCount() {
+    return evictedClustersCount;
+  }
+
+  /**
+   * the same distance as in Algo: 1 - (links to common documents) / (all links of both clusters)
+   */
+  private static double computeDistance(OnlineCluster first, OnlineCluster second) {
+    Map<String, Long> smaller = first.links;
+    Map<String, Long> larger = second.links;
+    if (smaller.size() > larger.size()) {
+      smaller = second.links;
+      larger = first.links;
+    }
+    double commonLinksCount = 0;
+    for (Map.Entry<String, Long> link : smaller.entrySet()) {
+      Long otherLinksCount = larger.get(link.getKey());
+      if (otherLinksCount != null) {
+        commonLinksCount += link.getValue() + otherLinksCount;
+      }
+    }
+    return 1 - commonLinksCount / (first.totalCountOfLinks + second.totalCountOfLinks);
+  }
+
+  /**
+   * makes cluster the most recent candidate of document
+   */
+  private void linkToDocument(OnlineCluster cluster, LinkedHashSet<OnlineCluster> candidates) {
+    candidates.remove(cluster);
+    candidates.add(cluster);
+    if (candidates.size() > maxCandidates) {
+      Iterator<OnlineCluster> oldest = candidates.iterator();
+      oldest.next();
+      oldest.remove();
+    }
+  }
+
+  /**
+   * merges smaller cluster into larger one
+   */
+  private void merge(OnlineCluster first, OnlineCluster second) {
+    OnlineCluster target = first.links.size() >= second.links.size() ? first : second;
+    OnlineCluster source = target == first ? second : first;
+    ++mergesCount;
+
+    for (Query query : source.queries) {
+      clusterOfQuery.put(query.toString(), target);
+    }
+    target.queries.addAll(source.queries);
+    for (Map.Entry<String, Long> link : source.links.entrySet()) {
+      target.links.merge(link.getKey(), link.getValue(), Long::sum);
+      LinkedHashSet<OnlineCluster> candidates = clustersOfDocument.get(link.getKey());
+      if (candidates != null && candidates.remove(source)) {
+        linkToDocument(target, candidates);
+      }
+    }
+    target.totalCountOfLinks += source.totalCountOfLinks;
+    clusters.remove(source);
+    clusters.put(target, Boolean.TRUE);
+  }
+
+  private void evictIdleClusters() {
+    while (clusters.size() > maxClusters) {
+      Iterator<OnlineCluster> leastRecent = clusters.keySet().iterator();
+      OnlineCluster cluster = leastRecent.next();
+      leastRecent.remove();
+      for (String documentName : cluster.links.keySet()) {
+        LinkedHashSet<OnlineCluster> candidates = clustersOfDocument.get(documentName);
+        if (candidates != null && candidates.remove(cluster) && candidates.isEmpty()) {
+          clustersOfDocument.remove(documentName);
+        }
+      }
+      for (Query query : cluster.queries) {
+        clusterOfQuery.remove(query.toString());
+      }
+      ++evictedClustersCount;
+      evictionListener.accept(Collections.unmodifiableSet(cluster.queries));
+    }
+  }
+
+  private static class OnlineCluster {
+
+    private final Set<Query> queries = new HashSet<>();
+    // count of clicks on every document
+    private final Map<String, Long> links = new HashMap<>();
+    private long totalCountOfLinks = 0;
+  }
+}
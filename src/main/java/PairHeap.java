@@ -0,0 +1,80 @@
+import java.util.Arrays;
+
+/**
+ * Binary heap of pairs of int nodes by distance for FlatAlgo and DeltaAlgo. Entries are never
+ * removed or updated in place: engines push new entries and skip stale ones when they are polled
+ */
+final class PairHeap {
+
+  private double[] keys = new double[1024];
+  // first node in the highest 32 bits, second one in the lowest
+  private long[] pairs = new long[1024];
+  private int size = 0;
+
+  int size() {
+    return size;
+  }
+
+  void clear() {
+    size = 0;
+  }
+
+  double minDistance() {
+    return keys[0];
+  }
+
+  int firstOfMin() {
+    return (int) (pairs[0] >>> 32);
+  }
+
+  int secondOfMin() {
+    return (int) pairs[0];
+  }
+
+  void push(double distance, int first, int second) {
+    if (size == keys.length) {
+      if (size > Integer.MAX_VALUE / 2 - 8) {
+        throw new RuntimeException("Too many pairs in heap");
+      }
+      keys = Arrays.copyOf(keys, size * 2);
+      pairs = Arrays.copyOf(pairs, size * 2);
+    }
+    long pair = (long) first << 32 | second & 0xffffffffL;
+    int i = size++;
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (keys[parent] <= distance) {
+        break;
+      }
+      keys[i] = keys[parent];
+      pairs[i] = pairs[parent];
+      i = parent;
+    }
+    keys[i] = distance;
+    pairs[i] = pair;
+  }
+
+  void poll() {
+    --size;
+    double distance = keys[size];
+    long pair = pairs[size];
+    int i = 0;
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && keys[child + 1] < keys[child]) {
+        ++child;
+      }
+      if (distance <= keys[child]) {
+        break;
+      }
+      keys[i] = keys[child];
+      pairs[i] = pairs[child];
+      i = child;
+    }
+    keys[i] = distance;
+    pairs[i] = pair;
+  }
+}
@@ -0,0 +1,416 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses gzip file which consists of several members (e.g. made by pigz, bgzip or by
+ * concatenation of gzip files) with several threads.
+ * <p>
+ * Positions where members may start are found by their headers before decompression. File is
+ * split at these positions into ranges of about TASK_BYTES, ranges are decompressed concurrently
+ * and their bytes are returned in the order of file. Header can also appear by chance inside of
+ * compressed data, such range doesn't end where its last member ends, so it is decompressed again
+ * together with the next range.
+ * <p>
+ * Member can't be decompressed by several threads, so file with one member (what gzip usually
+ * makes) or with members larger than MAX_TASK_BYTES is decompressed by one thread as
+ * GZIPInputStream does
+ */
+public class ParallelGzipInputStream extends InputStream {
+
+  private static final int ID1 = 0x1f;
+  private static final int ID2 = 0x8b;
+  private static final int DEFLATE = 8;
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+  private static final int RESERVED_FLAGS = 0xe0;
+  private static final int HEADER_SIZE = 10;
+  private static final int TRAILER_SIZE = 8;
+
+  static final int TASK_BYTES = 1 << 20;
+  static final int MAX_TASK_BYTES = 1 << 24;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final FileChannel channel;
+  // used when file can't be decompressed in parallel
+  private final InputStream sequential;
+  private final ExecutorService pool;
+  private final int maxTasksInFlight;
+
+  // bounds of ranges: range i is [bounds[i], bounds[i + 1])
+  private final List<Long> bounds;
+  private int nextRange = 0;
+  private final Deque<PendingRange> tasks = new ArrayDeque<>();
+
+  private byte[] chunk = new byte[0];
+  private int chunkPosition = 0;
+
+  /**
+   * @param threadsCount count of threads which decompress members
+   * @throws IOException if file can't be read or it is not gzip file
+   */
+  public ParallelGzipInputStream(File file, int threadsCount) throws IOException {
+    if (file == null) {
+      throw new IllegalArgumentException("File should not be null");
+    }
+    if (threadsCount <= 0) {
+      throw new IllegalArgumentException("Count of threads should be positive");
+    }
+
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    List<Long> ranges;
+    try {
+      ranges = threadsCount > 1 ? findRanges() : null;
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    if (ranges == null) {
+      channel.close();
+      bounds = null;
+      pool = null;
+      maxTasksInFlight = 0;
+      sequential = new GZIPInputStream(
+          new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE), BUFFER_SIZE);
+      return;
+    }
+    bounds = ranges;
+    sequential = null;
+    maxTasksInFlight = threadsCount * 2;
+    pool = Executors.newFixedThreadPool(threadsCount, runnable -> {
+      Thread thread = new Thread(runnable, "gzip-decompression");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * @return true if file starts with gzip header
+   */
+  public static boolean isGzip(File file) throws IOException {
+    try (InputStream input = new FileInputStream(file)) {
+      return input.read() == ID1 && input.read() == ID2;
+    }
+  }
+
+  /**
+   * @return true if bytes will be decompressed by several threads
+   */
+  public boolean isParallel() {
+    return sequential == null;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    int count = read(single, 0, 1);
+    return count < 0 ? -1 : single[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    if (sequential != null) {
+      return sequential.read(buffer, offset, length);
+    }
+    if (length == 0) {
+      return 0;
+    }
+    while (chunkPosition == chunk.length) {
+      if (!nextChunk()) {
+        return -1;
+      }
+    }
+    int count = Math.min(length, chunk.length - chunkPosition);
+    System.arraycopy(chunk, chunkPosition, buffer, offset, count);
+    chunkPosition += count;
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (sequential != null) {
+      sequential.close();
+      return;
+    }
+    pool.shutdownNow();
+    channel.close();
+  }
+
+  /**
+   * Finds positions of headers of members and groups them into ranges
+   *
+   * @return bounds of ranges, null if file can't be decompressed in parallel
+   */
+  private List<Long> findRanges() throws IOException {
+    List<Long> result = new ArrayList<>();
+    result.add(0L);
+    long previousHeader = 0;
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    byte[] bytes = buffer.array();
+    // the last four bytes which were read, the oldest one is in the highest byte
+    int window = 0;
+    long position = 0;
+    int count;
+    while ((count = channel.read(buffer, position)) > 0) {
+      for (int i = 0; i < count; ++i) {
+        window = window << 8 | (bytes[i] & 0xff);
+        long headerStart = position + i - 3;
+        if (headerStart > 0 && isHeaderStart(window)) {
+          if (headerStart - previousHeader > MAX_TASK_BYTES) {
+            return null;
+          }
+          if (headerStart - result.get(result.size() - 1) >= TASK_BYTES) {
+            result.add(headerStart);
+          }
+          previousHeader = headerStart;
+        }
+      }
+      // file of one large member is not scanned to the end before sequential decompression
+      if (position + count - previousHeader > MAX_TASK_BYTES) {
+        return null;
+      }
+      position += count;
+      buffer.clear();
+    }
+    if (position - previousHeader > MAX_TASK_BYTES || result.size() == 1) {
+      return null;
+    }
+    result.add(position);
+    return result;
+  }
+
+  /**
+   * @param bytes four bytes: ID1, ID2, compression method, flags
+   */
+  private static boolean isHeaderStart(int bytes) {
+    return (bytes >>> 24) == ID1 && (bytes >>> 16 & 0xff) == ID2
+        && (bytes >>> 8 & 0xff) == DEFLATE && (bytes & RESERVED_FLAGS) == 0;
+  }
+
+  private boolean nextChunk() throws IOException {
+    while (tasks.size() < maxTasksInFlight && nextRange + 1 < bounds.size()) {
+      long start = bounds.get(nextRange);
+      long end = bounds.get(nextRange + 1);
+      tasks.add(new PendingRange(end, pool.submit(() -> decompress(start, end))));
+      ++nextRange;
+    }
+    if (tasks.isEmpty()) {
+      return false;
+    }
+
+    Range range = await(tasks.poll().task);
+    while (range.bytes == null) {
+      // the next range starts inside of member, so it's decompressed together with this one
+      PendingRange falseStart = tasks.poll();
+      long end;
+      if (falseStart != null) {
+        // interruption would close the channel which is shared by all tasks
+        falseStart.task.cancel(false);
+        end = falseStart.end;
+      } else if (nextRange + 1 < bounds.size()) {
+        end = bounds.get(nextRange + 1);
+        ++nextRange;
+      } else {
+        throw new EOFException("Unexpected end of gzip file");
+      }
+      range = decompress(range.start, end);
+    }
+    chunk = range.bytes;
+    chunkPosition = 0;
+    return true;
+  }
+
+  private static Range await(Future<Range> task) throws IOException {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while decompressing", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) e.getCause()).getCause();
+      }
+      throw new IOException("Decompression failed", e.getCause());
+    }
+  }
+
+  /**
+   * Decompresses members which start at start
+   *
+   * @return range without bytes if end is inside of member
+   * @throws IOException if data isn't gzip or it is corrupted
+   */
+  private Range decompress(long start, long end) throws IOException {
+    ByteBuffer compressed = ByteBuffer.allocate((int) (end - start));
+    while (compressed.hasRemaining()) {
+      if (channel.read(compressed, start + compressed.position()) < 0) {
+        throw new EOFException("Unexpected end of gzip file");
+      }
+    }
+    byte[] input = compressed.array();
+
+    ChunkOutput output = new ChunkOutput(input.length * 4);
+    Inflater inflater = new Inflater(true);
+    CRC32 crc = new CRC32();
+    try {
+      int position = 0;
+      while (position < input.length) {
+        int dataStart = skipHeader(input, position, start);
+        if (dataStart < 0) {
+          return new Range(start, null);
+        }
+        inflater.reset();
+        crc.reset();
+        inflater.setInput(input, dataStart, input.length - dataStart);
+        int memberStart = output.size;
+        while (!inflater.finished()) {
+          if (Thread.currentThread().isInterrupted()) {
+            throw new IOException("Decompression was cancelled");
+          }
+          output.ensureCapacity(BUFFER_SIZE);
+          int count = inflater.inflate(output.bytes, output.size, BUFFER_SIZE);
+          output.size += count;
+          if (count == 0 && inflater.needsInput()) {
+            // member continues after end of range
+            return new Range(start, null);
+          }
+        }
+        crc.update(output.bytes, memberStart, output.size - memberStart);
+        int trailer = input.length - inflater.getRemaining();
+        if (trailer + TRAILER_SIZE > input.length) {
+          return new Range(start, null);
+        }
+        if (readInt(input, trailer) != (int) crc.getValue()
+            || readInt(input, trailer + 4) != output.size - memberStart) {
+          throw new IOException("Corrupt gzip member at " + (start + position));
+        }
+        position = trailer + TRAILER_SIZE;
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt gzip data after position " + start, e);
+    } finally {
+      inflater.end();
+    }
+    return new Range(start, output.toByteArray());
+  }
+
+  /**
+   * @return position of compressed data of member, -1 if header doesn't fit into input
+   * @throws IOException if there is no header at position
+   */
+  private static int skipHeader(byte[] input, int position, long offset) throws IOException {
+    if (position + HEADER_SIZE > input.length) {
+      return -1;
+    }
+    if ((input[position] & 0xff) != ID1 || (input[position + 1] & 0xff) != ID2
+        || input[position + 2] != DEFLATE || (input[position + 3] & RESERVED_FLAGS) != 0) {
+      throw new IOException("Not in gzip format at " + (offset + position));
+    }
+    int flags = input[position + 3];
+    int current = position + HEADER_SIZE;
+    if ((flags & FEXTRA) != 0) {
+      if (current + 2 > input.length) {
+        return -1;
+      }
+      current += 2 + ((input[current] & 0xff) | (input[current + 1] & 0xff) << 8);
+    }
+    for (int flag : new int[]{FNAME, FCOMMENT}) {
+      if ((flags & flag) != 0) {
+        while (current < input.length && input[current] != 0) {
+          ++current;
+        }
+        ++current;
+      }
+    }
+    if ((flags & FHCRC) != 0) {
+      current += 2;
+    }
+    return current >= input.length ? -1 : current;
+  }
+
+  private static int readInt(byte[] bytes, int position) {
+    return (bytes[position] & 0xff) | (bytes[position + 1] & 0xff) << 8
+        | (bytes[position + 2] & 0xff) << 16 | (bytes[position + 3] & 0xff) << 24;
+  }
+
+  /**
+   * growing buffer which Inflater writes to directly
+   */
+  private static class ChunkOutput {
+
+    private byte[] bytes;
+    private int size = 0;
+
+    ChunkOutput(int capacity) {
+      bytes = new byte[Math.max(capacity, BUFFER_SIZE)];
+    }
+
+    void ensureCapacity(int extraBytes) {
+      if (bytes.length - size < extraBytes) {
+        long capacity = Math.max((long) bytes.length * 2, (long) size + extraBytes);
+        if (capacity > Integer.MAX_VALUE - 8) {
+          throw new UncheckedIOException(new IOException("Range of gzip file is too large"));
+        }
+        byte[] larger = new byte[(int) capacity];
+        System.arraycopy(bytes, 0, larger, 0, size);
+        bytes = larger;
+      }
+    }
+
+    byte[] toByteArray() {
+      if (bytes.length == size) {
+        return bytes;
+      }
+      byte[] result = new byte[size];
+      System.arraycopy(bytes, 0, result, 0, size);
+      return result;
+    }
+  }
+
+  private static class Range {
+
+    private final long start;
+    // decompressed bytes, null if range ends inside of member
+    private final byte[] bytes;
+
+    Range(long start, byte[] bytes) {
+      this.start = start;
+      this.bytes = bytes;
+    }
+  }
+
+  private static class PendingRange {
+
+    private final long end;
+    private final Future<Range> task;
+
+    PendingRange(long end, Future<Range> task) {
+      this.end = end;
+      this.task = task;
+    }
+  }
+}
@@ -0,0 +1,361 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Clusters several logs with concurrent stages, so reading of the next log overlaps with
+ * clustering of the previous one:
+ * <ol>
+ * <li>reading: lines of logs are parsed into batches of links</li>
+ * <li>graph building: links are collected into queries and documents, when log is read its graph
+ * is split into partitions of whole connected components (see GraphPartitioner)</li>
+ * <li>clustering: several threads cluster partitions, every thread has its own engine</li>
+ * <li>writing: clusters are passed to ResultWriter, log by log in the order of logs</li>
+ * </ol>
+ * Stages are connected by bounded queues, so fast stage waits for slow one instead of filling the
+ * memory. Partitions which are submitted for clustering but not written yet are bounded too (by
+ * queueCapacity + clusteringThreads): if the first log is written slowly, clusters of the next
+ * logs don't pile up in the writing stage, graph building waits instead
+ */
+public class PipelinedRunner {
+
+  private static final Logger PIPELINE_LOGGER = Logger.getLogger(PipelinedRunner.class.getName());
+
+  private static final int LINKS_PER_BATCH = 4096;
+  private static final int PARTITIONS_PER_THREAD = 4;
+
+  private final Supplier<ClusteringEngine> engines;
+  private final Supplier<QueryLogReader> readers;
+  private final int clusteringThreads;
+  private final int queueCapacity;
+
+  // time which every stage spent on work (not on waiting for other stages)
+  private final AtomicLong readingTime = new AtomicLong();
+  private final AtomicLong graphBuildingTime = new AtomicLong();
+  private final AtomicLong clusteringTime = new AtomicLong();
+  private final AtomicLong writingTime = new AtomicLong();
+
+  /**
+   * @param engines creates engine for every clustering thread
+   * @param clusteringThreads count of threads which cluster partitions
+   * @param queueCapacity maximal count of batches of links, partitions and results which wait for
+   * the next stage
+   */
+  public PipelinedRunner(Supplier<ClusteringEngine> engines, int clusteringThreads,
+      int queueCapacity) {
+    this(engines, QueryLogReader::new, clusteringThreads, queueCapacity);
+  }
+
+  /**
+   * @param readers creates reader of logs for reading stage, e.g. with canonicalizer
+   */
+  public PipelinedRunner(Supplier<ClusteringEngine> engines, Supplier<QueryLogReader> readers,
+      int clusteringThreads, int queueCapacity) {
+    if (engines == null || readers == null) {
+      throw new IllegalArgumentException("Engines and readers should not be null");
+    }
+    if (clusteringThreads <= 0 || queueCapacity <= 0) {
+      throw new IllegalArgumentException("Count of threads and capacity should be positive");
+    }
+    this.engines = engines;
+    this.readers = readers;
+    this.clusteringThreads = clusteringThreads;
+    this.queueCapacity = queueCapacity;
+  }
+
+  /**
+   * Accepts clusters of logs. All methods are called from the same thread: startLog, then
+   * writeClusters for every partition of the log, then finishLog
+   */
+  public interface ResultWriter {
+
+    void startLog(Path logFile) throws IOException;
+
+    void writeClusters(Path logFile, Set<Set<Query>> clusters) throws IOException;
+
+    void finishLog(Path logFile) throws IOException;
+  }
+
+  /**
+   * @param nLines count of lines of every log which will be clustered
+   */
+  public void run(List<Path> logFiles, long nLines, ResultWriter writer) throws IOException {
+    if (logFiles == null || writer == null) {
+      throw new IllegalArgumentException("Logs and writer should not be null");
+    }
+
+    BlockingQueue<LinksBatch> batches = new ArrayBlockingQueue<>(queueCapacity);
+    BlockingQueue<Partition> partitions = new ArrayBlockingQueue<>(queueCapacity);
+    BlockingQueue<Result> results = new ArrayBlockingQueue<>(queueCapacity);
+    // graph building takes a permit for every partition, writing gives it back
+    Semaphore unwrittenPartitions = new Semaphore(queueCapacity + clusteringThreads);
+    ExecutorService stages = Executors.newFixedThreadPool(clusteringThreads + 3);
+    List<Future<?>> futures = new ArrayList<>();
+    try {
+      futures.add(stages.submit(() -> readLogs(logFiles, nLines, batches)));
+      futures.add(stages.submit(() -> buildGraphs(logFiles.size(), batches, partitions, results,
+          unwrittenPartitions)));
+      for (int i = 0; i < clusteringThreads; ++i) {
+        futures.add(stages.submit(() -> clusterPartitions(partitions, results)));
+      }
+      futures.add(stages.submit(() -> writeResults(logFiles, results, writer,
+          unwrittenPartitions)));
+      awaitStages(futures);
+    } finally {
+      stages.shutdownNow();
+    }
+    PIPELINE_LOGGER.log(Level.FINE,
+        "Busy time of stages: reading {0}s, graph {1}s, clustering {2}s (all threads), writing {3}s",
+        new Object[]{readingTime.get() / 1e9, graphBuildingTime.get() / 1e9,
+            clusteringTime.get() / 1e9, writingTime.get() / 1e9});
+  }
+
+  /**
+   * waits until all stages finish, the first failure of a stage stops the others
+   */
+  private static void awaitStages(List<Future<?>> futures) throws IOException {
+    List<Future<?>> running = new ArrayList<>(futures);
+    try {
+      while (!running.isEmpty()) {
+        for (int i = running.size() - 1; i >= 0; --i) {
+          Future<?> future = running.get(i);
+          if (future.isDone()) {
+            future.get();
+            running.remove(i);
+          }
+        }
+        if (!running.isEmpty()) {
+          Thread.sleep(10);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for stages", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException("Stage of pipeline failed", e.getCause());
+    }
+  }
+
+  private Void readLogs(List<Path> logFiles, long nLines, BlockingQueue<LinksBatch> batches)
+      throws IOException, InterruptedException {
+    QueryLogReader reader = readers.get();
+    for (int log = 0; log < logFiles.size(); ++log) {
+      int logIndex = log;
+      List<String[]> links = new ArrayList<>(LINKS_PER_BATCH);
+      long startTime = System.nanoTime();
+      try {
+        reader.readLinks(logFiles.get(log).toString(), nLines, (query, documentName) -> {
+          links.add(new String[]{query, documentName});
+          if (links.size() == LINKS_PER_BATCH) {
+            // time of waiting for graph building stage is not counted
+            readingTime.addAndGet(System.nanoTime());
+            put(batches, new LinksBatch(logIndex, new ArrayList<>(links), false));
+            readingTime.addAndGet(-System.nanoTime());
+            links.clear();
+          }
+        });
+      } catch (InterruptedStageException e) {
+        throw e.getCause();
+      }
+      readingTime.addAndGet(System.nanoTime() - startTime);
+      batches.put(new LinksBatch(logIndex, links, true));
+    }
+    return null;
+  }
+
+  private Void buildGraphs(int logsCount, BlockingQueue<LinksBatch> batches,
+      BlockingQueue<Partition> partitions, BlockingQueue<Result> results,
+      Semaphore unwrittenPartitions) throws InterruptedException {
+    Map<String, Query> queries = new HashMap<>();
+    Map<String, Document> documents = new HashMap<>();
+    int finishedLogs = 0;
+    while (finishedLogs < logsCount) {
+      LinksBatch batch = batches.take();
+      long startTime = System.nanoTime();
+      for (String[] link : batch.links) {
+        queries.computeIfAbsent(link[0], Query::new)
+            .addRelatedDocument(documents.computeIfAbsent(link[1], Document::new));
+      }
+      if (!batch.lastInLog) {
+        graphBuildingTime.addAndGet(System.nanoTime() - startTime);
+        continue;
+      }
+
+      List<Set<Query>> logPartitions = GraphPartitioner.partition(
+          new HashSet<>(queries.values()), clusteringThreads * PARTITIONS_PER_THREAD);
+      queries = new HashMap<>();
+      documents = new HashMap<>();
+      graphBuildingTime.addAndGet(System.nanoTime() - startTime);
+      results.put(new Result(batch.logIndex, logPartitions.size(), null));
+      for (Set<Query> partition : logPartitions) {
+        // logs are submitted in order, so the log being written never waits for the next ones
+        unwrittenPartitions.acquire();
+        partitions.put(new Partition(batch.logIndex, partition));
+      }
+      ++finishedLogs;
+    }
+    for (int i = 0; i < clusteringThreads; ++i) {
+      partitions.put(Partition.END);
+    }
+    return null;
+  }
+
+  private Void clusterPartitions(BlockingQueue<Partition> partitions,
+      BlockingQueue<Result> results) throws InterruptedException {
+    ClusteringEngine engine = engines.get();
+    while (true) {
+      Partition partition = partitions.take();
+      if (partition == Partition.END) {
+        return null;
+      }
+      long startTime = System.nanoTime();
+      Set<Set<Query>> clusters = engine.clusterQueries(partition.queries);
+      clusteringTime.addAndGet(System.nanoTime() - startTime);
+      results.put(new Result(partition.logIndex, 0, clusters));
+    }
+  }
+
+  /**
+   * partitions of logs are clustered in any order, results of the next logs are kept until the
+   * current log is written, their count is bounded by unwrittenPartitions
+   */
+  private Void writeResults(List<Path> logFiles, BlockingQueue<Result> results,
+      ResultWriter writer, Semaphore unwrittenPartitions)
+      throws IOException, InterruptedException {
+    int[] remainingPartitions = new int[logFiles.size()];
+    boolean[] partitionsCounted = new boolean[logFiles.size()];
+    Map<Integer, List<Set<Set<Query>>>> postponed = new HashMap<>();
+    int currentLog = 0;
+    boolean currentLogStarted = false;
+    while (currentLog < logFiles.size()) {
+      if (!currentLogStarted) {
+        long startTime = System.nanoTime();
+        writer.startLog(logFiles.get(currentLog));
+        for (Set<Set<Query>> clusters : postponed.getOrDefault(currentLog,
+            new ArrayList<>())) {
+          writer.writeClusters(logFiles.get(currentLog), clusters);
+          unwrittenPartitions.release();
+        }
+        postponed.remove(currentLog);
+        writingTime.addAndGet(System.nanoTime() - startTime);
+        currentLogStarted = true;
+      }
+      if (partitionsCounted[currentLog] && remainingPartitions[currentLog] == 0) {
+        long startTime = System.nanoTime();
+        writer.finishLog(logFiles.get(currentLog));
+        writingTime.addAndGet(System.nanoTime() - startTime);
+        ++currentLog;
+        currentLogStarted = false;
+        continue;
+      }
+
+      Result result = results.take();
+      if (result.clusters == null) {
+        partitionsCounted[result.logIndex] = true;
+        remainingPartitions[result.logIndex] += result.partitionsCount;
+        continue;
+      }
+      --remainingPartitions[result.logIndex];
+      if (result.logIndex == currentLog) {
+        long startTime = System.nanoTime();
+        writer.writeClusters(logFiles.get(currentLog), result.clusters);
+        unwrittenPartitions.release();
+        writingTime.addAndGet(System.nanoTime() - startTime);
+      } else {
+        postponed.computeIfAbsent(result.logIndex, log -> new ArrayList<>()).add(result.clusters);
+      }
+    }
+    return null;
+  }
+
+  private static <T> void put(BlockingQueue<T> queue, T element) {
+    try {
+      queue.put(element);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedStageException(e);
+    }
+  }
+
+  /**
+   * passes interruption of reading stage through callback of QueryLogReader
+   */
+  private static class InterruptedStageException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    InterruptedStageException(InterruptedException cause) {
+      super(cause);
+    }
+
+    @Override
+    public synchronized InterruptedException getCause() {
+      return (InterruptedException) super.getCause();
+    }
+  }
+
+  private static class LinksBatch {
+
+    private final int logIndex;
+    private final List<String[]> links;
+    private final boolean lastInLog;
+
+    LinksBatch(int logIndex, List<String[]> links, boolean lastInLog) {
+      this.logIndex = logIndex;
+      this.links = links;
+      this.lastInLog = lastInLog;
+    }
+  }
+
+  private static class Partition {
+
+    // tells clustering thread to stop
+    private static final Partition END = new Partition(-1, null);
+
+    private final int logIndex;
+    private final Set<Query> queries;
+
+    Partition(int logIndex, Set<Query> queries) {
+      this.logIndex = logIndex;
+      this.queries = queries;
+    }
+  }
+
+  /**
+   * clusters of one partition, or count of partitions of log if clusters is null
+   */
+  private static class Result {
+
+    private final int logIndex;
+    private final int partitionsCount;
+    private final Set<Set<Query>> clusters;
+
+    Result(int logIndex, int partitionsCount, Set<Set<Query>> clusters) {
+      this.logIndex = logIndex;
+      this.partitionsCount = partitionsCount;
+      this.clusters = clusters;
+    }
+  }
+}
@@ -8,7 +8,10 @@ import java.util.Set;
 
 public class Query {
 
+  // null if text of query is kept in arena
   private String query;
+  private StringArena arena;
+  private int id;
   private Map<Document, Long> relatedDocuments;
 
   public Query(String query) {
@@ -16,6 +19,21 @@ public class Query {
     relatedDocuments = new HashMap<>();
   }
 
+  /**
+   * Query whose text is kept in arena, String is made only by toString
+   *
+   * @param id id of text of query in arena
+   */
+  public Query(StringArena arena, int id) {
+    if (arena == null) {
+      throw new IllegalArgumentException("Arena should not be null");
+    }
+    arena.hashOf(id);
+    this.arena = arena;
+    this.id = id;
+    relatedDocuments = new HashMap<>();
+  }
+
   public Set<Document> getRelatedDocuments() {
     return relatedDocuments.keySet();
   }
@@ -41,7 +59,7 @@ public class Query {
 
   @Override
   public String toString() {
-    return query;
+    return query != null ? query : arena.get(id);
   }
 
   @Override
@@ -54,11 +72,14 @@ public class Query {
     }
 
     Query otherQuery = (Query) other;
-    return query.equals(otherQuery.query);
+    if (arena != null && arena == otherQuery.arena) {
+      return id == otherQuery.id;
+    }
+    return toString().equals(otherQuery.toString());
   }
 
   @Override
   public int hashCode() {
-    return query.hashCode();
+    return query != null ? query.hashCode() : arena.hashOf(id);
   }
 }
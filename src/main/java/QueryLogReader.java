@@ -3,12 +3,21 @@
  */
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.InputStreamReader;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * We assume files have structure as follows:
@@ -19,8 +28,29 @@ import java.util.Set;
  */
 public class QueryLogReader {
 
-  private Map<String, Query> queries;
+  private static final DateTimeFormatter QUERY_TIME_FORMAT =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+  private static final int SKETCH_DEPTH = 4;
+  private static final int DECOMPRESSION_THREADS = Runtime.getRuntime().availableProcessors();
+
+  // texts of queries and names of documents are kept in arenas, query or document with id i is
+  // the i-th element of list
+  private StringArena queryTexts;
+  private List<Query> queries;
+  private StringArena documentNames;
+  private List<Document> documents;
   private String lastQuery = "";
+  private Canonicalizer canonicalizer = null;
+  private long droppedLinksCount = 0;
+
+  /**
+   * @param canonicalizer applied to every query and document name after they are lowercased and
+   * trimmed, null turns canonicalization off
+   */
+  public void setCanonicalizer(Canonicalizer canonicalizer) {
+    this.canonicalizer = canonicalizer;
+  }
 
   public Set<Query> readQueryLog(String fileName, int nLines) throws IOException {
     if (fileName == null) {
@@ -31,16 +61,167 @@ public class QueryLogReader {
       throw new IllegalArgumentException("Lines count should not be less than 0");
     }
 
-    queries = new HashMap<>();
+    startGraph();
+    readLinks(fileName, nLines, this::addQuery);
+    return finishGraph();
+  }
+
+  /**
+   * Reads first nLinesPerFile lines of every log into one graph. Query or document which appears
+   * in several logs is represented by one object, links of the same query and document from
+   * different logs are summed
+   */
+  public Set<Query> readQueryLogs(List<String> fileNames, int nLinesPerFile) throws IOException {
+    if (fileNames == null || fileNames.contains(null)) {
+      throw new IllegalArgumentException("fileNames should not be null");
+    }
+
+    if (nLinesPerFile < 0) {
+      throw new IllegalArgumentException("Lines count should not be less than 0");
+    }
+
+    startGraph();
+    for (String fileName : fileNames) {
+      readLinks(fileName, nLinesPerFile, this::addQuery);
+    }
+    return finishGraph();
+  }
+
+  /**
+   * Reads first nLines of log in two passes, so that memory doesn't grow with the long tail of
+   * rare links. The first pass counts every query-document pair in Count-Min sketch of
+   * sketchBytes bytes, the second one builds the graph only of pairs which were made at least
+   * minLinksCount times. Sketch overestimates counts, so some rarer pairs are kept too, but no
+   * frequent pair is lost. Counts of kept links are exact
+   */
+  public Set<Query> readFrequentLinks(String fileName, int nLines, int minLinksCount,
+      long sketchBytes) throws IOException {
+    if (fileName == null) {
+      throw new IllegalArgumentException("fileName should not be null");
+    }
+
+    if (nLines < 0) {
+      throw new IllegalArgumentException("Lines count should not be less than 0");
+    }
+
+    if (minLinksCount <= 0) {
+      throw new IllegalArgumentException("Minimal count of links should be positive");
+    }
+
+    CountMinSketch sketch = CountMinSketch.withMemory(sketchBytes, SKETCH_DEPTH);
+    readLinks(fileName, nLines,
+        (query, documentName) -> sketch.add(CountMinSketch.pairKey(query, documentName)));
+
+    droppedLinksCount = 0;
+    startGraph();
+    readLinks(fileName, nLines, (query, documentName) -> {
+      if (sketch.estimate(CountMinSketch.pairKey(query, documentName)) >= minLinksCount) {
+        addQuery(query, documentName);
+      } else {
+        ++droppedLinksCount;
+      }
+    });
+    return finishGraph();
+  }
 
-    try (BufferedReader input = new BufferedReader(new FileReader(fileName))) {
-      input.lines()
-          .limit(nLines)
-          .map(this::extractQueryAndDocNameFromLine)
-          .forEach(this::addQuery);
+  /**
+   * @return count of links which were dropped by the last call of readFrequentLinks
+   */
+  public long getDroppedLinksCount() {
+    return droppedLinksCount;
+  }
+
+  /**
+   * Reads first nLines of log and passes every clickthrough to linkConsumer without building the
+   * graph. Query and document name are normalized the same way as in readQueryLog
+   *
+   * @param linkConsumer accepts query and name of clicked document
+   */
+  public void readLinks(String fileName, long nLines, BiConsumer<String, String> linkConsumer)
+      throws IOException {
+    readNormalizedLinks(fileName, nLines, link -> linkConsumer.accept(link[0], link[1]));
+  }
+
+  /**
+   * The same as readLinks, but lines are read from input, e.g. from standard input or from
+   * TailingInputStream. Input is not closed
+   *
+   * @throws java.io.UncheckedIOException if input can't be read
+   */
+  public void readLinks(BufferedReader input, long nLines,
+      BiConsumer<String, String> linkConsumer) {
+    if (input == null) {
+      throw new IllegalArgumentException("Input should not be null");
     }
 
-    return new HashSet<>(queries.values());
+    if (nLines < 0) {
+      throw new IllegalArgumentException("Lines count should not be less than 0");
+    }
+    readNormalizedLinks(input, nLines, link -> linkConsumer.accept(link[0], link[1]));
+  }
+
+  /**
+   * The same as readLinks, but also passes time of query to linkConsumer
+   *
+   * @throws IllegalArgumentException if queryTime of some clickthrough is not in format
+   * "yyyy-MM-dd HH:mm:ss"
+   */
+  public void readTimedLinks(String fileName, long nLines, TimedLinkConsumer linkConsumer)
+      throws IOException {
+    readNormalizedLinks(fileName, nLines,
+        link -> linkConsumer.accept(link[0], link[1], parseQueryTime(link[2])));
+  }
+
+  /**
+   * @return milliseconds since epoch, time in logs is treated as UTC
+   */
+  static long parseQueryTime(String queryTime) {
+    try {
+      return LocalDateTime.parse(queryTime.trim(), QUERY_TIME_FORMAT)
+          .toInstant(ZoneOffset.UTC).toEpochMilli();
+    } catch (DateTimeParseException e) {
+      throw new IllegalArgumentException("Wrong time of query: " + queryTime, e);
+    }
+  }
+
+  /**
+   * @param linkConsumer accepts arrays of normalized query, document name and time of query
+   */
+  private void readNormalizedLinks(String fileName, long nLines, Consumer<String[]> linkConsumer)
+      throws IOException {
+    if (fileName == null) {
+      throw new IllegalArgumentException("fileName should not be null");
+    }
+
+    if (nLines < 0) {
+      throw new IllegalArgumentException("Lines count should not be less than 0");
+    }
+
+    try (BufferedReader input = openLog(fileName)) {
+      readNormalizedLinks(input, nLines, linkConsumer);
+    }
+  }
+
+  /**
+   * Opens log for reading, log compressed by gzip is decompressed on the fly (see
+   * ParallelGzipInputStream)
+   */
+  static BufferedReader openLog(String fileName) throws IOException {
+    File file = new File(fileName);
+    if (ParallelGzipInputStream.isGzip(file)) {
+      return new BufferedReader(new InputStreamReader(
+          new ParallelGzipInputStream(file, DECOMPRESSION_THREADS)), 1 << 16);
+    }
+    return new BufferedReader(new FileReader(file));
+  }
+
+  private void readNormalizedLinks(BufferedReader input, long nLines,
+      Consumer<String[]> linkConsumer) {
+    lastQuery = "";
+    input.lines()
+        .limit(nLines)
+        .map(this::extractQueryAndDocNameFromLine)
+        .forEach(link -> normalizeLink(link, linkConsumer));
   }
 
   private String[] extractQueryAndDocNameFromLine(String line) {
@@ -58,10 +239,10 @@ public class QueryLogReader {
     if (tokens.length < 5) {
       return new String[]{};
     }
-    return new String[]{tokens[1], tokens[4]};
+    return new String[]{tokens[1], tokens[4], tokens[2]};
   }
 
-  private void addQuery(String[] query) {
+  private void normalizeLink(String[] query, Consumer<String[]> linkConsumer) {
     if (query.length < 2) {
       return;
     }
@@ -75,12 +256,51 @@ public class QueryLogReader {
       return;
     }
 
-    if (!queries.containsKey(query[0])) {
-      queries.put(query[0], new Query(query[0]));
+    query[1] = query[1].toLowerCase().trim();
+    if (canonicalizer != null) {
+      query[0] = canonicalizer.canonicalizeQuery(query[0]);
+      query[1] = canonicalizer.canonicalizeUrl(query[1]);
     }
+    linkConsumer.accept(query);
+  }
 
-    query[1] = query[1].toLowerCase().trim();
-    Document doc = new Document(query[1]);
-    queries.get(query[0]).addRelatedDocument(doc);
+  /**
+   * Accepts clickthrough together with time of query
+   */
+  public interface TimedLinkConsumer {
+
+    /**
+     * @param queryTime milliseconds since epoch
+     */
+    void accept(String query, String documentName, long queryTime);
+  }
+
+  private void startGraph() {
+    queryTexts = new StringArena();
+    queries = new ArrayList<>();
+    documentNames = new StringArena();
+    documents = new ArrayList<>();
+  }
+
+  private Set<Query> finishGraph() {
+    Set<Query> result = new HashSet<>(queries);
+    queryTexts.trimToSize();
+    documentNames.trimToSize();
+    queries = null;
+    documents = null;
+    return result;
+  }
+
+  private void addQuery(String query, String documentName) {
+    int queryId = queryTexts.intern(query);
+    if (queryId == queries.size()) {
+      queries.add(new Query(queryTexts, queryId));
+    }
+
+    int documentId = documentNames.intern(documentName);
+    if (documentId == documents.size()) {
+      documents.add(new Document(documentNames, documentId));
+    }
+    queries.get(queryId).addRelatedDocument(documents.get(documentId));
   }
 }
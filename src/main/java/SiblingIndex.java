@@ -0,0 +1,116 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores two-hop relation between nodes of one part of bipartite graph. Two nodes are siblings if
+ * they have at least one common neighbour. For every pair of siblings index keeps count of their
+ * common neighbours, so when this count drops to zero pair stops being siblings and is removed
+ * from index immediately
+ * <p>
+ * This implementation does not allow to have null nodes
+ *
+ * @param <T> type of nodes
+ */
+public class SiblingIndex<T> {
+
+  private Map<T, Map<T, Integer>> sharedNeighbours;
+
+  public SiblingIndex() {
+    sharedNeighbours = new HashMap<>();
+  }
+
+  /**
+   * changes count of common neighbours of node1 and node2 by delta. Pair is removed from index if
+   * count becomes less or equal to zero
+   *
+   * @return new count of common neighbours
+   * @throws IllegalArgumentException if node1 or node2 is null
+   */
+  public int addSharedNeighbours(T node1, T node2, int delta) {
+    if (node1 == null || node2 == null) {
+      throw new IllegalArgumentException("Nodes should be not null");
+    }
+    if (node1.equals(node2) || delta == 0) {
+      return getSharedNeighboursCount(node1, node2);
+    }
+    int newCount = changeCount(node1, node2, delta);
+    changeCount(node2, node1, delta);
+    return newCount;
+  }
+
+  /**
+   * @return count of common neighbours of node1 and node2, 0 if they are not siblings
+   */
+  public int getSharedNeighboursCount(T node1, T node2) {
+    Map<T, Integer> row = sharedNeighbours.get(node1);
+    if (row == null) {
+      return 0;
+    }
+    return row.getOrDefault(node2, 0);
+  }
+
+  /**
+   * @return all nodes which have at least one common neighbour with node
+   */
+  public Set<T> getSiblings(T node) {
+    Map<T, Integer> row = sharedNeighbours.get(node);
+    if (row == null) {
+      return Collections.emptySet();
+    }
+    return Collections.unmodifiableSet(row.keySet());
+  }
+
+  /**
+   * removes node and all pairs which include it from index
+   *
+   * @return siblings of deleted node with counts of common neighbours
+   */
+  public Map<T, Integer> deleteNode(T node) {
+    Map<T, Integer> row = sharedNeighbours.remove(node);
+    if (row == null) {
+      return new HashMap<>();
+    }
+    for (T sibling : row.keySet()) {
+      Map<T, Integer> siblingRow = sharedNeighbours.get(sibling);
+      siblingRow.remove(node);
+      if (siblingRow.isEmpty()) {
+        sharedNeighbours.remove(sibling);
+      }
+    }
+    return row;
+  }
+
+  /**
+   * @return count of pairs of siblings
+   */
+  public long size() {
+    long doubledSize = 0;
+    for (Map<T, Integer> row : sharedNeighbours.values()) {
+      doubledSize += row.size();
+    }
+    return doubledSize / 2;
+  }
+
+  private int changeCount(T node, T sibling, int delta) {
+    Map<T, Integer> row = sharedNeighbours.get(node);
+    if (row == null) {
+      if (delta < 0) {
+        return 0;
+      }
+      row = new HashMap<>();
+      sharedNeighbours.put(node, row);
+    }
+    int newCount = row.getOrDefault(sibling, 0) + delta;
+    if (newCount <= 0) {
+      row.remove(sibling);
+      if (row.isEmpty()) {
+        sharedNeighbours.remove(node);
+      }
+      return 0;
+    }
+    row.put(sibling, newCount);
+    return newCount;
+  }
+}
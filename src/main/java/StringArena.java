@@ -0,0 +1,194 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores distinct strings as UTF-8 bytes in large byte arrays (slabs) instead of separate String
+ * objects. Every distinct string gets id, ids are 0, 1, 2, ... in the order of interning, String
+ * is made only when get is called.
+ * <p>
+ * Strings are added by one thread. Strings which were added before arena was passed to another
+ * thread can be read by that thread
+ */
+public class StringArena {
+
+  private static final int FIRST_SLAB_SIZE = 1 << 12;
+  private static final int SLAB_SIZE = 1 << 20;
+  private static final int MAX_STRINGS_COUNT = 1 << 29;
+
+  private final List<byte[]> slabs = new ArrayList<>();
+  private byte[] currentSlab;
+  private int currentSlabIndex;
+  private int slabPosition;
+
+  // for every id: index of slab in the highest 32 bits and offset within slab in the lowest ones
+  private long[] positions = new long[1024];
+  private int[] lengths = new int[1024];
+  // String.hashCode of every string
+  private int[] hashes = new int[1024];
+  private int size = 0;
+  private long usedBytes = 0;
+
+  // open addressing table of ids + 1, 0 is empty slot, null after trimToSize
+  private int[] table = new int[2048];
+
+  public StringArena() {
+    addSlab(FIRST_SLAB_SIZE);
+  }
+
+  /**
+   * @return id of string, the same string always gets the same id
+   */
+  public int intern(String string) {
+    if (string == null) {
+      throw new IllegalArgumentException("String should not be null");
+    }
+    int hash = string.hashCode();
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    if (table == null) {
+      rehash(Integer.highestOneBit(Math.max(size, 1024)) * 4);
+    }
+    int mask = table.length - 1;
+    int slot = mix(hash) & mask;
+    while (table[slot] != 0) {
+      int id = table[slot] - 1;
+      if (hashes[id] == hash && equalBytes(id, bytes)) {
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    if (size == MAX_STRINGS_COUNT) {
+      throw new RuntimeException("Too many strings in arena");
+    }
+    int id = size++;
+    ensureCapacity(size);
+    positions[id] = store(bytes);
+    lengths[id] = bytes.length;
+    hashes[id] = hash;
+    table[slot] = id + 1;
+    if (size * 2 > table.length) {
+      rehash(table.length * 2);
+    }
+    return id;
+  }
+
+  /**
+   * @return new String with text of id
+   */
+  public String get(int id) {
+    checkId(id);
+    long position = positions[id];
+    return new String(slabs.get((int) (position >>> 32)), (int) position, lengths[id],
+        StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return the same value as get(id).hashCode()
+   */
+  public int hashOf(int id) {
+    checkId(id);
+    return hashes[id];
+  }
+
+  /**
+   * @return count of distinct strings
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return count of bytes of all strings
+   */
+  public long getUsedBytes() {
+    return usedBytes;
+  }
+
+  private void checkId(int id) {
+    if (id < 0 || id >= size) {
+      throw new IllegalArgumentException("Unknown id: " + id);
+    }
+  }
+
+  private boolean equalBytes(int id, byte[] bytes) {
+    if (lengths[id] != bytes.length) {
+      return false;
+    }
+    long position = positions[id];
+    byte[] slab = slabs.get((int) (position >>> 32));
+    int offset = (int) position;
+    for (int i = 0; i < bytes.length; ++i) {
+      if (slab[offset + i] != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * copies bytes into slab, slabs grow up to SLAB_SIZE, longer string gets slab of its size
+   */
+  private long store(byte[] bytes) {
+    usedBytes += bytes.length;
+    if (slabPosition + bytes.length > currentSlab.length) {
+      addSlab(Math.max(bytes.length, Math.min(SLAB_SIZE, currentSlab.length * 2)));
+    }
+    System.arraycopy(bytes, 0, currentSlab, slabPosition, bytes.length);
+    long position = (long) currentSlabIndex << 32 | slabPosition;
+    slabPosition += bytes.length;
+    return position;
+  }
+
+  private void addSlab(int size) {
+    currentSlab = new byte[size];
+    currentSlabIndex = slabs.size();
+    slabs.add(currentSlab);
+    slabPosition = 0;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > positions.length) {
+      int newCapacity = (int) Math.min(Math.max((long) positions.length * 2, 1024),
+          MAX_STRINGS_COUNT);
+      positions = Arrays.copyOf(positions, newCapacity);
+      lengths = Arrays.copyOf(lengths, newCapacity);
+      hashes = Arrays.copyOf(hashes, newCapacity);
+    }
+  }
+
+  /**
+   * Frees memory which is needed only to add strings: unused capacity and index of strings. Index
+   * is built again by the next intern
+   */
+  public void trimToSize() {
+    positions = Arrays.copyOf(positions, size);
+    lengths = Arrays.copyOf(lengths, size);
+    hashes = Arrays.copyOf(hashes, size);
+    currentSlab = Arrays.copyOf(currentSlab, slabPosition);
+    slabs.set(currentSlabIndex, currentSlab);
+    table = null;
+  }
+
+  private void rehash(int tableSize) {
+    int[] newTable = new int[tableSize];
+    int mask = newTable.length - 1;
+    for (int id = 0; id < size; ++id) {
+      int slot = mix(hashes[id]) & mask;
+      while (newTable[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      newTable[slot] = id + 1;
+    }
+    table = newTable;
+  }
+
+  /**
+   * spreads bits of String.hashCode, which are poor in the lowest bits for short strings
+   */
+  private static int mix(int hash) {
+    hash *= 0x9e3779b9;
+    return hash ^ (hash >>> 16);
+  }
+}
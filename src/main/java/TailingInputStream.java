@@ -0,0 +1,71 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Reads file which is still being written, like "tail -f": when the end of file is reached, waits
+ * until more bytes are appended. End of stream is reached only after close() or interruption of
+ * reading thread
+ */
+public class TailingInputStream extends InputStream {
+
+  private final FileInputStream input;
+  private final long pollIntervalMillis;
+  private volatile boolean closed = false;
+
+  public TailingInputStream(File file, long pollIntervalMillis) throws IOException {
+    if (pollIntervalMillis <= 0) {
+      throw new IllegalArgumentException("Poll interval should be positive");
+    }
+    this.input = new FileInputStream(file);
+    this.pollIntervalMillis = pollIntervalMillis;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    while (!closed) {
+      int read;
+      try {
+        read = input.read(b, off, len);
+      } catch (IOException e) {
+        if (closed) {
+          // stream was closed by another thread
+          return -1;
+        }
+        throw e;
+      }
+      if (read > 0) {
+        return read;
+      }
+      try {
+        Thread.sleep(pollIntervalMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for new data");
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return closed ? 0 : input.available();
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    input.close();
+  }
+}
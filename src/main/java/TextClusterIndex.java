@@ -0,0 +1,93 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ClusterIndex which is kept in heap. Every cluster is stored as array of its queries, the only
+ * other structure is hash map from query to id of its cluster
+ */
+public class TextClusterIndex implements ClusterIndex {
+
+  private static final String CLUSTER_PREFIX = "[";
+  private static final String CLUSTER_SUFFIX = "]";
+  private static final String QUERIES_SEPARATOR = ", ";
+
+  private final List<String[]> clusters = new ArrayList<>();
+  private final Map<String, Integer> clusterOfQuery = new HashMap<>();
+
+  private TextClusterIndex() {
+  }
+
+  public static TextClusterIndex fromClusters(Collection<Set<Query>> clusters) {
+    if (clusters == null) {
+      throw new IllegalArgumentException("Clusters should not be null");
+    }
+    TextClusterIndex index = new TextClusterIndex();
+    for (Set<Query> cluster : clusters) {
+      String[] queries = new String[cluster.size()];
+      int i = 0;
+      for (Query q : cluster) {
+        queries[i++] = q.toString();
+      }
+      index.addCluster(queries);
+    }
+    return index;
+  }
+
+  /**
+   * Reads clustering result written by Main: every line which looks like Set.toString() is a
+   * cluster, other lines are ignored. Queries are split by ", ", so queries which contain it
+   * themselves are split into several ones
+   */
+  public static TextClusterIndex load(String fileName) throws IOException {
+    if (fileName == null) {
+      throw new IllegalArgumentException("fileName should not be null");
+    }
+    TextClusterIndex index = new TextClusterIndex();
+    try (BufferedReader input = new BufferedReader(new FileReader(fileName))) {
+      String line;
+      while ((line = input.readLine()) != null) {
+        if (line.startsWith(CLUSTER_PREFIX) && line.endsWith(CLUSTER_SUFFIX)) {
+          String queries = line.substring(CLUSTER_PREFIX.length(),
+              line.length() - CLUSTER_SUFFIX.length());
+          index.addCluster(queries.split(QUERIES_SEPARATOR));
+        }
+      }
+    }
+    return index;
+  }
+
+  private void addCluster(String[] queries) {
+    int clusterId = clusters.size();
+    clusters.add(queries);
+    for (String query : queries) {
+      clusterOfQuery.put(query, clusterId);
+    }
+  }
+
+  @Override
+  public int findCluster(String query) {
+    return clusterOfQuery.getOrDefault(query, NOT_FOUND);
+  }
+
+  @Override
+  public List<String> getClusterMembers(int clusterId) {
+    if (clusterId < 0 || clusterId >= clusters.size()) {
+      throw new IllegalArgumentException("There is no cluster " + clusterId);
+    }
+    return Collections.unmodifiableList(Arrays.asList(clusters.get(clusterId)));
+  }
+
+  @Override
+  public int getClustersCount() {
+    return clusters.size();
+  }
+}
@@ -0,0 +1,239 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Passes timed links of log in order of time without keeping the whole log in memory (external
+ * merge sort). Links are read in runs of at most runLinks links, every run is sorted by time and
+ * spilled to a file in work directory, then runs are merged. Log which fits into one run is not
+ * spilled. At most MAX_OPEN_RUNS runs are merged at once, more runs are merged in several passes
+ */
+public class TimeOrderedLinks {
+
+  private static final Logger ORDER_LOGGER = Logger.getLogger(TimeOrderedLinks.class.getName());
+
+  public static final int DEFAULT_RUN_LINKS = 1 << 20;
+  private static final int MAX_OPEN_RUNS = 64;
+
+  private final QueryLogReader reader;
+  private final File workDirectory;
+  private final int runLinks;
+
+  /**
+   * @param reader reads links of log
+   * @param workDirectory directory for temporary files
+   * @param runLinks count of links which are sorted in memory at once
+   */
+  public TimeOrderedLinks(QueryLogReader reader, File workDirectory, int runLinks) {
+    if (reader == null || workDirectory == null) {
+      throw new IllegalArgumentException("Reader and work directory should not be null");
+    }
+    if (runLinks <= 0) {
+      throw new IllegalArgumentException("Count of links in run should be positive");
+    }
+    this.reader = reader;
+    this.workDirectory = workDirectory;
+    this.runLinks = runLinks;
+  }
+
+  /**
+   * Passes links of first nLines of log to linkConsumer in order of time, links made at the same
+   * time come in any order
+   */
+  public void read(String fileName, long nLines, QueryLogReader.TimedLinkConsumer linkConsumer)
+      throws IOException {
+    File runsDirectory = null;
+    try {
+      List<TimedLink> run = new ArrayList<>();
+      Map<String, String> names = new HashMap<>();
+      List<File> runs = new ArrayList<>();
+      File[] directory = new File[1];
+      try {
+        reader.readTimedLinks(fileName, nLines, (query, documentName, time) -> {
+          run.add(new TimedLink(names.computeIfAbsent(query, name -> name),
+              names.computeIfAbsent(documentName, name -> name), time));
+          if (run.size() == runLinks) {
+            try {
+              if (directory[0] == null) {
+                directory[0] = Files.createTempDirectory(workDirectory.toPath(), "runs")
+                    .toFile();
+              }
+              runs.add(spillRun(run, new File(directory[0], "run" + runs.size())));
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+            run.clear();
+            names.clear();
+          }
+        });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      } finally {
+        runsDirectory = directory[0];
+      }
+
+      run.sort(Comparator.comparingLong(link -> link.time));
+      if (runs.isEmpty()) {
+        for (TimedLink link : run) {
+          linkConsumer.accept(link.query, link.documentName, link.time);
+        }
+        return;
+      }
+      if (!run.isEmpty()) {
+        runs.add(spillRun(run, new File(runsDirectory, "run" + runs.size())));
+        run.clear();
+      }
+      ORDER_LOGGER.log(Level.FINE, "Count of spilled runs: {0}", runs.size());
+
+      int mergedCount = runs.size();
+      while (runs.size() > MAX_OPEN_RUNS) {
+        List<File> group = new ArrayList<>(runs.subList(0, MAX_OPEN_RUNS));
+        runs.subList(0, MAX_OPEN_RUNS).clear();
+        File merged = new File(runsDirectory, "run" + mergedCount++);
+        try (DataOutputStream output = openOutput(merged)) {
+          merge(group, (query, documentName, time) -> {
+            try {
+              writeLink(output, query, documentName, time);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+        group.forEach(File::delete);
+        runs.add(merged);
+      }
+      merge(runs, linkConsumer);
+    } finally {
+      if (runsDirectory != null) {
+        File[] files = runsDirectory.listFiles();
+        if (files != null) {
+          for (File file : files) {
+            file.delete();
+          }
+        }
+        runsDirectory.delete();
+      }
+    }
+  }
+
+  private static File spillRun(List<TimedLink> run, File file) throws IOException {
+    run.sort(Comparator.comparingLong(link -> link.time));
+    try (DataOutputStream output = openOutput(file)) {
+      for (TimedLink link : run) {
+        writeLink(output, link.query, link.documentName, link.time);
+      }
+    }
+    return file;
+  }
+
+  private static void merge(List<File> runs, QueryLogReader.TimedLinkConsumer linkConsumer)
+      throws IOException {
+    PriorityQueue<RunReader> readers =
+        new PriorityQueue<>(Comparator.comparingLong(r -> r.link.time));
+    try {
+      for (File run : runs) {
+        RunReader runReader = new RunReader(run);
+        if (runReader.advance()) {
+          readers.add(runReader);
+        } else {
+          runReader.input.close();
+        }
+      }
+      while (!readers.isEmpty()) {
+        RunReader first = readers.poll();
+        linkConsumer.accept(first.link.query, first.link.documentName, first.link.time);
+        if (first.advance()) {
+          readers.add(first);
+        } else {
+          first.input.close();
+        }
+      }
+    } finally {
+      for (RunReader runReader : readers) {
+        runReader.input.close();
+      }
+    }
+  }
+
+  private static void writeLink(DataOutputStream output, String query, String documentName,
+      long time) throws IOException {
+    output.writeLong(time);
+    writeString(output, query);
+    writeString(output, documentName);
+  }
+
+  private static void writeString(DataOutputStream output, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static String readString(DataInputStream input) throws IOException {
+    byte[] bytes = new byte[input.readInt()];
+    input.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static DataOutputStream openOutput(File file) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+  }
+
+  /**
+   * current link of spilled run
+   */
+  private static class RunReader {
+
+    private final DataInputStream input;
+    private TimedLink link;
+
+    RunReader(File run) throws IOException {
+      input = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+    }
+
+    /**
+     * @return false if run has no more links
+     */
+    boolean advance() throws IOException {
+      long time;
+      try {
+        time = input.readLong();
+      } catch (EOFException e) {
+        return false;
+      }
+      link = new TimedLink(readString(input), readString(input), time);
+      return true;
+    }
+  }
+
+  private static class TimedLink {
+
+    private final String query;
+    private final String documentName;
+    private final long time;
+
+    TimedLink(String query, String documentName, long time) {
+      this.query = query;
+      this.documentName = documentName;
+      this.time = time;
+    }
+  }
+}
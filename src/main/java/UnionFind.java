@@ -0,0 +1,90 @@
+/**
+ * Disjoint sets of integer elements 0, 1, 2, ... Arrays grow when new elements are added, so count
+ * of elements doesn't have to be known in advance
+ */
+public class UnionFind {
+
+  private int[] parents;
+  private int[] sizes;
+  private int count;
+
+  public UnionFind() {
+    this(16);
+  }
+
+  public UnionFind(int initialCapacity) {
+    parents = new int[Math.max(1, initialCapacity)];
+    sizes = new int[parents.length];
+    count = 0;
+  }
+
+  /**
+   * adds new element which forms separate set
+   *
+   * @return added element
+   */
+  public int add() {
+    if (count == parents.length) {
+      int[] newParents = new int[parents.length * 2];
+      int[] newSizes = new int[sizes.length * 2];
+      System.arraycopy(parents, 0, newParents, 0, count);
+      System.arraycopy(sizes, 0, newSizes, 0, count);
+      parents = newParents;
+      sizes = newSizes;
+    }
+    parents[count] = count;
+    sizes[count] = 1;
+    return count++;
+  }
+
+  /**
+   * @return representative element of set which contains element
+   */
+  public int find(int element) {
+    checkElement(element);
+    while (parents[element] != element) {
+      // path halving
+      parents[element] = parents[parents[element]];
+      element = parents[element];
+    }
+    return element;
+  }
+
+  /**
+   * merges sets which contain element1 and element2
+   *
+   * @return representative element of merged set
+   */
+  public int union(int element1, int element2) {
+    int root1 = find(element1);
+    int root2 = find(element2);
+    if (root1 == root2) {
+      return root1;
+    }
+    if (sizes[root1] < sizes[root2]) {
+      int swp = root1;
+      root1 = root2;
+      root2 = swp;
+    }
+    parents[root2] = root1;
+    sizes[root1] += sizes[root2];
+    return root1;
+  }
+
+  /**
+   * @return count of elements in set which contains element
+   */
+  public int getSetSize(int element) {
+    return sizes[find(element)];
+  }
+
+  public int size() {
+    return count;
+  }
+
+  private void checkElement(int element) {
+    if (element < 0 || element >= count) {
+      throw new IllegalArgumentException("There is no element " + element);
+    }
+  }
+}
@@ -0,0 +1,306 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Clusters only links which were made within time window. Links enter the window when they are
+ * added and leave it when window slides past their time.
+ * <p>
+ * Clusters from different connected components of the graph are never merged, so clusters of
+ * component stay the same while its links don't change. Only components which got or lost links
+ * since the previous window are clustered again, clusters of other components are reused.
+ * <p>
+ * Reuse pays off only when links of window are spread over many components. Query logs usually
+ * have a giant component which holds most of links, and some of its links enter or leave almost
+ * every window, so the giant component is clustered again for almost every window and a window
+ * costs nearly as much as clustering it from scratch.
+ * <p>
+ * Log is read in order of time (see TimeOrderedLinks), only links within window are kept in memory
+ */
+public class WindowedClustering {
+
+  private static final Logger WINDOW_LOGGER =
+      Logger.getLogger(WindowedClustering.class.getName());
+
+  private final ClusteringEngine engine;
+  private final long windowMillis;
+  private final TimeOrderedLinks log;
+
+  // links within window, link made several times is counted several times
+  private final Map<String, Map<String, Long>> documentsOfQuery = new HashMap<>();
+  private final Map<String, Map<String, Long>> queriesOfDocument = new HashMap<>();
+  private final PriorityQueue<TimedLink> links =
+      new PriorityQueue<>(Comparator.comparingLong(link -> link.time));
+
+  // nodes which got or lost links since clusters were computed
+  private final Set<String> dirtyQueries = new HashSet<>();
+  private final Set<String> dirtyDocuments = new HashSet<>();
+
+  private final Set<Set<Query>> clusters = new HashSet<>();
+  private final Map<String, Set<Query>> clusterOfQuery = new HashMap<>();
+  private int reclusteredQueriesCount = 0;
+  // end of the current window while log is read
+  private long windowEnd;
+
+  /**
+   * Logs are sorted by time in runs of TimeOrderedLinks.DEFAULT_RUN_LINKS links in temporary
+   * directory
+   *
+   * @param engine clusters components of the graph
+   * @param windowMillis length of window
+   */
+  public WindowedClustering(ClusteringEngine engine, long windowMillis) {
+    this(engine, windowMillis, new TimeOrderedLinks(new QueryLogReader(),
+        new File(System.getProperty("java.io.tmpdir")), TimeOrderedLinks.DEFAULT_RUN_LINKS));
+  }
+
+  /**
+   * @param engine clusters components of the graph
+   * @param windowMillis length of window
+   * @param log reads logs in order of time
+   */
+  public WindowedClustering(ClusteringEngine engine, long windowMillis, TimeOrderedLinks log) {
+    if (engine == null || log == null) {
+      throw new IllegalArgumentException("Engine and log should not be null");
+    }
+    if (windowMillis <= 0) {
+      throw new IllegalArgumentException("Length of window should be positive");
+    }
+    this.engine = engine;
+    this.windowMillis = windowMillis;
+    this.log = log;
+  }
+
+  /**
+   * Accepts clusters of one window
+   */
+  public interface WindowConsumer {
+
+    /**
+     * @param windowStart the earliest time of links in window (inclusive)
+     * @param windowEnd the latest time of links in window (exclusive)
+     */
+    void accept(long windowStart, long windowEnd, Set<Set<Query>> clusters);
+  }
+
+  /**
+   * Reads first nLines of log and passes clusters of every window to windowConsumer. Windows end
+   * at multiples of slideMillis, windows which contain no links are skipped. If slideMillis
+   * is equal to length of window, windows don't overlap (tumbling windows)
+   * <p>
+   * Lines of log don't have to be sorted by time. Links which were added to this object before
+   * stay in the window until it slides past them
+   */
+  public void clusterQueryLog(String fileName, long nLines, long slideMillis,
+      WindowConsumer windowConsumer) throws IOException {
+    if (slideMillis <= 0 || slideMillis > windowMillis) {
+      throw new IllegalArgumentException("Slide should belong to (0, length of window]");
+    }
+
+    windowEnd = Long.MIN_VALUE;
+    long[] linksCount = {0};
+    log.read(fileName, nLines, (query, documentName, time) -> {
+      if (windowEnd == Long.MIN_VALUE) {
+        windowEnd = nextWindowEnd(time, slideMillis);
+      }
+      while (time >= windowEnd) {
+        closeWindow(windowConsumer);
+        // skips windows without links
+        windowEnd = links.isEmpty() ? nextWindowEnd(time, slideMillis) : windowEnd + slideMillis;
+      }
+      addLink(query, documentName, time);
+      ++linksCount[0];
+    });
+    WINDOW_LOGGER.log(Level.FINE, "Count of links: {0}", linksCount[0]);
+    while (!links.isEmpty()) {
+      closeWindow(windowConsumer);
+      windowEnd += slideMillis;
+    }
+  }
+
+  /**
+   * @return end of the earliest window which contains time
+   */
+  private static long nextWindowEnd(long time, long slideMillis) {
+    return Math.floorDiv(time, slideMillis) * slideMillis + slideMillis;
+  }
+
+  /**
+   * all links before windowEnd are added, passes clusters of window if it is not empty
+   */
+  private void closeWindow(WindowConsumer windowConsumer) {
+    slideTo(windowEnd);
+    if (!links.isEmpty()) {
+      Set<Set<Query>> windowClusters = getClusters();
+      WINDOW_LOGGER.log(Level.FINE, "Window ending at {0}: {1} of {2} queries clustered again",
+          new Object[]{windowEnd, reclusteredQueriesCount, clusterOfQuery.size()});
+      windowConsumer.accept(windowEnd - windowMillis, windowEnd, windowClusters);
+    }
+  }
+
+  /**
+   * @param time time when link was made, in milliseconds
+   */
+  public void addLink(String query, String documentName, long time) {
+    if (query == null || documentName == null) {
+      throw new IllegalArgumentException("Query and document should not be null");
+    }
+    links.add(new TimedLink(query, documentName, time));
+    changeLinksCount(query, documentName, 1);
+  }
+
+  /**
+   * Moves window so that it ends at windowEnd: links made before windowEnd - length of window
+   * leave it
+   */
+  public void slideTo(long windowEnd) {
+    long windowStart = windowEnd - windowMillis;
+    while (!links.isEmpty() && links.peek().time < windowStart) {
+      TimedLink link = links.poll();
+      changeLinksCount(link.query, link.documentName, -1);
+    }
+  }
+
+  /**
+   * Clusters components which changed since the previous call
+   *
+   * @return clusters of links within window
+   */
+  public Set<Set<Query>> getClusters() {
+    reclusteredQueriesCount = 0;
+    Set<String> visitedQueries = new HashSet<>();
+    Set<String> visitedDocuments = new HashSet<>();
+    for (String document : dirtyDocuments) {
+      if (queriesOfDocument.containsKey(document) && !visitedDocuments.contains(document)) {
+        reclusterComponent(null, document, visitedQueries, visitedDocuments);
+      }
+    }
+    for (String query : dirtyQueries) {
+      if (visitedQueries.contains(query)) {
+        continue;
+      }
+      if (documentsOfQuery.containsKey(query)) {
+        reclusterComponent(query, null, visitedQueries, visitedDocuments);
+      } else {
+        // all links of query left the window
+        forgetCluster(query);
+      }
+    }
+    dirtyQueries.clear();
+    dirtyDocuments.clear();
+    return new HashSet<>(clusters);
+  }
+
+  /**
+   * @return count of queries which were clustered again during the last call of getClusters
+   */
+  public int getReclusteredQueriesCount() {
+    return reclusteredQueriesCount;
+  }
+
+  private void changeLinksCount(String query, String documentName, long delta) {
+    changeLinksCount(documentsOfQuery, query, documentName, delta);
+    changeLinksCount(queriesOfDocument, documentName, query, delta);
+    dirtyQueries.add(query);
+    dirtyDocuments.add(documentName);
+  }
+
+  private static void changeLinksCount(Map<String, Map<String, Long>> adjacency, String from,
+      String to, long delta) {
+    Map<String, Long> neighbours = adjacency.computeIfAbsent(from, node -> new HashMap<>());
+    long linksCount = neighbours.getOrDefault(to, 0L) + delta;
+    if (linksCount > 0) {
+      neighbours.put(to, linksCount);
+      return;
+    }
+    neighbours.remove(to);
+    if (neighbours.isEmpty()) {
+      adjacency.remove(from);
+    }
+  }
+
+  /**
+   * finds component which contains startQuery or startDocument (one of them is null), replaces
+   * clusters of its queries by new ones
+   */
+  private void reclusterComponent(String startQuery, String startDocument,
+      Set<String> visitedQueries, Set<String> visitedDocuments) {
+    List<String> componentQueries = new ArrayList<>();
+    Deque<String> queriesToVisit = new ArrayDeque<>();
+    Deque<String> documentsToVisit = new ArrayDeque<>();
+    if (startQuery != null) {
+      visitedQueries.add(startQuery);
+      queriesToVisit.add(startQuery);
+    } else {
+      visitedDocuments.add(startDocument);
+      documentsToVisit.add(startDocument);
+    }
+    while (!queriesToVisit.isEmpty() || !documentsToVisit.isEmpty()) {
+      if (!queriesToVisit.isEmpty()) {
+        String query = queriesToVisit.poll();
+        componentQueries.add(query);
+        for (String document : documentsOfQuery.get(query).keySet()) {
+          if (visitedDocuments.add(document)) {
+            documentsToVisit.add(document);
+          }
+        }
+      } else {
+        for (String query : queriesOfDocument.get(documentsToVisit.poll()).keySet()) {
+          if (visitedQueries.add(query)) {
+            queriesToVisit.add(query);
+          }
+        }
+      }
+    }
+
+    Map<String, Document> documents = new HashMap<>();
+    Set<Query> queries = new HashSet<>();
+    for (String name : componentQueries) {
+      forgetCluster(name);
+      Query query = new Query(name);
+      for (Map.Entry<String, Long> link : documentsOfQuery.get(name).entrySet()) {
+        query.addRelatedDocument(documents.computeIfAbsent(link.getKey(), Document::new),
+            link.getValue());
+      }
+      queries.add(query);
+    }
+    for (Set<Query> cluster : engine.clusterQueries(queries)) {
+      clusters.add(cluster);
+      for (Query query : cluster) {
+        clusterOfQuery.put(query.toString(), cluster);
+      }
+    }
+    reclusteredQueriesCount += componentQueries.size();
+  }
+
+  private void forgetCluster(String query) {
+    Set<Query> cluster = clusterOfQuery.remove(query);
+    if (cluster != null) {
+      clusters.remove(cluster);
+    }
+  }
+
+  private static class TimedLink {
+
+    private final String query;
+    private final String documentName;
+    private final long time;
+
+    TimedLink(String query, String documentName, long time) {
+      this.query = query;
+      this.documentName = documentName;
+      this.time = time;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts ClusteringWorker which should connect to coordinator
+ */
+public interface WorkerLauncher {
+
+  // process which doesn't exit this long after it was asked to is killed
+  long STOP_GRACE_MILLIS = 1000;
+
+  /**
+   * @param host address of this machine where coordinator waits for workers
+   * @param port port where coordinator waits for workers
+   * @param workerId id which worker should send to coordinator after it connects
+   * @return handle which stops the worker when it is closed
+   */
+  Closeable launch(String host, int port, int workerId) throws IOException;
+
+  /**
+   * @return launcher which starts every worker in separate JVM on this machine with the same
+   * classpath. Closed handle destroys the process and kills it if it is still alive after
+   * STOP_GRACE_MILLIS, e.g. when it hangs in garbage collection
+   */
+  static WorkerLauncher localProcesses() {
+    return (host, port, workerId) -> {
+      String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+          + "java";
+      Process process = new ProcessBuilder(java,
+          "-cp", System.getProperty("java.class.path"),
+          ClusteringWorker.class.getName(), host, String.valueOf(port), String.valueOf(workerId))
+          .inheritIO()
+          .start();
+      return () -> {
+        process.destroy();
+        try {
+          if (!process.waitFor(STOP_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+            process.destroyForcibly();
+          }
+        } catch (InterruptedException e) {
+          process.destroyForcibly();
+          Thread.currentThread().interrupt();
+        }
+      };
+    };
+  }
+}
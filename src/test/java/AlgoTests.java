@@ -4,8 +4,11 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -54,6 +57,14 @@ public class AlgoTests {
     Assert.assertEquals(1, qClusters.size());
   }
 
+  @Test
+  public void testNoisyLinks() throws IOException {
+    Set<Query> queries = input.readQueryLog(testLogsDirectory + "noisyLinksTest");
+    Algo algo = new Algo();
+    Set<Set<Query>> qClusters = algo.clusterQueries(queries);
+    Assert.assertEquals(1, qClusters.size());
+  }
+
   @Test
   public void testEmptySet() {
     Set<Query> queries = new HashSet<>();
@@ -61,4 +72,106 @@ public class AlgoTests {
     Set<Set<Query>> qCluster = algo.clusterQueries(queries);
     Assert.assertEquals(0, qCluster.size());
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testCancelledBeforeStart() throws IOException {
+    Set<Query> queries = new QueryLogReader()
+        .readQueryLog(testLogsDirectory + "aolFormatTest", Integer.MAX_VALUE);
+    Algo algo = new Algo(0.5);
+    CancellationToken token = new CancellationToken();
+    token.cancel();
+    Set<Set<Query>> qClusters = algo.clusterQueries(queries, token);
+    Assert.assertFalse(algo.isLastRunComplete());
+    Assert.assertEquals(queries.size(), qClusters.size());
+  }
+
+  @Test
+  public void testCancelledClusteringReturnsPartition() throws IOException {
+    Set<Query> queries = new QueryLogReader()
+        .readQueryLog(testLogsDirectory + "aolFormatTest", Integer.MAX_VALUE);
+    Algo complete = new Algo(0.5);
+    int completeCount = complete.clusterQueries(queries).size();
+    Assert.assertTrue(complete.isLastRunComplete());
+
+    // token is checked twice before clustering and once per iteration
+    Algo algo = new Algo(0.5);
+    CancellationToken token = new CancellationToken() {
+      private int checksCount = 0;
+
+      @Override
+      public boolean isCancelled() {
+        return ++checksCount > 2 + 5;
+      }
+    };
+    List<Long> merges = new ArrayList<>();
+    algo.setProgressListener((mergesCount, lastMergeDistance, candidatePairsCount) -> {
+      merges.add(mergesCount);
+      Assert.assertTrue(lastMergeDistance < 0.5);
+      Assert.assertTrue(candidatePairsCount > 0);
+    });
+    Set<Set<Query>> qClusters = algo.clusterQueries(queries, token);
+
+    Assert.assertFalse(algo.isLastRunComplete());
+    Set<Query> clustered = new HashSet<>();
+    int clusteredCount = 0;
+    for (Set<Query> cluster : qClusters) {
+      clustered.addAll(cluster);
+      clusteredCount += cluster.size();
+    }
+    Assert.assertEquals(queries, clustered);
+    Assert.assertEquals(queries.size(), clusteredCount);
+    Assert.assertTrue(qClusters.size() < queries.size());
+    Assert.assertTrue(qClusters.size() > completeCount);
+    // at most two merges per iteration
+    Assert.assertEquals(1, merges.size());
+    Assert.assertTrue(merges.get(0) > 0 && merges.get(0) <= 10);
+  }
+
+  @Test
+  public void testCancelledWhileDistancesAreComputed() {
+    // every two queries are siblings, so there are thousands of distances
+    Document document = new Document("d");
+    Set<Query> queries = new HashSet<>();
+    for (int i = 0; i < 200; ++i) {
+      Query query = new Query("q" + i);
+      query.addRelatedDocument(document);
+      queries.add(query);
+    }
+    // token is checked twice before distances, the next check is inside of their computation
+    int[] checksCount = new int[1];
+    CancellationToken token = new CancellationToken() {
+      @Override
+      public boolean isCancelled() {
+        return ++checksCount[0] > 2;
+      }
+    };
+    Algo algo = new Algo(1);
+    Set<Set<Query>> qClusters = algo.clusterQueries(queries, token);
+    Assert.assertFalse(algo.isLastRunComplete());
+    Assert.assertEquals(3, checksCount[0]);
+    Assert.assertEquals(queries.size(), qClusters.size());
+  }
+
+  @Test
+  public void testProgressIsReportedAfterClustering() throws IOException {
+    Set<Query> queries = new QueryLogReader()
+        .readQueryLog(testLogsDirectory + "aolFormatTest", Integer.MAX_VALUE);
+    Algo algo = new Algo(0.5);
+    List<Long> merges = new ArrayList<>();
+    algo.setProgressListener((mergesCount, lastMergeDistance, candidatePairsCount) ->
+        merges.add(mergesCount));
+    algo.setTimeBudgetMillis(TimeUnit.MINUTES.toMillis(1));
+    Set<Set<Query>> qClusters = algo.clusterQueries(queries);
+    Assert.assertTrue(algo.isLastRunComplete());
+    Assert.assertEquals(1, merges.size());
+    Assert.assertTrue(merges.get(0) >= queries.size() - qClusters.size());
+  }
+
+  @Test
+  public void testExpiredTimeout() throws IOException, InterruptedException {
+    CancellationToken token = CancellationToken.withTimeout(1, TimeUnit.MILLISECONDS);
+    Thread.sleep(5);
+    Assert.assertTrue(token.isCancelled());
+    Assert.assertFalse(CancellationToken.withTimeout(1, TimeUnit.MINUTES).isCancelled());
+  }
+}
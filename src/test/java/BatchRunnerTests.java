@@ -0,0 +1,196 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchRunnerTests {
+
+  private final String testLogsDirectory = ".$src$test$testLogs$".replaceAll("\\$", File.separator);
+
+  private File workDirectory;
+  private List<Path> logFiles;
+
+  @Before
+  public void createLogs() throws IOException {
+    List<String> lines = Files.readAllLines(Paths.get(testLogsDirectory + "aolFormatTest"));
+    workDirectory = Files.createTempDirectory("batch").toFile();
+    logFiles = new ArrayList<>();
+    for (int linesCount : new int[]{400, 50, 0, 250, 1, 120}) {
+      Path logFile = new File(workDirectory, "log" + logFiles.size()).toPath();
+      Files.write(logFile, lines.subList(0, linesCount));
+      logFiles.add(logFile);
+    }
+  }
+
+  @After
+  public void deleteLogs() {
+    deleteRecursively(workDirectory);
+  }
+
+  @Test
+  public void testSameOutputAsSerialRun() throws IOException {
+    File serialResults = new File(workDirectory, "serial");
+    File batchResults = new File(workDirectory, "batch");
+    serialResults.mkdir();
+    batchResults.mkdir();
+
+    for (Path logFile : logFiles) {
+      Set<Query> queries = new QueryLogReader().readQueryLog(logFile.toString(), 300);
+      try (ClusterWriter result = openResult(serialResults, logFile)) {
+        new Algo(0.5).clusterQueries(queries).forEach(result::writeCluster);
+      }
+    }
+    List<BatchRunner.LogReport> reports = new BatchRunner(() -> new Algo(0.5), 3, Long.MAX_VALUE)
+        .run(logFiles, 300, logFile -> openResult(batchResults, logFile));
+
+    Assert.assertEquals(logFiles.size(), reports.size());
+    for (int i = 0; i < logFiles.size(); ++i) {
+      Path logFile = logFiles.get(i);
+      Assert.assertEquals(logFile, reports.get(i).getLogFile());
+      Assert.assertEquals(sortedLines(new File(serialResults, logFile.getFileName().toString())),
+          sortedLines(new File(batchResults, logFile.getFileName().toString())));
+    }
+    String report = BatchRunner.formatReport(reports);
+    Assert.assertTrue(report.contains("log3"));
+    Assert.assertTrue(report.contains("Peak heap usage"));
+  }
+
+  @Test
+  public void testLogReaderIsUsed() throws IOException {
+    File serialResults = new File(workDirectory, "serial");
+    File batchResults = new File(workDirectory, "batch");
+    serialResults.mkdir();
+    batchResults.mkdir();
+    BatchRunner.LogReader frequentLinks = (logFile, nLines) ->
+        new QueryLogReader().readFrequentLinks(logFile.toString(), nLines, 2, 1 << 16);
+
+    for (Path logFile : logFiles) {
+      try (ClusterWriter result = openResult(serialResults, logFile)) {
+        new Algo(0.5).clusterQueries(frequentLinks.read(logFile, 300))
+            .forEach(result::writeCluster);
+      }
+    }
+    new BatchRunner(() -> new Algo(0.5), frequentLinks, 2, Long.MAX_VALUE)
+        .run(logFiles, 300, logFile -> openResult(batchResults, logFile));
+
+    for (Path logFile : logFiles) {
+      Assert.assertEquals(sortedLines(new File(serialResults, logFile.getFileName().toString())),
+          sortedLines(new File(batchResults, logFile.getFileName().toString())));
+    }
+  }
+
+  @Test
+  public void testMemoryBudgetLimitsConcurrency() throws IOException {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    File results = new File(workDirectory, "results");
+    results.mkdir();
+
+    // every log needs the whole budget, so logs are clustered one by one
+    new BatchRunner(() -> queries -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(20);
+        return new Algo(0.5).clusterQueries(queries);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      } finally {
+        running.decrementAndGet();
+      }
+    }, 4, 1).run(logFiles, Integer.MAX_VALUE, logFile -> openResult(results, logFile));
+
+    Assert.assertEquals(1, maxRunning.get());
+  }
+
+  @Test
+  public void testSmallerLogStartsWhileLargerDoesNotFit() throws IOException {
+    File results = new File(workDirectory, "results");
+    results.mkdir();
+    int largestQueriesCount = new QueryLogReader()
+        .readQueryLog(logFiles.get(0).toString(), Integer.MAX_VALUE).size();
+    AtomicBoolean largestRunning = new AtomicBoolean();
+    AtomicBoolean overlapped = new AtomicBoolean();
+
+    // the largest log and log5 fit together, log3 doesn't fit while the largest one runs
+    long budget = BatchRunner.estimateMemory(logFiles.get(0), Integer.MAX_VALUE)
+        + BatchRunner.estimateMemory(logFiles.get(5), Integer.MAX_VALUE);
+    new BatchRunner(() -> queries -> {
+      if (queries.size() == largestQueriesCount) {
+        largestRunning.set(true);
+        try {
+          Thread.sleep(300);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        } finally {
+          largestRunning.set(false);
+        }
+      } else if (largestRunning.get()) {
+        overlapped.set(true);
+      }
+      return new Algo(0.5).clusterQueries(queries);
+    }, 2, budget).run(logFiles, Integer.MAX_VALUE, logFile -> openResult(results, logFile));
+
+    Assert.assertTrue(overlapped.get());
+  }
+
+  @Test
+  public void testEstimateMemory() throws IOException {
+    long wholeLog = BatchRunner.estimateMemory(logFiles.get(0), Integer.MAX_VALUE);
+    MemoryEstimator.Estimate estimate = MemoryEstimator.estimate(new QueryLogReader()
+        .readQueryLog(logFiles.get(0).toString(), Integer.MAX_VALUE));
+    // the whole log is the sample
+    for (DistanceMatrixType type : DistanceMatrixType.values()) {
+      Assert.assertTrue(estimate.getHeapBytes(type) <= wholeLog);
+    }
+    Assert.assertTrue(wholeLog > 0);
+    long halfOfLog = BatchRunner.estimateMemory(logFiles.get(0), 200);
+    Assert.assertTrue(halfOfLog < wholeLog * 3 / 4 && halfOfLog > wholeLog / 4);
+    Assert.assertEquals(0, BatchRunner.estimateMemory(logFiles.get(2), Integer.MAX_VALUE));
+  }
+
+  private static ClusterWriter openResult(File directory, Path logFile) throws IOException {
+    ClusterWriter result = new ClusterWriter(
+        new File(directory, logFile.getFileName().toString()), 2, null);
+    result.writeLine("Threshold 0.5");
+    return result;
+  }
+
+  /**
+   * order of clusters and order of queries within cluster depend on order of insertion into sets
+   */
+  private static List<String> sortedLines(File file) throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (String line : Files.readAllLines(file.toPath())) {
+      if (line.startsWith("[") && line.endsWith("]")) {
+        List<String> queries = Arrays.asList(line.substring(1, line.length() - 1).split(", "));
+        Collections.sort(queries);
+        line = queries.toString();
+      }
+      lines.add(line);
+    }
+    Collections.sort(lines);
+    return lines;
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+}
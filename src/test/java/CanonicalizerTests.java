@@ -0,0 +1,71 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CanonicalizerTests {
+
+  private final Canonicalizer canonicalizer =
+      new Canonicalizer(EnumSet.allOf(Canonicalizer.Rule.class), 16);
+
+  @Test
+  public void testUrlSpellings() {
+    for (String url : Arrays.asList("http://www.x.com", "http://x.com/", "x.com",
+        "https://www.x.com//", "www.x.com?utm_source=a", "http://x.com/#top")) {
+      Assert.assertEquals(url, "x.com", canonicalizer.canonicalizeUrl(url));
+    }
+    Assert.assertEquals("x.com/cars", canonicalizer.canonicalizeUrl("http://x.com/cars/?id=1"));
+    Assert.assertEquals("wwwx.com", canonicalizer.canonicalizeUrl("http://wwwx.com"));
+    Assert.assertEquals("x.com/a://b", canonicalizer.canonicalizeUrl("x.com/a://b"));
+    Assert.assertEquals("/", canonicalizer.canonicalizeUrl("/"));
+  }
+
+  @Test
+  public void testQuerySpellings() {
+    for (String query : Arrays.asList("new york", "new-york", "new  york!", "new\tyork",
+        "\"new york\"", "new, york.")) {
+      Assert.assertEquals(query, "new york", canonicalizer.canonicalizeQuery(query));
+    }
+    Assert.assertEquals("\u043c\u043e\u0441\u043a\u0432\u0430 2006", canonicalizer.canonicalizeQuery("\u043c\u043e\u0441\u043a\u0432\u0430: 2006"));
+    Assert.assertEquals("?!", canonicalizer.canonicalizeQuery("?!"));
+  }
+
+  @Test
+  public void testRulesCanBeTurnedOff() {
+    Canonicalizer schemeOnly = new Canonicalizer(EnumSet.of(Canonicalizer.Rule.SCHEME,
+        Canonicalizer.Rule.WHITESPACE), 16);
+    Assert.assertEquals("www.x.com/?a", schemeOnly.canonicalizeUrl("http://www.x.com/?a"));
+    Assert.assertEquals("new-york city", schemeOnly.canonicalizeQuery("new-york   city"));
+
+    Canonicalizer none = new Canonicalizer(EnumSet.noneOf(Canonicalizer.Rule.class), 16);
+    Assert.assertEquals("http://x.com/", none.canonicalizeUrl("http://x.com/"));
+    Assert.assertEquals("new-york", none.canonicalizeQuery("new-york"));
+  }
+
+  @Test
+  public void testReaderMergesNodes() throws IOException {
+    Path log = Files.createTempFile("log", "");
+    try {
+      Files.write(log, Arrays.asList(
+          "1\tNew York\t2006-03-01 10:00:00\t1\thttp://www.nyc.com",
+          "1\tnew-york\t2006-03-01 10:00:01\t1\thttp://nyc.com/",
+          "2\tnew york!\t2006-03-01 10:00:02\t1\tnyc.com",
+          "2\tboston\t2006-03-01 10:00:03\t1\thttp://boston.com"));
+      QueryLogReader reader = new QueryLogReader();
+      Assert.assertArrayEquals(new long[]{4, 4, 4},
+          Canonicalizer.countNodesAndLinks(reader.readQueryLog(log.toString(), 100)));
+
+      reader.setCanonicalizer(canonicalizer);
+      Assert.assertArrayEquals(new long[]{2, 2, 2},
+          Canonicalizer.countNodesAndLinks(reader.readQueryLog(log.toString(), 100)));
+      Query newYork = reader.readQueryLog(log.toString(), 100).stream()
+          .filter(query -> query.toString().equals("new york")).findAny().get();
+      Assert.assertEquals(3, newYork.getLinksCount(new Document("nyc.com")));
+    } finally {
+      Files.delete(log);
+    }
+  }
+}
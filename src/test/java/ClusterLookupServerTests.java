@@ -0,0 +1,189 @@
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ClusterLookupServerTests {
+
+  private final String testLogsDirectory = ".$src$test$testLogs$".replaceAll("\\$", File.separator);
+
+  private Set<Set<Query>> clusters;
+  private ClusterLookupServer server;
+
+  @BeforeClass
+  public static void turnOffNagle() {
+    // tests embed the server, so they set what ClusterLookupServer.main sets
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  @Before
+  public void startServer() throws IOException {
+    Set<Query> queries = new QueryLogReader()
+        .readQueryLog(testLogsDirectory + "aolFormatTest", Integer.MAX_VALUE);
+    clusters = new Algo(0.5).clusterQueries(queries);
+    server = new ClusterLookupServer(TextClusterIndex.fromClusters(clusters), 0, 16, 4);
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop();
+  }
+
+  @Test
+  public void testLoadWrittenResult() throws IOException {
+    File resultFile = File.createTempFile("clusters", ".txt");
+    try {
+      try (BufferedWriter output = new BufferedWriter(new FileWriter(resultFile))) {
+        output.write("Threshold 0.5");
+        output.newLine();
+        for (Set<Query> cluster : clusters) {
+          output.write(cluster.toString());
+          output.newLine();
+          output.write("----------------------------\n");
+        }
+      }
+      TextClusterIndex index = TextClusterIndex.load(resultFile.getPath());
+
+      Assert.assertEquals(clusters.size(), index.getClustersCount());
+      for (Set<Query> cluster : clusters) {
+        Query query = cluster.iterator().next();
+        int clusterId = index.findCluster(query.toString());
+        Assert.assertNotEquals(ClusterIndex.NOT_FOUND, clusterId);
+        Assert.assertEquals(toStrings(cluster), new HashSet<>(index.getClusterMembers(clusterId)));
+      }
+      Assert.assertEquals(ClusterIndex.NOT_FOUND, index.findCluster("no such query"));
+    } finally {
+      resultFile.delete();
+    }
+  }
+
+  @Test
+  public void testLookup() throws IOException {
+    for (Set<Query> cluster : clusters) {
+      for (Query query : cluster) {
+        String answer = request("/lookup?q="
+            + URLEncoder.encode(" " + query.toString().toUpperCase(), "UTF-8"), null, 200);
+        Assert.assertEquals(toStrings(cluster), new HashSet<>(parseLine(answer)));
+      }
+    }
+    request("/lookup?q=no+such+query", null, 404);
+    request("/lookup", null, 400);
+  }
+
+  @Test
+  public void testCanonicalizedLookup() throws IOException {
+    Canonicalizer canonicalizer = new Canonicalizer(EnumSet.allOf(Canonicalizer.Rule.class), 16);
+    QueryLogReader reader = new QueryLogReader();
+    reader.setCanonicalizer(canonicalizer);
+    Set<Set<Query>> canonicalClusters = new Algo(0.5).clusterQueries(
+        reader.readQueryLog(testLogsDirectory + "aolFormatTest", Integer.MAX_VALUE));
+    ClusterLookupServer canonicalServer = new ClusterLookupServer(
+        TextClusterIndex.fromClusters(canonicalClusters), 0, 16, 1);
+    String spelling = "  Query 8,   3!";
+    Assert.assertEquals("", canonicalServer.lookup(spelling));
+
+    canonicalServer.setCanonicalizer(canonicalizer);
+    Assert.assertTrue(parseLine(canonicalServer.lookup(spelling)).contains("query 8 3"));
+    canonicalServer.stop();
+  }
+
+  @Test
+  public void testBatch() throws IOException {
+    List<Set<Query>> clustersList = new ArrayList<>(clusters);
+    String body = clustersList.get(0).iterator().next() + "\nno such query\n"
+        + clustersList.get(1).iterator().next() + "\n";
+    String[] lines = request("/batch", body, 200).split("\n", -1);
+
+    Assert.assertEquals(4, lines.length);
+    Assert.assertEquals(toStrings(clustersList.get(0)), new HashSet<>(parseLine(lines[0])));
+    Assert.assertEquals("", lines[1]);
+    Assert.assertEquals(toStrings(clustersList.get(1)), new HashSet<>(parseLine(lines[2])));
+    request("/batch", null, 405);
+  }
+
+  @Test
+  public void testConcurrentLookupsAndMetrics() throws Exception {
+    List<Query> queries = new ArrayList<>();
+    clusters.forEach(queries::addAll);
+    ExecutorService clients = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int client = 0; client < 8; ++client) {
+        results.add(clients.submit(() -> {
+          for (Query query : queries) {
+            request("/lookup?q=" + URLEncoder.encode(query.toString(), "UTF-8"), null, 200);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } finally {
+      clients.shutdown();
+    }
+
+    Assert.assertEquals(8L * queries.size(), server.getLookupLatencies().getCount());
+    String metrics = request("/metrics", null, 200);
+    Assert.assertTrue(metrics.contains("lookup.count " + 8L * queries.size()));
+    Assert.assertTrue(metrics.contains("lookup.p99.us "));
+    Assert.assertTrue(metrics.contains("cache.size 16"));
+  }
+
+  private String request(String path, String body, int expectedStatus) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(
+        "http://localhost:" + server.getPort() + path).openConnection();
+    if (body != null) {
+      connection.setRequestMethod("POST");
+      connection.setDoOutput(true);
+      try (OutputStream output = connection.getOutputStream()) {
+        output.write(body.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    Assert.assertEquals(expectedStatus, connection.getResponseCode());
+    try (InputStream input = expectedStatus < 400
+        ? connection.getInputStream() : connection.getErrorStream()) {
+      ByteArrayOutputStream answer = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while (input != null && (read = input.read(buffer)) > 0) {
+        answer.write(buffer, 0, read);
+      }
+      return new String(answer.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static List<String> parseLine(String line) {
+    return Arrays.asList(line.trim().split("\t"));
+  }
+
+  private static Set<String> toStrings(Set<Query> cluster) {
+    Set<String> queries = new HashSet<>();
+    for (Query q : cluster) {
+      queries.add(q.toString());
+    }
+    return queries;
+  }
+}
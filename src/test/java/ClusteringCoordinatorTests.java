@@ -0,0 +1,171 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ClusteringCoordinatorTests {
+
+  private final String testLogsDirectory = ".$src$test$testLogs$".replaceAll("\\$", File.separator);
+
+  @Test
+  public void testPartition() throws IOException {
+    Set<Query> queries = new QueryLogReader()
+        .readQueryLog(testLogsDirectory + "aolFormatTest", Integer.MAX_VALUE);
+    List<Set<Query>> partitions = GraphPartitioner.partition(queries, 4);
+
+    Assert.assertEquals(4, partitions.size());
+    Set<Query> allQueries = new HashSet<>();
+    for (Set<Query> partition : partitions) {
+      Assert.assertFalse(partition.isEmpty());
+      allQueries.addAll(partition);
+    }
+    Assert.assertEquals(queries, allQueries);
+  }
+
+  @Test
+  public void testPackComponents() {
+    long[] linksOfComponent = {3, 10, 1, 4, 2};
+    int[] partOfComponent = GraphPartitioner.packComponents(linksOfComponent, 5);
+
+    // 10 doesn't fit and forms its own part, then 4, 3 + 2 and 1
+    Assert.assertArrayEquals(new int[]{2, 0, 3, 1, 2}, partOfComponent);
+    Assert.assertArrayEquals(new int[]{0, 0, 0, 0, 0},
+        GraphPartitioner.packComponents(linksOfComponent, Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testSameClustersAsAlgo() throws IOException {
+    Set<Query> queries = new QueryLogReader()
+        .readQueryLog(testLogsDirectory + "aolFormatTest", Integer.MAX_VALUE);
+    ClusteringCoordinator coordinator = new ClusteringCoordinator(3, 0.5, threadWorkers(0));
+
+    Assert.assertEquals(new Algo(0.5).clusterQueries(queries), coordinator.clusterQueries(queries));
+    Assert.assertTrue(coordinator.clusterQueries(new HashSet<>()).isEmpty());
+  }
+
+  @Test
+  public void testRetryAfterWorkerDied() throws IOException {
+    Set<Query> queries = new QueryLogReader()
+        .readQueryLog(testLogsDirectory + "aolFormatTest", Integer.MAX_VALUE);
+    ClusteringCoordinator coordinator = new ClusteringCoordinator(2, 0.5, threadWorkers(2));
+
+    Assert.assertEquals(new Algo(0.5).clusterQueries(queries), coordinator.clusterQueries(queries));
+  }
+
+  @Test
+  public void testRequestCarriesConfig() throws IOException {
+    Set<Query> queries = new QueryLogReader()
+        .readQueryLog(testLogsDirectory + "aolFormatTest", Integer.MAX_VALUE);
+    EngineConfig config = new EngineConfig(EngineConfig.Kind.DELTA, 0.25,
+        DistanceMatrixType.OFF_HEAP, DistanceKernel.COSINE, 1000, 1 << 20);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ClusteringProtocol.writeRequest(new DataOutputStream(bytes), 7, config, queries);
+    ClusteringProtocol.Request request = ClusteringProtocol.readRequest(
+        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    Assert.assertEquals(7, request.partitionId);
+    Assert.assertEquals(config.getKind(), request.config.getKind());
+    Assert.assertEquals(config.getThreshold(), request.config.getThreshold(), 0);
+    Assert.assertEquals(config.getDistanceMatrixType(), request.config.getDistanceMatrixType());
+    Assert.assertEquals(config.getDistanceKernel(), request.config.getDistanceKernel());
+    Assert.assertEquals(config.getTimeBudgetMillis(), request.config.getTimeBudgetMillis());
+    Assert.assertEquals(config.getMemoryBudget(), request.config.getMemoryBudget());
+    Assert.assertEquals(queries.size(), request.queries.size());
+    Assert.assertTrue(request.config.create() instanceof DeltaAlgo);
+  }
+
+  @Test
+  public void testWorkerWhichDoesntConnectIsRelaunched() throws IOException {
+    Set<Query> queries = new QueryLogReader()
+        .readQueryLog(testLogsDirectory + "aolFormatTest", Integer.MAX_VALUE);
+    AtomicInteger launched = new AtomicInteger();
+    AtomicInteger stoppedLost = new AtomicInteger();
+    WorkerLauncher workers = threadWorkers(0);
+    ClusteringCoordinator coordinator = new ClusteringCoordinator(1, 0.5, (host, port, id) -> {
+      if (launched.getAndIncrement() == 0) {
+        // worker died before it connected
+        return stoppedLost::incrementAndGet;
+      }
+      return workers.launch(host, port, id);
+    });
+    coordinator.setConnectTimeoutMillis(500);
+
+    Assert.assertEquals(new Algo(0.5).clusterQueries(queries), coordinator.clusterQueries(queries));
+    Assert.assertEquals(1, stoppedLost.get());
+    Assert.assertEquals(2, launched.get());
+  }
+
+  @Test(expected = UncheckedIOException.class)
+  public void testWorkersNeverConnect() throws IOException {
+    Set<Query> queries = new QueryLogReader()
+        .readQueryLog(testLogsDirectory + "aolFormatTest", Integer.MAX_VALUE);
+    ClusteringCoordinator coordinator =
+        new ClusteringCoordinator(1, 0.5, (host, port, id) -> () -> {
+        });
+    coordinator.setConnectTimeoutMillis(200);
+    coordinator.setMaxAttempts(2);
+    coordinator.clusterQueries(queries);
+  }
+
+  @Test
+  public void testLocalProcesses() throws IOException {
+    Set<Query> queries = new QueryLogReader()
+        .readQueryLog(testLogsDirectory + "aolFormatTest", Integer.MAX_VALUE);
+    EngineConfig config = new EngineConfig(EngineConfig.Kind.FLAT, 0.5, DistanceMatrixType.TREE,
+        DistanceKernel.COMMON_LINKS, 0, 0);
+    ClusteringCoordinator coordinator =
+        new ClusteringCoordinator(2, config, WorkerLauncher.localProcesses());
+
+    Assert.assertEquals(new Algo(0.5).clusterQueries(queries), coordinator.clusterQueries(queries));
+  }
+
+  @Test(expected = UncheckedIOException.class)
+  public void testTooManyFailures() throws IOException {
+    Set<Query> queries = new QueryLogReader()
+        .readQueryLog(testLogsDirectory + "aolFormatTest", Integer.MAX_VALUE);
+    ClusteringCoordinator coordinator =
+        new ClusteringCoordinator(1, 0.5, threadWorkers(Integer.MAX_VALUE));
+    coordinator.setMaxAttempts(2);
+    coordinator.clusterQueries(queries);
+  }
+
+  /**
+   * @param failuresCount count of first launched workers which die after they receive partition
+   * @return launcher which runs workers in threads of this JVM
+   */
+  private WorkerLauncher threadWorkers(int failuresCount) {
+    AtomicInteger launched = new AtomicInteger();
+    return (host, port, workerId) -> {
+      boolean dies = launched.getAndIncrement() < failuresCount;
+      Thread worker = new Thread(() -> {
+        try {
+          if (dies) {
+            try (Socket socket = new Socket(host, port)) {
+              ClusteringProtocol.writeHello(new DataOutputStream(socket.getOutputStream()),
+                  workerId);
+              new DataInputStream(socket.getInputStream()).readInt();
+            }
+          } else {
+            ClusteringWorker.run(host, port, workerId);
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      worker.setDaemon(true);
+      worker.start();
+      return () -> {
+      };
+    };
+  }
+}
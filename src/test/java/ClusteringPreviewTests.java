@@ -0,0 +1,146 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ClusteringPreviewTests {
+
+  private final String testLogsDirectory = ".$src$test$testLogs$".replaceAll("\\$", File.separator);
+
+  /**
+   * many small components: queries of a topic share documents of the topic
+   */
+  private static Set<Query> makeQueries(int topicsCount) {
+    Random random = new Random(13);
+    Set<Query> queries = new HashSet<>();
+    for (int topic = 0; topic < topicsCount; ++topic) {
+      int queriesCount = 1 + random.nextInt(6);
+      for (int i = 0; i < queriesCount; ++i) {
+        Query query = new Query("t" + topic + "q" + i);
+        query.addRelatedDocument(new Document("t" + topic + "d" + random.nextInt(3)),
+            1 + random.nextInt(3));
+        queries.add(query);
+      }
+    }
+    return queries;
+  }
+
+  @Test
+  public void testFullSampleIsExact() throws IOException {
+    Set<Query> queries = new QueryLogReader()
+        .readQueryLog(testLogsDirectory + "aolFormatTest", Integer.MAX_VALUE);
+    Set<Set<Query>> clusters = new Algo().clusterQueries(queries);
+    ClusteringPreview.Report report = new ClusteringPreview(1, 0).run(queries, new Algo(), 2);
+
+    Assert.assertEquals(queries.size(), report.getSampledQueriesCount());
+    Assert.assertEquals(clusters.size(), report.getClustersCount().getValue(), 1e-9);
+    Assert.assertEquals(0, report.getClustersCount().getStandardError(), 1e-9);
+    Assert.assertEquals(queries.size() - clusters.size(),
+        report.getQueryMergesCount().getValue(), 1e-9);
+    Assert.assertEquals(clusters.stream().filter(c -> c.size() >= 2).count(),
+        report.getLargeClustersCount().getValue(), 1e-9);
+    double clustersInHistogram = 0;
+    for (double count : report.getClusterSizes()) {
+      clustersInHistogram += count;
+    }
+    Assert.assertEquals(clusters.size(), clustersInHistogram, 1e-9);
+  }
+
+  @Test
+  public void testSampleConsistsOfWholeComponents() {
+    Set<Query> queries = makeQueries(2000);
+    List<Set<Query>> smallSample = new ClusteringPreview(0.2, 5).sampleComponents(queries);
+    List<Set<Query>> largeSample = new ClusteringPreview(0.5, 5).sampleComponents(queries);
+    List<Set<Query>> components = GraphPartitioner.findConnectedComponents(queries);
+    Assert.assertTrue(components.containsAll(smallSample));
+    Assert.assertTrue(largeSample.containsAll(smallSample));
+    Assert.assertTrue(smallSample.size() > 0.15 * components.size());
+    Assert.assertTrue(smallSample.size() < 0.25 * components.size());
+  }
+
+  @Test
+  public void testEstimates() {
+    Set<Query> queries = makeQueries(5000);
+    int clustersCount = new Algo(0.5).clusterQueries(queries).size();
+    ClusteringPreview.Report report =
+        new ClusteringPreview(0.1, 1).run(queries, new Algo(0.5), 3);
+    ClusteringPreview.Estimate estimate = report.getClustersCount();
+    Assert.assertTrue(report.getSampledQueriesCount() < queries.size() / 5);
+    Assert.assertTrue(estimate.getStandardError() > 0);
+    Assert.assertEquals(clustersCount, estimate.getValue(), 4 * estimate.getStandardError());
+  }
+
+  @Test
+  public void testGiantComponentIsSeparateStratum() {
+    Set<Query> queries = makeQueries(2000);
+    // chain of queries where neighbours share a document
+    Set<Query> giantComponent = new HashSet<>();
+    for (int i = 0; i < 3000; ++i) {
+      Query query = new Query("giant" + i);
+      query.addRelatedDocument(new Document("giantDocument" + i / 2), 2);
+      query.addRelatedDocument(new Document("giantDocument" + (i + 1) / 2));
+      giantComponent.add(query);
+    }
+    queries.addAll(giantComponent);
+    int componentsCount = GraphPartitioner.findConnectedComponents(queries).size();
+
+    ClusteringPreview preview = new ClusteringPreview(0.2, 3);
+    preview.setGiantComponentSize(1000);
+    ClusteringPreview.Report report = preview.run(queries, new Algo(0.5), 3);
+    ClusteringPreview.GiantStratum giant = report.getGiant();
+    Assert.assertEquals(1, giant.getComponentsCount());
+    Assert.assertEquals(3000, giant.getQueriesCount());
+    Assert.assertTrue(giant.getSampledQueriesCount() > 0);
+    Assert.assertTrue(giant.getSampledQueriesCount() < 1500);
+    Assert.assertTrue(giant.getSampledClustersCount() > 0);
+    Assert.assertTrue(report.getSampledQueriesCount() < queries.size() / 5);
+    Assert.assertTrue(preview.sampleComponents(queries).stream()
+        .noneMatch(component -> component.contains(new Query("giant0"))));
+
+    ClusteringPreview fullPreview = new ClusteringPreview(1, 3);
+    fullPreview.setGiantComponentSize(1000);
+    report = fullPreview.run(queries, new Algo(0.5), 3);
+    Assert.assertEquals(componentsCount - 1, report.getSampledComponentsCount());
+    Assert.assertEquals(3000, report.getGiant().getSampledQueriesCount());
+    Assert.assertEquals(new Algo(0.5).clusterQueries(giantComponent).size(),
+        report.getGiant().getClustersCount(), 1e-9);
+  }
+
+  @Test
+  public void testReadLogIsPreviewedAsGraph() throws IOException {
+    String logFile = testLogsDirectory + "aolFormatTest";
+    Set<Query> queries = new QueryLogReader().readQueryLog(logFile, Integer.MAX_VALUE);
+    for (int giantComponentSize : new int[]{2, ClusteringPreview.DEFAULT_GIANT_COMPONENT_SIZE}) {
+      for (double sampleRate : new double[]{0.5, 1}) {
+        ClusteringPreview preview = new ClusteringPreview(sampleRate, 7);
+        preview.setGiantComponentSize(giantComponentSize);
+        ClusteringPreview.Report expected = preview.run(queries, new Algo(0.5), 2);
+        ClusteringPreview.Report report =
+            preview.run(new QueryLogReader(), logFile, Integer.MAX_VALUE, new Algo(0.5), 2);
+
+        Assert.assertEquals(expected.getSampledComponentsCount(),
+            report.getSampledComponentsCount());
+        Assert.assertEquals(expected.getSampledQueriesCount(), report.getSampledQueriesCount());
+        Assert.assertEquals(expected.getClustersCount().getValue(),
+            report.getClustersCount().getValue(), 1e-9);
+        Assert.assertEquals(expected.getGiant().getComponentsCount(),
+            report.getGiant().getComponentsCount());
+        Assert.assertEquals(expected.getGiant().getQueriesCount(),
+            report.getGiant().getQueriesCount());
+        Assert.assertEquals(expected.getGiant().getSampledQueriesCount(),
+            report.getGiant().getSampledQueriesCount());
+        Assert.assertEquals(expected.getGiant().getSampledClustersCount(),
+            report.getGiant().getSampledClustersCount());
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongSampleRate() {
+    new ClusteringPreview(0, 0);
+  }
+}
@@ -0,0 +1,93 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CountMinSketchTests {
+
+  private final String testLogsDirectory = ".$src$test$testLogs$".replaceAll("\\$", File.separator);
+
+  @Test
+  public void testEstimatesAreNotLess() {
+    CountMinSketch sketch = new CountMinSketch(4, 1000);
+    Assert.assertEquals(1024, sketch.getWidth());
+    Map<Long, Integer> counts = new HashMap<>();
+    Random random = new Random(5);
+    for (int i = 0; i < 100000; ++i) {
+      // skewed keys: a few heavy hitters and a long tail
+      long key = random.nextInt(10) < 5 ? random.nextInt(20) : random.nextInt(50000);
+      sketch.add(key);
+      counts.merge(key, 1, Integer::sum);
+    }
+    Assert.assertEquals(100000, sketch.getTotalCount());
+    for (Map.Entry<Long, Integer> count : counts.entrySet()) {
+      Assert.assertTrue(sketch.estimate(count.getKey()) >= count.getValue());
+    }
+    for (long key = 0; key < 20; ++key) {
+      // heavy hitters are estimated within 2 * total / width
+      Assert.assertTrue(sketch.estimate(key) - counts.get(key) <= 2 * 100000 / 1024);
+    }
+  }
+
+  @Test
+  public void testWithMemory() {
+    CountMinSketch sketch = CountMinSketch.withMemory(1 << 20, 4);
+    Assert.assertEquals(4, sketch.getDepth());
+    Assert.assertEquals(1 << 16, sketch.getWidth());
+    Assert.assertEquals(0, sketch.estimate(CountMinSketch.pairKey("query", "document")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooLittleMemory() {
+    CountMinSketch.withMemory(8, 4);
+  }
+
+  @Test
+  public void testReaderKeepsFrequentLinks() throws IOException {
+    Path log = Files.createTempFile("log", "");
+    try {
+      List<String> lines = new ArrayList<>();
+      for (int i = 0; i < 3; ++i) {
+        lines.add("1\tcars\t2006-03-01 10:00:00\t1\thttp://cars.com");
+        lines.add("1\tcars\t2006-03-01 10:00:01\t1\thttp://auto.com");
+        lines.add("2\tautos\t2006-03-01 10:00:02\t1\thttp://auto.com");
+      }
+      lines.addAll(Arrays.asList(
+          "3\tcars\t2006-03-01 10:00:03\t1\thttp://rare.com",
+          "4\tboats\t2006-03-01 10:00:04\t1\thttp://boats.com"));
+      Files.write(log, lines);
+
+      QueryLogReader reader = new QueryLogReader();
+      Set<Query> queries = reader.readFrequentLinks(log.toString(), 100, 2, 1 << 16);
+      Assert.assertEquals(2, reader.getDroppedLinksCount());
+      Map<String, Query> byName = new HashMap<>();
+      queries.forEach(query -> byName.put(query.toString(), query));
+      Assert.assertEquals(byName.keySet(), new HashSet<>(Arrays.asList("cars", "autos")));
+      Assert.assertEquals(2, byName.get("cars").getRelatedDocuments().size());
+      Assert.assertEquals(3, byName.get("cars").getLinksCount(new Document("http://cars.com")));
+      Assert.assertEquals(3, byName.get("autos").getLinksCount(new Document("http://auto.com")));
+    } finally {
+      Files.delete(log);
+    }
+  }
+
+  @Test
+  public void testFloorOfOneKeepsEverything() throws IOException {
+    String log = testLogsDirectory + "aolFormatTest";
+    QueryLogReader reader = new QueryLogReader();
+    Set<Query> expected = reader.readQueryLog(log, Integer.MAX_VALUE);
+    Set<Query> queries = reader.readFrequentLinks(log, Integer.MAX_VALUE, 1, 1 << 16);
+    Assert.assertEquals(expected, queries);
+    Assert.assertEquals(0, reader.getDroppedLinksCount());
+  }
+}
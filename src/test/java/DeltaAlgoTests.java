@@ -0,0 +1,29 @@
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeltaAlgoTests {
+
+  @Test
+  public void testSameClustersAsFlatAlgoOnRandomGraph() {
+    // distances of pairs change many times before they are merged, counts of links are large, so
+    // that distances of different pairs are not equal and order of merges is the same
+    Random random = new Random(5);
+    Set<Query> queries = new HashSet<>();
+    for (int i = 0; i < 400; ++i) {
+      Query query = new Query("q" + i);
+      int documentsCount = 1 + random.nextInt(5);
+      for (int j = 0; j < documentsCount; ++j) {
+        query.addRelatedDocument(new Document("d" + random.nextInt(300)),
+            1 + random.nextInt(1000000));
+      }
+      queries.add(query);
+    }
+    for (double threshold : new double[]{0.3, 0.6, 0.9, 1}) {
+      Assert.assertEquals(new FlatAlgo(threshold).clusterQueries(queries),
+          new DeltaAlgo(threshold).clusterQueries(queries));
+    }
+  }
+}
@@ -0,0 +1,69 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares time of computing distances between siblings by Algo.computeDistanceBetweenClusters
+ * (lookups in neighbours maps) and by distance kernels (sorted arrays of neighbours).
+ * <p>
+ * Usage: DistanceKernelBenchmark [queriesCount] [documentsCount] [linksPerQuery] [rounds]
+ */
+public class DistanceKernelBenchmark {
+
+  public static void main(String[] args) {
+    int queriesCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int documentsCount = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+    int linksPerQuery = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+    Random random = new Random(17);
+    List<Cluster<Document, Query>> documents = new ArrayList<>();
+    for (int i = 0; i < documentsCount; ++i) {
+      documents.add(new Cluster<>(new Document("d" + i)));
+    }
+    List<Cluster<Query, Document>> queries = new ArrayList<>();
+    for (int i = 0; i < queriesCount; ++i) {
+      Cluster<Query, Document> query = new Cluster<>(new Query("q" + i));
+      int linksCount = 1 + random.nextInt(2 * linksPerQuery);
+      for (int j = 0; j < linksCount; ++j) {
+        // skewed popularity of documents, so that queries have common neighbours
+        int document = (int) (documentsCount * Math.pow(random.nextDouble(), 3));
+        long count = 1 + random.nextInt(10);
+        query.addNeighbour(documents.get(document), count);
+        documents.get(document).addNeighbour(query, count);
+      }
+      queries.add(query);
+    }
+    List<Cluster<Query, Document>> pairs = new ArrayList<>();
+    for (Cluster<Query, Document> query : queries) {
+      for (Cluster<Query, Document> sibling : query.getSiblings()) {
+        pairs.add(query);
+        pairs.add(sibling);
+      }
+    }
+    System.out.printf("%d pairs of siblings%n", pairs.size() / 2);
+
+    for (int round = 0; round < rounds; ++round) {
+      long start = System.nanoTime();
+      double sum = 0;
+      for (int i = 0; i < pairs.size(); i += 2) {
+        sum += Algo.computeDistanceBetweenClusters(pairs.get(i), pairs.get(i + 1));
+      }
+      report("maps", start, pairs.size() / 2, sum);
+      for (DistanceKernel kernel : DistanceKernel.values()) {
+        start = System.nanoTime();
+        sum = 0;
+        for (int i = 0; i < pairs.size(); i += 2) {
+          sum += kernel.distance(pairs.get(i), pairs.get(i + 1));
+        }
+        report(kernel.name(), start, pairs.size() / 2, sum);
+      }
+      System.out.println();
+    }
+  }
+
+  private static void report(String name, long start, int pairsCount, double sum) {
+    long nanos = System.nanoTime() - start;
+    System.out.printf("%-16s %8.1f ns/pair (sum %.3f)%n", name, (double) nanos / pairsCount, sum);
+  }
+}
@@ -0,0 +1,383 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DistanceKernelTests {
+
+  private static void link(Cluster<Query, Document> query, Cluster<Document, Query> document,
+      long linksCount) {
+    query.addNeighbour(document, linksCount);
+    document.addNeighbour(query, linksCount);
+  }
+
+  @Test
+  public void testCommonLinksIsTheMetricOfAlgo() {
+    Random random = new Random(7);
+    List<Cluster<Query, Document>> queries = new ArrayList<>();
+    List<Cluster<Document, Query>> documents = new ArrayList<>();
+    for (int i = 0; i < 300; ++i) {
+      documents.add(new Cluster<>(new Document("d" + i)));
+    }
+    for (int i = 0; i < 40; ++i) {
+      Cluster<Query, Document> query = new Cluster<>(new Query("q" + i));
+      // a few queries with many documents, so that both loops over neighbours are used
+      int documentsCount = i % 10 == 0 ? 200 : 1 + random.nextInt(8);
+      for (int j = 0; j < documentsCount; ++j) {
+        link(query, documents.get(random.nextInt(documents.size())), 1 + random.nextInt(1000));
+      }
+      queries.add(query);
+    }
+    queries.add(new Cluster<>(new Query("lonely")));
+
+    for (Cluster<Query, Document> first : queries) {
+      for (Cluster<Query, Document> second : queries) {
+        Assert.assertEquals(Algo.computeDistanceBetweenClusters(first, second),
+            DistanceKernel.COMMON_LINKS.distance(first, second), 1e-12);
+      }
+    }
+  }
+
+  @Test
+  public void testDistancesOfKernels() {
+    Cluster<Query, Document> first = new Cluster<>(new Query("first"));
+    Cluster<Query, Document> second = new Cluster<>(new Query("second"));
+    Cluster<Document, Query> a = new Cluster<>(new Document("a"));
+    Cluster<Document, Query> b = new Cluster<>(new Document("b"));
+    Cluster<Document, Query> c = new Cluster<>(new Document("c"));
+    // first: a = 2, b = 1; second: b = 3, c = 4
+    link(first, a, 2);
+    link(first, b, 1);
+    link(second, b, 3);
+    link(second, c, 4);
+
+    Assert.assertEquals(1 - 4. / 10, DistanceKernel.COMMON_LINKS.distance(first, second), 1e-12);
+    Assert.assertEquals(1 - 1. / 9, DistanceKernel.WEIGHTED_JACCARD.distance(first, second),
+        1e-12);
+    Assert.assertEquals(1 - 3. / Math.sqrt(5 * 25), DistanceKernel.COSINE.distance(first, second),
+        1e-12);
+
+    for (DistanceKernel kernel : DistanceKernel.values()) {
+      Assert.assertEquals(0, kernel.distance(first, first), 1e-12);
+      Assert.assertEquals(kernel.distance(first, second), kernel.distance(second, first), 1e-12);
+    }
+  }
+
+  @Test
+  public void testNeighboursChange() {
+    Cluster<Query, Document> first = new Cluster<>(new Query("first"));
+    Cluster<Query, Document> second = new Cluster<>(new Query("second"));
+    Cluster<Document, Query> a = new Cluster<>(new Document("a"));
+    Cluster<Document, Query> b = new Cluster<>(new Document("b"));
+    link(first, a, 1);
+    link(second, b, 1);
+    Assert.assertEquals(1, DistanceKernel.COSINE.distance(first, second), 1e-12);
+
+    link(second, a, 1);
+    second.deleteNeighbour(b);
+    b.deleteNeighbour(second);
+    Assert.assertEquals(0, DistanceKernel.COSINE.distance(first, second), 1e-12);
+    Assert.assertEquals(0, DistanceKernel.COMMON_LINKS.distance(first, second), 1e-12);
+  }
+
+  @Test
+  public void testSortedNeighboursAreUpdatedOnMerges() {
+    Random random = new Random(11);
+    List<Cluster<Query, Document>> queries = new ArrayList<>();
+    List<Cluster<Document, Query>> documents = new ArrayList<>();
+    for (int i = 0; i < 20; ++i) {
+      queries.add(new Cluster<>(new Query("q" + i)));
+    }
+    // the first document is a hub linked to every query
+    for (int i = 0; i < 30; ++i) {
+      Cluster<Document, Query> document = new Cluster<>(new Document("d" + i));
+      for (Cluster<Query, Document> query : queries) {
+        if (i == 0 || random.nextInt(4) == 0) {
+          link(query, document, 1 + random.nextInt(3));
+        }
+      }
+      documents.add(document);
+    }
+    // build sorted arrays before the graph changes
+    DistanceKernel.COMMON_LINKS.distance(documents.get(0), documents.get(1));
+
+    while (queries.size() > 1) {
+      Cluster<Query, Document> first = queries.remove(random.nextInt(queries.size()));
+      Cluster<Query, Document> second = queries.remove(random.nextInt(queries.size()));
+      Cluster<Query, Document> mergeResult = Cluster.mergeClusters(first, second);
+      Algo.updateGraphOnMerge(first, second, mergeResult, new HashSet<>());
+      queries.add(mergeResult);
+      for (Cluster<Document, Query> document : documents) {
+        for (Cluster<Document, Query> other : documents) {
+          Assert.assertEquals(Algo.computeDistanceBetweenClusters(document, other),
+              DistanceKernel.COMMON_LINKS.distance(document, other), 1e-12);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testAlgoWithKernelsMatchesFullRecompute() {
+    double threshold = 0.7;
+    for (DistanceKernel kernel : DistanceKernel.values()) {
+      Random random = new Random(13);
+      int comparedCount = 0;
+      for (int graph = 0; graph < 200; ++graph) {
+        Set<Query> queries = randomGraph(random);
+        Set<Set<Set<Query>>> expected = clusterByFullRecompute(queries, kernel, threshold);
+        if (expected == null) {
+          continue;
+        }
+        Algo algo = new Algo(threshold);
+        algo.setDistanceKernel(kernel);
+        Assert.assertEquals(kernel, algo.getDistanceKernel());
+        Set<Set<Query>> actual = algo.clusterQueries(queries);
+        Assert.assertTrue(kernel + ", graph " + graph + ": " + actual, expected.contains(actual));
+        ++comparedCount;
+      }
+      Assert.assertTrue(kernel + ": " + comparedCount, comparedCount >= 180);
+    }
+  }
+
+  private static Set<Query> randomGraph(Random random) {
+    List<Document> documents = new ArrayList<>();
+    int documentsCount = 4 + random.nextInt(8);
+    for (int i = 0; i < documentsCount; ++i) {
+      documents.add(new Document("d" + i));
+    }
+    Set<Query> queries = new HashSet<>();
+    int queriesCount = 4 + random.nextInt(8);
+    for (int i = 0; i < queriesCount; ++i) {
+      Query query = new Query("q" + i);
+      int linksCount = 1 + random.nextInt(4);
+      for (int j = 0; j < linksCount; ++j) {
+        query.addRelatedDocument(documents.get(random.nextInt(documentsCount)),
+            1 + random.nextInt(20));
+      }
+      queries.add(query);
+    }
+    return queries;
+  }
+
+  /**
+   * clusters the same way as Algo: merges the closest pair of query clusters, then the closest
+   * pair of document clusters, until nothing is closer than threshold, but recomputes all
+   * distances before every merge. Algo may merge any of pairs which are equally close, so all of
+   * them are tried
+   *
+   * @return all possible clusterings of queries or null if distance of the closest pair is too
+   * close to threshold or there are too many ways to break ties
+   */
+  private static Set<Set<Set<Query>>> clusterByFullRecompute(Set<Query> queries,
+      DistanceKernel kernel, double threshold) {
+    List<Query> queryList = new ArrayList<>(queries);
+    List<Document> documentList = new ArrayList<>();
+    for (Query query : queryList) {
+      for (Document document : query.getRelatedDocuments()) {
+        if (!documentList.contains(document)) {
+          documentList.add(document);
+        }
+      }
+    }
+    FullRecompute state = new FullRecompute(queryList.size(), documentList.size());
+    for (int q = 0; q < queryList.size(); ++q) {
+      for (Document document : queryList.get(q).getRelatedDocuments()) {
+        int d = documentList.indexOf(document);
+        long linksCount = queryList.get(q).getLinksCount(document);
+        state.links.get(0).get(q).put(d, linksCount);
+        state.links.get(1).get(d).put(q, linksCount);
+      }
+    }
+
+    Set<Set<Set<Integer>>> outcomes = new HashSet<>();
+    if (!state.explore(kernel, threshold, 0, false, new HashSet<>(), outcomes)) {
+      return null;
+    }
+    Set<Set<Set<Query>>> clusterings = new HashSet<>();
+    for (Set<Set<Integer>> outcome : outcomes) {
+      Set<Set<Query>> clusters = new HashSet<>();
+      for (Set<Integer> cluster : outcome) {
+        Set<Query> members = new HashSet<>();
+        for (int q : cluster) {
+          members.add(queryList.get(q));
+        }
+        clusters.add(members);
+      }
+      clusterings.add(clusters);
+    }
+    return clusterings;
+  }
+
+  /**
+   * clusters of both sides of graph, side 0 is queries and side 1 is documents
+   */
+  private static class FullRecompute {
+
+    private static final double EPSILON = 1e-9;
+    private static final int MAX_STATES = 1000;
+
+    // links of clusters to clusters of the other side, null for merged clusters
+    private final List<List<Map<Integer, Long>>> links = new ArrayList<>();
+    private final List<List<Set<Integer>>> members = new ArrayList<>();
+
+    FullRecompute(int queriesCount, int documentsCount) {
+      for (int count : new int[]{queriesCount, documentsCount}) {
+        List<Map<Integer, Long>> sideLinks = new ArrayList<>();
+        List<Set<Integer>> sideMembers = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+          sideLinks.add(new HashMap<>());
+          sideMembers.add(new HashSet<>(Collections.singleton(i)));
+        }
+        links.add(sideLinks);
+        members.add(sideMembers);
+      }
+    }
+
+    private FullRecompute(FullRecompute other) {
+      for (int side = 0; side < 2; ++side) {
+        List<Map<Integer, Long>> sideLinks = new ArrayList<>();
+        List<Set<Integer>> sideMembers = new ArrayList<>();
+        for (int i = 0; i < other.links.get(side).size(); ++i) {
+          Map<Integer, Long> clusterLinks = other.links.get(side).get(i);
+          sideLinks.add(clusterLinks == null ? null : new HashMap<>(clusterLinks));
+          Set<Integer> clusterMembers = other.members.get(side).get(i);
+          sideMembers.add(clusterMembers == null ? null : new HashSet<>(clusterMembers));
+        }
+        links.add(sideLinks);
+        members.add(sideMembers);
+      }
+    }
+
+    /**
+     * tries every closest pair of clusters of side and goes on with the next side
+     *
+     * @return false if result is not determined
+     */
+    boolean explore(DistanceKernel kernel, double threshold, int side, boolean merged,
+        Set<List<Object>> visited, Set<Set<Set<Integer>>> outcomes) {
+      if (!visited.add(Arrays.asList(side, merged, clusters(0), clusters(1)))) {
+        return true;
+      }
+      if (visited.size() > MAX_STATES) {
+        return false;
+      }
+      List<Map<Integer, Long>> current = links.get(side);
+      double best = 2;
+      List<int[]> closest = new ArrayList<>();
+      for (int i = 0; i < current.size(); ++i) {
+        for (int j = i + 1; j < current.size(); ++j) {
+          if (current.get(i) == null || current.get(j) == null) {
+            continue;
+          }
+          double distance = referenceDistance(kernel, current.get(i), current.get(j));
+          if (distance < best - EPSILON) {
+            best = distance;
+            closest.clear();
+          }
+          if (distance < best + EPSILON) {
+            closest.add(new int[]{i, j});
+          }
+        }
+      }
+      if (Math.abs(best - threshold) < EPSILON) {
+        return false;
+      }
+      if (best > threshold) {
+        return next(kernel, threshold, side, merged, visited, outcomes);
+      }
+      for (int[] pair : closest) {
+        FullRecompute state = new FullRecompute(this);
+        state.merge(side, pair[0], pair[1]);
+        if (!state.next(kernel, threshold, side, true, visited, outcomes)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean next(DistanceKernel kernel, double threshold, int side, boolean merged,
+        Set<List<Object>> visited, Set<Set<Set<Integer>>> outcomes) {
+      if (side == 0) {
+        return explore(kernel, threshold, 1, merged, visited, outcomes);
+      }
+      if (merged) {
+        return explore(kernel, threshold, 0, false, visited, outcomes);
+      }
+      outcomes.add(clusters(0));
+      return true;
+    }
+
+    private void merge(int side, int first, int second) {
+      List<Map<Integer, Long>> current = links.get(side);
+      List<Map<Integer, Long>> other = links.get(1 - side);
+      for (Map.Entry<Integer, Long> link : current.get(second).entrySet()) {
+        current.get(first).merge(link.getKey(), link.getValue(), Long::sum);
+        Map<Integer, Long> neighbour = other.get(link.getKey());
+        neighbour.merge(first, neighbour.remove(second), Long::sum);
+      }
+      current.set(second, null);
+      members.get(side).get(first).addAll(members.get(side).get(second));
+      members.get(side).set(second, null);
+    }
+
+    private Set<Set<Integer>> clusters(int side) {
+      Set<Set<Integer>> clusters = new HashSet<>();
+      for (Set<Integer> cluster : members.get(side)) {
+        if (cluster != null) {
+          clusters.add(cluster);
+        }
+      }
+      return clusters;
+    }
+  }
+
+  /**
+   * formulas of kernels computed straight from maps of links
+   */
+  private static double referenceDistance(DistanceKernel kernel, Map<Integer, Long> first,
+      Map<Integer, Long> second) {
+    double firstTotal = 0;
+    double firstNorm = 0;
+    for (long linksCount : first.values()) {
+      firstTotal += linksCount;
+      firstNorm += (double) linksCount * linksCount;
+    }
+    double secondTotal = 0;
+    double secondNorm = 0;
+    for (long linksCount : second.values()) {
+      secondTotal += linksCount;
+      secondNorm += (double) linksCount * linksCount;
+    }
+    double sum = 0;
+    double min = 0;
+    double product = 0;
+    for (Map.Entry<Integer, Long> link : first.entrySet()) {
+      Long other = second.get(link.getKey());
+      if (other != null) {
+        sum += link.getValue() + other;
+        min += Math.min(link.getValue(), other);
+        product += (double) link.getValue() * other;
+      }
+    }
+    switch (kernel) {
+      case COMMON_LINKS:
+        return 1 - sum / (firstTotal + secondTotal);
+      case WEIGHTED_JACCARD:
+        return 1 - min / (firstTotal + secondTotal - min);
+      default:
+        return Math.max(0, 1 - product / Math.sqrt(firstNorm * secondNorm));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullKernel() {
+    new Algo().setDistanceKernel(null);
+  }
+}
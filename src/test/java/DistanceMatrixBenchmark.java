@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares throughput of DistanceMatrixConcurrent and DistanceMatrixTree behind one lock when
+ * several threads add, delete and look for the minimal distance at once.
+ * <p>
+ * Usage: DistanceMatrixBenchmark [maxThreads] [opsPerThread] [pointsCount]
+ */
+public class DistanceMatrixBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+        : Runtime.getRuntime().availableProcessors();
+    int opsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+    int pointsCount = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+    Integer[] points = new Integer[pointsCount];
+    for (int i = 0; i < pointsCount; ++i) {
+      points[i] = i;
+    }
+
+    for (int round = 0; round < 3; ++round) {
+      for (int threads = 1; threads <= maxThreads; threads *= 2) {
+        DistanceMatrix<Integer> tree = new DistanceMatrixTree<>();
+        Object lock = new Object();
+        report("locked tree", threads, opsPerThread,
+            run(threads, opsPerThread, points, (op, p1, p2, distance) -> {
+              synchronized (lock) {
+                return apply(tree, op, p1, p2, distance);
+              }
+            }));
+        DistanceMatrix<Integer> concurrent = new DistanceMatrixConcurrent<>();
+        report("concurrent", threads, opsPerThread,
+            run(threads, opsPerThread, points,
+                (op, p1, p2, distance) -> apply(concurrent, op, p1, p2, distance)));
+      }
+      System.out.println();
+    }
+  }
+
+  private interface Operation {
+
+    Object apply(int op, Integer point1, Integer point2, double distance);
+  }
+
+  private static Object apply(DistanceMatrix<Integer> matrix, int op, Integer point1,
+      Integer point2, double distance) {
+    switch (op) {
+      case 0:
+        return matrix.addDistance(point1, point2, distance);
+      case 1:
+        return matrix.deleteDistance(point1, point2);
+      case 2:
+        return matrix.getPairWithMinDistance();
+      default:
+        return matrix.getDistance(point1, point2);
+    }
+  }
+
+  /**
+   * @return elapsed nanoseconds
+   */
+  private static long run(int threads, int opsPerThread, Integer[] points, Operation operation)
+      throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<>();
+    long start = System.nanoTime();
+    for (int t = 0; t < threads; ++t) {
+      int seed = t;
+      futures.add(executor.submit(() -> {
+        Random random = new Random(seed);
+        for (int i = 0; i < opsPerThread; ++i) {
+          operation.apply(random.nextInt(4), points[random.nextInt(points.length)],
+              points[random.nextInt(points.length)], random.nextDouble());
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    long nanos = System.nanoTime() - start;
+    executor.shutdown();
+    return nanos;
+  }
+
+  private static void report(String name, int threads, int opsPerThread, long nanos) {
+    System.out.printf("%-12s %2d threads %8.2f Mops/s%n", name, threads,
+        (double) threads * opsPerThread / nanos * 1e3);
+  }
+}
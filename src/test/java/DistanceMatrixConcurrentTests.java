@@ -0,0 +1,137 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DistanceMatrixConcurrentTests {
+
+  @Test
+  public void testAddAndDeleteDistance() {
+    DistanceMatrix<Object> distanceMatrix = new DistanceMatrixConcurrent<>();
+    Object o1 = new Object();
+    Object o2 = new Object();
+    Object o3 = new Object();
+
+    Assert.assertNull(distanceMatrix.getPairWithMinDistance());
+    Assert.assertNull(distanceMatrix.addDistance(o1, o2, 2));
+    Assert.assertEquals(2., distanceMatrix.addDistance(o2, o1, 1), 1e-8);
+    Assert.assertNull(distanceMatrix.addDistance(o1, o3, 3));
+    Assert.assertEquals(2, distanceMatrix.size());
+    Assert.assertEquals(new UnorderedPairHash<>(o1, o2), distanceMatrix.getPairWithMinDistance());
+    Assert.assertEquals(new UnorderedPairHash<>(o1, o3), distanceMatrix.getPairWithMaxDistance());
+
+    Assert.assertEquals(1., distanceMatrix.deleteDistance(o1, o2), 1e-8);
+    Assert.assertNull(distanceMatrix.deleteDistance(o1, o2));
+    Assert.assertFalse(distanceMatrix.containsDistance(o2, o1));
+    Assert.assertEquals(new UnorderedPairHash<>(o1, o3), distanceMatrix.getPairWithMinDistance());
+
+    Map<Object, Double> row = distanceMatrix.deleteRow(o3);
+    Assert.assertEquals(1, row.size());
+    Assert.assertEquals(3., row.get(o1), 1e-8);
+    Assert.assertEquals(0, distanceMatrix.size());
+    Assert.assertNull(distanceMatrix.getPairWithMaxDistance());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeDistance() {
+    new DistanceMatrixConcurrent<>().addDistance(new Object(), new Object(), -1);
+  }
+
+  @Test
+  public void testConcurrentUpdates() throws Exception {
+    int threadsCount = 4;
+    int pointsCount = 40;
+    Object[] points = new Object[pointsCount];
+    for (int i = 0; i < pointsCount; ++i) {
+      points[i] = new Object();
+    }
+    DistanceMatrix<Object> distanceMatrix = new DistanceMatrixConcurrent<>();
+    ExecutorService executor = Executors.newFixedThreadPool(threadsCount);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Map<Integer, Double>>> results = new ArrayList<>();
+    for (int t = 0; t < threadsCount; ++t) {
+      int thread = t;
+      results.add(executor.submit(() -> {
+        Random random = new Random(thread);
+        // pairs (thread, j) belong only to this thread, their final distances are known
+        Map<Integer, Double> ownPairs = new HashMap<>();
+        start.await();
+        for (int i = 0; i < 50000; ++i) {
+          int first = threadsCount + random.nextInt(pointsCount - threadsCount);
+          int second = threadsCount + random.nextInt(pointsCount - threadsCount);
+          double distance = random.nextInt(1000) / 1000.;
+          switch (random.nextInt(4)) {
+            case 0:
+              distanceMatrix.addDistance(points[first], points[second], distance);
+              break;
+            case 1:
+              distanceMatrix.deleteDistance(points[first], points[second]);
+              break;
+            case 2:
+              UnorderedPair<Object> pair = distanceMatrix.getPairWithMinDistance();
+              if (pair != null) {
+                Assert.assertTrue(pair.getNotEqualTo(null) != null);
+              }
+              break;
+            default:
+              int own = threadsCount + random.nextInt(pointsCount - threadsCount);
+              if (random.nextBoolean()) {
+                distanceMatrix.addDistance(points[thread], points[own], distance);
+                ownPairs.put(own, distance);
+              } else {
+                distanceMatrix.deleteDistance(points[own], points[thread]);
+                ownPairs.remove(own);
+              }
+          }
+        }
+        return ownPairs;
+      }));
+    }
+    start.countDown();
+    List<Map<Integer, Double>> ownPairs = new ArrayList<>();
+    for (Future<Map<Integer, Double>> result : results) {
+      ownPairs.add(result.get(60, TimeUnit.SECONDS));
+    }
+    executor.shutdown();
+
+    for (int thread = 0; thread < threadsCount; ++thread) {
+      for (int own = threadsCount; own < pointsCount; ++own) {
+        Assert.assertEquals(ownPairs.get(thread).get(own),
+            distanceMatrix.getDistance(points[own], points[thread]));
+      }
+    }
+
+    // ordered entries match distances by pairs
+    int size = 0;
+    double minDistance = Double.MAX_VALUE;
+    for (int i = 0; i < pointsCount; ++i) {
+      for (int j = i; j < pointsCount; ++j) {
+        Double distance = distanceMatrix.getDistance(points[i], points[j]);
+        if (distance != null) {
+          ++size;
+          minDistance = Math.min(minDistance, distance);
+        }
+      }
+    }
+    Assert.assertEquals(size, distanceMatrix.size());
+    UnorderedPair<Object> minPair = distanceMatrix.getPairWithMinDistance();
+    Object first = minPair.getNotEqualTo(null);
+    Object second = minPair.getNotEqualTo(first);
+    Assert.assertEquals(minDistance,
+        distanceMatrix.getDistance(first, second == null ? first : second), 0);
+
+    for (Object point : points) {
+      distanceMatrix.deleteRow(point);
+    }
+    Assert.assertEquals(0, distanceMatrix.size());
+    Assert.assertNull(distanceMatrix.getPairWithMinDistance());
+  }
+}
@@ -0,0 +1,90 @@
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DistanceMatrixLazyTests {
+
+  @Test
+  public void testAddAndDeleteDistance() {
+    DistanceMatrix<Object> distanceMatrix = new DistanceMatrixLazy<>();
+    Object o1 = new Object();
+    Object o2 = new Object();
+
+    Assert.assertNull(distanceMatrix.addDistance(o1, o2, 1));
+    Assert.assertEquals(1., distanceMatrix.addDistance(o2, o1, 2), 1e-8);
+    Assert.assertEquals(2., distanceMatrix.getDistance(o1, o2), 1e-8);
+    Assert.assertEquals(1, distanceMatrix.size());
+
+    Assert.assertEquals(2., distanceMatrix.deleteDistance(o1, o2), 1e-8);
+    Assert.assertNull(distanceMatrix.deleteDistance(o1, o2));
+    Assert.assertFalse(distanceMatrix.containsDistance(o1, o2));
+    Assert.assertNull(distanceMatrix.getPairWithMinDistance());
+    Assert.assertEquals(0, distanceMatrix.size());
+  }
+
+  @Test
+  public void testLazyDeleteRow() {
+    Object[] points = {new Object(), new Object(), new Object(), new Object()};
+    DistanceMatrix<Object> distanceMatrix = new DistanceMatrixLazy<>();
+    distanceMatrix.addDistance(points[0], points[1], 1);
+    distanceMatrix.addDistance(points[0], points[2], 2);
+    distanceMatrix.addDistance(points[1], points[2], 3);
+    distanceMatrix.addDistance(points[2], points[3], 4);
+
+    distanceMatrix.deleteRow(points[0], Arrays.asList(points[1], points[2]));
+
+    Assert.assertFalse(distanceMatrix.containsDistance(points[0], points[1]));
+    Assert.assertNull(distanceMatrix.getDistance(points[2], points[0]));
+    Assert.assertNull(distanceMatrix.deleteDistance(points[0], points[2]));
+    Assert.assertEquals(new UnorderedPairHash<>(points[1], points[2]),
+        distanceMatrix.getPairWithMinDistance());
+    Assert.assertEquals(new UnorderedPairHash<>(points[2], points[3]),
+        distanceMatrix.getPairWithMaxDistance());
+    Assert.assertEquals(2, distanceMatrix.size());
+
+    // point can get new distances after its row was deleted
+    Assert.assertNull(distanceMatrix.addDistance(points[0], points[3], 0.5));
+    Assert.assertEquals(new UnorderedPairHash<>(points[0], points[3]),
+        distanceMatrix.getPairWithMinDistance());
+    Assert.assertEquals(3, distanceMatrix.size());
+  }
+
+  @Test
+  public void testDeleteRow() {
+    Object[] points = {new Object(), new Object(), new Object()};
+    DistanceMatrix<Object> distanceMatrix = new DistanceMatrixLazy<>();
+    distanceMatrix.addDistance(points[0], points[1], 1);
+    distanceMatrix.addDistance(points[0], points[2], 2);
+    distanceMatrix.addDistance(points[1], points[2], 3);
+
+    Map<Object, Double> row = distanceMatrix.deleteRow(points[0]);
+    Assert.assertEquals(2, row.size());
+    Assert.assertEquals(2., row.get(points[2]), 1e-8);
+    Assert.assertEquals(1, distanceMatrix.size());
+    Assert.assertEquals(new UnorderedPairHash<>(points[1], points[2]),
+        distanceMatrix.getPairWithMinDistance());
+  }
+
+  @Test
+  public void testCompaction() {
+    int pointsCount = 100;
+    Object[] points = new Object[pointsCount];
+    for (int i = 0; i < pointsCount; ++i) {
+      points[i] = new Object();
+    }
+    DistanceMatrixLazy<Object> distanceMatrix = new DistanceMatrixLazy<>();
+    for (int i = 0; i < pointsCount; ++i) {
+      for (int j = i + 1; j < pointsCount; ++j) {
+        distanceMatrix.addDistance(points[i], points[j], i + j);
+      }
+    }
+    for (int i = 0; i < pointsCount - 2; ++i) {
+      distanceMatrix.deleteRow(points[i], Arrays.asList(points).subList(i + 1, pointsCount));
+    }
+
+    Assert.assertEquals(1, distanceMatrix.size());
+    Assert.assertEquals(new UnorderedPairHash<>(points[pointsCount - 2], points[pointsCount - 1]),
+        distanceMatrix.getPairWithMinDistance());
+  }
+}
@@ -0,0 +1,111 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DistanceMatrixOffHeapTests {
+
+  @Test
+  public void testAddAndDeleteDistance() {
+    try (DistanceMatrixOffHeap<Object> distanceMatrix = new DistanceMatrixOffHeap<>()) {
+      Object o1 = new Object();
+      Object o2 = new Object();
+
+      Assert.assertNull(distanceMatrix.addDistance(o1, o2, 1));
+      Assert.assertEquals(1., distanceMatrix.addDistance(o2, o1, 2), 1e-8);
+      Assert.assertEquals(2., distanceMatrix.getDistance(o1, o2), 1e-8);
+      Assert.assertEquals(1, distanceMatrix.size());
+
+      Assert.assertEquals(2., distanceMatrix.deleteDistance(o1, o2), 1e-8);
+      Assert.assertNull(distanceMatrix.deleteDistance(o1, o2));
+      Assert.assertFalse(distanceMatrix.containsDistance(o1, o2));
+      Assert.assertNull(distanceMatrix.getPairWithMinDistance());
+      Assert.assertEquals(0, distanceMatrix.size());
+    }
+  }
+
+  @Test
+  public void testSameAsDistanceMatrixTree() {
+    try (DistanceMatrixOffHeap<Object> offHeap = new DistanceMatrixOffHeap<>()) {
+      checkSameAsDistanceMatrixTree(offHeap, new Random(42));
+    }
+  }
+
+  @Test
+  public void testMappedFiles() throws IOException {
+    File directory = Files.createTempDirectory("distances").toFile();
+    try (DistanceMatrixOffHeap<Object> offHeap = new DistanceMatrixOffHeap<>(directory)) {
+      checkSameAsDistanceMatrixTree(offHeap, new Random(7));
+    } finally {
+      directory.delete();
+    }
+  }
+
+  @Test
+  public void testSmallChunks() throws IOException {
+    // table and heap consist of dozens of chunks
+    try (DistanceMatrixOffHeap<Object> offHeap = new DistanceMatrixOffHeap<>(null, 4096)) {
+      checkSameAsDistanceMatrixTree(offHeap, new Random(11));
+    }
+    File directory = Files.createTempDirectory("distances").toFile();
+    try (DistanceMatrixOffHeap<Object> offHeap = new DistanceMatrixOffHeap<>(directory, 4096)) {
+      checkSameAsDistanceMatrixTree(offHeap, new Random(13));
+      // files are deleted as soon as they are opened
+      Assert.assertEquals(0, directory.list().length);
+    } finally {
+      directory.delete();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testClosed() {
+    DistanceMatrixOffHeap<Object> distanceMatrix = new DistanceMatrixOffHeap<>();
+    distanceMatrix.addDistance(new Object(), new Object(), 1);
+    distanceMatrix.close();
+    distanceMatrix.getPairWithMinDistance();
+  }
+
+  /**
+   * applies the same random operations to both matrices and compares results
+   */
+  private void checkSameAsDistanceMatrixTree(DistanceMatrix<Object> offHeap, Random random) {
+    DistanceMatrix<Object> tree = new DistanceMatrixTree<>();
+    Object[] points = new Object[300];
+    for (int i = 0; i < points.length; ++i) {
+      points[i] = new Object();
+    }
+
+    for (int operation = 0; operation < 50000; ++operation) {
+      Object point1 = points[random.nextInt(points.length)];
+      Object point2 = points[random.nextInt(points.length)];
+      int kind = random.nextInt(10);
+      if (kind < 6) {
+        double distance = random.nextInt(1000);
+        Assert.assertEquals(tree.addDistance(point1, point2, distance),
+            offHeap.addDistance(point1, point2, distance));
+      } else if (kind < 9) {
+        Assert.assertEquals(tree.deleteDistance(point1, point2),
+            offHeap.deleteDistance(point1, point2));
+      } else if (random.nextInt(100) == 0) {
+        Map<Object, Double> treeRow = tree.deleteRow(point1);
+        Assert.assertEquals(treeRow, offHeap.deleteRow(point1));
+      }
+      Assert.assertEquals(tree.size(), offHeap.size());
+      if (tree.size() > 0) {
+        Assert.assertEquals(distanceOf(tree, tree.getPairWithMinDistance()),
+            distanceOf(offHeap, offHeap.getPairWithMinDistance()), 1e-8);
+        Assert.assertEquals(distanceOf(tree, tree.getPairWithMaxDistance()),
+            distanceOf(offHeap, offHeap.getPairWithMaxDistance()), 1e-8);
+      }
+    }
+  }
+
+  private double distanceOf(DistanceMatrix<Object> distanceMatrix, UnorderedPair<Object> pair) {
+    Object point1 = pair.getNotEqualTo(null);
+    Object point2 = pair.getNotEqualTo(point1);
+    return distanceMatrix.getDistance(point1, point2 == null ? point1 : point2);
+  }
+}
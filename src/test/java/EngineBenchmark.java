@@ -0,0 +1,53 @@
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+/**
+ * Compares time, allocations and garbage collections of clustering engines on the same log.
+ * <p>
+ * Usage: EngineBenchmark logFile [nLines] [threshold] [rounds]
+ */
+public class EngineBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: EngineBenchmark logFile [nLines] [threshold] [rounds]");
+      System.exit(1);
+    }
+    int nLines = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+    double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.01;
+    int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+    Set<Query> queries = new QueryLogReader().readQueryLog(args[0], nLines);
+    System.out.printf("%d queries%n", queries.size());
+
+    for (int round = 0; round < rounds; ++round) {
+      run("Algo", new Algo(threshold), queries);
+      run("NearestNeighbourAlgo", new NearestNeighbourAlgo(threshold), queries);
+      run("FlatAlgo", new FlatAlgo(threshold), queries);
+      run("DeltaAlgo", new DeltaAlgo(threshold), queries);
+      System.out.println();
+    }
+  }
+
+  private static void run(String name, ClusteringEngine engine, Set<Query> queries) {
+    System.gc();
+    long gcCount = 0;
+    long gcMillis = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      gcCount -= gc.getCollectionCount();
+      gcMillis -= gc.getCollectionTime();
+    }
+    long allocated = -MemoryEstimator.allocatedBytes();
+    long start = System.nanoTime();
+    Set<Set<Query>> clusters = engine.clusterQueries(queries);
+    long nanos = System.nanoTime() - start;
+    allocated += MemoryEstimator.allocatedBytes();
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      gcCount += gc.getCollectionCount();
+      gcMillis += gc.getCollectionTime();
+    }
+    System.out.printf("%-22s %8.2f s %10d clusters %8d MB allocated %4d gc (%d ms)%n", name,
+        nanos / 1e9, clusters.size(), allocated >> 20, gcCount, gcMillis);
+  }
+}
@@ -0,0 +1,106 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExternalMemoryClusteringTests {
+
+  private final String testLogsDirectory = ".$src$test$testLogs$".replaceAll("\\$", File.separator);
+
+  @Test
+  public void testSameClustersAsInMemory() throws IOException {
+    String logFile = testLogsDirectory + "aolFormatTest";
+    File workDirectory = Files.createTempDirectory("external").toFile();
+    try {
+      for (double threshold : new double[]{0.01, 0.5}) {
+        Set<Query> queries = new QueryLogReader().readQueryLog(logFile, Integer.MAX_VALUE);
+        Set<Set<Query>> expected = new Algo(threshold).clusterQueries(queries);
+
+        for (long maxLinksPerPartition : new long[]{1, 50, Long.MAX_VALUE}) {
+          Set<Set<Query>> actual = new HashSet<>();
+          new ExternalMemoryClustering(new Algo(threshold), workDirectory, maxLinksPerPartition)
+              .clusterQueryLog(logFile, Integer.MAX_VALUE, actual::add);
+          Assert.assertEquals(expected, actual);
+        }
+      }
+      Assert.assertEquals(0, workDirectory.list().length);
+    } finally {
+      workDirectory.delete();
+    }
+  }
+
+  @Test
+  public void testComponentLargerThanPartitionIsClusteredExactly() throws IOException {
+    String logFile = testLogsDirectory + "aolFormatTest";
+    File workDirectory = Files.createTempDirectory("external").toFile();
+    try {
+      Set<Query> queries = new QueryLogReader().readQueryLog(logFile, Integer.MAX_VALUE);
+      long maxComponentLinks = 0;
+      for (Set<Query> component : GraphPartitioner.findConnectedComponents(queries)) {
+        maxComponentLinks = Math.max(maxComponentLinks, GraphPartitioner.countLinks(component));
+      }
+      long maxLinksPerPartition = maxComponentLinks / 2;
+      Assert.assertTrue(maxLinksPerPartition > 1);
+
+      for (double threshold : new double[]{0.01, 0.5, 0.9}) {
+        Set<Set<Query>> expected = new Algo(threshold).clusterQueries(queries);
+        Set<Set<Query>> actual = new HashSet<>();
+        new ExternalMemoryClustering(new Algo(threshold), workDirectory, maxLinksPerPartition,
+            Long.MAX_VALUE).clusterQueryLog(logFile, Integer.MAX_VALUE, actual::add);
+        Assert.assertEquals(expected, actual);
+      }
+      Assert.assertEquals(0, workDirectory.list().length);
+    } finally {
+      workDirectory.delete();
+    }
+  }
+
+  @Test
+  public void testLargeComponentsAreClusteredInRounds() throws IOException {
+    String logFile = testLogsDirectory + "aolFormatTest";
+    File workDirectory = Files.createTempDirectory("external").toFile();
+    try {
+      Set<Query> queries = new QueryLogReader().readQueryLog(logFile, Integer.MAX_VALUE);
+      List<Set<Query>> components = GraphPartitioner.findConnectedComponents(queries);
+      for (long maxLinksInMemory : new long[]{1, 10}) {
+        Set<Query> clusteredQueries = new HashSet<>();
+        int[] clustersCount = {0};
+        new ExternalMemoryClustering(new Algo(0.5), workDirectory, 50, maxLinksInMemory)
+            .clusterQueryLog(logFile, Integer.MAX_VALUE, cluster -> {
+              ++clustersCount[0];
+              Assert.assertFalse(cluster.isEmpty());
+              for (Query query : cluster) {
+                Assert.assertTrue(clusteredQueries.add(query));
+              }
+              Assert.assertTrue(components.stream()
+                  .anyMatch(component -> component.containsAll(cluster)));
+            });
+        Assert.assertEquals(queries, clusteredQueries);
+        // pieces of one row can't merge anything
+        Assert.assertEquals(maxLinksInMemory > 1, clustersCount[0] < queries.size());
+      }
+      Assert.assertEquals(0, workDirectory.list().length);
+    } finally {
+      workDirectory.delete();
+    }
+  }
+
+  @Test
+  public void testLineLimit() throws IOException {
+    String logFile = testLogsDirectory + "aolFormatTest";
+    File workDirectory = Files.createTempDirectory("external").toFile();
+    try {
+      Set<Query> queries = new QueryLogReader().readQueryLog(logFile, 100);
+      Set<Set<Query>> actual = new HashSet<>();
+      new ExternalMemoryClustering(new Algo(), workDirectory, 10)
+          .clusterQueryLog(logFile, 100, actual::add);
+      Assert.assertEquals(new Algo().clusterQueries(queries), actual);
+    } finally {
+      workDirectory.delete();
+    }
+  }
+}
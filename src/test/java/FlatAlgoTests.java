@@ -0,0 +1,54 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FlatAlgoTests {
+
+  private final String testLogsDirectory = ".$src$test$testLogs$".replaceAll("\\$", File.separator);
+  private final QueryTestLogReader input = new QueryTestLogReader();
+
+  @Test
+  public void testSameClustersAsAlgo() throws IOException {
+    String[] testLogs = {"singleQueryTest", "singleQueryAndDocumentTest", "queriesAndDocumentTest",
+        "lotsQueriesTest", "queryAndDocumentsTest", "noisyLinksTest"};
+    for (String testLog : testLogs) {
+      Set<Query> queries = input.readQueryLog(testLogsDirectory + testLog);
+      Assert.assertEquals(testLog, new Algo().clusterQueries(queries),
+          new FlatAlgo().clusterQueries(queries));
+    }
+  }
+
+  @Test
+  public void testComponentsOfRandomGraph() {
+    // with threshold 1 every two siblings are merged, so clusters are connected components
+    Random random = new Random(3);
+    Set<Query> queries = new HashSet<>();
+    for (int i = 0; i < 500; ++i) {
+      Query query = new Query("q" + i);
+      int documentsCount = random.nextInt(4);
+      for (int j = 0; j < documentsCount; ++j) {
+        query.addRelatedDocument(new Document("d" + random.nextInt(700)), 1 + random.nextInt(3));
+      }
+      queries.add(query);
+    }
+    Assert.assertEquals(new Algo(1).clusterQueries(queries),
+        new FlatAlgo(1).clusterQueries(queries));
+  }
+
+  @Test
+  public void testThreshold() throws IOException {
+    Set<Query> queries = input.readQueryLog(testLogsDirectory + "noisyLinksTest");
+    Assert.assertEquals(1, new FlatAlgo(0.01).clusterQueries(queries).size());
+    Assert.assertEquals(3, new FlatAlgo(0).clusterQueries(queries).size());
+  }
+
+  @Test
+  public void testEmptySet() {
+    Assert.assertTrue(new FlatAlgo().clusterQueries(new HashSet<>()).isEmpty());
+    Assert.assertNull(new FlatAlgo().clusterQueries(null));
+  }
+}
@@ -0,0 +1,53 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IntLongMapTests {
+
+  @Test
+  public void testSameAsHashMap() {
+    IntLongMap map = new IntLongMap();
+    Map<Integer, Long> expected = new HashMap<>();
+    Random random = new Random(11);
+    for (int i = 0; i < 200000; ++i) {
+      // small range of keys, so that removals shift runs of colliding keys
+      int key = random.nextInt(2000);
+      switch (random.nextInt(3)) {
+        case 0:
+          map.put(key, i);
+          expected.put(key, (long) i);
+          break;
+        case 1:
+          map.add(key, 5);
+          expected.merge(key, 5L, Long::sum);
+          break;
+        default:
+          Assert.assertEquals(expected.remove(key) != null, map.remove(key));
+      }
+    }
+    Assert.assertEquals(expected.size(), map.size());
+    for (int key = 0; key < 2000; ++key) {
+      Assert.assertEquals(expected.containsKey(key), map.containsKey(key));
+      Assert.assertEquals(expected.getOrDefault(key, -1L).longValue(), map.get(key, -1));
+    }
+
+    Map<Integer, Long> iterated = new HashMap<>();
+    for (int slot = 0; slot < map.capacity(); ++slot) {
+      if (map.isUsed(slot)) {
+        iterated.put(map.keyAt(slot), map.valueAt(slot));
+      }
+    }
+    Assert.assertEquals(expected, iterated);
+
+    map.clear();
+    Assert.assertEquals(0, map.size());
+    Assert.assertFalse(map.containsKey(0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeKey() {
+    new IntLongMap().put(-1, 1);
+  }
+}
@@ -0,0 +1,40 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTests {
+
+  @Test
+  public void testEmptyHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    Assert.assertEquals(0, histogram.getCount());
+    Assert.assertEquals(0, histogram.getPercentileMicros(99));
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long micros = 1; micros <= 100; ++micros) {
+      histogram.record(micros * 1000);
+    }
+    Assert.assertEquals(100, histogram.getCount());
+    Assert.assertEquals(50, histogram.getPercentileMicros(50));
+    Assert.assertEquals(99, histogram.getPercentileMicros(99));
+    Assert.assertEquals(1, histogram.getPercentileMicros(0));
+  }
+
+  @Test
+  public void testRelativeErrorOfLargeLatencies() {
+    for (long micros = 1000; micros < (long) 1e12; micros = micros * 3 + 7) {
+      LatencyHistogram histogram = new LatencyHistogram();
+      histogram.record(micros * 1000);
+      long estimate = histogram.getPercentileMicros(50);
+      Assert.assertTrue(estimate <= micros);
+      Assert.assertTrue(micros - estimate <= micros / 32);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongPercentile() {
+    new LatencyHistogram().getPercentileMicros(101);
+  }
+}
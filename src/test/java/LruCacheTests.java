@@ -0,0 +1,68 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LruCacheTests {
+
+  @Test
+  public void testEviction() {
+    LruCache<String, Integer> cache = new LruCache<>(2);
+    cache.put("a", 1);
+    cache.put("b", 2);
+    Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+    cache.put("c", 3);
+
+    Assert.assertEquals(2, cache.size());
+    Assert.assertNull(cache.get("b"));
+    Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+    Assert.assertEquals(Integer.valueOf(3), cache.get("c"));
+    Assert.assertEquals(3, cache.getHitsCount());
+    Assert.assertEquals(1, cache.getMissesCount());
+  }
+
+  @Test
+  public void testSegmentsKeepCapacity() {
+    LruCache<String, Integer> cache = new LruCache<>(1000);
+    for (int i = 0; i < 5000; ++i) {
+      cache.put("key" + i, i);
+    }
+    Assert.assertEquals(1000, cache.size());
+    // recent keys stay in every segment
+    for (int i = 4950; i < 5000; ++i) {
+      Assert.assertEquals(Integer.valueOf(i), cache.get("key" + i));
+    }
+  }
+
+  @Test
+  public void testConcurrentAccess() throws InterruptedException {
+    LruCache<Integer, Integer> cache = new LruCache<>(512);
+    AtomicInteger wrongValues = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; ++t) {
+      int seed = t;
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 20000; ++i) {
+          int key = (i * 31 + seed) % 2000;
+          Integer value = cache.get(key);
+          if (value == null) {
+            cache.put(key, key);
+          } else if (value != key) {
+            wrongValues.incrementAndGet();
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals(0, wrongValues.get());
+    Assert.assertEquals(4 * 20000, cache.getHitsCount() + cache.getMissesCount());
+    Assert.assertTrue(cache.size() <= 512);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongCapacity() {
+    new LruCache<String, Integer>(0);
+  }
+}
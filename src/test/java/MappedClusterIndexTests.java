@@ -0,0 +1,117 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MappedClusterIndexTests {
+
+  private final String testLogsDirectory = ".$src$test$testLogs$".replaceAll("\\$", File.separator);
+
+  @Test
+  public void testSameAnswersAsClusters() throws IOException {
+    Set<Query> queries = new QueryLogReader()
+        .readQueryLog(testLogsDirectory + "aolFormatTest", Integer.MAX_VALUE);
+    Set<Set<Query>> clusters = new Algo(0.5).clusterQueries(queries);
+    ClusterIndexWriter writer = new ClusterIndexWriter();
+    clusters.forEach(writer::addCluster);
+
+    File indexFile = File.createTempFile("clusters", ".idx");
+    try {
+      writer.write(indexFile);
+      MappedClusterIndex index = MappedClusterIndex.open(indexFile);
+
+      Assert.assertEquals(clusters.size(), index.getClustersCount());
+      Assert.assertEquals(queries.size(), index.getQueriesCount());
+      for (Set<Query> cluster : clusters) {
+        Set<String> expected = new HashSet<>();
+        cluster.forEach(q -> expected.add(q.toString()));
+        for (Query q : cluster) {
+          int clusterId = index.findCluster(q.toString());
+          Assert.assertNotEquals(ClusterIndex.NOT_FOUND, clusterId);
+          Assert.assertEquals(expected, new HashSet<>(index.getClusterMembers(clusterId)));
+        }
+      }
+      Assert.assertEquals(ClusterIndex.NOT_FOUND, index.findCluster("no such query"));
+      Assert.assertEquals(ClusterIndex.NOT_FOUND, index.findCluster(null));
+    } finally {
+      indexFile.delete();
+    }
+  }
+
+  @Test
+  public void testNotAsciiQueries() throws IOException {
+    // "clustering" in Russian, "Japanese" in Japanese and a prefix of the first one
+    String russian = "\u043a\u043b\u0430\u0441\u0442\u0435\u0440"
+        + "\u0438\u0437\u0430\u0446\u0438\u044f";
+    String japanese = "\u65e5\u672c\u8a9e";
+    String prefix = "\u043a\u043b\u0430\u0441\u0442\u0435\u0440";
+    ClusterIndexWriter writer = new ClusterIndexWriter();
+    writer.addCluster(cluster(russian, "a"));
+    writer.addCluster(cluster(japanese, "ab", "abc"));
+    writer.addCluster(new HashSet<>());
+
+    File indexFile = File.createTempFile("clusters", ".idx");
+    try {
+      writer.write(indexFile);
+      MappedClusterIndex index = MappedClusterIndex.open(indexFile);
+
+      Assert.assertEquals(3, index.getClustersCount());
+      Assert.assertEquals(0, index.findCluster(russian));
+      Assert.assertEquals(1, index.findCluster("abc"));
+      Assert.assertEquals(new HashSet<>(Arrays.asList(japanese, "ab", "abc")),
+          new HashSet<>(index.getClusterMembers(1)));
+      Assert.assertTrue(index.getClusterMembers(2).isEmpty());
+      Assert.assertEquals(ClusterIndex.NOT_FOUND, index.findCluster(prefix));
+    } finally {
+      indexFile.delete();
+    }
+  }
+
+  @Test
+  public void testEmptyIndex() throws IOException {
+    File indexFile = File.createTempFile("clusters", ".idx");
+    try {
+      new ClusterIndexWriter().write(indexFile);
+      MappedClusterIndex index = MappedClusterIndex.open(indexFile);
+      Assert.assertEquals(0, index.getClustersCount());
+      Assert.assertEquals(ClusterIndex.NOT_FOUND, index.findCluster("a"));
+    } finally {
+      indexFile.delete();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testQueryInTwoClusters() {
+    ClusterIndexWriter writer = new ClusterIndexWriter();
+    writer.addCluster(cluster("a", "b"));
+    writer.addCluster(cluster("b", "c"));
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotIndexFile() throws IOException {
+    File textFile = File.createTempFile("clusters", ".txt");
+    try {
+      try (FileWriter output = new FileWriter(textFile)) {
+        output.write("[a, b]\n----------------------------\n");
+        for (int i = 0; i < 10; ++i) {
+          output.write("Maximal size of cluster: 2\n");
+        }
+      }
+      MappedClusterIndex.open(textFile);
+    } finally {
+      textFile.delete();
+    }
+  }
+
+  private static Set<Query> cluster(String... queries) {
+    Set<Query> cluster = new HashSet<>();
+    for (String q : queries) {
+      cluster.add(new Query(q));
+    }
+    return cluster;
+  }
+}
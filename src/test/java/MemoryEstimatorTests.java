@@ -0,0 +1,100 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MemoryEstimatorTests {
+
+  private final String testLogsDirectory = ".$src$test$testLogs$".replaceAll("\\$", File.separator);
+  private final QueryTestLogReader input = new QueryTestLogReader();
+
+  @Test
+  public void testCounts() throws IOException {
+    Set<Query> queries = input.readQueryLog(testLogsDirectory + "noisyLinksTest");
+    MemoryEstimator.Estimate estimate = MemoryEstimator.estimate(queries);
+    Assert.assertEquals(3, estimate.getQueriesCount());
+    Assert.assertEquals(2, estimate.getDocumentsCount());
+    Assert.assertEquals(4, estimate.getLinksCount());
+    // query2 with query1 and query3, document1 with document2
+    Assert.assertEquals(3, estimate.getSiblingPairsCount());
+    Assert.assertTrue(estimate.getHeapBytes(DistanceMatrixType.TREE)
+        > estimate.getHeapBytes(DistanceMatrixType.OFF_HEAP));
+  }
+
+  @Test
+  public void testChooseDistanceMatrixType() throws IOException {
+    Set<Query> queries = input.readQueryLog(testLogsDirectory + "queriesAndDocumentTest");
+    MemoryEstimator.Estimate estimate = MemoryEstimator.estimate(queries);
+    long treeBytes = estimate.getHeapBytes(DistanceMatrixType.TREE);
+    long offHeapBytes = estimate.getHeapBytes(DistanceMatrixType.OFF_HEAP);
+    Assert.assertEquals(DistanceMatrixType.TREE,
+        MemoryEstimator.chooseDistanceMatrixType(estimate, DistanceMatrixType.TREE, treeBytes));
+    Assert.assertEquals(DistanceMatrixType.OFF_HEAP,
+        MemoryEstimator.chooseDistanceMatrixType(estimate, DistanceMatrixType.TREE, treeBytes - 1));
+    try {
+      MemoryEstimator.chooseDistanceMatrixType(estimate, DistanceMatrixType.TREE,
+          offHeapBytes - 1);
+      Assert.fail();
+    } catch (RuntimeException e) {
+      Assert.assertTrue(e.getMessage().contains("8 queries"));
+    }
+  }
+
+  @Test
+  public void testPairsOfHubsAreNotCountedTwice() {
+    // three queries linked to the same 100 documents: three pairs of queries, not 300
+    Set<Query> queries = new HashSet<>();
+    for (int i = 0; i < 3; ++i) {
+      Query query = new Query("q" + i);
+      for (int j = 0; j < 100; ++j) {
+        query.addRelatedDocument(new Document("d" + j));
+      }
+      queries.add(query);
+    }
+    MemoryEstimator.Estimate estimate = MemoryEstimator.estimate(queries);
+    Assert.assertEquals(3 + 100 * 99 / 2, estimate.getSiblingPairsCount());
+    Assert.assertEquals(100 * 99 / 2, estimate.getMaxDistancesPerMatrix());
+  }
+
+  @Test
+  public void testCapacityOfDistanceMatrices() {
+    // fits into heap only off it, but off-heap matrix doesn't hold so many distances
+    MemoryEstimator.Estimate estimate =
+        new MemoryEstimator.Estimate(100000, 100000, 1000000, 3000000000L, 0);
+    Assert.assertFalse(estimate.fits(DistanceMatrixType.OFF_HEAP, Long.MAX_VALUE));
+    try {
+      MemoryEstimator.chooseDistanceMatrixType(estimate, DistanceMatrixType.TREE, Long.MAX_VALUE);
+      Assert.fail();
+    } catch (RuntimeException e) {
+      Assert.assertTrue(e.getMessage().contains("3000000000 distances"));
+    }
+
+    estimate = new MemoryEstimator.Estimate(100000, 100000, 1000000, 1500000000L, 0);
+    Assert.assertEquals(DistanceMatrixType.OFF_HEAP, MemoryEstimator.chooseDistanceMatrixType(
+        estimate, DistanceMatrixType.TREE, estimate.getHeapBytes(DistanceMatrixType.OFF_HEAP)));
+  }
+
+  @Test
+  public void testAlgoFailsFast() throws IOException {
+    Set<Query> queries = input.readQueryLog(testLogsDirectory + "queriesAndDocumentTest");
+    Algo algo = new Algo();
+    algo.setMemoryBudget(1);
+    try {
+      algo.clusterQueries(queries);
+      Assert.fail();
+    } catch (RuntimeException e) {
+      // nothing was allocated for the graph
+      Assert.assertTrue(algo.getAllocatedBytesByPhase().isEmpty());
+    }
+
+    algo.setMemoryBudget(1L << 30);
+    Assert.assertEquals(1, algo.clusterQueries(queries).size());
+    if (MemoryEstimator.allocatedBytes() >= 0) {
+      Assert.assertEquals(Arrays.asList("graph", "siblings", "distances", "clustering"),
+          Arrays.asList(algo.getAllocatedBytesByPhase().keySet().toArray()));
+    }
+  }
+}
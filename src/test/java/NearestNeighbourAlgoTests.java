@@ -0,0 +1,36 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NearestNeighbourAlgoTests {
+
+  private final String testLogsDirectory = ".$src$test$testLogs$".replaceAll("\\$", File.separator);
+  private final QueryTestLogReader input = new QueryTestLogReader();
+
+  @Test
+  public void testSameClustersAsAlgo() throws IOException {
+    String[] testLogs = {"singleQueryTest", "singleQueryAndDocumentTest", "queriesAndDocumentTest",
+        "lotsQueriesTest", "queryAndDocumentsTest", "noisyLinksTest"};
+    for (String testLog : testLogs) {
+      Set<Query> queries = input.readQueryLog(testLogsDirectory + testLog);
+      Assert.assertEquals(testLog, new Algo().clusterQueries(queries),
+          new NearestNeighbourAlgo().clusterQueries(queries));
+    }
+  }
+
+  @Test
+  public void testThreshold() throws IOException {
+    Set<Query> queries = input.readQueryLog(testLogsDirectory + "noisyLinksTest");
+    Assert.assertEquals(1, new NearestNeighbourAlgo(0.01).clusterQueries(queries).size());
+    Assert.assertEquals(3, new NearestNeighbourAlgo(0).clusterQueries(queries).size());
+  }
+
+  @Test
+  public void testEmptySet() {
+    Assert.assertTrue(new NearestNeighbourAlgo().clusterQueries(new HashSet<>()).isEmpty());
+    Assert.assertNull(new NearestNeighbourAlgo().clusterQueries(null));
+  }
+}
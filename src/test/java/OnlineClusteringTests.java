@@ -0,0 +1,154 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OnlineClusteringTests {
+
+  private final String testLogsDirectory = ".$src$test$testLogs$".replaceAll("\\$", File.separator);
+
+  @Test
+  public void testQueriesWithSameDocumentsAreMerged() {
+    OnlineClustering clustering = new OnlineClustering(0.01, 100, 16);
+    clustering.addClick("a", "x");
+    clustering.addClick("b", "x");
+    clustering.addClick("c", "y");
+
+    Assert.assertEquals(2, clustering.getClustersCount());
+    Assert.assertEquals(1, clustering.getMergesCount());
+    Assert.assertEquals(queries("a", "b"), clustering.getClusterOf("a"));
+    Assert.assertEquals(queries("c"), clustering.getClusterOf("c"));
+  }
+
+  @Test
+  public void testDistantQueriesAreNotMerged() {
+    OnlineClustering clustering = new OnlineClustering(0.3, 100, 16);
+    clustering.addClick("a", "x");
+    clustering.addClick("a", "y");
+    clustering.addClick("a", "z");
+    // distance between {x, y, z} and {x} is 1 - 2 / 4
+    clustering.addClick("b", "x");
+    Assert.assertEquals(2, clustering.getClustersCount());
+
+    clustering = new OnlineClustering(0.6, 100, 16);
+    clustering.addClick("a", "x");
+    clustering.addClick("a", "y");
+    clustering.addClick("a", "z");
+    clustering.addClick("b", "x");
+    Assert.assertEquals(1, clustering.getClustersCount());
+  }
+
+  @Test
+  public void testLeastRecentlyClickedClusterIsEvicted() {
+    List<Set<Query>> evicted = new ArrayList<>();
+    OnlineClustering clustering = new OnlineClustering(0.01, 2, 16);
+    clustering.setEvictionListener(evicted::add);
+    clustering.addClick("a", "x");
+    clustering.addClick("b", "y");
+    clustering.addClick("a", "x");
+    clustering.addClick("c", "z");
+
+    Assert.assertEquals(2, clustering.getClustersCount());
+    Assert.assertEquals(Arrays.asList(queries("b")), evicted);
+    Assert.assertTrue(clustering.getClusterOf("b").isEmpty());
+
+    // evicted cluster is not a candidate anymore
+    clustering.addClick("d", "y");
+    Assert.assertEquals(queries("d"), clustering.getClusterOf("d"));
+    Assert.assertEquals(2, clustering.getEvictedClustersCount());
+  }
+
+  @Test
+  public void testCountOfCandidatesIsBounded() {
+    OnlineClustering clustering = new OnlineClustering(0.01, 100, 1);
+    clustering.addClick("a", "x");
+    clustering.addClick("a", "y");
+    clustering.addClick("b", "x");
+    // only b is remembered as candidate for x, a is too far from b
+    clustering.addClick("c", "x");
+    Assert.assertEquals(queries("b", "c"), clustering.getClusterOf("c"));
+    Assert.assertEquals(queries("a"), clustering.getClusterOf("a"));
+  }
+
+  @Test
+  public void testBoundedClustersOnLog() throws IOException {
+    OnlineClustering clustering = new OnlineClustering(0.5, 10, 4);
+    AtomicLong evictedQueries = new AtomicLong();
+    clustering.setEvictionListener(cluster -> evictedQueries.addAndGet(cluster.size()));
+    new QueryLogReader().readLinks(testLogsDirectory + "aolFormatTest", Integer.MAX_VALUE,
+        clustering::addClick);
+
+    Set<Query> queries = new QueryLogReader()
+        .readQueryLog(testLogsDirectory + "aolFormatTest", Integer.MAX_VALUE);
+    long clusteredQueries = 0;
+    for (Set<Query> cluster : clustering.getClusters()) {
+      clusteredQueries += cluster.size();
+    }
+    Assert.assertTrue(clustering.getClustersCount() <= 10);
+    Assert.assertTrue(clustering.getEvictedClustersCount() > 0);
+    Assert.assertTrue(clustering.getMergesCount() > 0);
+    // evicted query which is clicked again starts new cluster
+    Assert.assertTrue(clusteredQueries + evictedQueries.get() >= queries.size());
+  }
+
+  @Test
+  public void testTailingGrowingLog() throws Exception {
+    File logFile = File.createTempFile("growingLog", ".txt");
+    try (FileWriter writer = new FileWriter(logFile)) {
+      writer.write("1\tfirst query\t2006-03-01 07:00:00\t1\thttp://x.com\n");
+      writer.flush();
+
+      OnlineClustering clustering = new OnlineClustering(0.01, 100, 16);
+      TailingInputStream input = new TailingInputStream(logFile, 10);
+      Thread reader = new Thread(() -> {
+        try (BufferedReader lines = new BufferedReader(
+            new InputStreamReader(input, StandardCharsets.UTF_8))) {
+          new QueryLogReader().readLinks(lines, Long.MAX_VALUE, clustering::addClick);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      reader.start();
+
+      writer.write("2\tsecond query\t2006-03-01 07:00:01\t1\thttp://x.com\n");
+      writer.write("3\tthird ");
+      writer.flush();
+      Thread.sleep(100);
+      writer.write("query\t2006-03-01 07:00:02\t1\thttp://y.com\n");
+      writer.flush();
+      long deadline = System.currentTimeMillis() + 10000;
+      while (clustering.getClicksCount() < 3 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      input.close();
+      reader.join(10000);
+
+      Assert.assertFalse(reader.isAlive());
+      Assert.assertEquals(3, clustering.getClicksCount());
+      Assert.assertEquals(queries("first query", "second query"),
+          clustering.getClusterOf("second query"));
+      Assert.assertEquals(queries("third query"), clustering.getClusterOf("third query"));
+    } finally {
+      logFile.delete();
+    }
+  }
+
+  private static Set<Query> queries(String... names) {
+    Set<Query> queries = new HashSet<>();
+    for (String name : names) {
+      queries.add(new Query(name));
+    }
+    return queries;
+  }
+}
@@ -0,0 +1,150 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelGzipInputStreamTests {
+
+  private final String testLogsDirectory = ".$src$test$testLogs$".replaceAll("\\$", File.separator);
+
+  private File gzipFile;
+
+  @Before
+  public void createFile() throws IOException {
+    gzipFile = File.createTempFile("log", ".gz");
+  }
+
+  @After
+  public void deleteFile() {
+    gzipFile.delete();
+  }
+
+  @Test
+  public void testManyMembers() throws IOException {
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    Random random = new Random(7);
+    try (OutputStream output = new FileOutputStream(gzipFile)) {
+      for (int member = 0; member < 40; ++member) {
+        byte[] data = randomLines(random, 1 << 18);
+        expected.write(data);
+        writeMember(output, data, Deflater.DEFAULT_COMPRESSION);
+      }
+    }
+
+    try (ParallelGzipInputStream input = new ParallelGzipInputStream(gzipFile, 4)) {
+      Assert.assertTrue(input.isParallel());
+      Assert.assertArrayEquals(expected.toByteArray(), readAll(input));
+    }
+  }
+
+  @Test
+  public void testOneMember() throws IOException {
+    byte[] data = randomLines(new Random(7), 1 << 20);
+    try (OutputStream output = new FileOutputStream(gzipFile)) {
+      writeMember(output, data, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    try (ParallelGzipInputStream input = new ParallelGzipInputStream(gzipFile, 4)) {
+      Assert.assertFalse(input.isParallel());
+      Assert.assertArrayEquals(data, readAll(input));
+    }
+  }
+
+  @Test
+  public void testHeaderInsideOfMember() throws IOException {
+    // stored blocks keep data as is, so header of member appears inside of compressed data
+    byte[] data = new byte[ParallelGzipInputStream.TASK_BYTES * 2];
+    new Random(7).nextBytes(data);
+    byte[] header = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 0};
+    System.arraycopy(header, 0, data, ParallelGzipInputStream.TASK_BYTES + 100, header.length);
+    byte[] next = randomLines(new Random(8), 1 << 16);
+    try (OutputStream output = new FileOutputStream(gzipFile)) {
+      writeMember(output, data, Deflater.NO_COMPRESSION);
+      writeMember(output, next, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    try (ParallelGzipInputStream input = new ParallelGzipInputStream(gzipFile, 4)) {
+      Assert.assertTrue(input.isParallel());
+      byte[] expected = Arrays.copyOf(data, data.length + next.length);
+      System.arraycopy(next, 0, expected, data.length, next.length);
+      Assert.assertArrayEquals(expected, readAll(input));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testCorruptMember() throws IOException {
+    Random random = new Random(7);
+    try (OutputStream output = new FileOutputStream(gzipFile)) {
+      for (int member = 0; member < 8; ++member) {
+        writeMember(output, randomLines(random, 1 << 20), Deflater.DEFAULT_COMPRESSION);
+      }
+    }
+    try (RandomAccessFile file = new RandomAccessFile(gzipFile, "rw")) {
+      // breaks checksum of the last member
+      file.seek(file.length() - 6);
+      int checksumByte = file.read();
+      file.seek(file.length() - 6);
+      file.write(checksumByte ^ 0xff);
+    }
+
+    try (ParallelGzipInputStream input = new ParallelGzipInputStream(gzipFile, 4)) {
+      readAll(input);
+    }
+  }
+
+  @Test
+  public void testQueryLogReaderReadsGzip() throws IOException {
+    String plainLog = testLogsDirectory + "aolFormatTest";
+    try (OutputStream output = new GZIPOutputStream(new FileOutputStream(gzipFile))) {
+      output.write(Files.readAllBytes(new File(plainLog).toPath()));
+    }
+
+    QueryLogReader reader = new QueryLogReader();
+    Assert.assertEquals(reader.readQueryLog(plainLog, Integer.MAX_VALUE),
+        reader.readQueryLog(gzipFile.getPath(), Integer.MAX_VALUE));
+    Assert.assertFalse(ParallelGzipInputStream.isGzip(new File(plainLog)));
+  }
+
+  private static void writeMember(OutputStream output, byte[] data, int level)
+      throws IOException {
+    GZIPOutputStream member = new GZIPOutputStream(output) {
+      {
+        def.setLevel(level);
+      }
+    };
+    member.write(data);
+    member.finish();
+  }
+
+  private static byte[] randomLines(Random random, int size) {
+    StringBuilder lines = new StringBuilder();
+    while (lines.length() < size) {
+      lines.append(random.nextInt(10000)).append("\tquery ").append(random.nextInt(500))
+          .append("\thttp://www.site").append(random.nextInt(2000)).append(".com\n");
+    }
+    return lines.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] readAll(InputStream input) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int count;
+    while ((count = input.read(buffer)) > 0) {
+      result.write(buffer, 0, count);
+    }
+    return result.toByteArray();
+  }
+}
@@ -0,0 +1,162 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PipelinedRunnerTests {
+
+  private final String testLogsDirectory = ".$src$test$testLogs$".replaceAll("\\$", File.separator);
+
+  @Test
+  public void testSameClustersAsAlgo() throws IOException {
+    // logs of different sizes, including empty one
+    List<String> lines = Files.readAllLines(Paths.get(testLogsDirectory + "aolFormatTest"));
+    File logsDirectory = Files.createTempDirectory("logs").toFile();
+    List<Path> logFiles = new ArrayList<>();
+    try {
+      for (int linesCount : new int[]{400, 10, 0, 250, 1, 400}) {
+        Path logFile = new File(logsDirectory, "log" + logFiles.size()).toPath();
+        Files.write(logFile, lines.subList(0, linesCount));
+        logFiles.add(logFile);
+      }
+
+      for (int[] threadsAndCapacity : new int[][]{{1, 1}, {4, 2}, {3, 64}}) {
+        RecordingWriter writer = new RecordingWriter();
+        new PipelinedRunner(() -> new Algo(0.5), threadsAndCapacity[0], threadsAndCapacity[1])
+            .run(logFiles, Integer.MAX_VALUE, writer);
+
+        Assert.assertEquals(logFiles, writer.finishedLogs);
+        for (int log = 0; log < logFiles.size(); ++log) {
+          Set<Query> queries = new QueryLogReader()
+              .readQueryLog(logFiles.get(log).toString(), Integer.MAX_VALUE);
+          Assert.assertEquals(new Algo(0.5).clusterQueries(queries), writer.clusters.get(log));
+        }
+      }
+    } finally {
+      for (Path logFile : logFiles) {
+        Files.delete(logFile);
+      }
+      logsDirectory.delete();
+    }
+  }
+
+  @Test
+  public void testLineLimit() throws IOException {
+    Path logFile = Paths.get(testLogsDirectory + "aolFormatTest");
+    RecordingWriter writer = new RecordingWriter();
+    new PipelinedRunner(() -> new Algo(0.5), 2, 4).run(Arrays.asList(logFile), 100, writer);
+
+    Set<Query> queries = new QueryLogReader().readQueryLog(logFile.toString(), 100);
+    Assert.assertEquals(new Algo(0.5).clusterQueries(queries), writer.clusters.get(0));
+  }
+
+  @Test
+  public void testReadersAreUsed() throws IOException {
+    Path logFile = Paths.get(testLogsDirectory + "aolFormatTest");
+    AtomicInteger createdReaders = new AtomicInteger();
+    Supplier<QueryLogReader> readers = () -> {
+      createdReaders.incrementAndGet();
+      QueryLogReader reader = new QueryLogReader();
+      reader.setCanonicalizer(new Canonicalizer(EnumSet.allOf(Canonicalizer.Rule.class), 64));
+      return reader;
+    };
+    RecordingWriter writer = new RecordingWriter();
+    new PipelinedRunner(() -> new Algo(0.5), readers, 2, 4)
+        .run(Arrays.asList(logFile), Integer.MAX_VALUE, writer);
+    Assert.assertEquals(1, createdReaders.get());
+
+    Set<Query> queries = readers.get().readQueryLog(logFile.toString(), Integer.MAX_VALUE);
+    Assert.assertEquals(new Algo(0.5).clusterQueries(queries), writer.clusters.get(0));
+  }
+
+  @Test
+  public void testResultsOfNextLogsAreBounded() throws IOException {
+    // the first log is written slowly, partitions of the next logs must not pile up meanwhile
+    Path logFile = Paths.get(testLogsDirectory + "aolFormatTest");
+    AtomicInteger clustered = new AtomicInteger();
+    AtomicInteger written = new AtomicInteger();
+    AtomicInteger maxUnwritten = new AtomicInteger();
+    int threads = 2;
+    int capacity = 2;
+    new PipelinedRunner(() -> queries -> {
+      maxUnwritten.accumulateAndGet(clustered.incrementAndGet() - written.get(), Math::max);
+      return new Algo(0.5).clusterQueries(queries);
+    }, threads, capacity).run(Collections.nCopies(8, logFile), Integer.MAX_VALUE,
+        new RecordingWriter() {
+          @Override
+          public void writeClusters(Path logFile, Set<Set<Query>> clusters) throws IOException {
+            if (written.get() == 0) {
+              try {
+                Thread.sleep(300);
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+            }
+            written.incrementAndGet();
+            super.writeClusters(logFile, clusters);
+          }
+        });
+    Assert.assertTrue(clustered.get() > 2 * (capacity + threads));
+    Assert.assertTrue(maxUnwritten.get() <= capacity + threads);
+  }
+
+  @Test(expected = IOException.class)
+  public void testFailureOfWriter() throws IOException {
+    Path logFile = Paths.get(testLogsDirectory + "aolFormatTest");
+    new PipelinedRunner(() -> new Algo(0.5), 2, 1).run(Arrays.asList(logFile, logFile, logFile),
+        Integer.MAX_VALUE, new RecordingWriter() {
+          @Override
+          public void writeClusters(Path logFile, Set<Set<Query>> clusters) throws IOException {
+            throw new IOException("Disk is full");
+          }
+        });
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingLog() throws IOException {
+    new PipelinedRunner(() -> new Algo(0.5), 2, 1).run(
+        Arrays.asList(Paths.get(testLogsDirectory + "noSuchLog")), Integer.MAX_VALUE,
+        new RecordingWriter());
+  }
+
+  private static class RecordingWriter implements PipelinedRunner.ResultWriter {
+
+    private final List<Path> finishedLogs = new ArrayList<>();
+    private final Map<Integer, Set<Set<Query>>> clusters = new HashMap<>();
+    private Path currentLog = null;
+
+    @Override
+    public void startLog(Path logFile) {
+      Assert.assertNull(currentLog);
+      currentLog = logFile;
+      clusters.put(finishedLogs.size(), new HashSet<>());
+    }
+
+    @Override
+    public void writeClusters(Path logFile, Set<Set<Query>> clusters) throws IOException {
+      Assert.assertEquals(currentLog, logFile);
+      this.clusters.get(finishedLogs.size()).addAll(clusters);
+    }
+
+    @Override
+    public void finishLog(Path logFile) {
+      Assert.assertEquals(currentLog, logFile);
+      finishedLogs.add(logFile);
+      currentLog = null;
+    }
+  }
+}
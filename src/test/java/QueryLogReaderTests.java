@@ -0,0 +1,89 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryLogReaderTests {
+
+  private Path firstLog;
+  private Path secondLog;
+
+  @Before
+  public void createLogs() throws IOException {
+    firstLog = Files.createTempFile("firstLog", "");
+    secondLog = Files.createTempFile("secondLog", "");
+    Files.write(firstLog, Arrays.asList(
+        "1\tCars\t2006-03-01 10:00:00\t1\thttp://cars.com",
+        "1\t-\t2006-03-01 10:00:01\t2\thttp://auto.com",
+        "2\tbikes\t2006-03-01 10:00:02\t1\thttp://bikes.com"));
+    Files.write(secondLog, Arrays.asList(
+        "3\tcars\t2006-03-02 10:00:00\t1\thttp://cars.com",
+        "4\ttrains\t2006-03-02 10:00:01\t1\thttp://trains.com",
+        "4\tbikes\t2006-03-02 10:00:02"));
+  }
+
+  @After
+  public void deleteLogs() throws IOException {
+    Files.delete(firstLog);
+    Files.delete(secondLog);
+  }
+
+  @Test
+  public void testLinksOfSeveralLogsAreSummed() throws IOException {
+    Set<Query> queries = new QueryLogReader().readQueryLogs(
+        Arrays.asList(firstLog.toString(), secondLog.toString()), 100);
+
+    Map<String, Query> byName = new HashMap<>();
+    queries.forEach(query -> byName.put(query.toString(), query));
+    Assert.assertEquals(3, queries.size());
+    Assert.assertEquals(2, byName.get("cars").getLinksCount(new Document("http://cars.com")));
+    Assert.assertEquals(1, byName.get("cars").getLinksCount(new Document("http://auto.com")));
+    Assert.assertEquals(1, byName.get("trains").getRelatedDocuments().size());
+  }
+
+  @Test
+  public void testDocumentsAreShared() throws IOException {
+    Files.write(secondLog, Collections.singletonList(
+        "3\tautomobiles\t2006-03-02 10:00:00\t1\thttp://cars.com"));
+    Set<Query> queries = new QueryLogReader().readQueryLogs(
+        Arrays.asList(firstLog.toString(), secondLog.toString()), 100);
+
+    Map<Document, Boolean> distinctDocuments = new IdentityHashMap<>();
+    for (Query query : queries) {
+      query.getRelatedDocuments().forEach(document -> distinctDocuments.put(document, true));
+    }
+    Assert.assertEquals(3, distinctDocuments.size());
+  }
+
+  @Test
+  public void testLineLimitIsPerLog() throws IOException {
+    Set<Query> queries = new QueryLogReader().readQueryLogs(
+        Arrays.asList(firstLog.toString(), secondLog.toString()), 1);
+    Assert.assertEquals(1, queries.size());
+    Assert.assertEquals(2,
+        queries.iterator().next().getLinksCount(new Document("http://cars.com")));
+  }
+
+  @Test
+  public void testSameAsSingleLog() throws IOException {
+    String log = ".$src$test$testLogs$aolFormatTest".replaceAll("\\$", File.separator);
+    QueryLogReader reader = new QueryLogReader();
+    Assert.assertEquals(reader.readQueryLog(log, 300),
+        reader.readQueryLogs(Collections.singletonList(log), 300));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullLog() throws IOException {
+    new QueryLogReader().readQueryLogs(Arrays.asList(firstLog.toString(), null), 100);
+  }
+}
@@ -0,0 +1,296 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures how reading of log and clustering scale with size of log and skew of links. Logs of
+ * AOL format are generated for doubling counts of lines, for every size and phase wall time,
+ * allocated bytes, peak heap and count of iterations are measured (minimum of REPETITIONS runs),
+ * then growth exponent k of every metric (metric ~ lines^k) is fitted by least squares in log-log
+ * scale.
+ * <p>
+ * Report is tab separated: rows "point" hold measurements, rows "exponent" hold fitted exponents.
+ * Exponents are compared with baseline report (DEFAULT_BASELINE unless other file or "-" for no
+ * baseline is given): phase which became super-linear or grows faster than in baseline by more
+ * than TOLERANCE is reported and exit code is 2. Default baseline was measured with default
+ * arguments, exponents of other sizes and skews are not comparable with it.
+ * <p>
+ * Usage: ScalingBenchmark reportFile [baselineFile|-] [startLines] [steps] [skews] [threshold]
+ */
+public class ScalingBenchmark {
+
+  // exponents larger than this are super-linear, small logs add noise to exponents of linear ones
+  private static final double LINEAR_EXPONENT = 1.15;
+  private static final double TOLERANCE = 0.15;
+  // every size is measured this many times and minimum of every metric is kept: pauses of GC and
+  // of other processes only add time
+  private static final int REPETITIONS = 3;
+  private static final String[] METRICS = {"wallNanos", "allocatedBytes", "peakHeapBytes"};
+  static final String DEFAULT_BASELINE =
+      ".$src$test$resources$scalingBaseline.tsv".replaceAll("\\$", File.separator);
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: ScalingBenchmark reportFile [baselineFile|-] [startLines] "
+          + "[steps] [skews] [threshold]");
+      System.exit(1);
+    }
+    String baseline = args.length > 1 ? args[1] : DEFAULT_BASELINE;
+    if (baseline.equals("-")) {
+      baseline = null;
+    }
+    int startLines = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+    int steps = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+    String[] skews = (args.length > 4 ? args[4] : "1,3").split(",");
+    double threshold = args.length > 5 ? Double.parseDouble(args[5]) : 0.5;
+
+    Path directory = Files.createTempDirectory("scaling");
+    List<Point> points = new ArrayList<>();
+    try {
+      // warm up, so that the first size is not measured in interpreter
+      measure(directory, startLines, Double.parseDouble(skews[0]), threshold);
+      for (String skew : skews) {
+        for (int step = 0; step < steps; ++step) {
+          int lines = startLines << step;
+          List<Point> measured = measure(directory, lines, Double.parseDouble(skew), threshold);
+          for (int repetition = 1; repetition < REPETITIONS; ++repetition) {
+            List<Point> again = measure(directory, lines, Double.parseDouble(skew), threshold);
+            for (int i = 0; i < measured.size(); ++i) {
+              for (int metric = 0; metric < METRICS.length; ++metric) {
+                measured.get(i).metrics[metric] =
+                    Math.min(measured.get(i).metrics[metric], again.get(i).metrics[metric]);
+              }
+            }
+          }
+          for (Point point : measured) {
+            System.out.println(point.toRow());
+          }
+          points.addAll(measured);
+        }
+      }
+    } finally {
+      for (File file : directory.toFile().listFiles()) {
+        file.delete();
+      }
+      directory.toFile().delete();
+    }
+
+    Map<String, double[]> exponents = fitExponents(points);
+    try (PrintWriter report = new PrintWriter(Files.newBufferedWriter(new File(args[0]).toPath(),
+        StandardCharsets.UTF_8))) {
+      report.println("kind\tphase\tskew\tlines\t" + String.join("\t", METRICS) + "\titerations");
+      for (Point point : points) {
+        report.println(point.toRow());
+      }
+      for (Map.Entry<String, double[]> exponent : exponents.entrySet()) {
+        report.println(exponentRow(exponent.getKey(), exponent.getValue()));
+      }
+    }
+    for (Map.Entry<String, double[]> exponent : exponents.entrySet()) {
+      System.out.println(exponentRow(exponent.getKey(), exponent.getValue()));
+    }
+
+    if (baseline != null) {
+      List<String> regressions = compare(readExponents(baseline), exponents);
+      for (String regression : regressions) {
+        System.out.println("REGRESSION " + regression);
+      }
+      if (!regressions.isEmpty()) {
+        System.exit(2);
+      }
+    }
+  }
+
+  static class Point {
+
+    final String phase;
+    final double skew;
+    final int lines;
+    final long[] metrics;
+    final long iterations;
+
+    Point(String phase, double skew, int lines, long[] metrics, long iterations) {
+      this.phase = phase;
+      this.skew = skew;
+      this.lines = lines;
+      this.metrics = metrics;
+      this.iterations = iterations;
+    }
+
+    String key() {
+      return phase + "\t" + skew;
+    }
+
+    String toRow() {
+      StringBuilder row = new StringBuilder("point\t" + key() + "\t" + lines);
+      for (long metric : metrics) {
+        row.append('\t').append(metric);
+      }
+      return row.append('\t').append(iterations).toString();
+    }
+  }
+
+  private static List<Point> measure(Path directory, int lines, double skew, double threshold)
+      throws IOException {
+    File log = directory.resolve("log-" + lines + "-" + skew).toFile();
+    generateLog(log, lines, skew, 7);
+    List<Point> points = new ArrayList<>();
+
+    AtomicReference<Set<Query>> queries = new AtomicReference<>();
+    long[] metrics = measurePhase(() -> queries.set(new QueryLogReader()
+        .readQueryLog(log.getPath(), Integer.MAX_VALUE)));
+    points.add(new Point("read", skew, lines, metrics, lines));
+
+    Algo algo = new Algo(threshold);
+    long[] merges = new long[1];
+    algo.setProgressListener((mergesCount, distance, pairs) -> merges[0] = mergesCount);
+    metrics = measurePhase(() -> algo.clusterQueries(queries.get()));
+    points.add(new Point("cluster", skew, lines, metrics, merges[0]));
+    log.delete();
+    return points;
+  }
+
+  private interface Phase {
+
+    void run() throws IOException;
+  }
+
+  /**
+   * @return wall time, allocated bytes and growth of peak heap above heap used before the phase
+   */
+  private static long[] measurePhase(Phase phase) throws IOException {
+    System.gc();
+    long usedBefore = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    BatchRunner.resetPeakHeapUsage();
+    long allocatedBefore = MemoryEstimator.allocatedBytes();
+    long start = System.nanoTime();
+    phase.run();
+    long wallNanos = System.nanoTime() - start;
+    long allocated = MemoryEstimator.allocatedBytes() - allocatedBefore;
+    long peak = Math.max(0, BatchRunner.getPeakHeapUsage() - usedBefore);
+    return new long[]{wallNanos, allocated, peak};
+  }
+
+  /**
+   * Log of AOL format: queries are variants of topics, topics get clicks on a few sites of their
+   * own. Topic of line is lines * u^skew for uniform u, so larger skew makes popular topics more
+   * popular
+   */
+  static void generateLog(File log, int lines, double skew, long seed) throws IOException {
+    Random random = new Random(seed);
+    int topicsCount = Math.max(1, lines / 4);
+    try (BufferedWriter output = Files.newBufferedWriter(log.toPath(), StandardCharsets.UTF_8)) {
+      for (int i = 0; i < lines; ++i) {
+        int topic = (int) (topicsCount * Math.pow(random.nextDouble(), skew));
+        output.write(i + "\tquery " + topic + " " + random.nextInt(4) + "\t2006-03-01 07:00:00\t"
+            + (1 + random.nextInt(10)) + "\thttp://www.site" + topic + "-" + random.nextInt(3)
+            + ".com\n");
+      }
+    }
+  }
+
+  /**
+   * @return exponents of every metric and of iterations by phase and skew
+   */
+  static Map<String, double[]> fitExponents(List<Point> points) {
+    Map<String, List<Point>> byKey = new HashMap<>();
+    List<String> keys = new ArrayList<>();
+    for (Point point : points) {
+      if (!byKey.containsKey(point.key())) {
+        keys.add(point.key());
+      }
+      byKey.computeIfAbsent(point.key(), key -> new ArrayList<>()).add(point);
+    }
+    Map<String, double[]> exponents = new LinkedHashMap<>();
+    for (String key : keys) {
+      List<Point> series = byKey.get(key);
+      double[] keyExponents = new double[METRICS.length + 1];
+      for (int metric = 0; metric <= METRICS.length; ++metric) {
+        double[] x = new double[series.size()];
+        double[] y = new double[series.size()];
+        for (int i = 0; i < series.size(); ++i) {
+          Point point = series.get(i);
+          x[i] = Math.log(point.lines);
+          long value = metric < METRICS.length ? point.metrics[metric] : point.iterations;
+          y[i] = Math.log(Math.max(1, value));
+        }
+        keyExponents[metric] = slope(x, y);
+      }
+      exponents.put(key, keyExponents);
+    }
+    return exponents;
+  }
+
+  private static double slope(double[] x, double[] y) {
+    double meanX = 0;
+    double meanY = 0;
+    for (int i = 0; i < x.length; ++i) {
+      meanX += x[i] / x.length;
+      meanY += y[i] / y.length;
+    }
+    double covariance = 0;
+    double variance = 0;
+    for (int i = 0; i < x.length; ++i) {
+      covariance += (x[i] - meanX) * (y[i] - meanY);
+      variance += (x[i] - meanX) * (x[i] - meanX);
+    }
+    return variance == 0 ? 0 : covariance / variance;
+  }
+
+  private static String exponentRow(String key, double[] exponents) {
+    StringBuilder row = new StringBuilder("exponent\t" + key + "\t-");
+    for (double exponent : exponents) {
+      row.append('\t').append(String.format(Locale.ROOT, "%.3f", exponent));
+    }
+    return row.toString();
+  }
+
+  static Map<String, double[]> readExponents(String report) throws IOException {
+    Map<String, double[]> exponents = new HashMap<>();
+    for (String line : Files.readAllLines(new File(report).toPath(), StandardCharsets.UTF_8)) {
+      String[] fields = line.split("\t");
+      if (fields[0].equals("exponent")) {
+        double[] values = new double[fields.length - 4];
+        for (int i = 0; i < values.length; ++i) {
+          values[i] = Double.parseDouble(fields[i + 4]);
+        }
+        exponents.put(fields[1] + "\t" + fields[2], values);
+      }
+    }
+    return exponents;
+  }
+
+  /**
+   * @return descriptions of metrics which became super-linear or grow faster than in baseline
+   */
+  static List<String> compare(Map<String, double[]> baseline, Map<String, double[]> current) {
+    List<String> regressions = new ArrayList<>();
+    for (Map.Entry<String, double[]> entry : current.entrySet()) {
+      double[] base = baseline.get(entry.getKey());
+      if (base == null) {
+        continue;
+      }
+      for (int metric = 0; metric < METRICS.length; ++metric) {
+        double exponent = entry.getValue()[metric];
+        if (exponent > LINEAR_EXPONENT && exponent > base[metric] + TOLERANCE) {
+          regressions.add(String.format(Locale.ROOT, "%s %s: exponent %.3f, baseline %.3f",
+              entry.getKey().replace('\t', ' '), METRICS[metric], exponent, base[metric]));
+        }
+      }
+    }
+    return regressions;
+  }
+}
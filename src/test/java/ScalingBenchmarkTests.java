@@ -0,0 +1,69 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ScalingBenchmarkTests {
+
+  /**
+   * wall time ~ lines^2, allocated bytes ~ lines, peak heap is constant, iterations ~ lines^1.5
+   */
+  private static List<ScalingBenchmark.Point> syntheticPoints(String phase) {
+    List<ScalingBenchmark.Point> points = new ArrayList<>();
+    for (int lines = 1000; lines <= 16000; lines *= 2) {
+      points.add(new ScalingBenchmark.Point(phase, 1, lines,
+          new long[]{(long) lines * lines, 50L * lines, 1 << 20}, (long) Math.pow(lines, 1.5)));
+    }
+    return points;
+  }
+
+  @Test
+  public void testFitExponents() {
+    List<ScalingBenchmark.Point> points = syntheticPoints("cluster");
+    points.addAll(syntheticPoints("read"));
+    Map<String, double[]> exponents = ScalingBenchmark.fitExponents(points);
+
+    Assert.assertEquals(2, exponents.size());
+    Assert.assertArrayEquals(new double[]{2, 1, 0, 1.5}, exponents.get("cluster\t1.0"), 1e-3);
+    Assert.assertArrayEquals(new double[]{2, 1, 0, 1.5}, exponents.get("read\t1.0"), 1e-3);
+  }
+
+  @Test
+  public void testCompare() {
+    Map<String, double[]> current = ScalingBenchmark.fitExponents(syntheticPoints("cluster"));
+
+    // wall time is quadratic in both, allocated bytes became super-linear
+    Map<String, double[]> baseline =
+        Collections.singletonMap("cluster\t1.0", new double[]{1.95, 0.5, 0, 1.5});
+    Assert.assertEquals(Collections.emptyList(),
+        ScalingBenchmark.compare(baseline, current));
+    current.get("cluster\t1.0")[1] = 1.3;
+    List<String> regressions = ScalingBenchmark.compare(baseline, current);
+    Assert.assertEquals(1, regressions.size());
+    Assert.assertTrue(regressions.get(0), regressions.get(0).contains("allocatedBytes"));
+
+    // wall time grows faster than in baseline by more than tolerance
+    baseline = Collections.singletonMap("cluster\t1.0", new double[]{1.5, 1.3, 0, 1.5});
+    regressions = ScalingBenchmark.compare(baseline, current);
+    Assert.assertEquals(1, regressions.size());
+    Assert.assertTrue(regressions.get(0), regressions.get(0).contains("wallNanos"));
+
+    // phases which are not in baseline are not compared
+    Assert.assertEquals(Collections.emptyList(),
+        ScalingBenchmark.compare(Collections.emptyMap(), current));
+  }
+
+  @Test
+  public void testDefaultBaselineHasAllPhases() throws IOException {
+    Map<String, double[]> baseline = ScalingBenchmark.readExponents(
+        ScalingBenchmark.DEFAULT_BASELINE);
+    for (String phase : new String[]{"read", "cluster"}) {
+      for (String skew : new String[]{"1.0", "3.0"}) {
+        Assert.assertEquals(4, baseline.get(phase + "\t" + skew).length);
+      }
+    }
+  }
+}
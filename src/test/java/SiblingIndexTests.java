@@ -0,0 +1,60 @@
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SiblingIndexTests {
+
+  @Test
+  public void testAddSharedNeighbours() {
+    SiblingIndex<Object> index = new SiblingIndex<>();
+    Object o1 = new Object();
+    Object o2 = new Object();
+
+    Assert.assertEquals(1, index.addSharedNeighbours(o1, o2, 1));
+    Assert.assertEquals(3, index.addSharedNeighbours(o2, o1, 2));
+
+    Assert.assertEquals(3, index.getSharedNeighboursCount(o1, o2));
+    Assert.assertEquals(3, index.getSharedNeighboursCount(o2, o1));
+    Assert.assertTrue(index.getSiblings(o1).contains(o2));
+    Assert.assertTrue(index.getSiblings(o2).contains(o1));
+    Assert.assertEquals(1, index.size());
+  }
+
+  @Test
+  public void testCountDropsToZero() {
+    SiblingIndex<Object> index = new SiblingIndex<>();
+    Object o1 = new Object();
+    Object o2 = new Object();
+
+    index.addSharedNeighbours(o1, o2, 2);
+    Assert.assertEquals(1, index.addSharedNeighbours(o1, o2, -1));
+    Assert.assertEquals(0, index.addSharedNeighbours(o1, o2, -1));
+
+    Assert.assertFalse(index.getSiblings(o1).contains(o2));
+    Assert.assertTrue(index.getSiblings(o2).isEmpty());
+    Assert.assertEquals(0, index.size());
+  }
+
+  @Test
+  public void testDeleteNode() {
+    SiblingIndex<Object> index = new SiblingIndex<>();
+    Object[] nodes = {new Object(), new Object(), new Object()};
+    index.addSharedNeighbours(nodes[0], nodes[1], 1);
+    index.addSharedNeighbours(nodes[0], nodes[2], 2);
+    index.addSharedNeighbours(nodes[1], nodes[2], 1);
+
+    Map<Object, Integer> deleted = index.deleteNode(nodes[0]);
+    Assert.assertEquals(2, deleted.size());
+    Assert.assertEquals(Integer.valueOf(2), deleted.get(nodes[2]));
+
+    Assert.assertEquals(0, index.getSharedNeighboursCount(nodes[1], nodes[0]));
+    Assert.assertFalse(index.getSiblings(nodes[2]).contains(nodes[0]));
+    Assert.assertEquals(1, index.size());
+    Assert.assertTrue(index.deleteNode(nodes[0]).isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAddSharedNeighbours_Null() {
+    new SiblingIndex<>().addSharedNeighbours(null, new Object(), 1);
+  }
+}
@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StringArenaTests {
+
+  @Test
+  public void testInternReturnsSameId() {
+    StringArena arena = new StringArena();
+    int cars = arena.intern("cars");
+    int bikes = arena.intern("bikes");
+    Assert.assertEquals(0, cars);
+    Assert.assertEquals(1, bikes);
+    Assert.assertEquals(cars, arena.intern(new String("cars")));
+    Assert.assertEquals(2, arena.size());
+    Assert.assertEquals(9, arena.getUsedBytes());
+  }
+
+  @Test
+  public void testManyStrings() {
+    StringArena arena = new StringArena();
+    List<String> strings = new ArrayList<>();
+    for (int i = 0; i < 100000; ++i) {
+      strings.add("http://www.site" + i + ".com/");
+    }
+    // string longer than slab
+    StringBuilder longString = new StringBuilder();
+    while (longString.length() < 3 << 20) {
+      longString.append("long url ");
+    }
+    strings.add(longString.toString());
+    strings.add("\u0437\u0430\u043f\u0440\u043e\u0441 \ud83d\ude00");
+    strings.add("");
+
+    for (int i = 0; i < strings.size(); ++i) {
+      Assert.assertEquals(i, arena.intern(strings.get(i)));
+    }
+    for (int i = 0; i < strings.size(); ++i) {
+      Assert.assertEquals(strings.get(i), arena.get(i));
+      Assert.assertEquals(strings.get(i).hashCode(), arena.hashOf(i));
+      Assert.assertEquals(i, arena.intern(strings.get(i)));
+    }
+  }
+
+  @Test
+  public void testInternAfterTrim() {
+    StringArena arena = new StringArena();
+    for (int i = 0; i < 3000; ++i) {
+      arena.intern("query " + i);
+    }
+    arena.trimToSize();
+    Assert.assertEquals("query 2999", arena.get(2999));
+    Assert.assertEquals(17, arena.intern("query 17"));
+    Assert.assertEquals(3000, arena.intern("query 3000"));
+    Assert.assertEquals("query 3000", arena.get(3000));
+    Assert.assertEquals("query 5", arena.get(5));
+  }
+
+  @Test
+  public void testHandlesEqualToStringObjects() {
+    StringArena arena = new StringArena();
+    Query query = new Query(arena, arena.intern("cars"));
+    Document document = new Document(arena, arena.intern("http://cars.com"));
+
+    Assert.assertEquals(new Query("cars"), query);
+    Assert.assertEquals(query, new Query("cars"));
+    Assert.assertEquals(new Query("cars").hashCode(), query.hashCode());
+    Assert.assertEquals(new Document("http://cars.com"), document);
+    Assert.assertEquals(new Document("http://cars.com").hashCode(), document.hashCode());
+    Assert.assertNotEquals(query, new Query(arena, arena.intern("bikes")));
+
+    Set<Query> queries = new HashSet<>();
+    queries.add(query);
+    Assert.assertTrue(queries.contains(new Query("cars")));
+    Assert.assertEquals("cars", query.toString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownId() {
+    new StringArena().get(0);
+  }
+}
@@ -0,0 +1,134 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WindowedClusteringTests {
+
+  private final String testLogsDirectory = ".$src$test$testLogs$".replaceAll("\\$", File.separator);
+
+  @Test
+  public void testSameClustersAsAlgoInEveryWindow() throws IOException {
+    String logFile = testLogsDirectory + "aolFormatTest";
+    long[][] windowsAndSlides = {
+        {TimeUnit.MINUTES.toMillis(30), TimeUnit.MINUTES.toMillis(10)},
+        {TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1)},
+        {TimeUnit.MINUTES.toMillis(5), TimeUnit.MINUTES.toMillis(1)}};
+    for (long[] windowAndSlide : windowsAndSlides) {
+      List<Long> windowEnds = new ArrayList<>();
+      new WindowedClustering(new Algo(0.5), windowAndSlide[0]).clusterQueryLog(logFile,
+          Integer.MAX_VALUE, windowAndSlide[1], (windowStart, windowEnd, clusters) -> {
+            windowEnds.add(windowEnd);
+            Assert.assertEquals(windowAndSlide[0], windowEnd - windowStart);
+            Assert.assertEquals(0, windowEnd % windowAndSlide[1]);
+            try {
+              Set<Query> queries = readWindow(logFile, windowStart, windowEnd);
+              Assert.assertFalse(queries.isEmpty());
+              Assert.assertEquals(new Algo(0.5).clusterQueries(queries), clusters);
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          });
+      Assert.assertTrue(windowEnds.size() > 1);
+    }
+  }
+
+  @Test
+  public void testSpilledRunsGiveSameWindows() throws IOException {
+    String logFile = testLogsDirectory + "aolFormatTest";
+    long windowMillis = TimeUnit.MINUTES.toMillis(30);
+    long slideMillis = TimeUnit.MINUTES.toMillis(10);
+    List<Set<Set<Query>>> expected = new ArrayList<>();
+    new WindowedClustering(new Algo(0.5), windowMillis).clusterQueryLog(logFile,
+        Integer.MAX_VALUE, slideMillis, (windowStart, windowEnd, clusters) ->
+            expected.add(clusters));
+
+    List<Set<Set<Query>>> windows = new ArrayList<>();
+    TimeOrderedLinks log = new TimeOrderedLinks(new QueryLogReader(),
+        new File(System.getProperty("java.io.tmpdir")), 5);
+    new WindowedClustering(new Algo(0.5), windowMillis, log).clusterQueryLog(logFile,
+        Integer.MAX_VALUE, slideMillis, (windowStart, windowEnd, clusters) ->
+            windows.add(clusters));
+    Assert.assertEquals(expected, windows);
+  }
+
+  @Test
+  public void testTimeOrderedLinks() throws IOException {
+    String logFile = testLogsDirectory + "aolFormatTest";
+    Map<String, Integer> expectedLinks = new HashMap<>();
+    new QueryLogReader().readTimedLinks(logFile, Integer.MAX_VALUE, (query, document, time) ->
+        expectedLinks.merge(query + "\t" + document + "\t" + time, 1, Integer::sum));
+    // 2 links per run make more than MAX_OPEN_RUNS runs, they are merged in several passes
+    for (int runLinks : new int[]{2, 7, Integer.MAX_VALUE}) {
+      Map<String, Integer> links = new HashMap<>();
+      long[] lastTime = {Long.MIN_VALUE};
+      new TimeOrderedLinks(new QueryLogReader(), new File(System.getProperty("java.io.tmpdir")),
+          runLinks).read(logFile, Integer.MAX_VALUE, (query, document, time) -> {
+            Assert.assertTrue(time >= lastTime[0]);
+            lastTime[0] = time;
+            links.merge(query + "\t" + document + "\t" + time, 1, Integer::sum);
+          });
+      Assert.assertEquals(expectedLinks, links);
+    }
+  }
+
+  @Test
+  public void testOnlyChangedComponentsAreClusteredAgain() {
+    WindowedClustering clustering = new WindowedClustering(new Algo(0.5), 100);
+    clustering.addLink("a", "x", 0);
+    clustering.addLink("b", "x", 0);
+    clustering.addLink("c", "y", 10);
+    clustering.addLink("d", "y", 10);
+    clustering.addLink("d", "z", 10);
+    clustering.slideTo(20);
+    Assert.assertEquals(2, clustering.getClusters().size());
+    Assert.assertEquals(4, clustering.getReclusteredQueriesCount());
+
+    clustering.addLink("e", "x", 50);
+    clustering.slideTo(60);
+    Assert.assertEquals(2, clustering.getClusters().size());
+    Assert.assertEquals(3, clustering.getReclusteredQueriesCount());
+
+    clustering.slideTo(105);
+    Set<Set<Query>> clusters = clustering.getClusters();
+    Assert.assertEquals(1, clustering.getReclusteredQueriesCount());
+    Set<Set<Query>> expected = new HashSet<>();
+    expected.add(new HashSet<>(Arrays.asList(new Query("c"), new Query("d"))));
+    expected.add(new HashSet<>(Arrays.asList(new Query("e"))));
+    Assert.assertEquals(expected, clusters);
+
+    clustering.slideTo(200);
+    Assert.assertTrue(clustering.getClusters().isEmpty());
+  }
+
+  @Test
+  public void testQueryTime() {
+    Assert.assertEquals(1141196439000L, QueryLogReader.parseQueryTime("2006-03-01 07:00:39"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSlideLongerThanWindow() throws IOException {
+    new WindowedClustering(new Algo(), 10).clusterQueryLog(testLogsDirectory + "aolFormatTest",
+        Integer.MAX_VALUE, 20, (windowStart, windowEnd, clusters) -> {
+        });
+  }
+
+  private static Set<Query> readWindow(String logFile, long windowStart, long windowEnd)
+      throws IOException {
+    Map<String, Query> queries = new HashMap<>();
+    new QueryLogReader().readTimedLinks(logFile, Integer.MAX_VALUE, (query, document, time) -> {
+      if (time >= windowStart && time < windowEnd) {
+        queries.computeIfAbsent(query, Query::new).addRelatedDocument(new Document(document));
+      }
+    });
+    return new HashSet<>(queries.values());
+  }
+}